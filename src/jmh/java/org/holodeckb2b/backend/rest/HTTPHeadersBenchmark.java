@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.holodeckb2b.common.messagemodel.EbmsError;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.interfaces.general.IPartyId;
+import org.holodeckb2b.interfaces.general.IProperty;
+import org.holodeckb2b.interfaces.general.IService;
+import org.holodeckb2b.interfaces.messagemodel.IEbmsError;
+import org.holodeckb2b.interfaces.messagemodel.IEbmsError.Severity;
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the hot operations of {@link HTTPHeaders}, which are executed for every submitted and delivered message.
+ * Each benchmark is run with a <i>realistic</i> set of headers, as sent by a typical back-end, and an <i>adversarial</i>
+ * one with many headers, long values and bracket runs that a misbehaving or malicious client could send. Run with the
+ * <code>benchmark</code> profile, which also enables the GC profiler to report the allocation rate per operation.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HTTPHeadersBenchmark {
+
+	/**
+	 * The names of the headers looked up by the operations, in the case in which they are normally used
+	 */
+	private static final String[] LOOKUPS = { HTTPHeaders.PMODE_ID, HTTPHeaders.MESSAGE_ID, HTTPHeaders.REF_TO_MESSAGE_ID,
+											  HTTPHeaders.CONVERSATION_ID, HTTPHeaders.SENDER_PARTY_ID,
+											  HTTPHeaders.RECEIVER_PARTY_ID, HTTPHeaders.SERVICE, HTTPHeaders.ACTION,
+											  HTTPHeaders.MESSAGE_PROPS, HTTPHeaders.MIME_TYPE, HTTPHeaders.CONTENT_ID };
+
+	@Param({ "realistic", "adversarial" })
+	public String input;
+
+	/**
+	 * The headers as received in a request
+	 */
+	private Map<String, String>	received;
+	/**
+	 * The same headers with lower cased names, as used before header names were handled case insensitively
+	 */
+	private HashMap<String, String> lowerCased;
+	/**
+	 * The parsed headers
+	 */
+	private HTTPHeaders			headers;
+	/**
+	 * The properties to format
+	 */
+	private Collection<IProperty> properties;
+	/**
+	 * The errors to format
+	 */
+	private Collection<IEbmsError> errors;
+	/**
+	 * The headers to which the formatted values are written
+	 */
+	private HTTPHeaders			target;
+
+	@Setup(Level.Trial)
+	public void setup() throws MessageSubmitException {
+		final boolean adversarial = "adversarial".equals(input);
+		received = new LinkedHashMap<>();
+		received.put("Host", "localhost:8080");
+		received.put("User-Agent", "Apache-HttpClient/4.5.14 (Java/11.0.22)");
+		received.put("Accept", "*/*");
+		received.put("Content-Length", "15234");
+		received.put("content-type", "application/octet-stream");
+		received.put("x-holodeckb2b-pmodeid", "pm-push-signed-receipt");
+		received.put("X-HolodeckB2B-MessageId", "0f3c4a9e-6c1b-4e3f-9d7e-2b8a1c5d4e6f@backend.example.com");
+		received.put("X-HOLODECKB2B-CONVERSATIONID", "order-2019-0042");
+		received.put("X-HolodeckB2B-Service", "[urn:example:services]OrderProcessing");
+		received.put("X-HolodeckB2B-Action", "SubmitOrder");
+		received.put("Content-ID", "order-xml");
+		final StringBuilder props = new StringBuilder();
+		final StringBuilder partyId = new StringBuilder();
+		if (!adversarial) {
+			props.append("originalSender=[urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088]5798000000001,")
+				 .append("finalRecipient=[urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088]5798000000002, ")
+				 .append("trackingId = TRK-123456, priority=high, env=[test]acceptance");
+			partyId.append("[urn:oasis:names:tc:ebcore:partyid-type:unregistered]PartyA");
+		} else {
+			for (int i = 0; i < 200; i++)
+				received.put("X-Custom-Header-" + i, "value of custom header number " + i);
+			for (int i = 0; i < 500; i++)
+				props.append(i > 0 ? " ,\t" : "").append("p").append(i).append(" =  [[[[type").append(i)
+					 .append("]]]]]value=").append(i);
+			for (int i = 0; i < 1024; i++)
+				partyId.append('[');
+			partyId.append("]PartyA");
+		}
+		received.put("X-HolodeckB2B-MessageProperties", props.toString());
+		received.put("X-HolodeckB2B-SenderId", partyId.toString());
+		received.put("X-HolodeckB2B-ReceiverId", "PartyB");
+
+		lowerCased = new HashMap<>();
+		received.forEach((n, v) -> lowerCased.put(n.toLowerCase(), v));
+		headers = new HTTPHeaders(received);
+		properties = headers.getProperties(HTTPHeaders.MESSAGE_PROPS);
+		if (properties.isEmpty())
+			properties.add(new Property("p", "v"));
+
+		errors = new ArrayList<>();
+		final int errorCount = adversarial ? 100 : 2;
+		for (int i = 0; i < errorCount; i++) {
+			final EbmsError e = new EbmsError();
+			e.setErrorCode("EBMS:" + String.format("%04d", i));
+			e.setSeverity(i % 2 == 0 ? Severity.failure : Severity.warning);
+			e.setErrorDetail(adversarial ? props.substring(0, 256) : "Payload could not be decompressed");
+			errors.add(e);
+		}
+		target = new HTTPHeaders();
+	}
+
+	@Benchmark
+	public HTTPHeaders constructHeaders() {
+		return new HTTPHeaders(received);
+	}
+
+	@Benchmark
+	public void lookupHeaders(final Blackhole bh) {
+		for (String name : LOOKUPS)
+			bh.consume(headers.getHeader(name));
+	}
+
+	/**
+	 * Looks up the same headers in a map with lower cased names, which is how the headers were handled before, to
+	 * compare the cost and allocation rate with {@link #lookupHeaders(Blackhole)}.
+	 */
+	@Benchmark
+	public void lookupLowerCasedBaseline(final Blackhole bh) {
+		for (String name : LOOKUPS)
+			bh.consume(lowerCased.get(name.toLowerCase()));
+	}
+
+	@Benchmark
+	public Collection<IProperty> getProperties() throws MessageSubmitException {
+		return headers.getProperties(HTTPHeaders.MESSAGE_PROPS);
+	}
+
+	@Benchmark
+	public HTTPHeaders setProperties() {
+		target.setProperties(HTTPHeaders.MESSAGE_PROPS, properties);
+		return target;
+	}
+
+	@Benchmark
+	public IPartyId getPartyId() throws MessageSubmitException {
+		return headers.getPartydId(HTTPHeaders.SENDER_PARTY_ID);
+	}
+
+	@Benchmark
+	public IService getService() throws MessageSubmitException {
+		return headers.getService();
+	}
+
+	@Benchmark
+	public HTTPHeaders setErrorMessage() {
+		target.setErrorMessage(errors);
+		return target;
+	}
+}
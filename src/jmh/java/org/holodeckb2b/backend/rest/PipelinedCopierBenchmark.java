@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.holodeckb2b.commons.testing.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the copy of payload data by the {@link PipelinedCopier} against the plain single threaded copy of {@link
+ * PayloadUtils#copy(InputStream, OutputStream)}, which is what the delivery used before. The payload data is read from
+ * a file that contains one of the test payloads repeated the given number of times, so larger payloads are copied with
+ * the same content. To show the effect of overlapping the read and write, both the source and sink can be throttled to
+ * a given bandwidth, simulating a slow disk and network connection. Without throttling the results show the overhead
+ * of the hand over between the reader and writer thread.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelinedCopierBenchmark {
+
+	@Param({ "logo.png", "random.bin" })
+	public String payload;
+
+	@Param({ "1", "64" })
+	public int scale;
+
+	/**
+	 * The bandwidth in MB/s of both the source and sink, 0 for no throttling
+	 */
+	@Param({ "0", "100" })
+	public int bandwidth;
+
+	/**
+	 * Throttles the data passing through a stream to the configured bandwidth. Each read or write takes the time needed
+	 * to transfer its data from the moment it is called, so like a real disk or connection the stream does not build up
+	 * credit while it is idle. As parking a thread is not accurate for short waits, the last part is spun.
+	 */
+	static final class Throttle {
+		private final int  bandwidth;
+
+		Throttle(final int bandwidth) {
+			this.bandwidth = bandwidth;
+		}
+
+		void pass(final int n) {
+			if (bandwidth <= 0 || n <= 0)
+				return;
+			// With the bandwidth in MB/s, a byte takes 1000/bandwidth ns
+			final long due = System.nanoTime() + (long) n * 1000 / bandwidth;
+			long wait;
+			while ((wait = due - System.nanoTime()) > 0)
+				if (wait > 100_000)
+					LockSupport.parkNanos(wait - 50_000);
+				else
+					Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Input stream that is throttled to the configured bandwidth
+	 */
+	static final class ThrottledInputStream extends FilterInputStream {
+		private final Throttle throttle;
+
+		ThrottledInputStream(final InputStream in, final int bandwidth) {
+			super(in);
+			this.throttle = new Throttle(bandwidth);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0)
+				throttle.pass(1);
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			throttle.pass(n);
+			return n;
+		}
+	}
+
+	/**
+	 * Output stream that discards the data at the configured bandwidth
+	 */
+	static final class ThrottledSink extends OutputStream {
+		private final Throttle throttle;
+
+		ThrottledSink(final int bandwidth) {
+			this.throttle = new Throttle(bandwidth);
+		}
+
+		@Override
+		public void write(final int b) {
+			throttle.pass(1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			throttle.pass(len);
+		}
+	}
+
+	/**
+	 * The file with the scaled payload data
+	 */
+	private Path	 source;
+	/**
+	 * The size of the scaled payload data
+	 */
+	private long	 size;
+
+	@Setup(Level.Trial)
+	public void createSource() throws IOException {
+		final byte[] data = Files.readAllBytes(TestUtils.getTestResource("payloads/" + payload));
+		source = Files.createTempFile("hb2b-copy-", ".bin");
+		try (OutputStream out = Files.newOutputStream(source)) {
+			for (int i = 0; i < scale; i++)
+				out.write(data);
+		}
+		size = (long) data.length * scale;
+	}
+
+	@TearDown(Level.Trial)
+	public void removeSource() throws IOException {
+		Files.deleteIfExists(source);
+	}
+
+	@Benchmark
+	public long plainCopy() throws IOException {
+		try (InputStream in = new ThrottledInputStream(new FileInputStream(source.toFile()), bandwidth)) {
+			return checkSize(PayloadUtils.copy(in, new ThrottledSink(bandwidth)));
+		}
+	}
+
+	@Benchmark
+	public long pipelinedCopy() throws IOException {
+		try (InputStream in = new ThrottledInputStream(new FileInputStream(source.toFile()), bandwidth)) {
+			return checkSize(PipelinedCopier.copy(in, new ThrottledSink(bandwidth)));
+		}
+	}
+
+	private long checkSize(final long copied) {
+		if (copied != size)
+			throw new IllegalStateException("Copied " + copied + " of " + size + " bytes");
+		return copied;
+	}
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.common.axis2.NOPMessageBuilder;
+import org.holodeckb2b.common.messagemodel.PartyId;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.common.messagemodel.Service;
+import org.holodeckb2b.common.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.commons.util.Utils;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.general.IProperty;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks the complete processing of a submission by the {@link SubmitOperation}, from the HTTP headers and entity
+ * body as provided by Axis2 to the hand over of the message unit to the Holodeck B2B Core. The Core is replaced by a
+ * stub submitter that only reads the payload data, so the results show how many submissions the back-end integration
+ * can handle before the Core becomes the bottleneck. The benchmark is run for different payload sizes and with either
+ * the minimal set of headers or all headers that can be used to specify the meta-data of a message.
+ * <p>Both the throughput and the distribution of the latency, including its percentiles, are measured. When run with
+ * the <code>benchmark</code> profile the GC profiler also reports the bytes allocated per submission. The number of
+ * threads can be set using the JMH <code>-t</code> option, or the {@link #main(String[])} method can be used to run
+ * the benchmark for an increasing number of threads, i.e. 1, 2, 4, ... up to the given maximum.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SubmitOperationBenchmark {
+
+	@Param({ "1024", "65536", "1048576" })
+	public int payloadSize;
+
+	@Param({ "minimal", "full" })
+	public String headerSet;
+
+	/**
+	 * Stub of the Core's message submitter that reads the payload data of the submitted message, as the Core would do
+	 * when storing it, and counts the submissions.
+	 */
+	static final class StubSubmitter implements IMessageSubmitter {
+		final LongAdder submitted = new LongAdder();
+
+		@Override
+		public String submitMessage(final IMessageUnit messageUnit) throws MessageSubmitException {
+			if (messageUnit instanceof IUserMessage)
+				for (IPayload p : ((IUserMessage) messageUnit).getPayloads())
+					try (InputStream content = p.getContent()) {
+						if (content != null)
+							PayloadUtils.copy(content, OutputStream.nullOutputStream());
+					} catch (IOException readFailure) {
+						throw new MessageSubmitException("Could not read payload", readFailure);
+					}
+			submitted.increment();
+			return messageUnit.getMessageId();
+		}
+	}
+
+	/**
+	 * The operation under test, shared by all threads as it is in Axis2
+	 */
+	private SubmitOperation		operation;
+	/**
+	 * The stub submitter
+	 */
+	private StubSubmitter		submitter;
+	/**
+	 * The headers of the submission, without the message id which is unique per submission
+	 */
+	private Map<String, String>	headers;
+	/**
+	 * The payload data
+	 */
+	private byte[]				payload;
+	/**
+	 * Counter used to create unique message ids
+	 */
+	private final AtomicLong	msgIdSeq = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		submitter = new StubSubmitter();
+		HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore() {
+			@Override
+			public IMessageSubmitter getMessageSubmitter() {
+				return submitter;
+			}
+		});
+		operation = new SubmitOperation();
+
+		payload = new byte[payloadSize];
+		new Random(payloadSize).nextBytes(payload);
+
+		final HTTPHeaders hdrs = new HTTPHeaders();
+		hdrs.setHeader(HTTPHeaders.PMODE_ID, "pm-benchmark");
+		hdrs.setHeader(HTTPHeaders.MIME_TYPE, "application/octet-stream");
+		hdrs.setHeader(HTTPHeaders.CONTENT_LENGTH, Integer.toString(payloadSize));
+		if ("full".equals(headerSet)) {
+			hdrs.setHeader(HTTPHeaders.TIMESTAMP, Utils.toXMLDateTime(new Date()));
+			hdrs.setPartyId(HTTPHeaders.SENDER_PARTY_ID,
+							new PartyId("5798000000001", "urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088"));
+			hdrs.setHeader(HTTPHeaders.SENDER_ROLE,
+							"http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/initiator");
+			hdrs.setPartyId(HTTPHeaders.RECEIVER_PARTY_ID,
+							new PartyId("5798000000002", "urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088"));
+			hdrs.setHeader(HTTPHeaders.RECEIVER_ROLE,
+							"http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/responder");
+			hdrs.setHeader(HTTPHeaders.CONVERSATION_ID, "order-2019-0042");
+			hdrs.setServiceHeader(new Service("OrderProcessing", "urn:example:services"));
+			hdrs.setHeader(HTTPHeaders.ACTION, "SubmitOrder");
+			hdrs.setProperties(HTTPHeaders.MESSAGE_PROPS, Arrays.asList(new IProperty[] {
+				new Property("originalSender", "5798000000001", "urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088"),
+				new Property("finalRecipient", "5798000000002", "urn:oasis:names:tc:ebcore:partyid-type:iso6523:0088"),
+				new Property("trackingId", "TRK-123456") }));
+			hdrs.setHeader(HTTPHeaders.CONTAINMENT, "ATTACHMENT");
+			hdrs.setHeader(HTTPHeaders.CONTENT_ID, "order-data");
+			hdrs.setHeader(HTTPHeaders.SCHEMA_NS, "urn:example:schemas:order");
+			hdrs.setHeader(HTTPHeaders.SCHEMA_VERSION, "2.1");
+			hdrs.setHeader(HTTPHeaders.SCHEMA_LOCATION, "https://schemas.example.com/order-2.1.xsd");
+			hdrs.setProperties(HTTPHeaders.PART_PROPS, Arrays.asList(new IProperty[] {
+				new Property("documentType", "Order", "urn:example:doctypes"), new Property("encoding", "binary") }));
+		}
+		headers = hdrs.getAllHeaders();
+	}
+
+	@TearDown(Level.Trial)
+	public void checkSubmissions() {
+		if (submitter.submitted.sum() == 0)
+			throw new IllegalStateException("No messages were submitted");
+	}
+
+	@Benchmark
+	public MessageContext submit() throws AxisFault {
+		final HTTPHeaders request = new HTTPHeaders(headers);
+		request.setHeader(HTTPHeaders.MESSAGE_ID, "bench-" + msgIdSeq.incrementAndGet() + "@rest-backend");
+		final MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, request.getAllHeaders());
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(new ByteArrayInputStream(payload),
+																				"application/octet-stream", msgCtx));
+		operation.invokeBusinessLogic(msgCtx);
+		return msgCtx;
+	}
+
+	/**
+	 * Runs the benchmark with 1, 2, 4, ... threads up to the given maximum, which defaults to the number of available
+	 * processors. The results of each run are written to <code>target/jmh-submit-<i>threads</i>.json</code>.
+	 *
+	 * @param args	Optionally the maximum number of threads
+	 * @throws RunnerException	When the benchmark could not be run
+	 */
+	public static void main(final String[] args) throws RunnerException {
+		final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+			final Options opts = new OptionsBuilder().include(SubmitOperationBenchmark.class.getSimpleName())
+													 .threads(threads)
+													 .addProfiler(GCProfiler.class)
+													 .resultFormat(ResultFormatType.JSON)
+													 .result(Paths.get("target", "jmh-submit-" + threads + ".json")
+															 	  .toString())
+													 .build();
+			new Runner(opts).run();
+			if (threads >= maxThreads)
+				break;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.holodeckb2b.commons.util.Utils;
+
+/**
+ * Is a bounded pool of reusable buffers used for copying payload data, so no new buffers have to be allocated for each
+ * submission or delivery. There are two kinds of buffers: byte arrays for copying between streams and {@link
+ * ByteBuffer}s for channel I/O, which can optionally be direct buffers. All buffers have the same size.
+ * <p>The number of buffers of each kind kept in the pool is bounded and all of them are reported by {@link
+ * #getPooledBuffers()}. When the pool is full released buffers are left to the garbage collector. A buffer that is
+ * not released, for example because the copy failed, is also just garbage collected.
+ * <p>The extension uses one shared instance, which can be configured using {@link #configure(int, int, boolean)}.
+ * Both the submit operation and the delivery method configure it from their settings when they are initialised and
+ * register it in JMX, so it is available independently of which of them is used first.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class BufferPool implements BufferPoolMXBean {
+	private static final Logger log = LogManager.getLogger(BufferPool.class);
+
+	/**
+	 * The name under which the shared instance is registered in JMX
+	 */
+	static final String MBEAN_NAME = "org.holodeckb2b.backend.rest:type=BufferPool";
+	/**
+	 * The default size of the buffers
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * The default maximum number of buffers of each kind in the pool
+	 */
+	public static final int DEFAULT_MAX_POOLED = 64;
+
+	/**
+	 * The shared instance
+	 */
+	private static volatile BufferPool instance = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED, true);
+	/**
+	 * Indicates whether the shared instance should be registered in JMX
+	 */
+	private static boolean registered = false;
+
+	/**
+	 * Is the pool of one kind of buffer
+	 */
+	private final class Pool<T> {
+		final ArrayBlockingQueue<T>		pooled;
+		final Supplier<T>				allocator;
+
+		Pool(final int maxPooled, final Supplier<T> allocator) {
+			this.pooled = new ArrayBlockingQueue<>(maxPooled);
+			this.allocator = allocator;
+		}
+
+		T acquire() {
+			final T buffer = pooled.poll();
+			if (buffer != null) {
+				hits.increment();
+				return buffer;
+			}
+			misses.increment();
+			return allocator.get();
+		}
+
+		void release(final T buffer) {
+			pooled.offer(buffer);
+		}
+	}
+
+	/**
+	 * The size of the buffers
+	 */
+	private final int			bufferSize;
+	/**
+	 * The maximum number of buffers of each kind kept in the pool
+	 */
+	private final int			maxPooled;
+	/**
+	 * Indicates whether direct buffers are used for channel I/O
+	 */
+	private final boolean		direct;
+	/**
+	 * The pool of byte arrays
+	 */
+	private final Pool<byte[]>		arrays;
+	/**
+	 * The pool of byte buffers
+	 */
+	private final Pool<ByteBuffer>	byteBuffers;
+	/**
+	 * Number of requests served from the pool
+	 */
+	private final LongAdder		hits = new LongAdder();
+	/**
+	 * Number of requests for which a new buffer was allocated
+	 */
+	private final LongAdder		misses = new LongAdder();
+
+	/**
+	 * Creates a new pool.
+	 *
+	 * @param bufferSize	The size of the buffers in bytes
+	 * @param maxPooled		The maximum number of buffers of each kind kept in the pool
+	 * @param direct		Indicates whether direct buffers should be used for channel I/O
+	 * @throws IllegalArgumentException When the buffer size is not positive
+	 */
+	public BufferPool(final int bufferSize, final int maxPooled, final boolean direct) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive");
+		this.bufferSize = bufferSize;
+		this.maxPooled = Math.max(1, maxPooled);
+		this.direct = direct;
+		this.arrays = new Pool<>(this.maxPooled, () -> new byte[bufferSize]);
+		this.byteBuffers = new Pool<>(this.maxPooled, () -> direct ? ByteBuffer.allocateDirect(bufferSize)
+															  : ByteBuffer.allocate(bufferSize));
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return	The buffer pool used by the extension
+	 */
+	public static BufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared instance with a new pool using the given configuration. Buffers of the old pool that are
+	 * still in use are not returned to the new pool. When the shared instance is registered in JMX the registration is
+	 * updated to the new pool.
+	 *
+	 * @param bufferSize	The size of the buffers in bytes
+	 * @param maxPooled		The maximum number of buffers of each kind kept in the pool
+	 * @param direct		Indicates whether direct buffers should be used for channel I/O
+	 * @return	The new shared instance
+	 */
+	public static synchronized BufferPool configure(final int bufferSize, final int maxPooled, final boolean direct) {
+		if (instance.bufferSize != bufferSize || instance.maxPooled != Math.max(1, maxPooled)
+			|| instance.direct != direct) {
+			instance = new BufferPool(bufferSize, maxPooled, direct);
+			if (registered)
+				registerMBean();
+		}
+		return instance;
+	}
+
+	/**
+	 * Configures the shared instance using the given settings. When none of the settings is specified the current
+	 * instance is kept, otherwise the settings that are not specified get their default value.
+	 *
+	 * @param bufferSize	The size of the buffers in bytes, <code>null</code> if not specified
+	 * @param maxPooled		The maximum number of buffers of each kind kept in the pool, <code>null</code> if not
+	 * 						specified
+	 * @param direct		Indicates whether direct buffers should be used for channel I/O, <code>null</code> if not
+	 * 						specified
+	 * @return	The shared instance
+	 * @throws IllegalArgumentException When the buffer size or maximum number of buffers is not a number, or the buffer
+	 * 									size is not positive
+	 */
+	static synchronized BufferPool configure(final String bufferSize, final String maxPooled, final String direct) {
+		if (Utils.isNullOrEmpty(bufferSize) && Utils.isNullOrEmpty(maxPooled) && Utils.isNullOrEmpty(direct))
+			return instance;
+		return configure(Utils.isNullOrEmpty(bufferSize) ? DEFAULT_BUFFER_SIZE : Integer.parseInt(bufferSize.trim()),
+						 Utils.isNullOrEmpty(maxPooled) ? DEFAULT_MAX_POOLED : Integer.parseInt(maxPooled.trim()),
+						 Utils.isNullOrEmpty(direct) || Utils.isTrue(direct));
+	}
+
+	/**
+	 * Registers the shared instance in JMX, replacing the registration of an earlier instance.
+	 */
+	static synchronized void registerMBean() {
+		registered = true;
+		try {
+			final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objName = new ObjectName(MBEAN_NAME);
+			if (mbs.isRegistered(objName))
+				mbs.unregisterMBean(objName);
+			mbs.registerMBean(instance, objName);
+		} catch (JMException jmxError) {
+			log.warn("Could not register {} in JMX : {}", MBEAN_NAME, jmxError.getMessage());
+		}
+	}
+
+	/**
+	 * Gets a byte array for copying between streams. The array should be returned using {@link #release(byte[])}.
+	 *
+	 * @return	A byte array of the configured buffer size
+	 */
+	public byte[] acquireArray() {
+		return arrays.acquire();
+	}
+
+	/**
+	 * Returns a byte array to the pool. Arrays that were not acquired from this pool are ignored.
+	 *
+	 * @param buffer	The array to return
+	 */
+	public void release(final byte[] buffer) {
+		if (buffer != null && buffer.length == bufferSize)
+			arrays.release(buffer);
+	}
+
+	/**
+	 * Gets a cleared byte buffer for channel I/O, which is direct if the pool is configured to use direct buffers. The
+	 * buffer should be returned using {@link #release(ByteBuffer)}.
+	 *
+	 * @return	A byte buffer with a capacity of the configured buffer size
+	 */
+	public ByteBuffer acquireBuffer() {
+		return byteBuffers.acquire();
+	}
+
+	/**
+	 * Returns a byte buffer to the pool. Buffers that were not acquired from this pool are ignored.
+	 *
+	 * @param buffer	The buffer to return
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer != null && buffer.capacity() == bufferSize && buffer.isDirect() == direct) {
+			buffer.clear();
+			byteBuffers.release(buffer);
+		}
+	}
+
+	@Override
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	@Override
+	public boolean isDirect() {
+		return direct;
+	}
+
+	@Override
+	public int getPooledBuffers() {
+		return arrays.pooled.size() + byteBuffers.pooled.size();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+/**
+ * Defines the JMX interface of the {@link BufferPool} to expose its configuration and usage.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public interface BufferPoolMXBean {
+
+	/**
+	 * Gets the size of the buffers.
+	 *
+	 * @return	The buffer size in bytes
+	 */
+	int getBufferSize();
+
+	/**
+	 * Indicates whether direct buffers are used for channel I/O.
+	 *
+	 * @return	<code>true</code> if direct buffers are used, <code>false</code> if heap buffers are used
+	 */
+	boolean isDirect();
+
+	/**
+	 * Gets the number of buffers currently available in the pool.
+	 *
+	 * @return	The number of pooled buffers
+	 */
+	int getPooledBuffers();
+
+	/**
+	 * Gets the number of requests for a buffer that were served with a pooled buffer.
+	 *
+	 * @return	The number of hits
+	 */
+	long getHits();
+
+	/**
+	 * Gets the number of requests for a buffer for which a new buffer had to be allocated.
+	 *
+	 * @return	The number of misses
+	 */
+	long getMisses();
+}
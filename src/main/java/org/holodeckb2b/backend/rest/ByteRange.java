@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+/**
+ * Represents a range of bytes of the payload data as used in the HTTP <i>Range</i> and <i>Content-Range</i> headers,
+ * see <a href="https://www.rfc-editor.org/rfc/rfc9110#section-14">RFC9110 section 14</a>. Only single ranges are
+ * supported, a request for multiple ranges is handled as a request for the complete content.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class ByteRange {
+	/**
+	 * Represents a requested range that cannot be satisfied as it is outside of the available content
+	 */
+	public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+	/**
+	 * The position of the first byte of the range
+	 */
+	private final long start;
+	/**
+	 * The position of the last byte of the range (inclusive)
+	 */
+	private final long end;
+
+	/**
+	 * Creates a new range.
+	 *
+	 * @param start		The position of the first byte of the range
+	 * @param end		The position of the last byte of the range (inclusive)
+	 */
+	public ByteRange(final long start, final long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parses the value of a <i>Range</i> header.
+	 *
+	 * @param rangeHdr	The value of the <i>Range</i> header, may be <code>null</code>
+	 * @param size		The total size of the content
+	 * @return	The requested range, {@link #UNSATISFIABLE} if the range cannot be satisfied, or <code>null</code> if
+	 * 			the complete content should be returned because no, multiple or an invalid range was requested
+	 */
+	public static ByteRange parse(final String rangeHdr, final long size) {
+		if (rangeHdr == null)
+			return null;
+		final String spec = rangeHdr.trim();
+		if (!spec.regionMatches(true, 0, "bytes=", 0, 6) || spec.indexOf(',') >= 0)
+			return null;
+		final int sep = spec.indexOf('-', 6);
+		if (sep < 0)
+			return null;
+		try {
+			final String first = spec.substring(6, sep).trim();
+			final String last = spec.substring(sep + 1).trim();
+			if (first.isEmpty()) {
+				// Suffix range, i.e. the last n bytes
+				final long n = Long.parseLong(last);
+				if (n < 0)
+					return null;
+				return n == 0 || size == 0 ? UNSATISFIABLE : new ByteRange(Math.max(0, size - n), size - 1);
+			}
+			final long start = Long.parseLong(first);
+			final long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+			if (start < 0 || end < start)
+				return null;
+			return start >= size ? UNSATISFIABLE : new ByteRange(start, Math.min(end, size - 1));
+		} catch (NumberFormatException invalid) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the position of the first byte of the range
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * @return the position of the last byte of the range (inclusive)
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the number of bytes in the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Gets the value for the <i>Content-Range</i> header describing this range.
+	 *
+	 * @param size	The total size of the content
+	 * @return		The <i>Content-Range</i> header value
+	 */
+	public String toContentRange(final long size) {
+		return this == UNSATISFIABLE ? "bytes */" + size : "bytes " + start + "-" + end + "/" + size;
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.holodeckb2b.commons.util.Utils;
+
+/**
+ * Computes and verifies the digest of a received entity body while it is streamed, so checking the integrity of the
+ * payload data does not require an additional read of the data. The digest of a received entity body can be provided in either
+ * the <i>Content-Digest</i> header as specified in <a href="https://www.rfc-editor.org/rfc/rfc9530">RFC 9530</a>,
+ * formatted as <code><i>algorithm</i> "=:" <i>base64 digest</i> ":"</code>, or the older <i>Digest</i> header as
+ * specified in <a href="https://www.rfc-editor.org/rfc/rfc3230">RFC 3230</a>, formatted as <code><i>algorithm</i> "="
+ * <i>base64 digest</i></code>. Both headers may contain multiple digests separated by a comma of which the strongest
+ * supported one is used. The supported algorithms are <i>sha-512</i> and <i>sha-256</i>, digests calculated with other
+ * algorithms are ignored.
+ * <p>Note that, in line with both RFCs, the digest is calculated over the entity body as transferred, i.e. with the
+ * content coding applied. As the Axis2 HTTP transport already decodes a <i>gzip</i> encoded request, see {@link
+ * ContentEncoding}, the transferred bytes are not available and digests of encoded submissions are not supported.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class ContentDigest {
+	private static final Logger log = LogManager.getLogger(ContentDigest.class);
+
+	/**
+	 * The supported algorithms, in order of preference, mapped to their JCA names
+	 */
+	private static final Map<String, String> ALGORITHMS = new LinkedHashMap<>();
+	/**
+	 * The name of the SHA-256 algorithm
+	 */
+	static final String SHA_256 = "sha-256";
+	static {
+		ALGORITHMS.put("sha-512", "SHA-512");
+		ALGORITHMS.put(SHA_256, "SHA-256");
+	}
+
+	/**
+	 * Is thrown when the digest of the received entity body does not match the provided digest
+	 */
+	static final class DigestMismatchException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		DigestMismatchException(final String algorithm) {
+			super("Entity body does not match the " + algorithm + " digest");
+		}
+	}
+
+	/**
+	 * The algorithm of the expected digest
+	 */
+	private final String		algorithm;
+	/**
+	 * The expected digest value
+	 */
+	private final byte[]		expected;
+	/**
+	 * The digest calculated over the received entity body
+	 */
+	private final MessageDigest	digest;
+
+	private ContentDigest(final String algorithm, final byte[] expected) {
+		this.algorithm = algorithm;
+		this.expected = expected;
+		this.digest = newDigest(algorithm);
+	}
+
+	/**
+	 * Gets the expected digest of the entity body from the <i>Content-Digest</i> or <i>Digest</i> header. When both are
+	 * provided the <i>Content-Digest</i> header is used. When the header only contains digests calculated with
+	 * unsupported algorithms the entity body cannot be verified and the header is ignored, as allowed by the RFCs.
+	 *
+	 * @param headers	The HTTP headers of the request
+	 * @return	The expected digest, <code>null</code> if no digest with a supported algorithm is provided
+	 * @throws IllegalArgumentException	When the digest calculated with a supported algorithm is not well formed
+	 */
+	static ContentDigest fromHeaders(final HTTPHeaders headers) {
+		final String contentDigest = headers.getHeader(HTTPHeaders.CONTENT_DIGEST);
+		final boolean sfFormat = !Utils.isNullOrEmpty(contentDigest);
+		final String value = sfFormat ? contentDigest : headers.getHeader(HTTPHeaders.DIGEST);
+		if (Utils.isNullOrEmpty(value))
+			return null;
+
+		final Map<String, String> digests = new LinkedHashMap<>();
+		for (String d : value.split(",")) {
+			final int sep = d.indexOf('=');
+			if (sep > 0)
+				digests.put(d.substring(0, sep).trim().toLowerCase(), d.substring(sep + 1).trim());
+		}
+		for (String alg : ALGORITHMS.keySet()) {
+			String b64 = digests.get(alg);
+			if (b64 == null)
+				continue;
+			if (sfFormat) {
+				if (b64.length() < 2 || b64.charAt(0) != ':' || b64.charAt(b64.length() - 1) != ':')
+					throw new IllegalArgumentException("Invalid Content-Digest value");
+				b64 = b64.substring(1, b64.length() - 1);
+			}
+			try {
+				return new ContentDigest(alg, Base64.getDecoder().decode(b64));
+			} catch (IllegalArgumentException invalidBase64) {
+				throw new IllegalArgumentException("Invalid " + alg + " digest value");
+			}
+		}
+		log.warn("Ignoring {} header as it does not contain a digest calculated with a supported algorithm: {}",
+				 sfFormat ? "Content-Digest" : "Digest", digests.keySet());
+		return null;
+	}
+
+	/**
+	 * Gets the expected digest value if it was calculated using the given algorithm.
+	 *
+	 * @param algorithm	The name of the algorithm as used in the <i>Content-Digest</i> header
+	 * @return	The expected digest value, <code>null</code> if it was calculated using another algorithm
+	 */
+	byte[] getValue(final String algorithm) {
+		return this.algorithm.equalsIgnoreCase(algorithm) ? expected : null;
+	}
+
+	/**
+	 * Returns a stream that calculates the digest of the data read from the given stream. Closing the returned stream
+	 * does not close the given stream.
+	 *
+	 * @param in	The stream containing the entity body as transferred
+	 * @return		The stream to read the entity body from
+	 */
+	InputStream digest(final InputStream in) {
+		return new DigestInputStream(new FilterInputStream(in) {
+			@Override
+			public void close() {
+			}
+		}, digest);
+	}
+
+	/**
+	 * Returns a stream that verifies the digest when the end of the given stream is reached. As the given stream can
+	 * be decoded from the stream returned by {@link #digest(InputStream)}, which may not have been read completely
+	 * at that point, the remainder of the digested stream is read before the digest is checked.
+	 *
+	 * @param in		The stream containing the (decoded) entity body
+	 * @param digested	The stream returned by {@link #digest(InputStream)}
+	 * @return			The stream to read the entity body from
+	 */
+	InputStream verifyAtEnd(final InputStream in, final InputStream digested) {
+		return new FilterInputStream(in) {
+			private boolean verified = false;
+
+			@Override
+			public int read() throws IOException {
+				final int b = super.read();
+				if (b < 0)
+					verify();
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				final int n = super.read(b, off, len);
+				if (n < 0)
+					verify();
+				return n;
+			}
+
+			private void verify() throws IOException {
+				if (verified)
+					return;
+				verified = true;
+				PayloadUtils.copy(digested, OutputStream.nullOutputStream());
+				if (!MessageDigest.isEqual(expected, digest.digest()))
+					throw new DigestMismatchException(algorithm);
+			}
+		};
+	}
+
+	/**
+	 * Creates a new message digest for the given algorithm.
+	 *
+	 * @param algorithm	The name of the algorithm as used in the <i>Content-Digest</i> header
+	 * @return			The message digest
+	 */
+	private static MessageDigest newDigest(final String algorithm) {
+		final String jcaName = ALGORITHMS.get(algorithm);
+		if (jcaName == null)
+			throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+		try {
+			return MessageDigest.getInstance(jcaName);
+		} catch (NoSuchAlgorithmException unsupported) {
+			throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.holodeckb2b.commons.util.Utils;
+
+/**
+ * Contains helper methods for the <i>content codings</i> that can be applied to the entity body, as indicated by the
+ * <i>Content-Encoding</i> header. Only the <i>gzip</i> coding is supported, which is streamed so the entity body is
+ * never completely held in memory.
+ * <p>Requests are not decoded by the extension itself as the Axis2 HTTP transport already decodes a request with
+ * <i>Content-Encoding: gzip</i> before the message is built, see <code>HTTPTransportUtils.handleGZip</code>, so the
+ * request stream always contains the decoded entity body. Decoding it again would corrupt payloads that are gzip data
+ * themselves.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class ContentEncoding {
+	/**
+	 * The <i>gzip</i> content coding
+	 */
+	static final String GZIP = "gzip";
+	/**
+	 * The <i>identity</i> content coding, i.e. no encoding
+	 */
+	static final String IDENTITY = "identity";
+
+	/**
+	 * The buffer size used by the encoder and decoder
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private ContentEncoding() {}
+
+	/**
+	 * Checks whether the given content coding is supported.
+	 *
+	 * @param encoding	The value of the <i>Content-Encoding</i> header, may be <code>null</code>
+	 * @return	<code>true</code> if the content coding can be decoded, <code>false</code> otherwise
+	 */
+	static boolean isSupported(final String encoding) {
+		return isIdentity(encoding) || isGzip(encoding);
+	}
+
+	/**
+	 * Checks whether the given content coding indicates that the entity body is not encoded.
+	 *
+	 * @param encoding	The value of the <i>Content-Encoding</i> header, may be <code>null</code>
+	 * @return	<code>true</code> if the entity body is not encoded, <code>false</code> otherwise
+	 */
+	static boolean isIdentity(final String encoding) {
+		return Utils.isNullOrEmpty(encoding) || IDENTITY.equalsIgnoreCase(encoding.trim());
+	}
+
+	/**
+	 * Checks whether a request with the given content coding is decoded by the Axis2 HTTP transport, i.e. whether it
+	 * is not encoded or the <i>Content-Encoding</i> header is exactly <i>gzip</i>. Requests using another coding,
+	 * including the <i>x-gzip</i> alias, are not decoded by the transport and cannot be accepted.
+	 *
+	 * @param encoding	The value of the <i>Content-Encoding</i> header of the request, may be <code>null</code>
+	 * @return	<code>true</code> if the request stream contains the decoded entity body, <code>false</code> otherwise
+	 */
+	static boolean isDecodedByTransport(final String encoding) {
+		return isIdentity(encoding) || GZIP.equals(encoding);
+	}
+
+	/**
+	 * Returns a stream that <i>gzip</i> encodes the data written to it before writing it to the given stream. The
+	 * returned stream MUST be closed to complete the encoding, which also closes the given stream.
+	 *
+	 * @param out	The stream to write the encoded entity body to
+	 * @return		The stream to write the entity body to
+	 * @throws IOException	When the gzip header could not be written
+	 */
+	static OutputStream encode(final OutputStream out) throws IOException {
+		return new GZIPOutputStream(out, BUFFER_SIZE);
+	}
+
+	/**
+	 * Checks whether the given content coding is <i>gzip</i>, including the deprecated <i>x-gzip</i> alias.
+	 *
+	 * @param encoding	The value of the <i>Content-Encoding</i> header
+	 * @return	<code>true</code> if the coding is <i>gzip</i>, <code>false</code> otherwise
+	 */
+	private static boolean isGzip(final String encoding) {
+		return encoding != null && (GZIP.equalsIgnoreCase(encoding.trim()) || "x-gzip".equalsIgnoreCase(encoding.trim()));
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Is an output stream that copies the data written to it to multiple streams in parallel, so data that is read once
+ * can be sent to multiple destinations. Each destination is written by its own thread which takes the chunks of data
+ * from a bounded queue. When the queue of a destination is full the writer of this stream waits until there is room,
+ * so the slowest destination determines the speed, but no more than the configured number of chunks is buffered for
+ * each destination.
+ * <p>A destination that fails, or does not accept a chunk within the timeout, is dropped and the data is still copied
+ * to the other destinations. Only when all destinations failed the write operations of this stream fail. After the
+ * stream is closed {@link #getFailure(int)} can be used to check whether the data was copied completely to a
+ * destination.
+ * <p>NOTE: As chunks are shared by the destinations each call of <code>write</code> results in a new chunk. Callers
+ * writing small amounts of data should therefore use a buffered stream.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+class FanOutStream extends OutputStream {
+	private static final Logger log = LogManager.getLogger(FanOutStream.class);
+
+	/**
+	 * The marker used to signal the end of the data to the destination writers
+	 */
+	private static final byte[] EOF = new byte[0];
+
+	/**
+	 * The threads writing to the destinations
+	 */
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "hb2b-rest-fanout-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * The destinations
+	 */
+	private final List<Destination> destinations = new ArrayList<>();
+	/**
+	 * The time (in milliseconds) to wait for a destination to accept a chunk
+	 */
+	private final long	timeout;
+	/**
+	 * Indicates whether the stream is closed
+	 */
+	private boolean		closed = false;
+
+	/**
+	 * Holds the queue, writer and state of a destination
+	 */
+	private static final class Destination {
+		final OutputStream 			  out;
+		final BlockingQueue<byte[]>	  queue;
+		volatile IOException		  failure;
+		Future<?>					  writer;
+
+		Destination(final OutputStream out, final int queueSize) {
+			this.out = out;
+			this.queue = new ArrayBlockingQueue<>(queueSize);
+		}
+
+		/**
+		 * Writes the chunks from the queue to the destination stream until the end marker is taken. The stream is closed
+		 * when all data is written.
+		 */
+		void write() {
+			try {
+				for (byte[] chunk = queue.take(); chunk != EOF; chunk = queue.take())
+					if (failure == null)
+						out.write(chunk);
+				if (failure == null)
+					out.close();
+			} catch (IOException writeFailure) {
+				fail(writeFailure);
+				queue.clear();
+			} catch (InterruptedException interrupted) {
+				fail(new IOException("Interrupted"));
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void fail(final IOException cause) {
+			if (failure == null)
+				failure = cause;
+		}
+	}
+
+	/**
+	 * Creates a new stream that copies the data to the given streams.
+	 *
+	 * @param outs		The streams to copy the data to
+	 * @param queueSize	The maximum number of chunks to buffer for each destination
+	 * @param timeout	The time in milliseconds to wait for a destination to accept a chunk
+	 */
+	FanOutStream(final List<? extends OutputStream> outs, final int queueSize, final long timeout) {
+		this.timeout = timeout;
+		for (OutputStream out : outs) {
+			final Destination d = new Destination(out, queueSize);
+			destinations.add(d);
+			d.writer = WRITERS.submit(d::write);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream is closed");
+		if (len == 0)
+			return;
+		final byte[] chunk = new byte[len];
+		System.arraycopy(b, off, chunk, 0, len);
+		boolean delivered = false;
+		for (Destination d : destinations)
+			delivered |= enqueue(d, chunk);
+		if (!delivered)
+			throw new IOException("All destinations failed", destinations.get(0).failure);
+	}
+
+	/**
+	 * Closes the stream and waits until the data is written to all destinations.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		for (Destination d : destinations)
+			if (!enqueue(d, EOF))
+				d.writer.cancel(true);
+		for (Destination d : destinations)
+			try {
+				d.writer.get();
+			} catch (ExecutionException | CancellationException writerFailed) {
+				d.fail(new IOException("Writer failed", writerFailed.getCause()));
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for destinations");
+			}
+	}
+
+	/**
+	 * Gets the error that occurred writing to the given destination.
+	 *
+	 * @param i		The index of the destination
+	 * @return		The error, <code>null</code> if the data was copied completely
+	 */
+	IOException getFailure(final int i) {
+		return destinations.get(i).failure;
+	}
+
+	/**
+	 * Adds the chunk to the queue of the given destination, waiting at most the configured timeout for room in the
+	 * queue. When the chunk is not accepted in time the destination is dropped.
+	 *
+	 * @param d		The destination
+	 * @param chunk	The chunk
+	 * @return		<code>true</code> if the chunk was added, <code>false</code> if the destination failed
+	 * @throws IOException	When the thread is interrupted
+	 */
+	private boolean enqueue(final Destination d, final byte[] chunk) throws IOException {
+		if (d.failure != null)
+			return false;
+		try {
+			if (d.queue.offer(chunk, timeout, TimeUnit.MILLISECONDS))
+				return true;
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while copying data");
+		}
+		log.warn("Destination did not accept data within {} ms, dropping it", timeout);
+		d.fail(new IOException("Destination did not accept data in time"));
+		d.writer.cancel(true);
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Is a {@link SpanExporter} that writes the spans to a local file, one JSON object per line, and is intended for
+ * testing and diagnosing the tracing set-up. Each span is written as:
+ * <pre>
+ * {"traceId":"…","spanId":"…","parentSpanId":"…","name":"…","startTime":…,"duration":…,"attributes":{"…":"…"}}
+ * </pre>
+ * where the start time is in nanoseconds since the epoch and the duration in nanoseconds.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class FileSpanExporter implements SpanExporter, Closeable {
+	private static final Logger log = LogManager.getLogger(FileSpanExporter.class);
+
+	/**
+	 * The writer to the file
+	 */
+	private final BufferedWriter writer;
+
+	/**
+	 * Creates a new exporter that appends the spans to the given file.
+	 *
+	 * @param file	The file to write the spans to, created if it does not exist
+	 * @throws IOException	When the file cannot be opened
+	 */
+	public FileSpanExporter(final Path file) throws IOException {
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+										 StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public void export(final Span span) {
+		final StringBuilder json = new StringBuilder(256);
+		json.append("{\"traceId\":\"").append(span.getTraceId()).append("\",\"spanId\":\"").append(span.getSpanId())
+			.append('"');
+		if (span.getParentSpanId() != null)
+			json.append(",\"parentSpanId\":\"").append(span.getParentSpanId()).append('"');
+		json.append(",\"name\":");
+		appendString(json, span.getName());
+		json.append(",\"startTime\":").append(span.getStartTime()).append(",\"duration\":").append(span.getDuration())
+			.append(",\"attributes\":{");
+		boolean first = true;
+		for (Map.Entry<String, String> a : span.getAttributes().entrySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			appendString(json, a.getKey());
+			json.append(':');
+			appendString(json, a.getValue());
+		}
+		json.append("}}\n");
+		synchronized (writer) {
+			try {
+				writer.write(json.toString());
+				writer.flush();
+			} catch (IOException writeFailure) {
+				log.warn("Could not write span to file : {}", writeFailure.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (writer) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends the given string as JSON string value.
+	 */
+	private static void appendString(final StringBuilder json, final String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					json.append(String.format("\\u%04x", (int) c));
+				else
+					json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
@@ -18,11 +18,8 @@ package org.holodeckb2b.backend.rest;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.holodeckb2b.common.messagemodel.PartyId;
 import org.holodeckb2b.common.messagemodel.Property;
 import org.holodeckb2b.common.messagemodel.Service;
@@ -47,6 +44,11 @@ public class HTTPHeaders {
 	 * The messageId of the message. Used in all operations.
 	 */
 	public static final String	MESSAGE_ID = "X-HolodeckB2B-MessageId";
+	/**
+	 * Key identifying the submission request, used to detect retried submissions. Only used in the <i>Submit</i>
+	 * operation. Optional, when not provided the messageId is used if specified.
+	 */
+	public static final String	IDEMPOTENCY_KEY = "X-HolodeckB2B-IdempotencyKey";
 	/**
 	 * The time stamp of the message. Used in all operations.
 	 */
@@ -94,6 +96,34 @@ public class HTTPHeaders {
 	 * operations.
 	 */
 	public static final String	MIME_TYPE = "Content-Type";
+	/**
+	 * The size of the payload contained in the entity body. Used in both the <i>Submit</i> and <i>Delivery</i>
+	 * operations.
+	 */
+	public static final String	CONTENT_LENGTH = "Content-Length";
+	/**
+	 * The content coding applied to the entity body. Used in both the <i>Submit</i> and <i>Delivery</i> operations.
+	 */
+	public static final String	CONTENT_ENCODING = "Content-Encoding";
+	/**
+	 * The digest of the entity body as specified in RFC 9530. Used in both the <i>Submit</i> and <i>Delivery</i>
+	 * operations.
+	 */
+	public static final String	CONTENT_DIGEST = "Content-Digest";
+	/**
+	 * The digest of the entity body as specified in RFC 3230. Only used in the <i>Submit</i> operation.
+	 */
+	public static final String	DIGEST = "Digest";
+	/**
+	 * The W3C Trace Context identifying the span the request is part of. Used in the <i>Submit</i>, <i>Delivery</i>
+	 * and <i>Notify</i> operations.
+	 */
+	public static final String	TRACEPARENT = "traceparent";
+	/**
+	 * The vendor specific trace information of the W3C Trace Context. Used in the <i>Submit</i>, <i>Delivery</i> and
+	 * <i>Notify</i> operations.
+	 */
+	public static final String	TRACESTATE = "tracestate";
 	/**
 	 * The way the payload should be contained in the User Message. Used in both the <i>Submit</i> and <i>Delivery</i>
 	 * operations.
@@ -105,9 +135,33 @@ public class HTTPHeaders {
 	 */
 	public static final String CONTENT_ID = "Content-Id";
 	/**
-	 * The URI of the payload - Only used in <i>Submit</i> operation. Optional.
+	 * The URI of the payload - Used in the <i>Submit</i> operation and in the parts of a multipart <i>Delivery</i>.
+	 * Optional.
 	 */
 	public static final String PAYLOAD_URI = "X-HolodeckB2B-Payload-URI";
+	/**
+	 * The absolute path of a local file that contains the payload data - Only used in <i>Submit</i> operation.
+	 * Optional, when specified the entity body is ignored.
+	 */
+	public static final String PAYLOAD_FILE = "X-HolodeckB2B-Payload-File";
+	/**
+	 * The URL from which the payload data can be retrieved - Only used in <i>Delivery</i> operation when the payload
+	 * is delivered by reference.
+	 */
+	public static final String PAYLOAD_URL = "X-HolodeckB2B-Payload-URL";
+	/**
+	 * The identifier of a resumable upload - Only used in the <i>Upload</i> operation.
+	 */
+	public static final String UPLOAD_ID = "X-HolodeckB2B-UploadId";
+	/**
+	 * The total size of the payload data of a resumable upload - Only used in the <i>Upload</i> operation.
+	 */
+	public static final String UPLOAD_LENGTH = "Upload-Length";
+	/**
+	 * The number of bytes of a resumable upload received so far. Used in the <i>Upload</i> operation and in the
+	 * <i>Delivery</i> operation when the delivery of a large payload is resumed.
+	 */
+	public static final String UPLOAD_OFFSET = "Upload-Offset";
 	/**
 	 * Comma separated list of the <i>Part Properties</i> of the User Message. Used in both the <i>Submit</i> and
 	 * <i>Delivery</i> operations.
@@ -135,22 +189,26 @@ public class HTTPHeaders {
 	public static final String ERROR_MESSAGE = "X-HolodeckB2B-Errors";
 
 
-	private final HashMap<String, String> headers = new HashMap<>();
+	/**
+	 * The headers, using case insensitive names
+	 */
+	private final HeaderMap headers;
 
 	/**
 	 * Creates a new instance with an empty set of HTTP headers.
 	 */
-	public HTTPHeaders() {}
+	public HTTPHeaders() {
+		headers = new HeaderMap();
+	}
 
 	/**
-	 * Creates a new instance initialised with the given set of HTTP headers which names are converted to lower case
-	 * because HTTP header names are case insensitive.
+	 * Creates a new instance initialised with the given set of HTTP headers. As HTTP header names are case insensitive
+	 * the headers can be retrieved using any case of their name.
 	 *
 	 * @param hdrs	The HTTP from the submission request
 	 */
 	public HTTPHeaders(final Map<String, String> hdrs) {
-		if (!Utils.isNullOrEmpty(hdrs))
-			hdrs.forEach((k, v) -> this.headers.put(k.toLowerCase(), v));
+		headers = Utils.isNullOrEmpty(hdrs) ? new HeaderMap() : new HeaderMap(hdrs);
 	}
 
 	/**
@@ -161,7 +219,7 @@ public class HTTPHeaders {
 	 */
 	public void setHeader(final String name, final String value) {
 		if (!Utils.isNullOrEmpty(value))
-			headers.put(name.toLowerCase(), value);
+			headers.put(name, value);
 	}
 
 	/**
@@ -171,17 +229,45 @@ public class HTTPHeaders {
 	 * @return		The string value of the header, <code>null</code> if no such header exists
 	 */
 	public String getHeader(final String name) {
-		return headers.get(name.toLowerCase());
+		return headers.get(name);
 	}
 
 	/**
-	 * Gets all HTTP headers.
+	 * Gets all HTTP headers. The header names are case insensitive and kept in the case in which they were first set.
 	 *
 	 * @return	Map containing the name, value pairs of all headers
 	 */
 	public Map<String, String> getAllHeaders() {
 		return headers;
 	}
+
+	/**
+	 * Checks that the given header can be written as a header line, i.e. that the name is not empty and neither the
+	 * name nor the value contains a CR, LF or NUL character and the name also no colon or whitespace. This is the same
+	 * check as applied by {@link java.net.HttpURLConnection} to request headers and must be applied when headers are
+	 * written directly to the stream, as otherwise a value taken from a message could inject additional headers.
+	 *
+	 * @param name		Name of the header
+	 * @param value		The value of the header
+	 * @return			<code>true</code> if the header can be written, <code>false</code> otherwise
+	 */
+	static boolean isValidHeader(final String name, final String value) {
+		if (Utils.isNullOrEmpty(name))
+			return false;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (c == ':' || c == '\0' || isWhitespace(c))
+				return false;
+		}
+		if (value != null)
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+				if (c == '\r' || c == '\n' || c == '\0')
+					return false;
+			}
+		return true;
+	}
+
 	/**
 	 * Formats the given <i>PartyId</i> and sets it as value of the specified header. The PartyId is formatted as
 	 * "[" + <i>PartyId.type</i> + "]" + <i>PartuId.value</i> with the type being optional.
@@ -203,7 +289,7 @@ public class HTTPHeaders {
 	 * @throws MessageSubmitException When the header does not contain a correctly formatted PartyId
 	 */
 	public IPartyId getPartydId(final String name) throws MessageSubmitException {
-		final String hdrVal = headers.get(name.toLowerCase());
+		final String hdrVal = headers.get(name);
 		if (Utils.isNullOrEmpty(hdrVal))
 			return null;
 
@@ -235,7 +321,7 @@ public class HTTPHeaders {
 	 * @throws MessageSubmitException When the header does not contain a correctly formatted Service value
 	 */
 	public IService getService() throws MessageSubmitException {
-		final String hdrVal = headers.get(SERVICE.toLowerCase());
+		final String hdrVal = headers.get(SERVICE);
 		if (Utils.isNullOrEmpty(hdrVal))
 			return null;
 
@@ -310,50 +396,124 @@ public class HTTPHeaders {
 		setHeader(header, hdrVal.toString());
 	}
 
-    // Lazily initialize since Pattern.compile() is heavy (and only needed when Message or Part properties are used)
-    private static final class PropertyPatternHolder {
-        /*
-         * Entries are name=[type]value separated by ,
-         * Allow for prepended/appended whitespace around '=' and between entries.
-         *
-         * Capture groups:
-         *     1 - name
-         *     2 - [type] (optional)
-         *     3 - type (optional)
-         *     4 - value
-         *     5 - ,nextEntry (optional)
-         *     6 - nextEntry (optional)
-         */
-        private static Pattern pattern =
-        					Pattern.compile("\\s*([\\S&&[^=\\s]]*)\\s*=\\s*(\\[([\\S&&[^,]]*)])?([^\\[ ,][\\S&&[^,]]*)\\s*(\\,(.*))?");
-    }
-
     /**
      * Parses a collection of properties from the specified header. Properties should be comma separated and formatted
-     * as <i>name</i> + "=" + "[" + <i>type</i> + "]" + <i>value</i> with the type part being optional.
+     * as <i>name</i> + "=" + "[" + <i>type</i> + "]" + <i>value</i> with the type part being optional. Whitespace is
+     * allowed around the "=" and between the properties.
+     * <p>The header is parsed in a single pass, so the time needed grows linearly with the length of the header. It
+     * accepts exactly the same syntax as the regular expression that was used in earlier versions, including its
+     * handling of edge cases like values starting with a tab or line terminators following a separator.
      *
      * @param header	The header name
      * @return			The collection of properties parsed from the provided header value
      * @throws MessageSubmitException	When the header does not contain a correctly formatted list of properties
      */
     public Collection<IProperty> getProperties(final String header) throws MessageSubmitException {
-        Collection<IProperty> properties = new ArrayList<>();
-    	String remainder = headers.get(header.toLowerCase());
-        while (remainder != null) {
-            Matcher m;
-            if ((m = PropertyPatternHolder.pattern.matcher(remainder)).matches()) {
-            	final String name = m.group(1);
-            	final String value = m.group(4);
-            	final String type = Utils.isNullOrEmpty(m.group(3)) ? null : m.group(3);
-            	if (Utils.isNullOrEmpty(name) || Utils.isNullOrEmpty(value))
-            		throw new MessageSubmitException(header + " not in correct format");
-                properties.add(new Property(name, value, type));
-                remainder = m.group(6);
-            } else
-                throw new MessageSubmitException(header + " not in correct format");
-
-        }
-        return properties;
+    	final Collection<IProperty> properties = new ArrayList<>();
+    	final String hdrVal = headers.get(header);
+    	if (hdrVal == null)
+    		return properties;
+
+    	final int len = hdrVal.length();
+    	// The part following a separator may not contain line terminators
+    	int lastLineTerminator = len - 1;
+    	while (lastLineTerminator >= 0 && !isLineTerminator(hdrVal.charAt(lastLineTerminator)))
+    		lastLineTerminator--;
+    	int pos = 0;
+    	while (true) {
+    		pos = skipWhitespace(hdrVal, pos, len);
+    		final int nameStart = pos;
+    		while (pos < len && hdrVal.charAt(pos) != '=' && !isWhitespace(hdrVal.charAt(pos)))
+    			pos++;
+    		final String name = hdrVal.substring(nameStart, pos);
+    		pos = skipWhitespace(hdrVal, pos, len);
+    		if (pos == len || hdrVal.charAt(pos) != '=')
+    			throw new MessageSubmitException(header + " not in correct format");
+    		final int sep = hdrVal.indexOf(',', ++pos);
+    		final int end = sep < 0 ? len : sep;
+    		final String[] typedValue = sep >= 0 && lastLineTerminator > sep ? null : parseTypedValue(hdrVal, pos, end);
+    		if (typedValue == null || Utils.isNullOrEmpty(name) || Utils.isNullOrEmpty(typedValue[0]))
+    			throw new MessageSubmitException(header + " not in correct format");
+    		properties.add(new Property(name, typedValue[0], Utils.isNullOrEmpty(typedValue[1]) ? null
+    																							: typedValue[1]));
+    		if (sep < 0)
+    			return properties;
+    		pos = sep + 1;
+    	}
+    }
+
+    /**
+     * Parses the optionally typed value of a property, i.e. <code>[<i>type</i>]<i>value</i></code>, which may be
+     * surrounded by whitespace. As in the regular expression used in earlier versions the first character of the value
+     * may be a whitespace character other than a space. The type is therefore preferably taken as long as possible,
+     * and otherwise the value starts with the whitespace preceding it.
+     *
+     * @param s		The header value
+     * @param from	The start of the typed value
+     * @param to	The end of the typed value, which does not contain commas
+     * @return		Array with the value and type, or <code>null</code> if the typed value is not correctly formatted
+     */
+    private static String[] parseTypedValue(final String s, final int from, final int to) {
+    	final int p = skipWhitespace(s, from, to);
+    	if (p == to) {
+    		for (int i = to - 1; i >= from; i--)
+    			if (s.charAt(i) != ' ')
+    				return new String[] { s.substring(i, i + 1), null };
+    		return null;
+    	}
+    	final int r = skipToken(s, p, to);
+    	final boolean onlyWhitespaceAfter = skipWhitespace(s, r, to) == to;
+    	if (s.charAt(p) == '[') {
+    		for (int k = r - 1; k > p; k--) {
+    			if (s.charAt(k) != ']')
+    				continue;
+    			if (k + 1 < r) {
+    				if (onlyWhitespaceAfter && s.charAt(k + 1) != '[')
+    					return new String[] { s.substring(k + 1, r), s.substring(p + 1, k) };
+    			} else if (r < to && s.charAt(r) != ' ') {
+    				final int r2 = skipToken(s, r + 1, to);
+    				if (skipWhitespace(s, r2, to) == to)
+    					return new String[] { s.substring(r, r2), s.substring(p + 1, k) };
+    			}
+    		}
+    	} else if (onlyWhitespaceAfter)
+    		return new String[] { s.substring(p, r), null };
+
+    	return p > from && s.charAt(p - 1) != ' ' && onlyWhitespaceAfter ? new String[] { s.substring(p - 1, r), null }
+    																	  : null;
+    }
+
+    /**
+     * Gets the position of the first non whitespace character in the given range.
+     */
+    private static int skipWhitespace(final String s, int pos, final int to) {
+    	while (pos < to && isWhitespace(s.charAt(pos)))
+    		pos++;
+    	return pos;
+    }
+
+    /**
+     * Gets the position of the first whitespace character in the given range.
+     */
+    private static int skipToken(final String s, int pos, final int to) {
+    	while (pos < to && !isWhitespace(s.charAt(pos)))
+    		pos++;
+    	return pos;
+    }
+
+    /**
+     * Indicates whether the given character is whitespace, using the same definition as <code>\s</code> in regular
+     * expressions.
+     */
+    private static boolean isWhitespace(final char c) {
+    	return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Indicates whether the given character is a line terminator, using the same definition as regular expressions.
+     */
+    private static boolean isLineTerminator(final char c) {
+    	return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     /**
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Is a map of HTTP header names to values in which the names are case insensitive. Unlike a map with lower cased keys
+ * no new strings need to be created to add or look up a header, as the hash code of a name is calculated over its
+ * case folded characters and names are compared using {@link String#equalsIgnoreCase(String)}. The name of a header
+ * is kept as it was first added and the headers are iterated in the order they were added.
+ * <p>The map uses open addressing with linear probing on a table that holds the indices of the entries, which are
+ * stored in parallel arrays. As headers are never removed individually only {@link #clear()} is supported to remove
+ * entries.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class HeaderMap extends AbstractMap<String, String> {
+	/**
+	 * The initial number of entries that can be stored without growing the arrays
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The header names, in the order they were added
+	 */
+	private String[]	names = new String[INITIAL_CAPACITY];
+	/**
+	 * The header values
+	 */
+	private String[]	values = new String[INITIAL_CAPACITY];
+	/**
+	 * The case insensitive hash codes of the header names
+	 */
+	private int[]		hashes = new int[INITIAL_CAPACITY];
+	/**
+	 * The hash table holding the index of the entry plus one, 0 indicates an empty slot. The table is always at least
+	 * twice as large as the number of entries.
+	 */
+	private int[]		slots = new int[2 * INITIAL_CAPACITY];
+	/**
+	 * The number of entries
+	 */
+	private int			size;
+
+	/**
+	 * Creates a new, empty map.
+	 */
+	HeaderMap() {}
+
+	/**
+	 * Creates a new map containing the given headers.
+	 *
+	 * @param headers	The headers to add
+	 */
+	HeaderMap(final Map<String, String> headers) {
+		headers.forEach(this::put);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(final Object name) {
+		return name instanceof String && indexOf((String) name) >= 0;
+	}
+
+	@Override
+	public String get(final Object name) {
+		if (!(name instanceof String))
+			return null;
+		final int i = indexOf((String) name);
+		return i >= 0 ? values[i] : null;
+	}
+
+	@Override
+	public String put(final String name, final String value) {
+		final int h = hash(name);
+		final int mask = slots.length - 1;
+		int s = h & mask;
+		for (int e; (e = slots[s]) != 0; s = (s + 1) & mask) {
+			if (hashes[e - 1] == h && names[e - 1].equalsIgnoreCase(name)) {
+				final String previous = values[e - 1];
+				values[e - 1] = value;
+				return previous;
+			}
+		}
+		if (size == names.length) {
+			grow();
+			return put(name, value);
+		}
+		names[size] = name;
+		values[size] = value;
+		hashes[size] = h;
+		slots[s] = ++size;
+		return null;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(names, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+
+	@Override
+	public void forEach(final BiConsumer<? super String, ? super String> action) {
+		for (int i = 0; i < size; i++)
+			action.accept(names[i], values[i]);
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						if (next >= size)
+							throw new NoSuchElementException();
+						final int i = next++;
+						return new AbstractMap.SimpleImmutableEntry<>(names[i], values[i]);
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Finds the entry for the given header name.
+	 *
+	 * @param name	The header name
+	 * @return		The index of the entry, -1 if there is no header with the given name
+	 */
+	private int indexOf(final String name) {
+		final int h = hash(name);
+		final int mask = slots.length - 1;
+		for (int s = h & mask, e; (e = slots[s]) != 0; s = (s + 1) & mask)
+			if (hashes[e - 1] == h && names[e - 1].equalsIgnoreCase(name))
+				return e - 1;
+		return -1;
+	}
+
+	/**
+	 * Doubles the capacity of the map and rebuilds the hash table.
+	 */
+	private void grow() {
+		final int capacity = names.length * 2;
+		names = Arrays.copyOf(names, capacity);
+		values = Arrays.copyOf(values, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		slots = new int[2 * capacity];
+		final int mask = slots.length - 1;
+		for (int i = 0; i < size; i++) {
+			int s = hashes[i] & mask;
+			while (slots[s] != 0)
+				s = (s + 1) & mask;
+			slots[s] = i + 1;
+		}
+	}
+
+	/**
+	 * Calculates the case insensitive hash code of a header name. The characters are folded in the same way as
+	 * {@link String#equalsIgnoreCase(String)} compares them, with a fast path for ASCII characters which is what header
+	 * names normally consist of.
+	 *
+	 * @param name	The header name
+	 * @return		The hash code of the name
+	 */
+	static int hash(final String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			final char folded;
+			if (c < 0x80)
+				folded = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+			else
+				folded = Character.toLowerCase(Character.toUpperCase(c));
+			h = 31 * h + folded;
+		}
+		return h ^ (h >>> 16);
+	}
+}
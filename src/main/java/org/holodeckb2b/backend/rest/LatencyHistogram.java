@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Is a lock free histogram of latencies in the style of <i>HdrHistogram</i>. The latencies are recorded with microsecond
+ * resolution in buckets that grow exponentially, with each power of two split into {@value #SUB_BUCKETS} linear
+ * sub buckets, so the relative error of the reported percentiles is at most 12.5% while the histogram uses a small
+ * fixed amount of memory. Latencies of more than 2<sup>32</sup> microseconds (about 71 minutes) are counted in the
+ * last bucket.
+ * <p>Recording a latency only increments a few counters and can therefore be done on the hot path by concurrent
+ * threads. The percentiles are calculated from the counters when requested and are not an atomic snapshot.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class LatencyHistogram {
+	/**
+	 * The number of bits used for the linear sub buckets within a power of two
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	/**
+	 * The number of linear sub buckets within a power of two
+	 */
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * The largest power of two that is recorded in its own buckets
+	 */
+	private static final int MAX_EXPONENT = 32;
+	/**
+	 * The total number of buckets, the last one counting the latencies that exceed the largest power of two
+	 */
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS + 1;
+
+	private final AtomicLongArray	counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder			total = new LongAdder();
+	private final LongAdder			sumMicros = new LongAdder();
+	private final AtomicLong		maxMicros = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos		The latency in nanoseconds
+	 */
+	void record(final long nanos) {
+		final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(indexOf(micros));
+		total.increment();
+		sumMicros.add(micros);
+		if (micros > maxMicros.get())
+			maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	/**
+	 * @return The number of recorded latencies
+	 */
+	long getCount() {
+		return total.sum();
+	}
+
+	/**
+	 * @return The sum of the recorded latencies in microseconds
+	 */
+	long getSum() {
+		return sumMicros.sum();
+	}
+
+	/**
+	 * @return The largest recorded latency in microseconds
+	 */
+	long getMax() {
+		return maxMicros.get();
+	}
+
+	/**
+	 * Gets the latency at the given percentile, i.e. the latency that is not exceeded by the given percentage of
+	 * the recorded latencies. As latencies are recorded in buckets the upper bound of the bucket is returned, limited
+	 * to the largest recorded latency.
+	 *
+	 * @param percentile	The percentile, between 0 and 100
+	 * @return				The latency in microseconds, 0 if no latencies were recorded
+	 */
+	long getValueAtPercentile(final double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			count += counts.get(i);
+		if (count == 0)
+			return 0;
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets the index of the bucket for the given latency.
+	 *
+	 * @param micros	The latency in microseconds
+	 * @return			The bucket index
+	 */
+	static int indexOf(final long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+		final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		final int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Gets the largest latency that is counted in the given bucket.
+	 *
+	 * @param index		The bucket index
+	 * @return			The upper bound of the bucket in microseconds
+	 */
+	static long upperBoundOf(final int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		if (index == BUCKETS - 1)
+			return Long.MAX_VALUE;
+		final int shift = index / SUB_BUCKETS - 1;
+		final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
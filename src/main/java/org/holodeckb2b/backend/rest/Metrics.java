@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Is the registry of the metrics of the <i>Submit</i>, <i>Deliver</i> and <i>Notify</i> operations. For each operation,
+ * P-Mode and outcome of the request the number of requests and a {@link LatencyHistogram} of the processing time is
+ * kept. Furthermore the number of payload bytes per operation and P-Mode and the number of requests in flight per
+ * operation are counted. All metrics are recorded using lock free counters, so recording adds no contention to the
+ * processing of messages.
+ * <p>The metrics are published in JMX as {@value #MBEAN_NAME} and in the Prometheus text format by the <i>metrics</i>
+ * operation of the <code>restbackend</code> service, see {@link MetricsOperation}. As the P-Mode identifier of a
+ * submission is provided by the client, at most {@value #MAX_PMODES} P-Modes are tracked per operation, requests for
+ * other P-Modes are counted under {@value #OTHER_PMODES}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class Metrics implements MetricsMXBean {
+	private static final Logger log = LogManager.getLogger(Metrics.class);
+
+	/**
+	 * The name under which the registry is registered in JMX
+	 */
+	public static final String MBEAN_NAME = "org.holodeckb2b.backend.rest:type=Metrics";
+	/**
+	 * The maximum number of P-Modes tracked per operation
+	 */
+	static final int MAX_PMODES = 1000;
+	/**
+	 * The label used for requests of P-Modes that are not tracked
+	 */
+	static final String OTHER_PMODES = "_other";
+	/**
+	 * The label used for requests without P-Mode
+	 */
+	static final String UNKNOWN_PMODE = "_unknown";
+
+	/**
+	 * The operations for which metrics are kept
+	 */
+	public enum Operation {
+		SUBMIT, DELIVER, NOTIFY;
+
+		final String label = name().toLowerCase();
+	}
+
+	/**
+	 * The outcome of a request. A request is <i>rejected</i> when it is refused because of the content of the request
+	 * or the state of the back-end, and <i>failed</i> when it could not be processed because of an error.
+	 */
+	public enum Outcome {
+		SUCCESS, REJECTED, FAILED;
+
+		final String label = name().toLowerCase();
+	}
+
+	/**
+	 * Holds the metrics of one operation and P-Mode
+	 */
+	private static final class PModeMetrics {
+		final AtomicReferenceArray<LatencyHistogram> latencies =
+															new AtomicReferenceArray<>(Outcome.values().length);
+		final LongAdder payloadBytes = new LongAdder();
+
+		LatencyHistogram latencies(final Outcome outcome) {
+			LatencyHistogram h = latencies.get(outcome.ordinal());
+			if (h == null && !latencies.compareAndSet(outcome.ordinal(), null, h = new LatencyHistogram()))
+				h = latencies.get(outcome.ordinal());
+			return h;
+		}
+	}
+
+	/**
+	 * The singleton instance
+	 */
+	private static final Metrics INSTANCE = new Metrics();
+	/**
+	 * Indicates whether the registry is registered in JMX
+	 */
+	private static final AtomicBoolean registered = new AtomicBoolean();
+
+	/**
+	 * The metrics per P-Mode, for each operation
+	 */
+	@SuppressWarnings("unchecked")
+	private final ConcurrentHashMap<String, PModeMetrics>[] pmodeMetrics =
+																new ConcurrentHashMap[Operation.values().length];
+	/**
+	 * The number of requests in flight, for each operation
+	 */
+	private final LongAdder[] inFlight = new LongAdder[Operation.values().length];
+
+	Metrics() {
+		for (Operation op : Operation.values()) {
+			pmodeMetrics[op.ordinal()] = new ConcurrentHashMap<>();
+			inFlight[op.ordinal()] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Gets the metrics registry.
+	 *
+	 * @return	The singleton instance of the registry
+	 */
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the registry in JMX if this has not been done already.
+	 */
+	static void registerMBean() {
+		if (!registered.compareAndSet(false, true))
+			return;
+		try {
+			final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objName = new ObjectName(MBEAN_NAME);
+			if (!mbs.isRegistered(objName))
+				mbs.registerMBean(INSTANCE, objName);
+		} catch (JMException jmxError) {
+			log.warn("Could not register {} in JMX : {}", MBEAN_NAME, jmxError.getMessage());
+		}
+	}
+
+	/**
+	 * Registers the start of a request.
+	 *
+	 * @param operation		The operation executing the request
+	 * @return				The start time of the request in nanoseconds, to be passed to
+	 * 						{@link #end(Operation, String, Outcome, long, long)}
+	 */
+	public long start(final Operation operation) {
+		inFlight[operation.ordinal()].increment();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Registers the end of a request.
+	 *
+	 * @param operation		The operation executing the request
+	 * @param pmodeId		The P-Mode of the message unit, <code>null</code> if unknown
+	 * @param outcome		The outcome of the request
+	 * @param startTime		The start time as returned by {@link #start(Operation)}
+	 * @param payloadBytes	The number of payload bytes submitted or delivered, -1 if unknown
+	 */
+	public void end(final Operation operation, final String pmodeId, final Outcome outcome, final long startTime,
+					final long payloadBytes) {
+		final long latency = System.nanoTime() - startTime;
+		inFlight[operation.ordinal()].decrement();
+		final PModeMetrics m = getPModeMetrics(operation, pmodeId);
+		m.latencies(outcome).record(latency);
+		if (payloadBytes > 0)
+			m.payloadBytes.add(payloadBytes);
+	}
+
+	/**
+	 * Gets the metrics of the given operation and P-Mode, creating them when they do not exist yet.
+	 */
+	private PModeMetrics getPModeMetrics(final Operation operation, final String pmodeId) {
+		final ConcurrentHashMap<String, PModeMetrics> metrics = pmodeMetrics[operation.ordinal()];
+		final String key = pmodeId == null || pmodeId.isEmpty() ? UNKNOWN_PMODE : pmodeId;
+		PModeMetrics m = metrics.get(key);
+		if (m == null)
+			m = metrics.computeIfAbsent(metrics.size() < MAX_PMODES ? key : OTHER_PMODES, k -> new PModeMetrics());
+		return m;
+	}
+
+	@Override
+	public Map<String, Long> getRequestCounts() {
+		return collectLatencies(LatencyHistogram::getCount);
+	}
+
+	@Override
+	public Map<String, Long> getMedianLatencies() {
+		return collectLatencies(h -> h.getValueAtPercentile(50));
+	}
+
+	@Override
+	public Map<String, Long> get99thPercentileLatencies() {
+		return collectLatencies(h -> h.getValueAtPercentile(99));
+	}
+
+	@Override
+	public Map<String, Long> getMaxLatencies() {
+		return collectLatencies(LatencyHistogram::getMax);
+	}
+
+	@Override
+	public Map<String, Long> getPayloadBytes() {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Operation op : Operation.values())
+			pmodeMetrics[op.ordinal()].forEach((p, m) -> result.put(op.label + "/" + p, m.payloadBytes.sum()));
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getInFlight() {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Operation op : Operation.values())
+			result.put(op.label, inFlight[op.ordinal()].sum());
+		return result;
+	}
+
+	/**
+	 * Collects a value from each of the latency histograms.
+	 *
+	 * @param value		Function to get the value from the histogram
+	 * @return			Map with the values, keyed on operation/P-Mode/outcome
+	 */
+	private Map<String, Long> collectLatencies(final ToLongFunction<LatencyHistogram> value) {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Operation op : Operation.values())
+			pmodeMetrics[op.ordinal()].forEach((p, m) -> {
+				for (Outcome o : Outcome.values()) {
+					final LatencyHistogram h = m.latencies.get(o.ordinal());
+					if (h != null)
+						result.put(op.label + "/" + p + "/" + o.label, value.applyAsLong(h));
+				}
+			});
+		return result;
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text exposition format. The latencies are written as summaries with the
+	 * 50th, 90th, 99th and 99.9th percentile in seconds.
+	 *
+	 * @param out	The writer to write the metrics to
+	 * @throws IOException	When the metrics could not be written
+	 */
+	public void writeText(final Writer out) throws IOException {
+		final double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+		out.write("# HELP hb2b_rest_request_duration_seconds Time needed to process a request\n");
+		out.write("# TYPE hb2b_rest_request_duration_seconds summary\n");
+		for (Operation op : Operation.values())
+			for (Map.Entry<String, PModeMetrics> e : new TreeMap<>(pmodeMetrics[op.ordinal()]).entrySet())
+				for (Outcome o : Outcome.values()) {
+					final LatencyHistogram h = e.getValue().latencies.get(o.ordinal());
+					if (h == null)
+						continue;
+					final String labels = "operation=\"" + op.label + "\",pmode=\"" + escape(e.getKey())
+										  + "\",outcome=\"" + o.label + "\"";
+					for (double q : quantiles)
+						out.write("hb2b_rest_request_duration_seconds{" + labels + ",quantile=\"" + q + "\"} "
+								  + toSeconds(h.getValueAtPercentile(q * 100)) + "\n");
+					out.write("hb2b_rest_request_duration_seconds_sum{" + labels + "} " + toSeconds(h.getSum()) + "\n");
+					out.write("hb2b_rest_request_duration_seconds_count{" + labels + "} " + h.getCount() + "\n");
+				}
+		out.write("# HELP hb2b_rest_payload_bytes_total Number of payload bytes submitted or delivered\n");
+		out.write("# TYPE hb2b_rest_payload_bytes_total counter\n");
+		for (Operation op : Operation.values())
+			for (Map.Entry<String, PModeMetrics> e : new TreeMap<>(pmodeMetrics[op.ordinal()]).entrySet())
+				out.write("hb2b_rest_payload_bytes_total{operation=\"" + op.label + "\",pmode=\""
+						  + escape(e.getKey()) + "\"} " + e.getValue().payloadBytes.sum() + "\n");
+		out.write("# HELP hb2b_rest_requests_in_flight Number of requests currently being processed\n");
+		out.write("# TYPE hb2b_rest_requests_in_flight gauge\n");
+		for (Operation op : Operation.values())
+			out.write("hb2b_rest_requests_in_flight{operation=\"" + op.label + "\"} " + inFlight[op.ordinal()].sum()
+					  + "\n");
+		out.flush();
+	}
+
+	/**
+	 * Escapes a label value for the Prometheus text format.
+	 */
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Converts a duration in microseconds to seconds.
+	 */
+	private static String toSeconds(final long micros) {
+		return Double.toString(micros / 1e6);
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.Map;
+
+/**
+ * Defines the JMX interface of the {@link Metrics} registry. The request counts and latencies are keyed on
+ * <i>operation</i>/<i>P-Mode</i>/<i>outcome</i>, the payload byte counts on <i>operation</i>/<i>P-Mode</i> and the
+ * number of requests in flight on <i>operation</i>. Latencies are given in microseconds.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Gets the number of processed requests.
+	 *
+	 * @return	Map with the number of requests per operation, P-Mode and outcome
+	 */
+	Map<String, Long> getRequestCounts();
+
+	/**
+	 * Gets the median latency of the processed requests.
+	 *
+	 * @return	Map with the median latency per operation, P-Mode and outcome
+	 */
+	Map<String, Long> getMedianLatencies();
+
+	/**
+	 * Gets the 99th percentile of the latency of the processed requests.
+	 *
+	 * @return	Map with the 99th percentile latency per operation, P-Mode and outcome
+	 */
+	Map<String, Long> get99thPercentileLatencies();
+
+	/**
+	 * Gets the maximum latency of the processed requests.
+	 *
+	 * @return	Map with the maximum latency per operation, P-Mode and outcome
+	 */
+	Map<String, Long> getMaxLatencies();
+
+	/**
+	 * Gets the number of payload bytes submitted or delivered.
+	 *
+	 * @return	Map with the number of payload bytes per operation and P-Mode
+	 */
+	Map<String, Long> getPayloadBytes();
+
+	/**
+	 * Gets the number of requests that are currently being processed.
+	 *
+	 * @return	Map with the number of requests in flight per operation
+	 */
+	Map<String, Long> getInFlight();
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.receivers.AbstractInOutMessageReceiver;
+
+/**
+ * Implements the REST operation that returns the metrics kept in the {@link Metrics} registry in the Prometheus text
+ * exposition format, so they can be scraped by a monitoring system. The operation accepts GET requests without any
+ * parameters.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class MetricsOperation extends AbstractInOutMessageReceiver {
+
+	/**
+	 * The content type of the Prometheus text format
+	 */
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	@Override
+	public void invokeBusinessLogic(final MessageContext inMsgCtx, final MessageContext outMsgCtx) throws AxisFault {
+		ResponseUtils.setHeader(outMsgCtx, "Cache-Control", "no-store");
+		new StreamingResponseFormatter(CONTENT_TYPE,
+									   out -> Metrics.getInstance().writeText(
+											   					new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+																							.setOnResponse(outMsgCtx);
+	}
+}
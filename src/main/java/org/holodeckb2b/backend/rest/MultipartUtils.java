@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.fileupload.MultipartStream;
+import org.apache.commons.fileupload.ParameterParser;
+import org.holodeckb2b.backend.rest.StreamingResponseFormatter.ContentWriter;
+import org.holodeckb2b.commons.util.Utils;
+
+/**
+ * Contains helper methods for reading and writing <i>multipart/related</i> entity bodies which are used to exchange
+ * User Messages with more than one payload. Each payload is contained in its own part with its meta-data in the part
+ * headers, using the same headers as for a single payload. Parts are read and written as streams so their content is
+ * never completely held in memory.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class MultipartUtils {
+	/**
+	 * The MIME type of multipart entity bodies
+	 */
+	static final String MULTIPART_RELATED = "multipart/related";
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] DASHES = { '-', '-' };
+
+	/**
+	 * Receives the parts read from a multipart entity body.
+	 */
+	@FunctionalInterface
+	interface PartHandler {
+		/**
+		 * Handles a part. The handler MUST read the content of the part before returning.
+		 *
+		 * @param headers	The headers of the part
+		 * @param content	The writer that copies the content of the part to the given stream
+		 * @throws IOException	When the part could not be processed
+		 */
+		void handle(HTTPHeaders headers, ContentWriter content) throws IOException;
+	}
+
+	private MultipartUtils() {}
+
+	/**
+	 * Checks whether the given content type indicates a <i>multipart/related</i> entity body.
+	 *
+	 * @param contentType	The value of the <i>Content-Type</i> header
+	 * @return	<code>true</code> if the content type is <i>multipart/related</i>, <code>false</code> otherwise
+	 */
+	static boolean isMultipart(final String contentType) {
+		return contentType != null && contentType.trim().regionMatches(true, 0, MULTIPART_RELATED, 0,
+																			  MULTIPART_RELATED.length());
+	}
+
+	/**
+	 * Gets the boundary from the given content type.
+	 *
+	 * @param contentType	The value of the <i>Content-Type</i> header
+	 * @return	The boundary, <code>null</code> if not specified
+	 */
+	static String getBoundary(final String contentType) {
+		final ParameterParser parser = new ParameterParser();
+		parser.setLowerCaseNames(true);
+		final String boundary = parser.parse(contentType, new char[] { ';', ',' }).get("boundary");
+		return Utils.isNullOrEmpty(boundary) ? null : boundary;
+	}
+
+	/**
+	 * Creates a new random boundary.
+	 *
+	 * @return	The boundary
+	 */
+	static String newBoundary() {
+		return "hb2b-" + UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Reads the parts from the given multipart entity body.
+	 *
+	 * @param in		The stream containing the entity body
+	 * @param boundary	The boundary separating the parts
+	 * @param handler	The handler of the parts
+	 * @return			The number of parts read
+	 * @throws IOException	When the entity body is not a correctly formatted multipart or a part could not be handled
+	 */
+	static int readParts(final InputStream in, final String boundary, final PartHandler handler) throws IOException {
+		final MultipartStream mps = new MultipartStream(in, boundary.getBytes(StandardCharsets.ISO_8859_1), 8192,
+														 null);
+		mps.setHeaderEncoding(StandardCharsets.UTF_8.name());
+		int parts = 0;
+		boolean nextPart = mps.skipPreamble();
+		while (nextPart) {
+			handler.handle(new HTTPHeaders(parseHeaders(mps.readHeaders())), out -> mps.readBodyData(out));
+			parts++;
+			nextPart = mps.readBoundary();
+		}
+		return parts;
+	}
+
+	/**
+	 * Writes a part of a multipart entity body. As the part headers are written as is they are checked not to contain
+	 * characters that would end the header line, see {@link HTTPHeaders#isValidHeader(String, String)}.
+	 *
+	 * @param out		The stream to write the part to
+	 * @param boundary	The boundary separating the parts
+	 * @param headers	The headers of the part
+	 * @param content	The writer of the content of the part
+	 * @throws IOException	When a part header is invalid or the part could not be written
+	 */
+	static void writePart(final OutputStream out, final String boundary, final HTTPHeaders headers,
+						  final ContentWriter content) throws IOException {
+		for (Map.Entry<String, String> h : headers.getAllHeaders().entrySet())
+			if (!HTTPHeaders.isValidHeader(h.getKey(), h.getValue()))
+				throw new IOException("Invalid part header: " + h.getKey());
+		out.write(DASHES);
+		out.write(boundary.getBytes(StandardCharsets.ISO_8859_1));
+		out.write(CRLF);
+		for (Map.Entry<String, String> h : headers.getAllHeaders().entrySet()) {
+			out.write((h.getKey() + ": " + h.getValue()).getBytes(StandardCharsets.UTF_8));
+			out.write(CRLF);
+		}
+		out.write(CRLF);
+		content.writeTo(out);
+		out.write(CRLF);
+	}
+
+	/**
+	 * Writes the closing boundary of a multipart entity body.
+	 *
+	 * @param out		The stream to write to
+	 * @param boundary	The boundary separating the parts
+	 * @throws IOException	When the boundary could not be written
+	 */
+	static void writeEnd(final OutputStream out, final String boundary) throws IOException {
+		out.write(DASHES);
+		out.write(boundary.getBytes(StandardCharsets.ISO_8859_1));
+		out.write(DASHES);
+		out.write(CRLF);
+	}
+
+	/**
+	 * Parses the headers of a part.
+	 *
+	 * @param headerBlock	The header lines of the part
+	 * @return				Map with the part headers
+	 */
+	private static Map<String, String> parseHeaders(final String headerBlock) {
+		final Map<String, String> headers = new HashMap<>();
+		for (String line : headerBlock.split("\r\n")) {
+			final int sep = line.indexOf(':');
+			if (sep > 0)
+				headers.put(line.substring(0, sep).trim(), line.substring(sep + 1).trim());
+		}
+		return headers;
+	}
+}
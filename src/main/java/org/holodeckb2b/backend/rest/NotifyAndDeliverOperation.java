@@ -16,15 +16,25 @@
  */
 package org.holodeckb2b.backend.rest;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
-import org.apache.commons.fileupload.util.Streams;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.holodeckb2b.common.util.MessageUnitUtils;
@@ -48,22 +58,70 @@ import org.holodeckb2b.interfaces.storage.StorageException;
  * units to the back-end system.
  * <p>
  * The message meta-data of the received message unit is provided through HTTP headers, see {@link HTTPHeaders} for an
- * overview of available headers. A <i>User Message</i> is delivered using the POST method with the payload data (only
- * one is supported) contained in the HTTP entity body. As <i>Signal Message</i>s do not contain payloads their
- * meta-data is notified using the POST method without an entity body.
+ * overview of available headers. A <i>User Message</i> is delivered using the POST method with the payload data
+ * contained in the HTTP entity body. When the User Message contains more than one payload the entity body is a
+ * <i>multipart/related</i> with a part for each payload and the payload meta-data in the part headers. As <i>Signal
+ * Message</i>s do not contain payloads their meta-data is notified using the POST method without an entity body.
  * <p>
  * This delivery method takes two parameters:<ol>
  * <li><b>URL</b> [REQUIRED] : the URL where the REST service is hosted by the business application. "/deliver" will be
  * added to this URL when delivering <i>User Messages</i> and for "/notify/receipt" and "/notify/error" for notification
- * of <i>Receipt</i> respectively </i>Error</i> Signals.</li>
+ * of <i>Receipt</i> respectively </i>Error</i> Signals. For a back-end running on the same host the URL can also
+ * be specified as <code>unix:<i>socket path</i>[:<i>base path</i>]</code> to connect using a Unix domain socket, see
+ * {@link UnixSocketConnection}. This requires Java 16 or later.</li>
  * <li><b>TIMEOUT</b> [OPTIONAL] : the time (in milliseconds) the delivery method should wait for the back-end system to
  * accept the delivery and notification.</li>
  * <li><b>SIGNAL_WITH_CONVID</b> [OPTIONAL]: boolean value that indicates whether the <i>ConversationId</i> of the User
  * Message referenced by the Signal Message should be included in the notification to the back-end system. Default value
- * is <i>false</i>.</li></ol>
+ * is <i>false</i>.</li>
+ * <li><b>PAYLOAD_URL</b> [OPTIONAL]: the URL of the <i>payload</i> operation of the <code>restbackend</code> service.
+ * When specified the payload is delivered <i>by reference</i>, i.e. the entity body of the delivery request is empty
+ * and the URL where the back-end can retrieve the payload data is provided in the {@link HTTPHeaders#PAYLOAD_URL}
+ * header. The back-end can then retrieve the payload data when it needs it, and in parallel ranges if it wants.</li>
+ * <li><b>RESUME_THRESHOLD</b> [OPTIONAL]: the minimum size (in bytes) of payloads for which the delivery can be
+ * resumed. Before such a payload is delivered a HEAD request is sent to the delivery URL which includes the
+ * <i>X-HolodeckB2B-MessageId</i> header. When the back-end already persisted part of the payload in an earlier
+ * failed delivery attempt it responds with the number of bytes it has in the <i>Upload-Offset</i> header. Only the
+ * remainder of the payload is then sent, with the <i>Content-Range</i> header indicating which part of the payload is
+ * included in the entity body. When not specified payloads are always delivered completely.</li>
+ * <li><b>COMPRESSION</b> [OPTIONAL]: the content coding to apply to the entity body, currently only <i>gzip</i> is
+ * supported. Payloads delivered by reference or resumed are not compressed. When the back-end rejects a compressed
+ * delivery with HTTP status 415 the delivery is retried without compression and compression is disabled for further
+ * deliveries to that back-end. When not specified the entity body is not compressed.</li>
+ * <li><b>SUBSCRIBER_URLS</b> [OPTIONAL]: the base URLs of additional back-ends, separated by whitespace or commas, to
+ * which the message units are delivered and notified as well. The entity body is read once and written to all
+ * back-ends in parallel, also when it is compressed for only some of them. Resumption of deliveries is not used when
+ * there are subscribers.</li>
+ * <li><b>FANOUT_SUCCESS</b> [OPTIONAL]: the number of back-ends that must accept a delivery or notification for it to
+ * be successful when there are subscribers, <i>ALL</i>, <i>QUORUM</i> (a majority) or <i>ANY</i>. Default is
+ * <i>ALL</i>. Note that when the delivery is reported as failed, it may be retried by the Holodeck B2B Core and the
+ * back-ends that did accept it receive it again. Back-ends must therefore be able to handle duplicate deliveries.</li>
+ * <li><b>TRACE_SIGNALS</b> [OPTIONAL]: boolean value that indicates whether the trace context of the User Message
+ * referenced by the Signal Message should be included in the notification to the back-end system. Default value is
+ * <i>false</i>.</li>
+ * <li><b>SPAN_EXPORTER</b> [OPTIONAL]: the exporter of the recorded spans, either the class name of a {@link
+ * SpanExporter} or <code>file:</code> followed by the path of the file to write the spans to, see {@link Tracing}.
+ * This is the same setting as the <b>spanExporter</b> parameter of the <code>restbackend</code> service, so spans of
+ * deliveries and notifications are also recorded when no message has been submitted. When not specified the exporter
+ * configured by the <code>restbackend</code> service, if any, is used.</li>
+ * <li><b>COPY_BUFFER_SIZE</b>, <b>COPY_BUFFER_POOL_SIZE</b> and <b>DIRECT_COPY_BUFFERS</b> [OPTIONAL]: the
+ * configuration of the shared {@link BufferPool} from which the buffers for copying payload data are taken. These are
+ * the same settings as the <b>copyBufferSize</b>, <b>copyBufferPoolSize</b> and <b>directCopyBuffers</b> parameters
+ * of the <code>restbackend</code> service. When none of them is specified the current configuration is kept.</li>
+ * </ol>
  * <p>
  * The back-end MUST respond only with an HTTP status code and use a code in the 2xx range to indicate that it accepted
  * the delivery or notification. Any order code is interpreted as failure and reported as such to the Holodeck B2B Core.
+ * <p>The number, latency and entity body size of the deliveries and notifications are recorded in the {@link Metrics}
+ * registry and {@link RestOperationEvent.Deliver} and {@link RestOperationEvent.Notify} events are emitted when
+ * enabled in a JFR recording. The time spent in each phase of the requests is registered in a {@link RequestTiming}
+ * and the slowest requests are kept in the {@link SlowRequestLog}.
+ * <p>The W3C Trace Context stored with a User Message, see {@link Tracing}, is propagated in the <i>traceparent</i>
+ * and <i>tracestate</i> headers of its delivery. The notification of Signals includes the trace context of the
+ * referenced User Message when the <b>TRACE_SIGNALS</b> parameter is set to <i>true</i>, as this requires it to be
+ * retrieved from the message store. When a span exporter is configured, using the <b>SPAN_EXPORTER</b> parameter or
+ * by the <code>restbackend</code> service, the spans of the operations and of the phases of the requests to each
+ * back-end are recorded.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -82,11 +140,110 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 	 * Name of the parameter that contains the indicator if the ConversationId should be included in Notifications
 	 */
 	public static final String P_SIGNAL_CONVID = "SIGNAL_WITH_CONVID";
+	/**
+	 * Name of the parameter that contains the URL of the payload retrieval operation
+	 */
+	public static final String P_PAYLOAD_URL = "PAYLOAD_URL";
+	/**
+	 * Name of the parameter that contains the minimum size of payloads for which delivery can be resumed
+	 */
+	public static final String P_RESUME_THRESHOLD = "RESUME_THRESHOLD";
+	/**
+	 * Name of the parameter that contains the content coding to apply to the entity body
+	 */
+	public static final String P_COMPRESSION = "COMPRESSION";
+	/**
+	 * Name of the parameter that contains the base URLs of the additional back-ends
+	 */
+	public static final String P_SUBSCRIBER_URLS = "SUBSCRIBER_URLS";
+	/**
+	 * Name of the parameter that contains the number of back-ends that must accept a delivery
+	 */
+	public static final String P_FANOUT_SUCCESS = "FANOUT_SUCCESS";
+	/**
+	 * Name of the parameter that contains the indicator if the trace context of the referenced User Message should
+	 * be included in Notifications
+	 */
+	public static final String P_TRACE_SIGNALS = "TRACE_SIGNALS";
+	/**
+	 * Name of the parameter that configures the exporter of the trace spans
+	 */
+	public static final String P_SPAN_EXPORTER = "SPAN_EXPORTER";
+	/**
+	 * Name of the parameter that contains the size of the buffers used for copying payload data
+	 */
+	public static final String P_COPY_BUFFER_SIZE = "COPY_BUFFER_SIZE";
+	/**
+	 * Name of the parameter that contains the maximum number of pooled buffers
+	 */
+	public static final String P_COPY_BUFFER_POOL_SIZE = "COPY_BUFFER_POOL_SIZE";
+	/**
+	 * Name of the parameter that contains the indicator if direct buffers should be used
+	 */
+	public static final String P_DIRECT_COPY_BUFFERS = "DIRECT_COPY_BUFFERS";
 
 	/**
 	 * The default timeout is 10 seconds
 	 */
 	private static final int DEFAULT_TIMEOUT = 10000;
+	/**
+	 * The number of chunks buffered for each back-end when delivering to multiple back-ends
+	 */
+	private static final int FANOUT_QUEUE_SIZE = 16;
+	/**
+	 * The size of the chunks written to the back-ends when delivering to multiple back-ends
+	 */
+	private static final int FANOUT_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * The number of back-ends that must accept a delivery or notification when there are subscribers
+	 */
+	enum SuccessPolicy {
+		ALL, QUORUM, ANY;
+
+		/**
+		 * Checks whether the policy is met.
+		 *
+		 * @param accepted	The number of back-ends that accepted the request
+		 * @param total		The total number of back-ends
+		 * @return			<code>true</code> if enough back-ends accepted the request, <code>false</code> otherwise
+		 */
+		boolean isMet(final long accepted, final int total) {
+			switch (this) {
+			case ANY:
+				return accepted > 0;
+			case QUORUM:
+				return accepted > total / 2;
+			default:
+				return accepted == total;
+			}
+		}
+	}
+
+	/**
+	 * Holds the connection to and the result of a delivery or notification to one back-end
+	 */
+	private static final class Delivery {
+		final String 		targetURL;
+		HttpURLConnection 	con;
+		IOException 		failure;
+		boolean				encode;
+		int 				responseCode = -1;
+		String 				responseMsg;
+		final RequestTiming	timing = new RequestTiming();
+
+		Delivery(final String targetURL) {
+			this.targetURL = targetURL;
+		}
+
+		boolean isAccepted() {
+			return failure == null && responseCode / 200 == 1;
+		}
+
+		String describe() {
+			return failure != null ? failure.getMessage() : "HTTP error= " + responseCode + "/" + responseMsg;
+		}
+	}
 
 	/**
 	 * The base URL where the back-end will receive deliveries of User Messages and notifications of Signals
@@ -100,6 +257,35 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 	 * Indicator whether the ConversationId should be included in Notifications
 	 */
 	private boolean signalWithConvId;
+	/**
+	 * Indicator whether the trace context of the referenced User Message should be included in Notifications
+	 */
+	private boolean traceSignals;
+	/**
+	 * The URL of the payload retrieval operation, <code>null</code> if payloads are delivered in the entity body
+	 */
+	private String payloadURL;
+	/**
+	 * The minimum size of payloads for which the delivery can be resumed, -1 if deliveries are not resumed
+	 */
+	private long resumeThreshold;
+	/**
+	 * Indicator whether the entity body should be <i>gzip</i> encoded
+	 */
+	private boolean compress;
+	/**
+	 * The URLs of the back-ends that rejected a compressed delivery and to which the entity body is therefore sent
+	 * uncompressed
+	 */
+	private final Set<String> identityOnlyURLs = ConcurrentHashMap.newKeySet();
+	/**
+	 * The base URLs of the additional back-ends
+	 */
+	private List<String> subscriberURLs;
+	/**
+	 * The number of back-ends that must accept a delivery or notification when there are subscribers
+	 */
+	private SuccessPolicy successPolicy;
 
 	@Override
 	public boolean supportsAsyncDelivery() {
@@ -110,9 +296,7 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 	public void init(Map<String, ?> settings) throws MessageDeliveryException {
 		// Check that a well formed URL is given
 		try {
-			new URL(baseURL = (String) settings.get(P_BACKEND_URL));
-			if (!baseURL.endsWith("/"))
-				baseURL += "/";
+			baseURL = checkBackendURL((String) settings.get(P_BACKEND_URL));
 		} catch (MalformedURLException | ClassCastException ex) {
 			log.fatal("Invalid back-end URL specified: " + settings.get(P_BACKEND_URL));
 			throw new MessageDeliveryException("Invalid back-end URL specified!");
@@ -123,9 +307,108 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 			timeout = DEFAULT_TIMEOUT;
 		}
                 signalWithConvId = Utils.isTrue((String) settings.get(P_SIGNAL_CONVID));
+		traceSignals = Utils.isTrue((String) settings.get(P_TRACE_SIGNALS));
+		payloadURL = null;
+		if (settings.get(P_PAYLOAD_URL) != null) {
+			try {
+				new URL(payloadURL = (String) settings.get(P_PAYLOAD_URL));
+			} catch (MalformedURLException | ClassCastException ex) {
+				log.fatal("Invalid payload URL specified: " + settings.get(P_PAYLOAD_URL));
+				throw new MessageDeliveryException("Invalid payload URL specified!");
+			}
+		}
+
+		try {
+			resumeThreshold = Long.parseLong((String) settings.get(P_RESUME_THRESHOLD));
+		} catch (NumberFormatException | ClassCastException nan) {
+			resumeThreshold = -1;
+		}
+
+		final Object compression = settings.get(P_COMPRESSION);
+		if (compression != null && !(compression instanceof String && ContentEncoding.isSupported((String) compression))) {
+			log.fatal("Unsupported compression specified: " + compression);
+			throw new MessageDeliveryException("Unsupported compression specified!");
+		}
+		compress = !ContentEncoding.isIdentity((String) compression);
+		identityOnlyURLs.clear();
+
+		subscriberURLs = new ArrayList<>();
+		final Object subscribers = settings.get(P_SUBSCRIBER_URLS);
+		if (subscribers != null) {
+			try {
+				for (String url : ((String) subscribers).split("[\\s,]+")) {
+					if (url.isEmpty())
+						continue;
+					subscriberURLs.add(checkBackendURL(url));
+				}
+			} catch (MalformedURLException | ClassCastException ex) {
+				log.fatal("Invalid subscriber URLs specified: " + subscribers);
+				throw new MessageDeliveryException("Invalid subscriber URLs specified!");
+			}
+		}
+		try {
+			final Object policy = settings.get(P_FANOUT_SUCCESS);
+			successPolicy = policy == null ? SuccessPolicy.ALL
+										   : SuccessPolicy.valueOf(((String) policy).trim().toUpperCase());
+		} catch (IllegalArgumentException | ClassCastException ex) {
+			log.fatal("Invalid fan-out success policy specified: " + settings.get(P_FANOUT_SUCCESS));
+			throw new MessageDeliveryException("Invalid fan-out success policy specified!");
+		}
 
-		log.info("Initialised REST delivery method.\n\tBase URL     = {}\n\tTimeout      = {}\n\tNotify ConvId= {}",
-                         baseURL, timeout, signalWithConvId);
+		try {
+			Tracing.configure((String) settings.get(P_SPAN_EXPORTER));
+		} catch (IllegalArgumentException | ClassCastException invalidExporter) {
+			log.fatal("Invalid span exporter specified: " + settings.get(P_SPAN_EXPORTER));
+			throw new MessageDeliveryException("Invalid span exporter specified!");
+		}
+		try {
+			BufferPool.configure((String) settings.get(P_COPY_BUFFER_SIZE), (String) settings.get(P_COPY_BUFFER_POOL_SIZE),
+								 (String) settings.get(P_DIRECT_COPY_BUFFERS));
+		} catch (IllegalArgumentException | ClassCastException ex) {
+			log.fatal("Invalid copy buffer configuration specified: " + ex.getMessage());
+			throw new MessageDeliveryException("Invalid copy buffer configuration specified!");
+		}
+
+		Metrics.registerMBean();
+		SlowRequestLog.registerMBean();
+		BufferPool.registerMBean();
+		log.info("Initialised REST delivery method.\n\tBase URL     = {}\n\tTimeout      = {}\n\tNotify ConvId= {}"
+				+ "\n\tNotify trace = {}\n\tPayload URL  = {}\n\tResume from  = {}\n\tCompression  = {}"
+				+ "\n\tSubscribers  = {}", baseURL,
+				timeout, signalWithConvId, traceSignals, payloadURL != null ? payloadURL : "<delivered in entity body>",
+				resumeThreshold >= 0 ? resumeThreshold + " bytes" : "<disabled>",
+				compress ? ContentEncoding.GZIP : "<disabled>",
+				subscriberURLs.isEmpty() ? "<none>" : subscriberURLs + " (success=" + successPolicy + ")");
+	}
+
+	/**
+	 * Checks that the given back-end URL is either a well formed HTTP URL or a <code>unix:</code> URL of a Unix domain
+	 * socket, see {@link UnixSocketConnection}, and ensures it ends with "/".
+	 *
+	 * @param url	The URL to check
+	 * @return		The normalised URL
+	 * @throws MalformedURLException	When the URL is not valid
+	 */
+	private static String checkBackendURL(final String url) throws MalformedURLException {
+		if (url == null)
+			throw new MalformedURLException("No URL specified");
+		if (UnixSocketConnection.isUnixURL(url))
+			return UnixSocketConnection.normalise(url);
+		new URL(url);
+		return url.endsWith("/") ? url : url + "/";
+	}
+
+	/**
+	 * Gets the base URLs of all back-ends to which message units are delivered, i.e. the back-end URL followed by the
+	 * URLs of the subscribers.
+	 *
+	 * @return	List with the base URLs
+	 */
+	private List<String> getBackendURLs() {
+		final List<String> urls = new ArrayList<>(1 + subscriberURLs.size());
+		urls.add(baseURL);
+		urls.addAll(subscriberURLs);
+		return urls;
 	}
 
 	@Override
@@ -138,12 +421,8 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 
 	private void deliverUserMessage(IUserMessage userMsg) throws MessageDeliveryException {
 		final Collection<? extends IPayload> payloads = userMsg.getPayloads();
-		if (payloads != null && payloads.size() > 1) {
-			log.fatal("User Message [msgId={}] cannot be delivered because it contains more than 1 payload!",
-					userMsg.getMessageId());
-			throw new MessageDeliveryException("Too many payloads!", true);
-		}
-		final IPayload payload = Utils.isNullOrEmpty(payloads) ? null : payloads.iterator().next();
+		final boolean multipart = payloads != null && payloads.size() > 1;
+		final IPayload payload = Utils.isNullOrEmpty(payloads) || multipart ? null : payloads.iterator().next();
 
 		log.debug("Preparing User Message for delivery to back-end");
 		HTTPHeaders headers = new HTTPHeaders();
@@ -162,52 +441,496 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 			headers.setServiceHeader(ci.getService());
 			headers.setHeader(HTTPHeaders.ACTION, ci.getAction());
 		}
-		if (payload != null) {
-			headers.setHeader(HTTPHeaders.MIME_TYPE, payload.getMimeType());
-			headers.setProperties(HTTPHeaders.PART_PROPS, payload.getProperties());
-			ISchemaReference plSchemaInfo = payload.getSchemaReference();
-			if (plSchemaInfo != null) {
-				headers.setHeader(HTTPHeaders.SCHEMA_LOCATION, plSchemaInfo.getLocation());
-				headers.setHeader(HTTPHeaders.SCHEMA_VERSION, plSchemaInfo.getVersion());
-				headers.setHeader(HTTPHeaders.SCHEMA_NS, plSchemaInfo.getNamespace());
-			}
-		}
+		if (payload != null)
+			setPayloadHeaders(headers, payload);
+		final TraceContext parentTrace = Tracing.getTraceContext(userMsg.getMessageProperties());
+		final TraceContext trace = Tracing.startSpan(parentTrace, false);
+		setTraceHeaders(headers, trace);
 
+		final RestOperationEvent event = new RestOperationEvent.Deliver();
+		event.begin();
+		final Metrics metrics = Metrics.getInstance();
+		final long startTime = metrics.start(Metrics.Operation.DELIVER);
+		final List<Delivery> deliveries = new ArrayList<>();
+		Metrics.Outcome outcome = Metrics.Outcome.FAILED;
+		long bodySize = 0;
 		try {
-			log.debug("Preparing connection to back-end");
-			final String targetURL = baseURL + "deliver";
-			HttpURLConnection con = (HttpURLConnection) new URL(targetURL).openConnection();
-			con.setRequestMethod("POST");
-			con.setDoOutput(true);
-			con.setDoInput(true);
-			con.setConnectTimeout(timeout);
-			con.setReadTimeout(timeout);
-			headers.getAllHeaders().forEach((n, v) -> con.setRequestProperty(n, v));
+			for (String url : getBackendURLs())
+				deliveries.add(new Delivery(url + "deliver"));
+			long size = -1, offset = 0;
+			if (payload != null && payloadURL == null && resumeThreshold >= 0 && deliveries.size() == 1) {
+				size = PayloadUtils.getSize(payload);
+				if (size >= resumeThreshold)
+					offset = getDeliveredOffset(deliveries.get(0).targetURL, userMsg.getMessageId(), size);
+				else
+					size = -1;
+			}
 
-			if (payload != null) {
-				log.debug("Adding payload as HTTP entity body");
-				try (InputStream is = payload.getContent()) {
-					Streams.copy(is, con.getOutputStream(), true);
+			final boolean encode = compress && (multipart || (payload != null && payloadURL == null && size < 0));
+			for (Delivery d : deliveries)
+				d.encode = encode && !identityOnlyURLs.contains(d.targetURL);
+			bodySize = sendUserMessage(deliveries, headers, userMsg, size, offset);
+			if (encode) {
+				final List<Delivery> retries = new ArrayList<>();
+				for (int i = 0; i < deliveries.size(); i++) {
+					final Delivery d = deliveries.get(i);
+					if (d.responseCode == 415 && d.encode) {
+						log.warn("Back-end does not accept compressed entity body, disabling compression for {}",
+								d.targetURL);
+						identityOnlyURLs.add(d.targetURL);
+						final Delivery retry = new Delivery(d.targetURL);
+						deliveries.set(i, retry);
+						retries.add(retry);
+					}
 				}
-			} else {
-				log.debug("User Message does not have payload, send empty entity body");
-				con.setFixedLengthStreamingMode(0);
-				con.setRequestProperty(HTTPHeaders.MIME_TYPE, "");
+				// The retry needs to read the payload again, but only happens once for each back-end
+				if (!retries.isEmpty())
+					bodySize = Math.max(bodySize, sendUserMessage(retries, headers, userMsg, size, offset));
 			}
-
-			log.debug("Sending User Message to back-end at {}", baseURL);
-			con.connect();
-			int responseCode = con.getResponseCode();
-			String responseMsg = con.getResponseMessage();
-			con.disconnect();
-			if (responseCode / 200 != 1)
-				throw new IOException("Back-end refused delivery! HTTP error= " + responseCode + "/" + responseMsg);
-			else
-				log.info("Successful delivered payload of message [msgId={}] to back-end", userMsg.getMessageId());
+			checkResults(deliveries, "delivery");
+			outcome = Metrics.Outcome.SUCCESS;
+			log.info("Successful delivered payload of message [msgId={}] to back-end", userMsg.getMessageId());
 		} catch (IOException conError) {
+			outcome = getFailureOutcome(deliveries);
 			log.error("Error in delivery of User Message [msgId={}]. Error details: {}", userMsg.getMessageId(),
 					conError.getMessage());
 			throw new MessageDeliveryException("Error in delivery to back-end", conError);
+		} finally {
+			metrics.end(Metrics.Operation.DELIVER, userMsg.getPModeId(), outcome, startTime, bodySize);
+			complete(event, Metrics.Operation.DELIVER, userMsg, deliveries, bodySize, startTime, parentTrace, trace);
+		}
+	}
+
+	/**
+	 * Sends the User Message to the given back-end URLs. When the User Message is sent to more than one back-end, the
+	 * entity body is written to all connections in parallel using a {@link FanOutStream} so the payload data is read
+	 * only once, also when it is <i>gzip</i> encoded for some of the back-ends, see {@link #openEntityBody(List)}.
+	 * The result of each delivery is registered in the given {@link Delivery} objects.
+	 *
+	 * @param deliveries	The deliveries to execute
+	 * @param headers		The HTTP headers with the message meta-data
+	 * @param userMsg		The User Message to deliver
+	 * @param size			The size of the payload if its delivery can be resumed, -1 otherwise
+	 * @param offset		The offset from which the payload should be delivered
+	 * @return				The number of bytes written to the entity body, before encoding
+	 * @throws IOException	When an error occurs writing the entity body to all back-ends
+	 */
+	private long sendUserMessage(final List<Delivery> deliveries, final HTTPHeaders headers,
+								 final IUserMessage userMsg, final long size, final long offset) throws IOException {
+		final Collection<? extends IPayload> payloads = userMsg.getPayloads();
+		final boolean multipart = payloads != null && payloads.size() > 1;
+		final IPayload payload = Utils.isNullOrEmpty(payloads) || multipart ? null : payloads.iterator().next();
+
+		log.debug("Preparing connection to back-end");
+		final HTTPHeaders reqHeaders = new HTTPHeaders(headers.getAllHeaders());
+		// The entity body is always streamed, with a fixed length when known in advance and otherwise chunked, as
+		// HttpURLConnection would else buffer it completely in memory before sending it
+		long fixedLength = -1;
+		InputStream content = null;
+		StreamingResponseFormatter.ContentWriter body = null;
+		final RequestTiming bodyTiming = new RequestTiming();
+		if (multipart) {
+			log.debug("Adding {} payloads as multipart entity body", payloads.size());
+			final String boundary = MultipartUtils.newBoundary();
+			reqHeaders.setHeader(HTTPHeaders.MIME_TYPE, MultipartUtils.MULTIPART_RELATED + "; boundary=\""
+														+ boundary + "\"");
+			body = os -> {
+				for (IPayload p : payloads) {
+					final HTTPHeaders partHeaders = new HTTPHeaders();
+					setPayloadHeaders(partHeaders, p);
+					partHeaders.setHeader(HTTPHeaders.PAYLOAD_URI, p.getPayloadURI());
+					MultipartUtils.writePart(os, boundary, partHeaders, out -> {
+						try (InputStream is = bodyTiming.timeReads(p.getContent())) {
+							PipelinedCopier.copy(is, out);
+						}
+					});
+				}
+				MultipartUtils.writeEnd(os, boundary);
+			};
+		} else if (payload != null && payloadURL != null) {
+			log.debug("Adding reference to payload, send empty entity body");
+			fixedLength = 0;
+			reqHeaders.setHeader(HTTPHeaders.PAYLOAD_URL, payloadURL
+									+ (payloadURL.indexOf('?') < 0 ? '?' : '&') + PayloadRetrievalOperation.Q_MESSAGE_ID
+									+ "=" + URLEncoder.encode(userMsg.getMessageId(), StandardCharsets.UTF_8));
+		} else if (payload != null && size >= 0) {
+			log.debug("Adding payload from offset {} as HTTP entity body", offset);
+			fixedLength = size - offset;
+			reqHeaders.setHeader("Content-Range", offset < size ? new ByteRange(offset, size - 1).toContentRange(size)
+																 : ByteRange.UNSATISFIABLE.toContentRange(size));
+			body = os -> PayloadUtils.copyRange(payload, offset, size - offset, os);
+		} else if (payload != null) {
+			log.debug("Adding payload as HTTP entity body");
+			final InputStream plContent = payload.getContent();
+			content = plContent;
+			fixedLength = PayloadUtils.getKnownSize(plContent);
+			body = os -> {
+				try (InputStream is = bodyTiming.timeReads(plContent)) {
+					PipelinedCopier.copy(is, os);
+				}
+			};
+		} else {
+			log.debug("User Message does not have payload, send empty entity body");
+			fixedLength = 0;
+		}
+
+		try {
+			for (Delivery d : deliveries) {
+				d.con = openConnection(d.targetURL, reqHeaders);
+				if (d.encode) {
+					log.debug("Compressing entity body to {} using {}", d.targetURL, ContentEncoding.GZIP);
+					d.con.setRequestProperty(HTTPHeaders.CONTENT_ENCODING, ContentEncoding.GZIP);
+				}
+				if (fixedLength >= 0 && !d.encode)
+					d.con.setFixedLengthStreamingMode(fixedLength);
+				else
+					d.con.setChunkedStreamingMode(0);
+				if (payload == null && !multipart)
+					d.con.setRequestProperty(HTTPHeaders.MIME_TYPE, "");
+			}
+			connect(deliveries);
+			final long[] written = new long[1];
+			final long transferStart = System.nanoTime();
+			if (body != null)
+				try (OutputStream os = new FilterOutputStream(openEntityBody(deliveries)) {
+							@Override
+							public void write(int b) throws IOException {
+								out.write(b);
+								written[0]++;
+							}
+
+							@Override
+							public void write(byte[] b, int off, int len) throws IOException {
+								out.write(b, off, len);
+								written[0] += len;
+							}
+						}) {
+					body.writeTo(os);
+				}
+			bodyTiming.add(RequestTiming.Phase.WRITE, transferStart, System.nanoTime());
+			for (Delivery d : deliveries)
+				if (d.failure == null)
+					d.timing.copy(bodyTiming, RequestTiming.Phase.PAYLOAD_READ, RequestTiming.Phase.WRITE);
+
+			log.debug("Sending User Message to back-end at {}", baseURL);
+			getResponses(deliveries);
+			return written[0];
+		} finally {
+			if (content != null)
+				content.close();
+		}
+	}
+
+	/**
+	 * Connects to the back-ends of the given deliveries and registers the time needed to connect, which includes
+	 * resolving the host name as this is done by the connection itself, for example by the proxy when one is used.
+	 * Deliveries that could not be connected are marked as failed.
+	 *
+	 * @param deliveries	The deliveries to connect
+	 */
+	private static void connect(final List<Delivery> deliveries) {
+		for (Delivery d : deliveries) {
+			final long phaseStart = System.nanoTime();
+			try {
+				d.con.connect();
+			} catch (IOException connectFailure) {
+				log.warn("Could not connect to back-end at {} : {}", d.targetURL, connectFailure.getMessage());
+				d.failure = connectFailure;
+			}
+			d.timing.add(RequestTiming.Phase.CONNECT, phaseStart, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Opens the stream to write the entity body to the given deliveries, which must already be connected. When there
+	 * is more than one delivery the returned stream copies the data to all back-ends that could be connected. The data
+	 * for the back-ends that receive the entity body <i>gzip</i> encoded is encoded only once and then copied to each
+	 * of these back-ends, so when both encoded and unencoded deliveries are executed the data is still read once and
+	 * all back-ends are written in parallel. Deliveries for which copying the data failed are marked as failed.
+	 *
+	 * @param deliveries	The deliveries to write the entity body to
+	 * @return				The stream to write the entity body to
+	 * @throws IOException	When none of the back-ends can be connected
+	 */
+	private OutputStream openEntityBody(final List<Delivery> deliveries) throws IOException {
+		if (deliveries.size() == 1) {
+			final Delivery d = deliveries.get(0);
+			if (d.failure != null)
+				throw d.failure;
+			final OutputStream os = d.con.getOutputStream();
+			return d.encode ? ContentEncoding.encode(os) : os;
+		}
+
+		final List<Delivery> identity = new ArrayList<>();
+		final List<OutputStream> identityOuts = new ArrayList<>();
+		final List<Delivery> encoded = new ArrayList<>();
+		final List<OutputStream> encodedOuts = new ArrayList<>();
+		for (Delivery d : deliveries) {
+			if (d.failure != null)
+				continue;
+			try {
+				final OutputStream os = d.con.getOutputStream();
+				(d.encode ? encoded : identity).add(d);
+				(d.encode ? encodedOuts : identityOuts).add(os);
+			} catch (IOException connectFailure) {
+				log.warn("Could not connect to back-end at {} : {}", d.targetURL, connectFailure.getMessage());
+				d.failure = connectFailure;
+			}
+		}
+		if (identity.isEmpty() && encoded.isEmpty())
+			throw deliveries.get(0).failure;
+
+		// The encoded back-ends are a single branch of the fan-out, in which the data is encoded once and then copied
+		// to each of the back-ends
+		final List<OutputStream> branches = new ArrayList<>(identityOuts);
+		final FanOutStream encodedFanOut = encodedOuts.size() > 1 ? new FanOutStream(encodedOuts, FANOUT_QUEUE_SIZE,
+																					 timeout) : null;
+		if (!encoded.isEmpty())
+			branches.add(ContentEncoding.encode(encodedFanOut != null ? new BufferedOutputStream(encodedFanOut,
+																									FANOUT_CHUNK_SIZE)
+																	  : encodedOuts.get(0)));
+		final FanOutStream fanOut = branches.size() > 1 ? new FanOutStream(branches, FANOUT_QUEUE_SIZE, timeout) : null;
+		return new FilterOutputStream(fanOut != null ? new BufferedOutputStream(fanOut, FANOUT_CHUNK_SIZE)
+													 : branches.get(0)) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				super.close();
+				if (fanOut != null) {
+					for (int i = 0; i < identity.size(); i++)
+						fail(identity.get(i), fanOut.getFailure(i));
+					for (Delivery d : encoded)
+						fail(d, fanOut.getFailure(identity.size()));
+				}
+				if (encodedFanOut != null)
+					for (int i = 0; i < encoded.size(); i++)
+						fail(encoded.get(i), encodedFanOut.getFailure(i));
+			}
+
+			private void fail(final Delivery d, final IOException failure) {
+				if (failure != null && d.failure == null) {
+					log.warn("Could not send entity body to back-end at {} : {}", d.targetURL, failure.getMessage());
+					d.failure = failure;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Opens a POST connection to the given URL with the given HTTP headers.
+	 *
+	 * @param targetURL	The URL to connect to
+	 * @param headers	The HTTP headers to include
+	 * @return			The connection, not yet connected
+	 * @throws IOException	When the connection cannot be created
+	 */
+	private HttpURLConnection openConnection(final String targetURL, final HTTPHeaders headers) throws IOException {
+		final HttpURLConnection con = newConnection(targetURL);
+		con.setRequestMethod("POST");
+		con.setDoOutput(true);
+		con.setDoInput(true);
+		con.setConnectTimeout(timeout);
+		con.setReadTimeout(timeout);
+		headers.getAllHeaders().forEach((n, v) -> con.setRequestProperty(n, v));
+		return con;
+	}
+
+	/**
+	 * Creates a new connection to the given URL, using a Unix domain socket when it is a <code>unix:</code> URL.
+	 *
+	 * @param targetURL	The URL to connect to
+	 * @return			The connection, not yet connected
+	 * @throws IOException	When the connection cannot be created
+	 */
+	private static HttpURLConnection newConnection(final String targetURL) throws IOException {
+		return UnixSocketConnection.isUnixURL(targetURL) ? new UnixSocketConnection(targetURL)
+														 : (HttpURLConnection) new URL(targetURL).openConnection();
+	}
+
+	/**
+	 * Gets the responses of the back-ends to which the request was successfully sent. The responses are read one after
+	 * the other. When the request has an entity body it has already been sent completely to all back-ends, so they
+	 * process it in parallel. But a request without entity body, like a notification or a delivery of a payload by
+	 * reference, is only sent by the connection when its response is requested, so these are processed by the
+	 * back-ends one after the other.
+	 *
+	 * @param deliveries	The deliveries to get the responses for
+	 */
+	private static void getResponses(final List<Delivery> deliveries) {
+		for (Delivery d : deliveries) {
+			if (d.failure == null) {
+				final long responseStart = System.nanoTime();
+				try {
+					d.responseCode = d.con.getResponseCode();
+					d.responseMsg = d.con.getResponseMessage();
+				} catch (IOException responseFailure) {
+					d.failure = responseFailure;
+				}
+				d.timing.add(RequestTiming.Phase.RESPONSE, responseStart, System.nanoTime());
+			}
+			d.con.disconnect();
+		}
+	}
+
+	/**
+	 * Completes the timings of the requests to each back-end, which are recorded in the {@link SlowRequestLog}, and
+	 * the JFR event of a delivery or notification using the result of the delivery to the primary back-end. When
+	 * the message unit is traced the span of the operation and those of the phases of each request are exported.
+	 *
+	 * @param event			The event to complete
+	 * @param operation		The executed operation
+	 * @param msgUnit		The delivered or notified message unit
+	 * @param deliveries	The executed deliveries, may be empty when the request failed before sending
+	 * @param bodySize		The number of bytes written to the entity body
+	 * @param startTime		The start time of the operation in nanoseconds
+	 * @param parentTrace	The trace context of the message unit, <code>null</code> if there is none
+	 * @param trace			The trace context of the operation, <code>null</code> if there is none
+	 */
+	private static void complete(final RestOperationEvent event, final Metrics.Operation operation,
+								 final IMessageUnit msgUnit, final List<Delivery> deliveries, final long bodySize,
+								 final long startTime, final TraceContext parentTrace, final TraceContext trace) {
+		final long total = System.nanoTime() - startTime;
+		final SlowRequestLog slowRequests = SlowRequestLog.getInstance();
+		for (Delivery d : deliveries) {
+			d.timing.complete(operation, msgUnit.getMessageId(), msgUnit.getPModeId(), d.targetURL, d.responseCode,
+							  total);
+			slowRequests.record(d.timing);
+		}
+		final RequestTiming t = deliveries.isEmpty() ? null : deliveries.get(0).timing;
+		event.complete(msgUnit.getMessageId(), msgUnit.getPModeId(), bodySize,
+					   t != null ? deliveries.get(0).responseCode : -1,
+					   t != null ? t.get(RequestTiming.Phase.CONNECT) : 0,
+					   t != null ? t.get(RequestTiming.Phase.WRITE) : 0);
+
+		if (Tracing.shouldExport(parentTrace, trace)) {
+			Tracing.export(Tracing.newSpan(trace.getSpanId(), trace, parentTrace != null ? parentTrace.getSpanId() : null,
+										   operation.label, startTime, total)
+							.setAttribute("messageId", msgUnit.getMessageId())
+							.setAttribute("pmode", msgUnit.getPModeId()));
+			for (Delivery d : deliveries)
+				for (RequestTiming.Phase p : RequestTiming.Phase.values())
+					if (d.timing.getStart(p) != 0)
+						Tracing.export(Tracing.newSpan(TraceContext.newSpanId(), trace, trace.getSpanId(), p.label,
+													   d.timing.getStart(p), d.timing.get(p))
+										.setAttribute("url", d.targetURL)
+										.setAttribute("http.status", p == RequestTiming.Phase.RESPONSE
+																	 ? d.responseCode : null));
+		}
+	}
+
+	/**
+	 * Adds the <i>traceparent</i> and <i>tracestate</i> headers for the given trace context.
+	 *
+	 * @param headers	The headers of the request
+	 * @param trace		The trace context to include, <code>null</code> if there is none
+	 */
+	private static void setTraceHeaders(final HTTPHeaders headers, final TraceContext trace) {
+		if (trace != null) {
+			headers.setHeader(HTTPHeaders.TRACEPARENT, trace.getTraceParent());
+			headers.setHeader(HTTPHeaders.TRACESTATE, trace.getTraceState());
+		}
+	}
+
+	/**
+	 * Determines the outcome of a failed delivery or notification for the {@link Metrics}. When at least one of the
+	 * back-ends responded the request is considered to be rejected, otherwise it failed.
+	 *
+	 * @param deliveries	The executed deliveries
+	 * @return				{@link Metrics.Outcome#REJECTED} if a back-end responded with an error status,
+	 * 						{@link Metrics.Outcome#FAILED} otherwise
+	 */
+	private static Metrics.Outcome getFailureOutcome(final List<Delivery> deliveries) {
+		return deliveries.stream().anyMatch(d -> d.failure == null && d.responseCode >= 0) ? Metrics.Outcome.REJECTED
+																						 : Metrics.Outcome.FAILED;
+	}
+
+	/**
+	 * Checks whether enough back-ends accepted the request according to the configured success policy.
+	 *
+	 * @param deliveries	The executed deliveries
+	 * @param operation		Name of the operation, used in the error message
+	 * @throws IOException	When not enough back-ends accepted the request
+	 */
+	private void checkResults(final List<Delivery> deliveries, final String operation) throws IOException {
+		if (deliveries.size() == 1) {
+			final Delivery d = deliveries.get(0);
+			if (d.failure != null)
+				throw d.failure;
+			if (!d.isAccepted())
+				throw new IOException("Back-end refused " + operation + "! HTTP error= " + d.responseCode + "/"
+									  + d.responseMsg);
+			return;
+		}
+
+		final long accepted = deliveries.stream().filter(Delivery::isAccepted).count();
+		final StringBuilder failures = new StringBuilder();
+		deliveries.stream().filter(d -> !d.isAccepted()).forEach(d -> failures.append(failures.length() > 0 ? ", " : "")
+																		.append(d.targetURL).append(" [")
+																		.append(d.describe()).append(']'));
+		if (!successPolicy.isMet(accepted, deliveries.size()))
+			throw new IOException(accepted + " of " + deliveries.size() + " back-ends accepted the " + operation
+								  + ", required " + successPolicy + "! Failed: " + failures);
+		else if (accepted < deliveries.size())
+			log.warn("{} of {} back-ends accepted the {}, failed: {}", accepted, deliveries.size(), operation, failures);
+	}
+
+	/**
+	 * Adds the headers with the meta-data of the given payload.
+	 *
+	 * @param headers	The headers to add the payload meta-data to
+	 * @param payload	The payload
+	 */
+	private static void setPayloadHeaders(final HTTPHeaders headers, final IPayload payload) {
+		headers.setHeader(HTTPHeaders.MIME_TYPE, payload.getMimeType());
+		headers.setProperties(HTTPHeaders.PART_PROPS, payload.getProperties());
+		ISchemaReference plSchemaInfo = payload.getSchemaReference();
+		if (plSchemaInfo != null) {
+			headers.setHeader(HTTPHeaders.SCHEMA_LOCATION, plSchemaInfo.getLocation());
+			headers.setHeader(HTTPHeaders.SCHEMA_VERSION, plSchemaInfo.getVersion());
+			headers.setHeader(HTTPHeaders.SCHEMA_NS, plSchemaInfo.getNamespace());
+		}
+	}
+
+	/**
+	 * Asks the back-end how many bytes of the payload of the given message it already persisted in an earlier delivery
+	 * attempt. When the back-end does not provide a valid offset, or the request fails, the payload will be delivered
+	 * completely.
+	 *
+	 * @param targetURL	The URL where the User Message is delivered
+	 * @param messageId	The messageId of the User Message
+	 * @param size		The size of the payload
+	 * @return			The offset from which the payload should be delivered
+	 */
+	private long getDeliveredOffset(final String targetURL, final String messageId, final long size) {
+		try {
+			log.debug("Checking if delivery of message [msgId={}] can be resumed", messageId);
+			HttpURLConnection con = newConnection(targetURL);
+			con.setRequestMethod("HEAD");
+			con.setConnectTimeout(timeout);
+			con.setReadTimeout(timeout);
+			con.setRequestProperty(HTTPHeaders.MESSAGE_ID, messageId);
+			final int responseCode = con.getResponseCode();
+			final String offsetHdr = con.getHeaderField(HTTPHeaders.UPLOAD_OFFSET);
+			con.disconnect();
+			if (responseCode / 100 != 2 || Utils.isNullOrEmpty(offsetHdr))
+				return 0;
+			final long offset = Long.parseLong(offsetHdr.trim());
+			if (offset < 0 || offset > size) {
+				log.warn("Back-end reported invalid offset ({}) for message [msgId={}], delivering complete payload",
+						offset, messageId);
+				return 0;
+			}
+			if (offset > 0)
+				log.info("Resuming delivery of message [msgId={}] from offset {}", messageId, offset);
+			return offset;
+		} catch (IOException | NumberFormatException checkFailure) {
+			log.warn("Could not check delivered offset of message [msgId={}], delivering complete payload : {}",
+					messageId, checkFailure.getMessage());
+			return 0;
 		}
 	}
 
@@ -224,55 +947,72 @@ public class NotifyAndDeliverOperation implements IDeliveryMethod {
 		headers.setHeader(HTTPHeaders.MESSAGE_ID, signal.getMessageId());
 		headers.setHeader(HTTPHeaders.TIMESTAMP, Utils.toXMLDateTime(signal.getTimestamp()));
         	final String refToMessageId = signal.getRefToMessageId();
+		TraceContext parentTrace = null;
 		if (!Utils.isNullOrEmpty(refToMessageId)) {
                     headers.setHeader(HTTPHeaders.REF_TO_MESSAGE_ID, refToMessageId);
-                    if (signalWithConvId) {
+                    if (signalWithConvId || traceSignals) {
                         // For more consistent referencing of the User Message the ConversationId should be included
+                        // and to follow the business transaction the trace context of the User Message propagated
                         try {
-                            final String convId = HolodeckB2BCoreInterface.getQueryManager()
+                            final List<IUserMessage> refdUserMsgs = HolodeckB2BCoreInterface.getQueryManager()
                                                     .getMessageUnitsWithId(refToMessageId, Direction.OUT).stream()
-                                                    .filter(mu -> (mu instanceof IUserMessage)
-                                                                    && (((IUserMessage) mu).getCollaborationInfo() != null)
-                                                                    && ((IUserMessage) mu).getCollaborationInfo().getConversationId() != null)
-                                                    .map(um -> ((IUserMessage) um).getCollaborationInfo().getConversationId())
+                                                    .filter(mu -> mu instanceof IUserMessage)
+                                                    .map(mu -> (IUserMessage) mu).collect(Collectors.toList());
+                            if (signalWithConvId) {
+                                final String convId = refdUserMsgs.stream()
+                                                    .filter(um -> um.getCollaborationInfo() != null
+                                                                    && um.getCollaborationInfo().getConversationId() != null)
+                                                    .map(um -> um.getCollaborationInfo().getConversationId())
                                                     .findFirst().orElse(null);
                                 headers.setHeader(HTTPHeaders.CONVERSATION_ID, convId);
+                            }
+                            if (traceSignals)
+                                parentTrace = refdUserMsgs.stream()
+                                                    .map(um -> Tracing.getTraceContext(um.getMessageProperties()))
+                                                    .filter(Objects::nonNull).findFirst().orElse(null);
                         } catch (StorageException se) {
-                                log.error("Error retrieving ConversationId of refd UserMessage (msgID={}) : {}", refToMessageId,
+                                log.error("Error retrieving refd UserMessage (msgID={}) : {}", refToMessageId,
                                                    se.getMessage());
                         }
                     }
 		}
 		if (signal instanceof IErrorMessage)
 			headers.setErrorMessage(((IErrorMessage) signal).getErrors());
+		final TraceContext trace = Tracing.startSpan(parentTrace, false);
+		setTraceHeaders(headers, trace);
 
+		final RestOperationEvent event = new RestOperationEvent.Notify();
+		event.begin();
+		final Metrics metrics = Metrics.getInstance();
+		final long startTime = metrics.start(Metrics.Operation.NOTIFY);
+		final List<Delivery> notifications = new ArrayList<>();
+		Metrics.Outcome outcome = Metrics.Outcome.FAILED;
 		try {
 			log.debug("Preparing connection to back-end");
-			final String targetURL = baseURL + "notify/" + (signal instanceof IReceipt ? "receipt" : "error");
-			HttpURLConnection con = (HttpURLConnection) new URL(targetURL).openConnection();
-			con.setRequestMethod("POST");
-			con.setDoOutput(true);
-			con.setFixedLengthStreamingMode(0);
-			con.setDoInput(true);
-			con.setConnectTimeout(timeout);
-			con.setReadTimeout(timeout);
-			headers.getAllHeaders().forEach((n, v) -> con.setRequestProperty(n, v));
+			final String path = "notify/" + (signal instanceof IReceipt ? "receipt" : "error");
+			for (String url : getBackendURLs()) {
+				final Delivery d = new Delivery(url + path);
+				d.con = openConnection(d.targetURL, headers);
+				d.con.setFixedLengthStreamingMode(0);
+				notifications.add(d);
+			}
+			connect(notifications);
 
-			log.debug("Sending {} to back-end at {}", MessageUnitUtils.getMessageUnitName(signal), targetURL);
-			con.connect();
-			int responseCode = con.getResponseCode();
-			String responseMsg = con.getResponseMessage();
-			con.disconnect();
-			if (responseCode / 200 != 1)
-				throw new IOException("Back-end refused notification! HTTP error= " + responseCode + "/" + responseMsg);
-			else
-				log.info("Successful notified {} [msgId={}] to back-end", MessageUnitUtils.getMessageUnitName(signal),
-						signal.getMessageId());
+			log.debug("Sending {} to back-end at {}", MessageUnitUtils.getMessageUnitName(signal), baseURL);
+			getResponses(notifications);
+			checkResults(notifications, "notification");
+			outcome = Metrics.Outcome.SUCCESS;
+			log.info("Successful notified {} [msgId={}] to back-end", MessageUnitUtils.getMessageUnitName(signal),
+					signal.getMessageId());
 		} catch (IOException conError) {
+			outcome = getFailureOutcome(notifications);
 			log.error("Error in notification of {} [msgId={}]. Error details: {}",
 					MessageUnitUtils.getMessageUnitName(signal), signal.getMessageId(),
 					Utils.getExceptionTrace(conError));
 			throw new MessageDeliveryException("Error in notification to back-end", conError);
+		} finally {
+			metrics.end(Metrics.Operation.NOTIFY, signal.getPModeId(), outcome, startTime, 0);
+			complete(event, Metrics.Operation.NOTIFY, signal, notifications, 0, startTime, parentTrace, trace);
 		}
 	}
 }
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Is a content addressed store of staged payload data, used to prevent that payloads with the same content, like a
+ * catalogue that is sent to many partners, are staged more than once. Each <i>blob</i> is identified by the SHA-256
+ * digest of its content and stored only once. The store keeps track of the number of streams reading a blob and a blob
+ * that is no longer read is kept for the configured retention time so a later submission of the same content can reuse
+ * it. Blobs left over from an earlier run are removed when the store is created.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadBlobStore {
+	private static final Logger log = LogManager.getLogger(PayloadBlobStore.class);
+
+	/**
+	 * The suffix used for the blob files
+	 */
+	private static final String BLOB_SUFFIX = ".blob";
+
+	/**
+	 * The directory where the blobs are stored
+	 */
+	private final Path	blobDir;
+	/**
+	 * The time (in milliseconds) a blob that is not read is kept
+	 */
+	private final long	retention;
+	/**
+	 * The blobs in the store, keyed on the hex encoded digest. Access is synchronised on the map.
+	 */
+	private final Map<String, Blob> blobs = new HashMap<>();
+
+	/**
+	 * Holds the reference count of a blob and the time it was last released
+	 */
+	private static final class Blob {
+		final Path	path;
+		int			refs;
+		long		releasedAt;
+
+		Blob(final Path path) {
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Creates a new store in the given directory.
+	 *
+	 * @param blobDir	The directory where the blobs should be stored
+	 * @param retention	The time in milliseconds a blob that is not read anymore is kept, 0 to remove it immediately
+	 * @throws IOException	When the directory cannot be created or cleaned
+	 */
+	public PayloadBlobStore(final Path blobDir, final long retention) throws IOException {
+		if (retention < 0)
+			throw new IllegalArgumentException("Retention must not be negative");
+		this.blobDir = Files.createDirectories(blobDir);
+		this.retention = retention;
+		try (DirectoryStream<Path> leftOvers = Files.newDirectoryStream(blobDir, "*" + BLOB_SUFFIX)) {
+			for (Path f : leftOvers) {
+				log.debug("Removing left over payload blob {}", f);
+				Files.deleteIfExists(f);
+			}
+		}
+	}
+
+	/**
+	 * Opens the blob with the given digest if it exists in the store.
+	 *
+	 * @param sha256	The SHA-256 digest of the content
+	 * @return	Stream to read the blob, <code>null</code> if the store does not contain the blob. The caller MUST close
+	 * 			this stream to release the blob.
+	 * @throws IOException	When the blob cannot be opened
+	 */
+	public InputStream open(final byte[] sha256) throws IOException {
+		final String key = toHex(sha256);
+		final Blob blob;
+		synchronized (blobs) {
+			removeExpired();
+			blob = blobs.get(key);
+			if (blob == null)
+				return null;
+			blob.refs++;
+		}
+		log.trace("Reusing payload blob {}", key);
+		return openBlob(key, blob);
+	}
+
+	/**
+	 * Adds the given file to the store. When the store already contains a blob with the same digest the file is
+	 * removed and the existing blob is used, otherwise the file is moved into the store.
+	 *
+	 * @param file		The file containing the content
+	 * @param sha256	The SHA-256 digest of the content
+	 * @return	Stream to read the blob. The caller MUST close this stream to release the blob.
+	 * @throws IOException	When the file cannot be moved into the store or the blob cannot be opened
+	 */
+	public InputStream add(final Path file, final byte[] sha256) throws IOException {
+		final String key = toHex(sha256);
+		Blob blob;
+		synchronized (blobs) {
+			removeExpired();
+			blob = blobs.get(key);
+			if (blob == null) {
+				final Path blobPath = blobDir.resolve(key + BLOB_SUFFIX);
+				try {
+					Files.move(file, blobPath, StandardCopyOption.ATOMIC_MOVE);
+				} catch (FileAlreadyExistsException replaceNotAllowed) {
+					Files.move(file, blobPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+				blob = new Blob(blobPath);
+				blobs.put(key, blob);
+				log.trace("Added payload blob {}", key);
+			} else {
+				log.trace("Payload content already stored in blob {}", key);
+				Files.deleteIfExists(file);
+			}
+			blob.refs++;
+		}
+		return openBlob(key, blob);
+	}
+
+	/**
+	 * Gets the number of blobs in the store, including the blobs that are not read but still retained.
+	 *
+	 * @return	The number of blobs
+	 */
+	public int getBlobCount() {
+		synchronized (blobs) {
+			return blobs.size();
+		}
+	}
+
+	/**
+	 * Removes the blobs that are not read anymore and whose retention time has passed.
+	 */
+	public void removeExpired() {
+		final long now = System.currentTimeMillis();
+		synchronized (blobs) {
+			for (Iterator<Blob> it = blobs.values().iterator(); it.hasNext();) {
+				final Blob b = it.next();
+				if (b.refs == 0 && now - b.releasedAt >= retention) {
+					it.remove();
+					delete(b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a stream on the given blob that releases the blob when it is closed. The reference on the blob MUST already
+	 * be counted.
+	 *
+	 * @param key	The hex encoded digest of the blob
+	 * @param blob	The blob
+	 * @return		The stream to read the blob
+	 * @throws IOException	When the blob file cannot be opened
+	 */
+	private InputStream openBlob(final String key, final Blob blob) throws IOException {
+		final InputStream is;
+		try {
+			is = Files.newInputStream(blob.path);
+		} catch (IOException openFailure) {
+			release(key, blob);
+			throw openFailure;
+		}
+		return new FilterInputStream(is) {
+			private boolean released = false;
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (!released) {
+						released = true;
+						release(key, blob);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Releases a reference on the blob. When the retention time is 0 a blob that is not read anymore is removed
+	 * immediately.
+	 *
+	 * @param key	The hex encoded digest of the blob
+	 * @param blob	The blob
+	 */
+	private void release(final String key, final Blob blob) {
+		synchronized (blobs) {
+			if (--blob.refs > 0)
+				return;
+			blob.releasedAt = System.currentTimeMillis();
+			if (retention == 0 && blobs.remove(key, blob))
+				delete(blob);
+		}
+	}
+
+	/**
+	 * Deletes the file of the given blob.
+	 *
+	 * @param blob	The blob to delete
+	 */
+	private void delete(final Blob blob) {
+		try {
+			Files.deleteIfExists(blob.path);
+			log.trace("Removed payload blob {}", blob.path);
+		} catch (IOException removeFailure) {
+			log.warn("Could not remove payload blob {} : {}", blob.path, removeFailure.getMessage());
+		}
+	}
+
+	/**
+	 * Converts the digest to a hex string.
+	 *
+	 * @param digest	The digest
+	 * @return			The hex encoded digest
+	 */
+	private static String toHex(final byte[] digest) {
+		final StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest)
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return sb.toString();
+	}
+}
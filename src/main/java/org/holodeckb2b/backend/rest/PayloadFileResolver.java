@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+
+/**
+ * Resolves the references to local files that contain the payload data of a submission. Such references can be used
+ * by back-end applications that run on the same host as Holodeck B2B to prevent that the payload data has to be sent
+ * over HTTP. To prevent that arbitrary files can be submitted only files in one of the configured directories, or
+ * their sub directories, are accepted.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadFileResolver {
+	/**
+	 * The directories from which payload files may be read, as real paths
+	 */
+	private final List<Path> allowedDirs = new ArrayList<>();
+
+	/**
+	 * Creates a new resolver that accepts files from the given directories.
+	 *
+	 * @param directories	The directories from which payload files may be read
+	 * @throws IOException	When one of the directories does not exist or is not a directory
+	 */
+	public PayloadFileResolver(final Collection<Path> directories) throws IOException {
+		for (Path d : directories) {
+			if (!Files.isDirectory(d))
+				throw new IOException(d + " is not a directory");
+			allowedDirs.add(d.toRealPath());
+		}
+	}
+
+	/**
+	 * Gets the directories from which payload files may be read.
+	 *
+	 * @return	The allowed directories
+	 */
+	public List<Path> getAllowedDirectories() {
+		return allowedDirs;
+	}
+
+	/**
+	 * Resolves the given file reference to the path of a regular file in one of the allowed directories. Symbolic
+	 * links are resolved before checking that the file is located in an allowed directory.
+	 *
+	 * @param fileRef	The absolute path of the file as provided in the submission
+	 * @return			The real path of the referenced file
+	 * @throws MessageSubmitException	When the reference does not point to a readable regular file in one of the
+	 * 									allowed directories
+	 */
+	public Path resolve(final String fileRef) throws MessageSubmitException {
+		final Path realPath;
+		try {
+			final Path path = Paths.get(fileRef);
+			if (!path.isAbsolute())
+				throw new MessageSubmitException("Payload file reference must be an absolute path");
+			realPath = path.toRealPath();
+		} catch (InvalidPathException | IOException invalidPath) {
+			throw new MessageSubmitException("Payload file not found: " + fileRef);
+		}
+		if (allowedDirs.stream().noneMatch(realPath::startsWith))
+			throw new MessageSubmitException("Payload file not in allowed directory: " + fileRef);
+		if (!Files.isRegularFile(realPath) || !Files.isReadable(realPath))
+			throw new MessageSubmitException("Payload file is not a readable file: " + fileRef);
+
+		return realPath;
+	}
+}
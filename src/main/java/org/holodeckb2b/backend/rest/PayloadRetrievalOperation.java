@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.receivers.AbstractInOutMessageReceiver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.holodeckb2b.commons.util.Utils;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.messagemodel.Direction;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.storage.StorageException;
+
+/**
+ * Implements the REST operation that the back-end can use to retrieve the payload data of a received User Message that
+ * was delivered <i>by reference</i>, see {@link NotifyAndDeliverOperation}.
+ * <p>The User Message is identified by its messageId which is provided in the <i>messageId</i> query parameter or,
+ * when no query parameter is available, in the <i>X-HolodeckB2B-MessageId</i> header. The payload data is returned in
+ * the entity body of the response with the <i>Content-Type</i> set to the MIME type of the payload. The operation
+ * supports the retrieval of a single byte range of the payload using the <i>Range</i> header, so the back-end can
+ * retrieve large payloads in parallel ranges or resume an interrupted retrieval. When the payload storage provides the
+ * payload data as a file the requested range is read without reading the preceding data.
+ * <p>The operation responds with HTTP status 200 when the complete payload is returned, 206 when a range is returned,
+ * 404 when the message or its payload cannot be found and 416 when the requested range is outside of the payload.
+ * <p>NOTE: The operation does not authenticate the requests, so anyone who can reach it and knows the messageId of a
+ * received message can retrieve its payload. It is therefore disabled by default and must be enabled explicitly by
+ * setting the <b>enablePayloadRetrieval</b> service parameter to <i>true</i>, in which case access to the operation
+ * should be restricted to the back-end, for example by the firewall or the servlet container. When disabled requests
+ * are rejected with HTTP status 403.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadRetrievalOperation extends AbstractInOutMessageReceiver {
+
+	private Logger	log = LogManager.getLogger(PayloadRetrievalOperation.class);
+
+	/**
+	 * Name of the query parameter that contains the messageId of the User Message
+	 */
+	public static final String Q_MESSAGE_ID = "messageId";
+	/**
+	 * Name of the service parameter that indicates whether the retrieval of payloads is enabled
+	 */
+	public static final String P_ENABLE_PAYLOAD_RETRIEVAL = "enablePayloadRetrieval";
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void invokeBusinessLogic(final MessageContext inMsgCtx, final MessageContext outMsgCtx) throws AxisFault {
+		final HTTPHeaders headers = new HTTPHeaders((Map<String, String>)
+																inMsgCtx.getProperty(MessageContext.TRANSPORT_HEADERS));
+		if (!Utils.isTrue(SubmitOperation.getParameter(inMsgCtx, P_ENABLE_PAYLOAD_RETRIEVAL))) {
+			log.warn("Rejected payload retrieval request because the operation is not enabled");
+			ResponseUtils.setStatus(inMsgCtx, 403);
+			throw new AxisFault("Payload retrieval not enabled", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+		String messageId = getQueryParameter(inMsgCtx, Q_MESSAGE_ID);
+		if (Utils.isNullOrEmpty(messageId))
+			messageId = headers.getHeader(HTTPHeaders.MESSAGE_ID);
+		if (Utils.isNullOrEmpty(messageId)) {
+			log.warn("Received payload retrieval request without messageId");
+			throw new AxisFault("Missing messageId", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+
+		log.debug("Received request to retrieve payload of message [msgId={}]", messageId);
+		final IPayload payload = findPayload(messageId);
+		if (payload == null) {
+			log.warn("No payload available for message [msgId={}]", messageId);
+			ResponseUtils.setStatus(inMsgCtx, 404);
+			throw new AxisFault("Payload not found", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+
+		final long size;
+		try {
+			size = PayloadUtils.getSize(payload);
+		} catch (IOException readError) {
+			log.error("Could not read payload of message [msgId={}] : {}", messageId, readError.getMessage());
+			throw new AxisFault("Could not read payload", SOAP12Constants.QNAME_RECEIVER_FAULTCODE);
+		}
+
+		final ByteRange range = ByteRange.parse(headers.getHeader("Range"), size);
+		if (range == ByteRange.UNSATISFIABLE) {
+			log.warn("Requested range [{}] of payload of message [msgId={}] not satisfiable",
+					 headers.getHeader("Range"), messageId);
+			ResponseUtils.setStatus(inMsgCtx, 416);
+			ResponseUtils.setHeader(inMsgCtx, "Content-Range", range.toContentRange(size));
+			throw new AxisFault("Range not satisfiable", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+
+		final long start = range != null ? range.getStart() : 0;
+		final long length = range != null ? range.getLength() : size;
+		ResponseUtils.setHeader(outMsgCtx, "Accept-Ranges", "bytes");
+		ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.CONTENT_LENGTH, Long.toString(length));
+		if (range != null) {
+			ResponseUtils.setStatus(outMsgCtx, 206);
+			ResponseUtils.setHeader(outMsgCtx, "Content-Range", range.toContentRange(size));
+		}
+		final String mimeType = Utils.isNullOrEmpty(payload.getMimeType()) ? "application/octet-stream"
+																			  : payload.getMimeType();
+		new StreamingResponseFormatter(mimeType, out -> PayloadUtils.copyRange(payload, start, length, out))
+																							.setOnResponse(outMsgCtx);
+		log.info("Returning {} bytes (offset={}) of payload of message [msgId={}]", length, start, messageId);
+	}
+
+	/**
+	 * Gets the value of a parameter from the query string of the request URL.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param name		The name of the query parameter
+	 * @return			The decoded value of the parameter if included in the query string, <code>null</code> otherwise
+	 */
+	static String getQueryParameter(final MessageContext msgCtx, final String name) {
+		String url = (String) msgCtx.getProperty(Constants.Configuration.TRANSPORT_IN_URL);
+		if (url == null || url.indexOf('?') < 0) {
+			final EndpointReference to = msgCtx.getTo();
+			url = to != null ? to.getAddress() : null;
+		}
+		final int q = url != null ? url.indexOf('?') : -1;
+		if (q < 0)
+			return null;
+		for (String p : url.substring(q + 1).split("&")) {
+			final int eq = p.indexOf('=');
+			if (eq > 0 && name.equals(p.substring(0, eq)))
+				return URLDecoder.decode(p.substring(eq + 1), StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the payload of the received User Message with the given messageId.
+	 *
+	 * @param messageId	The messageId of the User Message
+	 * @return			The payload of the User Message, <code>null</code> if there is no such message or it does not
+	 * 					contain a payload
+	 * @throws AxisFault	When the message could not be retrieved from the message store
+	 */
+	IPayload findPayload(final String messageId) throws AxisFault {
+		try {
+			return HolodeckB2BCoreInterface.getQueryManager().getMessageUnitsWithId(messageId, Direction.IN).stream()
+							.filter(mu -> mu instanceof IUserMessage)
+							.map(um -> (Collection<? extends IPayload>) ((IUserMessage) um).getPayloads())
+							.filter(pls -> !Utils.isNullOrEmpty(pls))
+							.map(pls -> (IPayload) pls.iterator().next())
+							.findFirst().orElse(null);
+		} catch (StorageException se) {
+			log.error("Error retrieving message [msgId={}] from storage : {}", messageId, se.getMessage());
+			throw new AxisFault("Could not retrieve message", SOAP12Constants.QNAME_RECEIVER_FAULTCODE);
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stages the payload data of a submission before it is handed over to the Holodeck B2B Core so the Core can read the
+ * payload without depending on the speed at which the client uploads the data.
+ * <p>Payloads of which the size, as indicated by the <i>Content-Length</i> header, does not exceed the configured
+ * threshold are kept in memory, in buffers taken from the shared {@link BufferPool} so they are included in its
+ * statistics and no separate pool of memory is kept. Larger payloads, or payloads of unknown size, are
+ * written to a temporary file in the staging directory which is removed when the stream returned to the Core is
+ * closed.
+ * <p>Optionally the payloads written to a file can be deduplicated using a {@link PayloadBlobStore}. The SHA-256
+ * digest of the payload is then calculated while it is written and when a payload with the same content is already
+ * staged the existing file is reused. When the digest of the payload is known before it is read, for example because
+ * the client provided it, and the content is already staged the payload is not written at all.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class PayloadStager {
+	private static final Logger log = LogManager.getLogger(PayloadStager.class);
+
+	/**
+	 * The suffix used for the temporary files
+	 */
+	private static final String STAGED_FILE_SUFFIX = ".staged";
+
+	/**
+	 * The maximum size of payloads kept in memory
+	 */
+	private final int	threshold;
+	/**
+	 * The directory where the temporary files are stored
+	 */
+	private final Path	stagingDir;
+	/**
+	 * The store used to deduplicate payloads, <code>null</code> if payloads are not deduplicated
+	 */
+	private final PayloadBlobStore blobStore;
+
+	/**
+	 * Creates a new stager that uses the given threshold and directory. Any files left in the directory from an earlier
+	 * run are removed.
+	 *
+	 * @param threshold		The maximum size in bytes of payloads that are kept in memory
+	 * @param stagingDir	The directory where temporary files should be stored
+	 * @throws IOException	When the staging directory cannot be created or cleaned
+	 */
+	public PayloadStager(final int threshold, final Path stagingDir) throws IOException {
+		this(threshold, stagingDir, null);
+	}
+
+	/**
+	 * Creates a new stager that uses the given threshold and directory and deduplicates the payloads written to a file
+	 * using the given store. Any files left in the directory from an earlier run are removed.
+	 *
+	 * @param threshold		The maximum size in bytes of payloads that are kept in memory
+	 * @param stagingDir	The directory where temporary files should be stored
+	 * @param blobStore		The store used to deduplicate payloads, <code>null</code> if payloads should not be
+	 * 						deduplicated
+	 * @throws IOException	When the staging directory cannot be created or cleaned
+	 */
+	public PayloadStager(final int threshold, final Path stagingDir, final PayloadBlobStore blobStore)
+																							throws IOException {
+		if (threshold < 0)
+			throw new IllegalArgumentException("Threshold must not be negative");
+		this.threshold = threshold;
+		this.blobStore = blobStore;
+		this.stagingDir = Files.createDirectories(stagingDir);
+		try (DirectoryStream<Path> leftOvers = Files.newDirectoryStream(stagingDir, "*" + STAGED_FILE_SUFFIX)) {
+			for (Path f : leftOvers) {
+				log.debug("Removing left over staged payload file {}", f);
+				Files.deleteIfExists(f);
+			}
+		}
+	}
+
+	/**
+	 * Gets the directory where temporary files are stored.
+	 *
+	 * @return	Path to the staging directory
+	 */
+	public Path getStagingDirectory() {
+		return stagingDir;
+	}
+
+	/**
+	 * Stages the payload data read from the given stream. The stream is read completely but not closed.
+	 *
+	 * @param content		The stream containing the payload data
+	 * @param contentLength	The size of the payload as indicated by the client, -1 if unknown
+	 * @return	Stream from which the staged payload data can be read. The caller MUST close this stream to release the
+	 * 			resources used by the staged payload.
+	 * @throws IOException	When the payload data could not be read completely or could not be staged
+	 */
+	public InputStream stage(final InputStream content, final long contentLength) throws IOException {
+		return stage(content, contentLength, null);
+	}
+
+	/**
+	 * Stages the payload data read from the given stream of which the SHA-256 digest may already be known. When
+	 * payloads are deduplicated and a payload with the given digest is already staged the payload data is only read,
+	 * but not written. The stream is read completely but not closed.
+	 * <p>NOTE: The caller is responsible for verifying that the payload data matches the given digest, for example by
+	 * providing a stream that verifies the digest when its end is reached.
+	 *
+	 * @param content		The stream containing the payload data
+	 * @param contentLength	The size of the payload as indicated by the client, -1 if unknown
+	 * @param sha256		The SHA-256 digest of the payload data, <code>null</code> if unknown
+	 * @return	Stream from which the staged payload data can be read. The caller MUST close this stream to release the
+	 * 			resources used by the staged payload.
+	 * @throws IOException	When the payload data could not be read completely or could not be staged
+	 */
+	public InputStream stage(final InputStream content, final long contentLength, final byte[] sha256)
+																								throws IOException {
+		if (content == null)
+			throw new IOException("No payload data available");
+		if (contentLength >= 0 && contentLength <= threshold)
+			return stageInMemory(content, (int) contentLength);
+		final InputStream existing = blobStore != null && sha256 != null ? blobStore.open(sha256) : null;
+		if (existing == null)
+			return stageInFile(content, contentLength);
+
+		log.trace("Payload content already staged, skip writing");
+		try {
+			final long total = PayloadUtils.copy(content, OutputStream.nullOutputStream());
+			if (contentLength >= 0 && total != contentLength)
+				throw new IOException("Payload size does not match Content-Length");
+			return existing;
+		} catch (IOException readFailure) {
+			existing.close();
+			throw readFailure;
+		}
+	}
+
+	/**
+	 * Stages the payload data written by the given writer in a temporary file. This is used for payloads that are not
+	 * available as a separate stream, like the parts of a multipart entity body.
+	 *
+	 * @param content	The writer of the payload data
+	 * @return	Stream from which the staged payload data can be read. The caller MUST close this stream to release the
+	 * 			resources used by the staged payload.
+	 * @throws IOException	When the payload data could not be staged
+	 */
+	public InputStream stage(final StreamingResponseFormatter.ContentWriter content) throws IOException {
+		final Path stagedFile = Files.createTempFile(stagingDir, "payload-", STAGED_FILE_SUFFIX);
+		final MessageDigest md = blobStore != null ? newDigest() : null;
+		try (OutputStream os = Files.newOutputStream(stagedFile, StandardOpenOption.WRITE)) {
+			content.writeTo(md != null ? new DigestOutputStream(os, md) : os);
+		} catch (IOException stagingFailure) {
+			Files.deleteIfExists(stagedFile);
+			throw stagingFailure;
+		}
+		log.trace("Staged {} bytes of payload data in {}", Files.size(stagedFile), stagedFile);
+		return openStagedFile(stagedFile, md);
+	}
+
+	/**
+	 * Reads the payload data into buffers from the shared {@link BufferPool}. When the payload is larger than the
+	 * buffers of the pool it is divided over multiple buffers.
+	 *
+	 * @param content		The stream containing the payload data
+	 * @param length		The size of the payload
+	 * @return	Stream to read the staged data, which returns the buffers to the pool when closed
+	 * @throws IOException	When the payload could not be read completely
+	 */
+	private InputStream stageInMemory(final InputStream content, final int length) throws IOException {
+		final BufferPool pool = BufferPool.getInstance();
+		final int bufferSize = pool.getBufferSize();
+		final byte[][] chunks = new byte[Math.max(1, (length + bufferSize - 1) / bufferSize)][];
+		try {
+			int remaining = length;
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = pool.acquireArray();
+				final int n = Math.min(remaining, bufferSize);
+				if (content.readNBytes(chunks[i], 0, n) < n)
+					throw new IOException("Payload size does not match Content-Length");
+				remaining -= n;
+			}
+			if (content.read() >= 0)
+				throw new IOException("Payload size does not match Content-Length");
+		} catch (IOException readFailure) {
+			for (byte[] chunk : chunks)
+				pool.release(chunk);
+			throw readFailure;
+		}
+		return new ChunkedInputStream(pool, chunks, length);
+	}
+
+	/**
+	 * Is the stream to read a payload staged in memory, which returns the buffers holding the payload data to the pool
+	 * when it is closed.
+	 */
+	private static final class ChunkedInputStream extends InputStream {
+		private final BufferPool pool;
+		private final byte[][]	 chunks;
+		private final int		 chunkSize;
+		private final int		 length;
+		private int				 pos = 0;
+		private boolean			 released = false;
+
+		ChunkedInputStream(final BufferPool pool, final byte[][] chunks, final int length) {
+			this.pool = pool;
+			this.chunks = chunks;
+			this.chunkSize = chunks[0].length;
+			this.length = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (released)
+				throw new IOException("Stream closed");
+			if (pos >= length)
+				return -1;
+			final int b = chunks[pos / chunkSize][pos % chunkSize] & 0xff;
+			pos++;
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (released)
+				throw new IOException("Stream closed");
+			if (len == 0)
+				return 0;
+			if (pos >= length)
+				return -1;
+			final int n = Math.min(len, Math.min(length - pos, chunkSize - pos % chunkSize));
+			System.arraycopy(chunks[pos / chunkSize], pos % chunkSize, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) {
+			final int skipped = (int) Math.max(0, Math.min(n, length - pos));
+			pos += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return released ? 0 : length - pos;
+		}
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				for (byte[] chunk : chunks)
+					pool.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Writes the payload data to a temporary file using a buffer from the shared {@link BufferPool}.
+	 *
+	 * @param content		The stream containing the payload data
+	 * @param contentLength	The size of the payload as indicated by the client, -1 if unknown
+	 * @return	Stream to read the staged data, which removes the temporary file when closed
+	 * @throws IOException	When the payload could not be read completely or written to the file
+	 */
+	private InputStream stageInFile(final InputStream content, final long contentLength) throws IOException {
+		final Path stagedFile = Files.createTempFile(stagingDir, "payload-", STAGED_FILE_SUFFIX);
+		final MessageDigest md = blobStore != null ? newDigest() : null;
+		final BufferPool pool = BufferPool.getInstance();
+		final ByteBuffer buffer = pool.acquireBuffer();
+		try (FileChannel fc = FileChannel.open(stagedFile, StandardOpenOption.WRITE)) {
+			final ReadableByteChannel src = Channels.newChannel(content);
+			long total = 0;
+			while (src.read(buffer) >= 0) {
+				buffer.flip();
+				if (md != null)
+					md.update(buffer.duplicate());
+				while (buffer.hasRemaining())
+					total += fc.write(buffer);
+				buffer.clear();
+			}
+			if (contentLength >= 0 && total != contentLength)
+				throw new IOException("Payload size does not match Content-Length");
+			log.trace("Staged {} bytes of payload data in {}", total, stagedFile);
+		} catch (IOException stagingFailure) {
+			Files.deleteIfExists(stagedFile);
+			throw stagingFailure;
+		} finally {
+			pool.release(buffer);
+		}
+		return openStagedFile(stagedFile, md);
+	}
+
+	/**
+	 * Opens the stream to read the staged file. When payloads are deduplicated the file is added to the blob store,
+	 * otherwise it is removed when the stream is closed.
+	 *
+	 * @param stagedFile	The staged file
+	 * @param md			The digest calculated over the staged data, <code>null</code> if payloads are not
+	 * 						deduplicated
+	 * @return	Stream to read the staged data
+	 * @throws IOException	When the staged file could not be opened
+	 */
+	private InputStream openStagedFile(final Path stagedFile, final MessageDigest md) throws IOException {
+		if (md == null)
+			return Files.newInputStream(stagedFile, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+		try {
+			return blobStore.add(stagedFile, md.digest());
+		} catch (IOException storeFailure) {
+			Files.deleteIfExists(stagedFile);
+			throw storeFailure;
+		}
+	}
+
+	/**
+	 * Creates the digest used for deduplication of payloads.
+	 *
+	 * @return	A new SHA-256 message digest
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException noSHA256) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(noSHA256);
+		}
+	}
+}
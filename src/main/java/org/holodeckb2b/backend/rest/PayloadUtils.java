@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+
+/**
+ * Contains helper methods for reading (ranges of) the payload data from the Holodeck B2B payload storage. When the
+ * storage provides the content as a file stream the file channel is used to determine the size of the content and to
+ * read ranges of it without reading the preceding data.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class PayloadUtils {
+
+	private PayloadUtils() {}
+
+	/**
+	 * Gets the size of the payload data. Note that when the storage does not provide the content as a file stream
+	 * the content needs to be read to determine its size.
+	 *
+	 * @param payload	The payload
+	 * @return			The size of the payload data in bytes
+	 * @throws IOException	When the payload data cannot be read
+	 */
+	static long getSize(final IPayload payload) throws IOException {
+		try (InputStream is = payload.getContent()) {
+			if (is == null)
+				throw new IOException("Payload content not available");
+			if (is instanceof FileInputStream)
+				return ((FileInputStream) is).getChannel().size();
+			else
+				return copy(is, OutputStream.nullOutputStream());
+		}
+	}
+
+	/**
+	 * Gets the size of the payload data that is read from the given stream if it can be determined without reading
+	 * the data, i.e. when the storage provides the content as a file stream. The stream is not closed.
+	 *
+	 * @param content	The stream the payload data is read from
+	 * @return			The size of the payload data in bytes, -1 if unknown
+	 * @throws IOException	When the size of the file cannot be retrieved
+	 */
+	static long getKnownSize(final InputStream content) throws IOException {
+		return content instanceof FileInputStream ? ((FileInputStream) content).getChannel().size() : -1;
+	}
+
+	/**
+	 * Copies all data from the input to the output stream using a buffer from the shared {@link BufferPool}. Neither
+	 * stream is closed.
+	 *
+	 * @param in	The stream to read the data from
+	 * @param out	The stream to write the data to
+	 * @return		The number of bytes copied
+	 * @throws IOException	When the data cannot be read or written
+	 */
+	static long copy(final InputStream in, final OutputStream out) throws IOException {
+		final BufferPool pool = BufferPool.getInstance();
+		final byte[] buffer = pool.acquireArray();
+		try {
+			long total = 0;
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+				total += n;
+			}
+			return total;
+		} finally {
+			pool.release(buffer);
+		}
+	}
+
+	/**
+	 * Writes the given range of the payload data to the output stream using a buffer from the shared {@link BufferPool}.
+	 * When the storage provides the content as a file stream the file is positioned at the start of the range so the
+	 * preceding data does not need to be read. Note that the data is always copied through the buffer as the output
+	 * streams of the HTTP connections do not provide a channel to which the file could be transferred directly.
+	 *
+	 * @param payload	The payload
+	 * @param start		The position of the first byte to write
+	 * @param length	The number of bytes to write
+	 * @param out		The stream to write the data to
+	 * @throws IOException	When the payload data cannot be read or written to the output stream
+	 */
+	static void copyRange(final IPayload payload, final long start, final long length, final OutputStream out)
+																									throws IOException {
+		try (InputStream is = payload.getContent()) {
+			if (is == null)
+				throw new IOException("Payload content not available");
+			if (is instanceof FileInputStream)
+				((FileInputStream) is).getChannel().position(start);
+			else
+				skipFully(is, start);
+			final BufferPool pool = BufferPool.getInstance();
+			final byte[] buffer = pool.acquireArray();
+			try {
+				long remaining = length;
+				while (remaining > 0) {
+					final int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (n < 0)
+						throw new EOFException("Payload content shorter than expected");
+					out.write(buffer, 0, n);
+					remaining -= n;
+				}
+			} finally {
+				pool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Skips the given number of bytes of the input stream.
+	 *
+	 * @param is	The input stream
+	 * @param n		The number of bytes to skip
+	 * @throws IOException	When the stream ends before the given number of bytes is skipped
+	 */
+	static void skipFully(final InputStream is, final long n) throws IOException {
+		long remaining = n;
+		while (remaining > 0) {
+			final long skipped = is.skip(remaining);
+			if (skipped > 0)
+				remaining -= skipped;
+			else if (is.read() < 0)
+				throw new EOFException("Payload content shorter than expected");
+			else
+				remaining--;
+		}
+	}
+}
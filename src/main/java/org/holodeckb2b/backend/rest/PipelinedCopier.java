@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies data from an input stream to an output stream, reading the next chunks of data in a separate thread while the
+ * current chunk is written. This way a slow read of the payload data from disk does not stall writing to the network,
+ * and vice versa. The chunks are read into a ring of buffers that is passed between the reader and writer using two
+ * queues, one with the free buffers and one with the filled buffers. So at most the number of buffers in the ring is
+ * read ahead. The buffers are taken from the shared {@link BufferPool} and returned to it when the copy is done.
+ * <p>When the data fits in the first chunk it is copied directly without starting the reader, as there is nothing to
+ * overlap.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class PipelinedCopier {
+	/**
+	 * The default number of buffers in the ring
+	 */
+	static final int DEFAULT_RING_SIZE = 4;
+
+	/**
+	 * The threads reading the data ahead
+	 */
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "hb2b-rest-copy-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Holds a buffer and the number of bytes read into it
+	 */
+	private static final class Chunk {
+		final byte[] data;
+		int			 length;
+
+		Chunk(final byte[] data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * The marker used to signal the end of the data to the writer
+	 */
+	private static final Chunk EOF = new Chunk(new byte[0]);
+
+	private PipelinedCopier() {}
+
+	/**
+	 * Copies all data from the input to the output stream using buffers from the shared pool and the default ring size.
+	 * Neither stream is closed.
+	 *
+	 * @param in	The stream to read the data from
+	 * @param out	The stream to write the data to
+	 * @return		The number of bytes copied
+	 * @throws IOException	When an error occurs reading or writing the data
+	 */
+	static long copy(final InputStream in, final OutputStream out) throws IOException {
+		return copy(in, out, BufferPool.getInstance(), DEFAULT_RING_SIZE);
+	}
+
+	/**
+	 * Copies all data from the input to the output stream. Neither stream is closed. When this method returns the
+	 * input stream is not used anymore by the reader thread, also when the copy failed.
+	 *
+	 * @param in		The stream to read the data from
+	 * @param out		The stream to write the data to
+	 * @param pool		The pool to take the buffers from, its buffer size determines the size of the chunks
+	 * @param ringSize	The number of buffers in the ring, i.e. the maximum number of chunks read ahead
+	 * @return			The number of bytes copied
+	 * @throws IOException	When an error occurs reading or writing the data
+	 */
+	static long copy(final InputStream in, final OutputStream out, final BufferPool pool, final int ringSize)
+																									throws IOException {
+		final Chunk first = new Chunk(pool.acquireArray());
+		boolean pipelined = false;
+		try {
+			pipelined = fill(in, first);
+			if (!pipelined) {
+				out.write(first.data, 0, first.length);
+				return first.length;
+			}
+		} finally {
+			if (!pipelined)
+				pool.release(first.data);
+		}
+
+		final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(ringSize + 1);
+		final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(ringSize + 1);
+		for (int i = 1; i < ringSize; i++)
+			free.add(new Chunk(pool.acquireArray()));
+		filled.add(first);
+
+		final IOException[] readFailure = new IOException[1];
+		final CountDownLatch readerDone = new CountDownLatch(1);
+		READERS.execute(() -> {
+			try {
+				boolean more = true;
+				while (more) {
+					final Chunk c = free.take();
+					if (c == EOF)
+						break;
+					more = fill(in, c);
+					if (c.length > 0)
+						filled.put(c);
+					else
+						free.offer(c);
+				}
+			} catch (IOException e) {
+				readFailure[0] = e;
+			} catch (InterruptedException interrupted) {
+				// Only when the pool is shut down, just stop reading
+			} finally {
+				filled.offer(EOF);
+				readerDone.countDown();
+			}
+		});
+
+		long total = 0;
+		boolean completed = false;
+		try {
+			for (Chunk c = filled.take(); c != EOF; c = filled.take()) {
+				out.write(c.data, 0, c.length);
+				total += c.length;
+				free.put(c);
+			}
+			completed = true;
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while copying data");
+		} finally {
+			if (!completed) {
+				// Tell the reader to stop by making the end marker the only free buffer
+				release(free, pool);
+				free.offer(EOF);
+			}
+			awaitReader(readerDone);
+			release(free, pool);
+			release(filled, pool);
+		}
+		if (readFailure[0] != null)
+			throw readFailure[0];
+		return total;
+	}
+
+	/**
+	 * Returns the buffers of the chunks in the given queue to the pool.
+	 *
+	 * @param chunks	The queue with the chunks, is empty afterwards
+	 * @param pool		The pool to return the buffers to
+	 */
+	private static void release(final BlockingQueue<Chunk> chunks, final BufferPool pool) {
+		for (Chunk c = chunks.poll(); c != null; c = chunks.poll())
+			if (c != EOF)
+				pool.release(c.data);
+	}
+
+	/**
+	 * Fills the given chunk with data from the input stream.
+	 *
+	 * @param in	The stream to read from
+	 * @param c		The chunk to fill
+	 * @return		<code>true</code> if the chunk was filled completely and more data may be available,
+	 * 				<code>false</code> if the end of the stream was reached
+	 * @throws IOException	When an error occurs reading the data
+	 */
+	private static boolean fill(final InputStream in, final Chunk c) throws IOException {
+		c.length = 0;
+		while (c.length < c.data.length) {
+			final int n = in.read(c.data, c.length, c.data.length - c.length);
+			if (n < 0)
+				return false;
+			c.length += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the reader stopped using the input stream.
+	 *
+	 * @param readerDone	The latch counted down by the reader
+	 */
+	private static void awaitReader(final CountDownLatch readerDone) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				readerDone.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.holodeckb2b.commons.util.Utils;
+
+/**
+ * Limits the rate at which submissions are accepted, both globally and per P-Mode. The limits are implemented as token
+ * buckets which are configured by the number of submissions per second and the burst size, i.e. the maximum number
+ * of submissions that can be accepted at once when the bucket is full.
+ * <p>A limit is specified as <code><i>rate</i> [ "/" <i>burst</i> ]</code> with the burst size being optional and
+ * equal to the rate when not specified. There are three kinds of limits:<ol>
+ * <li>the <i>global</i> limit that applies to all submissions,</li>
+ * <li>the <i>default P-Mode</i> limit that applies to each P-Mode separately,</li>
+ * <li>a <i>specific P-Mode</i> limit that applies to one P-Mode and overrides the default P-Mode limit.</li></ol>
+ * The rate limiter also keeps track of the number of admitted and rejected submissions per P-Mode.
+ * <p>As the P-Mode identifier is provided by the client, and the limits are checked before the P-Mode is validated,
+ * separate state is kept for at most {@link #MAX_PMODES} P-Modes besides the ones with a specific limit. Submissions
+ * for other P-Modes, or without P-Mode identifier, share one bucket using the default P-Mode limit so a client cannot
+ * escape the limits by using made-up P-Mode identifiers.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class RateLimiter implements RateLimiterMXBean {
+	/**
+	 * The maximum number of P-Modes without a specific limit to keep track of. As the P-Mode identifier is provided by
+	 * the client this prevents that unbounded state is created for non existing P-Modes.
+	 */
+	static final int MAX_PMODES = 10000;
+	/**
+	 * The key under which the counters of the submissions sharing the overflow bucket are reported
+	 */
+	static final String OTHER_PMODES = "<other>";
+
+	/**
+	 * The global limit, <code>null</code> if there is no global limit
+	 */
+	private final TokenBucket globalLimit;
+	/**
+	 * The default per P-Mode limit, <code>null</code> if there is no default limit
+	 */
+	private final Limit		  defaultLimit;
+	/**
+	 * The specifically configured limits per P-Mode
+	 */
+	private final Map<String, Limit>	   specificLimits;
+	/**
+	 * The token buckets and counters per P-Mode
+	 */
+	private final ConcurrentHashMap<String, PModeState> pmodeStates = new ConcurrentHashMap<>();
+	/**
+	 * The token bucket and counters shared by the P-Modes that are not tracked separately
+	 */
+	private final PModeState overflowState;
+
+	/**
+	 * Holds the rate and burst size of a limit
+	 */
+	static final class Limit {
+		final double rate;
+		final long	 burst;
+
+		Limit(final double rate, final long burst) {
+			this.rate = rate;
+			this.burst = burst;
+		}
+	}
+
+	/**
+	 * Holds the token bucket and counters of a P-Mode
+	 */
+	private static final class PModeState {
+		final TokenBucket 	bucket;
+		final LongAdder		admitted = new LongAdder();
+		final LongAdder		rejected = new LongAdder();
+
+		PModeState(final Limit limit) {
+			bucket = limit != null ? new TokenBucket(limit) : null;
+		}
+	}
+
+	/**
+	 * Is a lock free implementation of a token bucket using the <i>Generic Cell Rate Algorithm</i>, which only needs
+	 * to keep track of the <i>theoretical arrival time</i> (TAT) of the next request, i.e. the time the bucket will be
+	 * full again. A request is accepted if the TAT does not exceed the current time by more than the time it takes to
+	 * refill the burst size minus one token.
+	 */
+	static final class TokenBucket {
+		/**
+		 * The time in nanoseconds between two tokens
+		 */
+		private final long	interval;
+		/**
+		 * The time in nanoseconds the TAT may be ahead of the current time
+		 */
+		private final long	tolerance;
+		/**
+		 * The theoretical arrival time
+		 */
+		private final AtomicLong tat = new AtomicLong(Long.MIN_VALUE);
+
+		TokenBucket(final Limit limit) {
+			interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / limit.rate));
+			tolerance = interval * (limit.burst - 1);
+		}
+
+		/**
+		 * Tries to take a token from the bucket.
+		 *
+		 * @param now	The current time in nanoseconds
+		 * @return		0 if a token was available, otherwise the time in nanoseconds until a token is available
+		 */
+		long tryAcquire(final long now) {
+			while (true) {
+				final long current = tat.get();
+				final long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+				final long wait = start - now - tolerance;
+				if (wait > 0)
+					return wait;
+				if (tat.compareAndSet(current, start + interval))
+					return 0;
+			}
+		}
+	}
+
+	/**
+	 * Creates a new rate limiter with the given limits.
+	 *
+	 * @param globalLimit		The global limit, <code>null</code> if there is no global limit
+	 * @param defaultLimit		The default limit per P-Mode, <code>null</code> if there is no default limit
+	 * @param pmodeLimits		Map with the specific limits per P-Mode, keyed on the P-Mode identifier
+	 * @throws IllegalArgumentException When one of the limits is not specified correctly
+	 */
+	public RateLimiter(final String globalLimit, final String defaultLimit, final Map<String, String> pmodeLimits) {
+		final Limit global = parseLimit(globalLimit);
+		this.globalLimit = global != null ? new TokenBucket(global) : null;
+		this.defaultLimit = parseLimit(defaultLimit);
+		this.specificLimits = new ConcurrentHashMap<>();
+		if (!Utils.isNullOrEmpty(pmodeLimits))
+			pmodeLimits.forEach((p, l) -> { final Limit limit = parseLimit(l);
+											if (limit != null) specificLimits.put(p, limit); });
+		// The state of P-Modes with a specific limit is created upfront so their limit always applies
+		specificLimits.forEach((p, l) -> pmodeStates.put(p, new PModeState(l)));
+		this.overflowState = new PModeState(this.defaultLimit);
+	}
+
+	/**
+	 * Indicates whether any limit is configured.
+	 *
+	 * @return	<code>true</code> if a global or P-Mode limit is configured, <code>false</code> otherwise
+	 */
+	public boolean isActive() {
+		return globalLimit != null || defaultLimit != null || !specificLimits.isEmpty();
+	}
+
+	/**
+	 * Checks whether a submission for the given P-Mode can be admitted. The P-Mode limit is checked before the global
+	 * limit. Note that when the P-Mode limit admits the submission but the global limit does not, the token taken from
+	 * the P-Mode bucket is not returned. When no P-Mode identifier is given or the maximum number of tracked P-Modes
+	 * is reached the shared overflow bucket is used.
+	 *
+	 * @param pmodeId	The identifier of the P-Mode of the submission
+	 * @return	0 if the submission is admitted, otherwise the time in milliseconds after which the submission may be
+	 * 			retried
+	 */
+	public long tryAcquire(final String pmodeId) {
+		final long now = System.nanoTime();
+		PModeState state = Utils.isNullOrEmpty(pmodeId) ? overflowState : pmodeStates.get(pmodeId);
+		if (state == null)
+			state = pmodeStates.size() < MAX_PMODES + specificLimits.size() ?
+										pmodeStates.computeIfAbsent(pmodeId, p -> new PModeState(defaultLimit))
+										: overflowState;
+		long wait = state.bucket != null ? state.bucket.tryAcquire(now) : 0;
+		if (wait == 0 && globalLimit != null)
+			wait = globalLimit.tryAcquire(now);
+		(wait == 0 ? state.admitted : state.rejected).increment();
+		return wait == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+	}
+
+	@Override
+	public Map<String, Long> getAdmittedSubmissions() {
+		final Map<String, Long> counts = new TreeMap<>();
+		pmodeStates.forEach((p, s) -> counts.put(p, s.admitted.sum()));
+		if (overflowState.admitted.sum() + overflowState.rejected.sum() > 0)
+			counts.put(OTHER_PMODES, overflowState.admitted.sum());
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getRejectedSubmissions() {
+		final Map<String, Long> counts = new TreeMap<>();
+		pmodeStates.forEach((p, s) -> counts.put(p, s.rejected.sum()));
+		if (overflowState.admitted.sum() + overflowState.rejected.sum() > 0)
+			counts.put(OTHER_PMODES, overflowState.rejected.sum());
+		return counts;
+	}
+
+	/**
+	 * Parses the given limit specification.
+	 *
+	 * @param limit		The limit formatted as <code><i>rate</i> [ "/" <i>burst</i> ]</code>
+	 * @return			The parsed limit, <code>null</code> if no limit is specified
+	 * @throws IllegalArgumentException When the limit is not specified correctly
+	 */
+	static Limit parseLimit(final String limit) {
+		if (limit == null || limit.isBlank())
+			return null;
+		final int sep = limit.indexOf('/');
+		try {
+			final double rate = Double.parseDouble((sep < 0 ? limit : limit.substring(0, sep)).trim());
+			final long burst = sep < 0 ? Math.max(1, (long) Math.ceil(rate))
+									   : Long.parseLong(limit.substring(sep + 1).trim());
+			if (rate <= 0 || burst <= 0)
+				throw new IllegalArgumentException("Rate and burst size must be positive: " + limit);
+			return new Limit(rate, burst);
+		} catch (NumberFormatException nan) {
+			throw new IllegalArgumentException("Invalid rate limit specified: " + limit);
+		}
+	}
+}
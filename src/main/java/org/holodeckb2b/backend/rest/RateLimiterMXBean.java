@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.Map;
+
+/**
+ * Defines the JMX interface of the {@link RateLimiter} to expose the number of admitted and rejected submissions.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public interface RateLimiterMXBean {
+
+	/**
+	 * Gets the number of submissions admitted per P-Mode.
+	 *
+	 * @return	Map with the number of admitted submissions, keyed on the P-Mode identifier
+	 */
+	Map<String, Long> getAdmittedSubmissions();
+
+	/**
+	 * Gets the number of submissions rejected per P-Mode because the rate limit was exceeded.
+	 *
+	 * @return	Map with the number of rejected submissions, keyed on the P-Mode identifier
+	 */
+	Map<String, Long> getRejectedSubmissions();
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the time spent in each phase of a delivery or notification request to one back-end, so it can be determined
+ * what caused a request to be slow. The phases are:<ul>
+ * <li><i>connect</i> : establishing the connection to the back-end, including resolving its host name and the TLS
+ * handshake for <i>https</i> URLs as <code>HttpURLConnection</code> does not expose these separately</li>
+ * <li><i>payload-read</i> : reading the payload data from storage. As the payload data is read ahead while it is
+ * written this time overlaps with the <i>write</i> phase</li>
+ * <li><i>write</i> : writing the entity body to the back-end. As the entity body is streamed this includes the time
+ * the back-end needs to read it</li>
+ * <li><i>response</i> : waiting for the response of the back-end, i.e. the time it needs to process the request</li>
+ * </ul>
+ * <p>The phases are recorded by the thread executing the request, except for the payload read time which can be
+ * recorded by a reader thread that hands over its data to the executing thread and therefore finishes before the
+ * write phase ends.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class RequestTiming {
+
+	/**
+	 * The phases of a request
+	 */
+	enum Phase {
+		CONNECT, PAYLOAD_READ, WRITE, RESPONSE;
+
+		final String label = name().toLowerCase().replace('_', '-');
+	}
+
+	private final long[]	durations = new long[Phase.values().length];
+	private final long[]	starts = new long[Phase.values().length];
+	private final long		startTime = System.currentTimeMillis();
+	private Metrics.Operation operation;
+	private String			messageId;
+	private String			pmodeId;
+	private String			targetURL;
+	private int				status = -1;
+	private long			total;
+
+	/**
+	 * Adds time to a phase. When this is the first time added to the phase its start is registered.
+	 *
+	 * @param phase		The phase
+	 * @param start		The start of the time spent in the phase, as value of {@link System#nanoTime()}
+	 * @param end		The end of the time spent in the phase, as value of {@link System#nanoTime()}
+	 */
+	void add(final Phase phase, final long start, final long end) {
+		if (durations[phase.ordinal()] == 0 && starts[phase.ordinal()] == 0)
+			starts[phase.ordinal()] = start;
+		durations[phase.ordinal()] += end - start;
+	}
+
+	/**
+	 * Gets the time spent in a phase.
+	 *
+	 * @param phase		The phase
+	 * @return			The time spent in the phase in nanoseconds
+	 */
+	long get(final Phase phase) {
+		return durations[phase.ordinal()];
+	}
+
+	/**
+	 * Gets the start of a phase.
+	 *
+	 * @param phase		The phase
+	 * @return			The start of the phase as value of {@link System#nanoTime()}, 0 if the phase was not executed
+	 */
+	long getStart(final Phase phase) {
+		return starts[phase.ordinal()];
+	}
+
+	/**
+	 * Copies the time spent in the given phases from another timing. Used to apply the timing of the entity body,
+	 * which is written once to all back-ends, to the requests to each back-end.
+	 *
+	 * @param other		The timing to copy from
+	 * @param phases	The phases to copy
+	 */
+	void copy(final RequestTiming other, final Phase... phases) {
+		for (Phase p : phases) {
+			durations[p.ordinal()] = other.durations[p.ordinal()];
+			starts[p.ordinal()] = other.starts[p.ordinal()];
+		}
+	}
+
+	/**
+	 * Wraps the given stream so the time spent reading from it is added to the <i>payload-read</i> phase.
+	 *
+	 * @param in	The stream to read the payload data from
+	 * @return		The wrapped stream
+	 */
+	InputStream timeReads(final InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				final long start = System.nanoTime();
+				try {
+					return in.read();
+				} finally {
+					add(Phase.PAYLOAD_READ, start, System.nanoTime());
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				final long start = System.nanoTime();
+				try {
+					return in.read(b, off, len);
+				} finally {
+					add(Phase.PAYLOAD_READ, start, System.nanoTime());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Completes the timing with the information about the request.
+	 *
+	 * @param operation		The operation that executed the request
+	 * @param messageId		The MessageId of the delivered or notified message unit
+	 * @param pmodeId		The P-Mode of the message unit
+	 * @param targetURL		The URL of the back-end
+	 * @param status		The HTTP status code of the response, -1 if no response was received
+	 * @param total			The total time needed to execute the operation in nanoseconds
+	 */
+	void complete(final Metrics.Operation operation, final String messageId, final String pmodeId,
+				  final String targetURL, final int status, final long total) {
+		this.operation = operation;
+		this.messageId = messageId;
+		this.pmodeId = pmodeId;
+		this.targetURL = targetURL;
+		this.status = status;
+		this.total = total;
+	}
+
+	/**
+	 * @return The time the request was started, in milliseconds since the epoch
+	 */
+	long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The total time needed to execute the operation in nanoseconds
+	 */
+	long getTotal() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(Instant.ofEpochMilli(startTime)).append(' ').append(operation != null ? operation.label : "-")
+		  .append(" total=").append(TimeUnit.NANOSECONDS.toMicros(total)).append("us");
+		for (Phase p : Phase.values())
+			sb.append(' ').append(p.label).append('=').append(TimeUnit.NANOSECONDS.toMicros(get(p))).append("us");
+		return sb.append(" status=").append(status).append(" messageId=").append(messageId)
+				 .append(" pmode=").append(pmodeId).append(" url=").append(targetURL).toString();
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.kernel.http.HTTPConstants;
+
+/**
+ * Contains helper methods for setting the HTTP status code and headers of the response to a request received by one
+ * of the operations of the REST service.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class ResponseUtils {
+
+	private ResponseUtils() {}
+
+	/**
+	 * Sets the HTTP status code of the response.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param status	The HTTP status code to use
+	 */
+	static void setStatus(final MessageContext msgCtx, final int status) {
+		msgCtx.setProperty(Constants.HTTP_RESPONSE_STATE, Integer.toString(status));
+	}
+
+	/**
+	 * Gets the HTTP status code of the response if it was set.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @return			The HTTP status code set for the response, -1 if not set
+	 */
+	static int getStatus(final MessageContext msgCtx) {
+		final Object status = msgCtx.getProperty(Constants.HTTP_RESPONSE_STATE);
+		return status != null ? Integer.parseInt(status.toString()) : -1;
+	}
+
+	/**
+	 * Adds a HTTP header to the response.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param name		The name of the header
+	 * @param value		The value of the header
+	 */
+	@SuppressWarnings("unchecked")
+	static void setHeader(final MessageContext msgCtx, final String name, final String value) {
+		Map<String, String> headers = (Map<String, String>) msgCtx.getProperty(HTTPConstants.RESPONSE_HEADERS);
+		if (headers == null) {
+			headers = new HashMap<>();
+			msgCtx.setProperty(HTTPConstants.RESPONSE_HEADERS, headers);
+		}
+		headers.put(name, value);
+	}
+}
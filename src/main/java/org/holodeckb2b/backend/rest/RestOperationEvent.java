@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Is the base class of the Java Flight Recorder events emitted by the REST operations so their processing can be
+ * correlated with other events, like garbage collections and I/O, in a recording. The duration of the event is the
+ * time needed to execute the operation.
+ * <p>The fields of the events are only set and the events only committed when they are enabled in the recording. When
+ * JFR is not used the <i>begin</i>, <i>end</i> and <i>shouldCommit</i> calls are no-ops and, as the event does not
+ * escape the operation, its allocation is removed by the JIT compiler so the events do not add any cost.
+ * <p>The events are disabled by default and must be enabled in the JFR settings. When enabled only operations that
+ * take longer than 20 milliseconds are recorded, unless another threshold is configured.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@Category({ "Holodeck B2B", "REST back-end" })
+@StackTrace(false)
+@Enabled(false)
+@Threshold("20 ms")
+abstract class RestOperationEvent extends Event {
+
+	@Label("Message Id")
+	String messageId;
+
+	@Label("P-Mode")
+	String pmodeId;
+
+	@Label("Payload Size")
+	@Description("The number of bytes of payload data submitted or delivered, -1 if unknown")
+	@DataAmount
+	long payloadSize;
+
+	@Label("HTTP Status")
+	@Description("The HTTP status code of the response, -1 if no response was received")
+	int httpStatus;
+
+	@Label("Connect Time")
+	@Description("The time needed to connect to the back-end, including resolving its host name")
+	@Timespan
+	long connectTime;
+
+	@Label("Transfer Time")
+	@Description("The time needed to stream the entity body to the back-end")
+	@Timespan
+	long transferTime;
+
+	/**
+	 * Completes the event by setting its fields and committing it, but only when the event is enabled and its
+	 * duration exceeds the configured threshold.
+	 *
+	 * @param messageId		The MessageId of the message unit, <code>null</code> if unknown
+	 * @param pmodeId		The P-Mode of the message unit, <code>null</code> if unknown
+	 * @param payloadSize	The number of payload bytes, -1 if unknown
+	 * @param httpStatus	The HTTP status code, -1 if there is no response
+	 * @param connectTime	The time in nanoseconds needed to connect
+	 * @param transferTime	The time in nanoseconds needed to transfer the entity body
+	 */
+	void complete(final String messageId, final String pmodeId, final long payloadSize, final int httpStatus,
+				  final long connectTime, final long transferTime) {
+		end();
+		if (shouldCommit()) {
+			this.messageId = messageId;
+			this.pmodeId = pmodeId;
+			this.payloadSize = payloadSize;
+			this.httpStatus = httpStatus;
+			this.connectTime = connectTime;
+			this.transferTime = transferTime;
+			commit();
+		}
+	}
+
+	/**
+	 * Is emitted for each submission. As the connection is made by the client the connect time is always zero and
+	 * the transfer time is the time needed by the Holodeck B2B Core to read the payload data from the request.
+	 */
+	@Name("org.holodeckb2b.backend.rest.Submit")
+	@Label("Submit")
+	@Description("Submission of a User Message by the back-end")
+	static final class Submit extends RestOperationEvent {
+	}
+
+	/**
+	 * Is emitted for each delivery of a User Message. When the message is delivered to multiple back-ends the status,
+	 * connect and transfer time are the ones of the delivery to the primary back-end.
+	 */
+	@Name("org.holodeckb2b.backend.rest.Deliver")
+	@Label("Deliver")
+	@Description("Delivery of a User Message to the back-end")
+	static final class Deliver extends RestOperationEvent {
+	}
+
+	/**
+	 * Is emitted for each notification of a Signal Message. As notifications have no entity body the transfer time
+	 * is always zero. When the message is notified to multiple back-ends the status and connect time are the ones of
+	 * the notification to the primary back-end.
+	 */
+	@Name("org.holodeckb2b.backend.rest.Notify")
+	@Label("Notify")
+	@Description("Notification of a Receipt or Error Signal to the back-end")
+	static final class Notify extends RestOperationEvent {
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the slowest deliveries and notifications of a sliding window, together with the time spent in each of their
+ * phases as recorded in their {@link RequestTiming}, so slow requests can be diagnosed on demand without verbose
+ * logging. The requests are kept in a fixed size array in which a new request replaces the fastest kept one, or one
+ * that is older than the window. The slowest requests can be dumped through JMX, see {@link SlowRequestLogMXBean}.
+ * <p>To keep recording cheap the duration a request needs to exceed to be kept is published in a volatile field, so
+ * requests that are not slow enough are rejected without locking.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class SlowRequestLog implements SlowRequestLogMXBean {
+	private static final Logger log = LogManager.getLogger(SlowRequestLog.class);
+
+	/**
+	 * The name under which the log is registered in JMX
+	 */
+	public static final String MBEAN_NAME = "org.holodeckb2b.backend.rest:type=SlowRequestLog";
+	/**
+	 * The default number of requests that is kept
+	 */
+	static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * The default length of the window in seconds
+	 */
+	static final long DEFAULT_WINDOW = 300;
+
+	/**
+	 * The singleton instance
+	 */
+	private static final SlowRequestLog INSTANCE = new SlowRequestLog(DEFAULT_CAPACITY, DEFAULT_WINDOW);
+	/**
+	 * Indicates whether the log is registered in JMX
+	 */
+	private static final AtomicBoolean registered = new AtomicBoolean();
+
+	/**
+	 * The kept requests, <code>null</code> for free slots
+	 */
+	private RequestTiming[]	slots;
+	/**
+	 * The window length in milliseconds
+	 */
+	private long			window;
+	/**
+	 * The duration a request must exceed to be kept, 0 when there are free slots
+	 */
+	private volatile long	threshold;
+	/**
+	 * The time until which the threshold is valid, i.e. when the oldest kept request leaves the window
+	 */
+	private volatile long	thresholdExpiry;
+
+	SlowRequestLog(final int capacity, final long windowSeconds) {
+		slots = new RequestTiming[capacity];
+		window = TimeUnit.SECONDS.toMillis(windowSeconds);
+	}
+
+	/**
+	 * Gets the slow request log.
+	 *
+	 * @return	The singleton instance of the log
+	 */
+	public static SlowRequestLog getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the log in JMX if this has not been done already.
+	 */
+	static void registerMBean() {
+		if (!registered.compareAndSet(false, true))
+			return;
+		try {
+			final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objName = new ObjectName(MBEAN_NAME);
+			if (!mbs.isRegistered(objName))
+				mbs.registerMBean(INSTANCE, objName);
+		} catch (JMException jmxError) {
+			log.warn("Could not register {} in JMX : {}", MBEAN_NAME, jmxError.getMessage());
+		}
+	}
+
+	/**
+	 * Records a completed request. It is kept when it is slower than the fastest kept request of the window.
+	 *
+	 * @param timing	The timing of the request
+	 */
+	void record(final RequestTiming timing) {
+		if (timing.getTotal() <= threshold && timing.getStartTime() < thresholdExpiry)
+			return;
+		synchronized (this) {
+			final long windowStart = System.currentTimeMillis() - window;
+			int replace = -1;
+			for (int i = 0; i < slots.length; i++) {
+				final RequestTiming t = slots[i];
+				if (t == null || t.getStartTime() < windowStart) {
+					replace = i;
+					break;
+				} else if (replace < 0 || t.getTotal() < slots[replace].getTotal())
+					replace = i;
+			}
+			if (slots[replace] != null && slots[replace].getStartTime() >= windowStart
+				&& slots[replace].getTotal() >= timing.getTotal())
+				return;
+			slots[replace] = timing;
+			updateThreshold(windowStart);
+		}
+	}
+
+	/**
+	 * Updates the threshold after the kept requests have changed. Must be called while holding the lock.
+	 *
+	 * @param windowStart	The start of the current window
+	 */
+	private void updateThreshold(final long windowStart) {
+		long min = Long.MAX_VALUE, oldest = Long.MAX_VALUE;
+		for (RequestTiming t : slots) {
+			if (t == null || t.getStartTime() < windowStart) {
+				min = 0;
+				break;
+			}
+			min = Math.min(min, t.getTotal());
+			oldest = Math.min(oldest, t.getStartTime());
+		}
+		threshold = min;
+		thresholdExpiry = min > 0 ? oldest + window : 0;
+	}
+
+	@Override
+	public synchronized List<String> getSlowestRequests() {
+		final long windowStart = System.currentTimeMillis() - window;
+		final List<RequestTiming> kept = new ArrayList<>();
+		for (RequestTiming t : slots)
+			if (t != null && t.getStartTime() >= windowStart)
+				kept.add(t);
+		return kept.stream().sorted(Comparator.comparingLong(RequestTiming::getTotal).reversed())
+					.map(RequestTiming::toString).collect(Collectors.toList());
+	}
+
+	@Override
+	public synchronized int getCapacity() {
+		return slots.length;
+	}
+
+	@Override
+	public synchronized void setCapacity(final int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		slots = new RequestTiming[capacity];
+		threshold = 0;
+		thresholdExpiry = 0;
+	}
+
+	@Override
+	public synchronized long getWindowSeconds() {
+		return TimeUnit.MILLISECONDS.toSeconds(window);
+	}
+
+	@Override
+	public synchronized void setWindowSeconds(final long seconds) {
+		if (seconds <= 0)
+			throw new IllegalArgumentException("Window must be positive");
+		window = TimeUnit.SECONDS.toMillis(seconds);
+		updateThreshold(System.currentTimeMillis() - window);
+	}
+
+	@Override
+	public synchronized void reset() {
+		slots = new RequestTiming[slots.length];
+		threshold = 0;
+		thresholdExpiry = 0;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.List;
+
+/**
+ * Defines the JMX interface of the {@link SlowRequestLog} to dump the slowest deliveries and notifications and to
+ * change its configuration.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public interface SlowRequestLogMXBean {
+
+	/**
+	 * Gets the slowest requests of the current window, slowest first, with the time spent in each phase.
+	 *
+	 * @return	Description of each of the slowest requests
+	 */
+	List<String> getSlowestRequests();
+
+	/**
+	 * Gets the maximum number of requests that is kept.
+	 *
+	 * @return	The number of slowest requests that is kept
+	 */
+	int getCapacity();
+
+	/**
+	 * Sets the maximum number of requests that is kept. This clears the currently kept requests.
+	 *
+	 * @param capacity	The number of slowest requests to keep, must be positive
+	 */
+	void setCapacity(int capacity);
+
+	/**
+	 * Gets the length of the window from which the slowest requests are kept.
+	 *
+	 * @return	The window length in seconds
+	 */
+	long getWindowSeconds();
+
+	/**
+	 * Sets the length of the window from which the slowest requests are kept.
+	 *
+	 * @param seconds	The window length in seconds, must be positive
+	 */
+	void setWindowSeconds(long seconds);
+
+	/**
+	 * Clears the kept requests.
+	 */
+	void reset();
+}
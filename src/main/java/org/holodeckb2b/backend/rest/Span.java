@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a completed span of a distributed trace, i.e. the execution of an operation or one of its phases, that
+ * is passed to the {@link SpanExporter}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class Span {
+	private final String	traceId;
+	private final String	spanId;
+	private final String	parentSpanId;
+	private final String	name;
+	private final long		startTime;
+	private final long		duration;
+	private final Map<String, String> attributes = new LinkedHashMap<>();
+
+	/**
+	 * Creates a new span.
+	 *
+	 * @param traceId		The id of the trace the span is part of
+	 * @param spanId		The id of the span
+	 * @param parentSpanId	The id of the parent span, <code>null</code> if this is a root span
+	 * @param name			The name of the span
+	 * @param startTime		The start time in nanoseconds since the epoch
+	 * @param duration		The duration in nanoseconds
+	 */
+	Span(final String traceId, final String spanId, final String parentSpanId, final String name,
+		 final long startTime, final long duration) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentSpanId = parentSpanId;
+		this.name = name;
+		this.startTime = startTime;
+		this.duration = duration;
+	}
+
+	/**
+	 * Adds an attribute to the span. Attributes without value are ignored.
+	 *
+	 * @param name		The attribute name
+	 * @param value		The attribute value
+	 * @return			This span
+	 */
+	Span setAttribute(final String name, final Object value) {
+		if (value != null)
+			attributes.put(name, value.toString());
+		return this;
+	}
+
+	/**
+	 * @return The id of the trace, as 32 hex characters
+	 */
+	public String getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * @return The id of the span, as 16 hex characters
+	 */
+	public String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return The id of the parent span, <code>null</code> if this is a root span
+	 */
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	/**
+	 * @return The name of the span
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The start time of the span in nanoseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The duration of the span in nanoseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The attributes of the span
+	 */
+	public Map<String, String> getAttributes() {
+		return Collections.unmodifiableMap(attributes);
+	}
+}
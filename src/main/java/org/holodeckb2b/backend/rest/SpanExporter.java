@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+/**
+ * Defines the interface of the component that exports the {@link Span}s recorded by the REST operations to a tracing
+ * system. Implementations must be thread safe as spans are exported by the threads executing the operations, and
+ * should not block these for long. The exporter is configured using the <b>spanExporter</b> parameter of the
+ * <code>restbackend</code> service or the <b>SPAN_EXPORTER</b> parameter of the delivery method, see {@link Tracing},
+ * and must then have a public no-argument constructor.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public interface SpanExporter {
+
+	/**
+	 * Exports a completed span.
+	 *
+	 * @param span	The span to export
+	 */
+	void export(Span span);
+}
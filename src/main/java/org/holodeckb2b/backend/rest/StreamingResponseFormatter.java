@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.kernel.MessageFormatter;
+
+/**
+ * Is an Axis2 {@link MessageFormatter} that writes raw content, instead of a SOAP or XML message, as the entity body
+ * of the response of one of the operations of the REST service. The formatter is not registered in the Axis2
+ * configuration but set directly on the message context of the response, see {@link #setOnResponse(MessageContext)}.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class StreamingResponseFormatter implements MessageFormatter {
+	/**
+	 * The message type set on the response so Axis2 will not find a configured formatter and use this one
+	 */
+	private static final String MESSAGE_TYPE = "application/x-holodeckb2b-rest-stream";
+
+	/**
+	 * Writes the content of the response
+	 */
+	@FunctionalInterface
+	public interface ContentWriter {
+		/**
+		 * Writes the content to the given stream.
+		 *
+		 * @param out	The stream to write the content to
+		 * @throws IOException	When an error occurs writing the content
+		 */
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * The MIME type of the content
+	 */
+	private final String		contentType;
+	/**
+	 * The writer of the content
+	 */
+	private final ContentWriter	writer;
+
+	/**
+	 * Creates a new formatter for the given content.
+	 *
+	 * @param contentType	The MIME type of the content
+	 * @param writer		The writer of the content
+	 */
+	public StreamingResponseFormatter(final String contentType, final ContentWriter writer) {
+		this.contentType = contentType;
+		this.writer = writer;
+	}
+
+	/**
+	 * Sets this formatter on the message context of the response so it will be used to write the entity body.
+	 *
+	 * @param outMsgCtx	The message context of the response
+	 * @throws AxisFault When the (empty) envelope cannot be set on the response
+	 */
+	public void setOnResponse(final MessageContext outMsgCtx) throws AxisFault {
+		// Axis2 always requires an envelope in the message context, although it will not be written
+		outMsgCtx.setEnvelope(OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope());
+		outMsgCtx.setDoingREST(true);
+		outMsgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE, MESSAGE_TYPE);
+		outMsgCtx.setProperty(Constants.Configuration.MESSAGE_FORMATTER, this);
+	}
+
+	@Override
+	public void writeTo(final MessageContext msgCtx, final OMOutputFormat format, final OutputStream out,
+						final boolean preserve) throws AxisFault {
+		try {
+			writer.writeTo(out);
+			out.flush();
+		} catch (IOException writeError) {
+			throw new AxisFault("Error writing response content", writeError);
+		}
+	}
+
+	@Override
+	public String getContentType(final MessageContext msgCtx, final OMOutputFormat format, final String soapAction) {
+		return contentType;
+	}
+
+	@Override
+	public URL getTargetAddress(final MessageContext msgCtx, final OMOutputFormat format, final URL targetURL)
+																										throws AxisFault {
+		return targetURL;
+	}
+
+	@Override
+	public String formatSOAPAction(final MessageContext msgCtx, final OMOutputFormat format, final String soapAction) {
+		return null;
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps track of the recently processed submissions so retried submission requests can be detected and answered with
+ * the result of the original submission instead of submitting the message again.
+ * <p>The cache is bounded both in size and time, i.e. it holds at most the configured number of entries and entries
+ * older than the configured time-to-live are evicted. Entries are evicted in the order they were added. A submission
+ * that is still being processed is registered as <i>pending</i> so a concurrent retry of the same submission waits for
+ * its result, but only for a limited time. Pending submissions are not evicted, but do not block the eviction of the
+ * completed submissions registered after them, so the cache only exceeds its maximum size by the number of
+ * submissions being processed concurrently. Failed submissions are removed from the cache so they can be retried.
+ * <p>The result of a submission is reported using the {@link Registration} returned when it was registered, so a
+ * caller can only complete or fail its own submission and never a submission with the same key registered by another
+ * request.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class SubmissionCache {
+	/**
+	 * The entries in the cache
+	 */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	/**
+	 * The order in which the entries were added, used for eviction
+	 */
+	private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+	/**
+	 * The maximum number of entries in the cache
+	 */
+	private final int	maxEntries;
+	/**
+	 * The time (in milliseconds) an entry is kept in the cache
+	 */
+	private final long	ttl;
+
+	/**
+	 * Holds the result of a submission, i.e. the messageId of the submitted message, and the time it was registered.
+	 */
+	private static final class Entry {
+		final String 					  key;
+		final long						  created;
+		final CompletableFuture<String> result = new CompletableFuture<>();
+
+		Entry(final String key, final long created) {
+			this.key = key;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * Is the result of registering a submission. If the submission is new the caller owns the registration and MUST
+	 * report the result of the submission using {@link SubmissionCache#completed(Registration, String)} or {@link
+	 * SubmissionCache#failed(Registration)}. Otherwise it holds the messageId assigned in the original submission.
+	 */
+	public static final class Registration {
+		private final Entry	 entry;
+		private final String messageId;
+
+		private Registration(final Entry entry, final String messageId) {
+			this.entry = entry;
+			this.messageId = messageId;
+		}
+
+		/**
+		 * @return <code>true</code> if the submission is new and must be processed by the caller,<br>
+		 * 		   <code>false</code> if it is a retry of an earlier submission
+		 */
+		public boolean isNew() {
+			return entry != null;
+		}
+
+		/**
+		 * @return The messageId assigned to the message in the original submission, or <code>null</code> if the
+		 * 		   submission is new
+		 */
+		public String getMessageId() {
+			return messageId;
+		}
+	}
+
+	/**
+	 * Creates a new cache with the given maximum size and time-to-live of the entries.
+	 *
+	 * @param maxEntries	The maximum number of entries to keep, must be positive
+	 * @param ttl			The time in milliseconds entries are kept, must be positive
+	 */
+	public SubmissionCache(final int maxEntries, final long ttl) {
+		if (maxEntries <= 0 || ttl <= 0)
+			throw new IllegalArgumentException("Size and time-to-live must be positive");
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Registers the start of the submission identified by the given key. If a submission with the same key was already
+	 * registered the result of that submission is returned, waiting at most the given time for it to complete if it is
+	 * still pending.
+	 *
+	 * @param key		The key identifying the submission
+	 * @param timeout	The maximum time (in milliseconds) to wait for a pending submission to complete
+	 * @return		The registration of the submission, which indicates whether the submission is new and must be
+	 * 				processed by the caller or holds the messageId assigned to the message in the original submission
+	 * @throws InterruptedException When the thread is interrupted while waiting for a pending submission to complete
+	 * @throws TimeoutException	When the original submission is still pending after the given time
+	 */
+	public Registration register(final String key, final long timeout) throws InterruptedException, TimeoutException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			final long now = System.currentTimeMillis();
+			evict(now);
+			final Entry newEntry = new Entry(key, now);
+			final Entry existing = entries.putIfAbsent(key, newEntry);
+			if (existing == null) {
+				order.add(newEntry);
+				return new Registration(newEntry, null);
+			} else if (existing.result.isDone() && now - existing.created > ttl) {
+				// Expired, but not yet evicted, replace it
+				if (entries.replace(key, existing, newEntry)) {
+					order.add(newEntry);
+					return new Registration(newEntry, null);
+				}
+			} else {
+				try {
+					return new Registration(null, existing.result.get(Math.max(0, deadline - System.nanoTime()),
+																	  TimeUnit.NANOSECONDS));
+				} catch (ExecutionException failed) {
+					// The original submission failed and was removed, so try again
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the successful completion of the registered submission.
+	 *
+	 * @param submission	The registration of the submission as returned by {@link #register(String, long)}
+	 * @param messageId		The messageId assigned to the submitted message
+	 */
+	public void completed(final Registration submission, final String messageId) {
+		if (submission.isNew())
+			submission.entry.result.complete(messageId);
+	}
+
+	/**
+	 * Records that the registered submission failed and removes it from the cache so it can be retried.
+	 *
+	 * @param submission	The registration of the submission as returned by {@link #register(String, long)}
+	 */
+	public void failed(final Registration submission) {
+		if (submission.isNew()) {
+			entries.remove(submission.entry.key, submission.entry);
+			submission.entry.result.completeExceptionally(new IllegalStateException("Submission failed"));
+		}
+	}
+
+	/**
+	 * Gets the number of entries currently in the cache.
+	 *
+	 * @return	The number of cached submissions
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes the entries that are expired or exceed the maximum size of the cache. As entries are added in
+	 * chronological order the queue only needs to be checked up to the first completed entry that is still valid.
+	 * Pending entries are skipped, so they are never evicted, but do not block the eviction of later entries either.
+	 *
+	 * @param now	The current time
+	 */
+	private void evict(final long now) {
+		final Iterator<Entry> it = order.iterator();
+		while (it.hasNext()) {
+			final Entry oldest = it.next();
+			final boolean removed = entries.get(oldest.key) != oldest;
+			if (!removed && !oldest.result.isDone())
+				continue;
+			if (!removed && now - oldest.created <= ttl && entries.size() < maxEntries)
+				break;
+			it.remove();
+			if (!removed)
+				entries.remove(oldest.key, oldest);
+		}
+	}
+}
@@ -17,13 +17,30 @@
 package org.holodeckb2b.backend.rest;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.axiom.soap.SOAP12Constants;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.Parameter;
 import org.apache.axis2.receivers.AbstractMessageReceiver;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -37,11 +54,13 @@ import org.holodeckb2b.commons.util.Utils;
 import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
 import org.holodeckb2b.interfaces.general.IPartyId;
 import org.holodeckb2b.interfaces.general.IService;
+import org.holodeckb2b.interfaces.messagemodel.Direction;
 import org.holodeckb2b.interfaces.messagemodel.IPayload.Containment;
+import org.holodeckb2b.interfaces.storage.StorageException;
 import org.holodeckb2b.interfaces.submit.MessageSubmitException;
 
 /**
- * Implements a REST service for submission of a single payload that should be send to the receiver.
+ * Implements a REST service for submission of a User Message that should be send to the receiver.
  * <p>The message meta-data must be supplied through HTTP headers, see {@link HTTPHeaders} for an overview of available
  * headers. As message meta-data and P-Mode settings are combined to create a complete set of meta-data the required
  * data to include in the submission is limited to the <i>PMode identifier</i>, while the rest depends on the P-Mode.
@@ -53,6 +72,71 @@ import org.holodeckb2b.interfaces.submit.MessageSubmitException;
  * this implementation does not support the use of multiple occurrence of a header for comma separated list values.
  * <p>NOTE 2: The <i>X-Error</i> header is automatically included in the response by the <a href=
  * "https://github.com/holodeck-b2b/axis2-rest-status-only-error">"rest-no-error-content" Axis2 module</a>.
+ * <p>To prevent that a retried submission request results in a duplicate message the operation keeps track of the
+ * recently processed submissions, identified by the <i>X-HolodeckB2B-IdempotencyKey</i> header or when not provided
+ * the <i>X-HolodeckB2B-MessageId</i> header. When a submission is repeated the result of the original submission is
+ * returned without submitting the message again. The cache can be configured using the following service parameters:
+ * <ol>
+ * <li><b>idempotencyCacheSize</b> : the maximum number of submissions to keep track of. Default is 10000, use 0 to
+ * disable the detection of retried submissions.</li>
+ * <li><b>idempotencyCacheTTL</b> : the time (in seconds) a submission is kept in the cache. Default is 1 hour.</li>
+ * <li><b>idempotencyWaitTime</b> : the maximum time (in seconds) a retried submission waits for the original
+ * submission that is still being processed to complete. When it has not completed in time the retry is rejected with
+ * HTTP status 409. Default is 5 seconds.</li>
+ * <li><b>idempotencyCheckStore</b> : indicates whether the Holodeck B2B message store should be checked for an already
+ * submitted message with the given messageId when it is not found in the cache. Default is <i>false</i>.</li></ol>
+ * <p>The rate at which submissions are accepted can be limited both globally and per P-Mode, see {@link RateLimiter}
+ * for the format of the limits. Submissions exceeding the limit are rejected with HTTP status 429 and a
+ * <i>Retry-After</i> header indicating when the submission can be retried. The limits are configured using the
+ * following service parameters:<ol>
+ * <li><b>rateLimit</b> : the global limit that applies to all submissions.</li>
+ * <li><b>pmodeRateLimit</b> : the default limit that applies to each P-Mode separately.</li>
+ * <li><b>rateLimit.<i>P-Mode id</i></b> : the limit for a specific P-Mode.</li></ol>
+ * The number of admitted and rejected submissions per P-Mode are available through JMX.
+ * <p>The payload data can be staged before the message is submitted to the Holodeck B2B Core so the Core does not
+ * depend on the upload speed of the client, see {@link PayloadStager}. Staging is configured using the following
+ * service parameters:<ol>
+ * <li><b>stagePayloads</b> : indicates whether payloads should be staged. Default is <i>false</i>.</li>
+ * <li><b>stagingThreshold</b> : the maximum size (in bytes) of payloads that are kept in memory. Larger payloads are
+ * written to a temporary file. Default is 64 KiB.</li>
+ * <li><b>stagingDirectory</b> : the directory where the temporary files are stored. Default is the
+ * <i>hb2b-rest-staging</i> directory in the system's temporary directory.</li>
+ * <li><b>dedupePayloads</b> : indicates whether payloads staged in a temporary file should be deduplicated, see
+ * {@link PayloadBlobStore}. Also applies to the parts of multipart submissions. Default is <i>false</i>.</li>
+ * <li><b>dedupeRetention</b> : the time (in seconds) a deduplicated payload is retained after its last submission so
+ * it can be reused by a later submission. Default is 1 hour.</li></ol>
+ * <p>Back-end applications running on the same host can reference a local file containing the payload data using the
+ * <i>X-HolodeckB2B-Payload-File</i> header instead of including the data in the entity body. The file is then read
+ * directly by the Holodeck B2B Core. Only files in the directories configured by the <b>payloadFileDirectories</b>
+ * service parameter, a list of absolute paths separated by the system's path separator, are accepted. When the
+ * <b>removePayloadFiles</b> parameter is set to <i>true</i> the file is removed after it has been submitted
+ * successfully.
+ * <p>When enabled by setting the <b>acceptMultipart</b> service parameter to <i>true</i> a User Message with more than
+ * one payload can be submitted using a <i>multipart/related</i> entity body. The message meta-data is then provided in
+ * the HTTP headers of the request and the meta-data of each payload in the headers of its part, using the same headers
+ * as for a single payload submission. The parts are staged in temporary files in the staging directory before the
+ * message is submitted. When not enabled, which is the default, a <i>multipart/related</i> entity body is submitted as
+ * a single payload, as are all other content types.
+ * <p>The entity body may be compressed using the <i>gzip</i> content coding as indicated by the <i>Content-Encoding</i>
+ * header. It is decoded while it is read. Submissions using another content coding are rejected with HTTP status 415.
+ * <p>The integrity of the entity body can be protected by including its digest in the <i>Content-Digest</i> or
+ * <i>Digest</i> header, see {@link ContentDigest}. The digest is calculated while the entity body is read and the
+ * submission is rejected when it does not match.
+ * <p>The buffers used for copying and staging payload data are taken from a shared {@link BufferPool}, which is also
+ * used by the delivery method. It is configured using the following service parameters, or the corresponding
+ * parameters of the delivery method, the number of buffers served from the pool and the number of new allocations are
+ * available through JMX. When none of them is specified the current configuration is kept:<ol>
+ * <li><b>copyBufferSize</b> : the size (in bytes) of the buffers. Default is 64 KiB.</li>
+ * <li><b>copyBufferPoolSize</b> : the maximum number of buffers of each kind kept in the pool. Default is 64.</li>
+ * <li><b>directCopyBuffers</b> : indicates whether direct buffers should be used for writing to files. Default is
+ * <i>true</i>.</li></ol>
+ * <p>The number, latency and payload bytes of the submissions are recorded in the {@link Metrics} registry and a
+ * {@link RestOperationEvent.Submit} event is emitted when enabled in a JFR recording.
+ * <p>The W3C Trace Context provided in the <i>traceparent</i> and <i>tracestate</i> headers is stored with the User
+ * Message as message properties so it can be propagated when the message is delivered and its Signals are notified.
+ * When a span exporter is configured using the <b>spanExporter</b> service parameter, see {@link Tracing}, a span is
+ * recorded for the submission, starting a new trace if no trace context was provided. The context of such a new trace
+ * is not stored with the User Message.
  *
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
@@ -60,29 +144,802 @@ public class SubmitOperation extends AbstractMessageReceiver {
 
 	private Logger	log = LogManager.getLogger(SubmitOperation.class);
 
+	/**
+	 * Name of the service parameter that holds the maximum number of submissions to keep track of
+	 */
+	public static final String P_IDEMPOTENCY_CACHE_SIZE = "idempotencyCacheSize";
+	/**
+	 * Name of the service parameter that holds the time (in seconds) a submission is kept in the cache
+	 */
+	public static final String P_IDEMPOTENCY_CACHE_TTL = "idempotencyCacheTTL";
+	/**
+	 * Name of the service parameter that holds the time (in seconds) a retry waits for a pending submission
+	 */
+	public static final String P_IDEMPOTENCY_WAIT_TIME = "idempotencyWaitTime";
+	/**
+	 * Name of the service parameter that indicates whether the message store should be checked for earlier submissions
+	 */
+	public static final String P_IDEMPOTENCY_CHECK_STORE = "idempotencyCheckStore";
+
+	/**
+	 * Name of the service parameter that holds the global rate limit
+	 */
+	public static final String P_RATE_LIMIT = "rateLimit";
+	/**
+	 * Name of the service parameter that holds the default rate limit per P-Mode
+	 */
+	public static final String P_PMODE_RATE_LIMIT = "pmodeRateLimit";
+
+	/**
+	 * Name of the service parameter that indicates whether payloads should be staged
+	 */
+	public static final String P_STAGE_PAYLOADS = "stagePayloads";
+	/**
+	 * Name of the service parameter that holds the maximum size of payloads staged in memory
+	 */
+	public static final String P_STAGING_THRESHOLD = "stagingThreshold";
+	/**
+	 * Name of the service parameter that holds the directory for staging payloads
+	 */
+	public static final String P_STAGING_DIRECTORY = "stagingDirectory";
+	/**
+	 * Name of the service parameter that indicates whether staged payloads should be deduplicated
+	 */
+	public static final String P_DEDUPE_PAYLOADS = "dedupePayloads";
+	/**
+	 * Name of the service parameter that holds the time (in seconds) deduplicated payloads are retained
+	 */
+	public static final String P_DEDUPE_RETENTION = "dedupeRetention";
+
+	/**
+	 * Name of the service parameter that holds the directories from which payload files may be read
+	 */
+	public static final String P_PAYLOAD_FILE_DIRS = "payloadFileDirectories";
+	/**
+	 * Name of the service parameter that indicates whether payload files should be removed after submission
+	 */
+	public static final String P_REMOVE_PAYLOAD_FILES = "removePayloadFiles";
+
+	/**
+	 * Name of the service parameter that indicates whether multipart entity bodies should be split into payloads
+	 */
+	public static final String P_ACCEPT_MULTIPART = "acceptMultipart";
+
+	/**
+	 * Name of the service parameter that holds the size of the buffers used for copying payload data
+	 */
+	public static final String P_COPY_BUFFER_SIZE = "copyBufferSize";
+	/**
+	 * Name of the service parameter that holds the maximum number of pooled buffers
+	 */
+	public static final String P_COPY_BUFFER_POOL_SIZE = "copyBufferPoolSize";
+	/**
+	 * Name of the service parameter that indicates whether direct buffers should be used
+	 */
+	public static final String P_DIRECT_COPY_BUFFERS = "directCopyBuffers";
+	/**
+	 * Name of the service parameter that configures the exporter of the trace spans
+	 */
+	public static final String P_SPAN_EXPORTER = "spanExporter";
+
+	/**
+	 * The name under which the rate limiter is registered in JMX
+	 */
+	private static final String RATE_LIMITER_MBEAN = "org.holodeckb2b.backend.rest:type=RateLimiter";
+	/**
+	 * The default number of submissions to keep track of
+	 */
+	private static final int DEFAULT_IDEMPOTENCY_CACHE_SIZE = 10000;
+	/**
+	 * The default time to keep submissions in the cache is 1 hour
+	 */
+	private static final long DEFAULT_IDEMPOTENCY_CACHE_TTL = 3600;
+	/**
+	 * The default time a retry waits for a pending submission is 5 seconds
+	 */
+	private static final long DEFAULT_IDEMPOTENCY_WAIT_TIME = 5;
+	/**
+	 * The default maximum size of payloads staged in memory is 64 KiB
+	 */
+	private static final int DEFAULT_STAGING_THRESHOLD = 64 * 1024;
+	/**
+	 * The default time to retain deduplicated payloads is 1 hour
+	 */
+	private static final long DEFAULT_DEDUPE_RETENTION = 3600;
+
+	/**
+	 * Indicator whether the operation has been initialised using the service parameters
+	 */
+	private volatile boolean initialised = false;
+	/**
+	 * The cache of recently processed submissions, <code>null</code> if detection of retries is disabled
+	 */
+	private SubmissionCache submissionCache;
+	/**
+	 * The maximum time (in milliseconds) a retried submission waits for the pending original submission
+	 */
+	private long idempotencyWaitTime;
+	/**
+	 * Indicator whether the message store should be checked for earlier submissions of the message
+	 */
+	private boolean checkStore;
+	/**
+	 * The rate limiter of the submissions, <code>null</code> if no limits are configured
+	 */
+	private RateLimiter rateLimiter;
+	/**
+	 * Indicator whether the payload data of single payload submissions should be staged
+	 */
+	private boolean stagePayloads;
+	/**
+	 * The stager of the payload data, also used for the parts of multipart submissions, <code>null</code> if the
+	 * staging directory could not be initialised
+	 */
+	private PayloadStager payloadStager;
+	/**
+	 * The resolver of references to local payload files, <code>null</code> if file references are not allowed
+	 */
+	private PayloadFileResolver payloadFileResolver;
+	/**
+	 * Indicator whether the referenced payload files should be removed after successful submission
+	 */
+	private boolean removePayloadFiles;
+	/**
+	 * Indicator whether multipart entity bodies are accepted as submission of multiple payloads
+	 */
+	private boolean acceptMultipart;
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public void invokeBusinessLogic(final MessageContext msgCtx) throws AxisFault {
+		log.debug("Received submission request");
+		final HTTPHeaders headers = new HTTPHeaders((Map<String, String>)
+															msgCtx.getProperty(MessageContext.TRANSPORT_HEADERS));
+		final List<InputStream> contents = new ArrayList<>();
+		final List<Path> payloadFiles = new ArrayList<>(1);
+		boolean submitted = false;
+		try {
+			submit(msgCtx, headers, mmd -> addPayloads(msgCtx, headers, mmd, contents, payloadFiles));
+			submitted = true;
+		} finally {
+			for (InputStream content : contents)
+				if (content != null && content != msgCtx.getProperty(NOPMessageBuilder.REQUEST_INPUTSTREAM))
+					try {
+						content.close();
+					} catch (IOException closeFailure) {
+						log.warn("Could not release payload data : {}", closeFailure.getMessage());
+					}
+			if (submitted && removePayloadFiles)
+				for (Path payloadFile : payloadFiles)
+					try {
+						Files.deleteIfExists(payloadFile);
+					} catch (IOException removeFailure) {
+						log.warn("Could not remove submitted payload file {} : {}", payloadFile, removeFailure.getMessage());
+					}
+		}
+	}
+
+	/**
+	 * Adds the payloads of the User Message to a submission.
+	 */
+	@FunctionalInterface
+	interface PayloadSource {
+		/**
+		 * Adds the payloads to the given User Message.
+		 *
+		 * @param mmd	The User Message to add the payloads to
+		 * @return		The total size of the payload data, -1 if unknown
+		 * @throws MessageSubmitException	When the payloads are invalid
+		 * @throws AxisFault	When the payloads are rejected for another reason, the status of the response is set
+		 */
+		long addTo(UserMessage mmd) throws MessageSubmitException, AxisFault;
+	}
 
+	/**
+	 * Submits the User Message described by the given HTTP headers to the Holodeck B2B Core. Before the message is
+	 * submitted it is checked whether it is a retry of an earlier submission and whether the rate limits allow the
+	 * submission. The metrics, JFR event and span of the submission are recorded. This method is also used by the
+	 * {@link UploadOperation} to submit completed uploads so the same controls apply to them.
+	 *
+	 * @param msgCtx	The message context of the request, used to set the status of the response when the submission
+	 * 					is rejected
+	 * @param headers	The HTTP headers containing the message meta-data
+	 * @param payloads	The source of the payloads of the message
+	 * @return	The <i>MessageId</i> of the submitted message, or of the original message when the submission is a retry
+	 * @throws AxisFault	When the submission is rejected or could not be processed
+	 */
+	String submit(final MessageContext msgCtx, final HTTPHeaders headers, final PayloadSource payloads)
+																									throws AxisFault {
+		init(msgCtx);
+
+		final RestOperationEvent event = new RestOperationEvent.Submit();
+		event.begin();
+		final Metrics metrics = Metrics.getInstance();
+		final long startTime = metrics.start(Metrics.Operation.SUBMIT);
+		Metrics.Outcome outcome = Metrics.Outcome.FAILED;
+		String pmodeId = null;
+		String messageId = null;
+		long transferStart = 0, transferTime = 0;
+		TraceContext parentTrace = null, trace = null;
+		long payloadSize = -1;
+		SubmissionCache.Registration submission = null;
+		boolean submitted = false;
 		try {
-			log.debug("Received submission request");
-			final HTTPHeaders headers = new HTTPHeaders((HashMap<String, String>)
-																msgCtx.getProperty(MessageContext.TRANSPORT_HEADERS));
+			pmodeId = headers.getHeader(HTTPHeaders.PMODE_ID);
+			messageId = headers.getHeader(HTTPHeaders.MESSAGE_ID);
+			parentTrace = TraceContext.parse(headers.getHeader(HTTPHeaders.TRACEPARENT),
+											 headers.getHeader(HTTPHeaders.TRACESTATE));
+			trace = Tracing.startSpan(parentTrace, true);
+
+			final String submissionKey = getSubmissionKey(headers);
+			if (submissionKey != null) {
+				try {
+					submission = registerSubmission(submissionKey);
+				} catch (TimeoutException stillPending) {
+					log.warn("Rejected submission [key={}] because original submission is still being processed",
+							 submissionKey);
+					ResponseUtils.setStatus(msgCtx, 409);
+					ResponseUtils.setHeader(msgCtx, "Retry-After", Long.toString(Math.max(1, idempotencyWaitTime / 1000)));
+					throw new AxisFault("Earlier submission is still being processed",
+										SOAP12Constants.QNAME_SENDER_FAULTCODE);
+				}
+				final String orgMessageId = checkEarlierSubmission(submission, headers);
+				if (orgMessageId != null) {
+					log.info("Submission [key={}] already processed, messageId={}", submissionKey, orgMessageId);
+					messageId = orgMessageId;
+					submitted = true;
+					outcome = Metrics.Outcome.SUCCESS;
+					return messageId;
+				}
+			}
+
+			if (rateLimiter != null) {
+				final long retryAfter = rateLimiter.tryAcquire(pmodeId);
+				if (retryAfter > 0) {
+					log.warn("Rejected submission because rate limit is exceeded, retry after {} ms", retryAfter);
+					ResponseUtils.setStatus(msgCtx, 429);
+					ResponseUtils.setHeader(msgCtx, "Retry-After", Long.toString((retryAfter + 999) / 1000));
+					throw new AxisFault("Too many submissions", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+				}
+			}
+
+			if (event.isEnabled())
+				transferStart = System.nanoTime();
 			log.trace("Read basic message meta-data from HTTP headers");
 			UserMessage mmd = createBaseSubmission(headers);
-
-			log.trace("Read payload meta-data from HTTP headers");
-			Payload payload = createPayloadData(headers);
-			payload.setContentStream((InputStream) msgCtx.getProperty(NOPMessageBuilder.REQUEST_INPUTSTREAM));
-			mmd.addPayload(payload);
+			if (parentTrace != null)
+				mmd.setMessageProperties(Tracing.setTraceContext(mmd.getMessageProperties(), trace));
+			payloadSize = payloads.addTo(mmd);
 
 			log.debug("Submitting the message to the Holodeck B2B Core");
-			String messageId = HolodeckB2BCoreInterface.getMessageSubmitter().submitMessage(mmd);
+			messageId = HolodeckB2BCoreInterface.getMessageSubmitter().submitMessage(mmd);
+			if (transferStart != 0)
+				transferTime = System.nanoTime() - transferStart;
+			if (submission != null)
+				submissionCache.completed(submission, messageId);
+			submitted = true;
+			outcome = Metrics.Outcome.SUCCESS;
+			if (payloadSize < 0)
+				payloadSize = getContentLength(headers);
 			log.info("Successfully submitted message to Holodeck B2B Core, messageId={}", messageId);
+			return messageId;
 		} catch (MessageSubmitException submissionError) {
+			outcome = Metrics.Outcome.REJECTED;
 			log.error("Error in Submission: {}", submissionError.getMessage());
 			throw new AxisFault(submissionError.getMessage(), SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		} catch (AxisFault rejected) {
+			outcome = Metrics.Outcome.REJECTED;
+			throw rejected;
+		} finally {
+			metrics.end(Metrics.Operation.SUBMIT, pmodeId, outcome, startTime, payloadSize);
+			if (event.isEnabled())
+				event.complete(messageId, pmodeId, payloadSize, getResponseStatus(msgCtx, outcome), 0, transferTime);
+			if (Tracing.shouldExport(parentTrace, trace))
+				Tracing.export(Tracing.newSpan(trace.getSpanId(), trace,
+											   parentTrace != null ? parentTrace.getSpanId() : null, "submit",
+											   startTime, System.nanoTime() - startTime)
+								.setAttribute("messageId", messageId).setAttribute("pmode", pmodeId)
+								.setAttribute("outcome", outcome.label)
+								.setAttribute("http.status", getResponseStatus(msgCtx, outcome)));
+			// Only the registration owned by this request is failed, never the one of an earlier submission
+			if (submission != null && !submitted)
+				submissionCache.failed(submission);
+		}
+	}
+
+	/**
+	 * Adds the payloads contained in the entity body of the request, or referenced local file, to the User Message.
+	 *
+	 * @param msgCtx		The message context of the request
+	 * @param headers		The HTTP headers from the request
+	 * @param mmd			The User Message to add the payloads to
+	 * @param contents		The list to which the opened payload streams are added so they can be closed afterwards
+	 * @param payloadFiles	The list to which the referenced payload files are added
+	 * @return	The size of the payload data, -1 if unknown
+	 * @throws MessageSubmitException	When the payload data is invalid
+	 * @throws AxisFault	When the content coding of the entity body is not supported or combined with a digest
+	 */
+	private long addPayloads(final MessageContext msgCtx, final HTTPHeaders headers, final UserMessage mmd,
+							 final List<InputStream> contents, final List<Path> payloadFiles)
+															 				throws MessageSubmitException, AxisFault {
+		final String contentEncoding = headers.getHeader(HTTPHeaders.CONTENT_ENCODING);
+		if (!ContentEncoding.isDecodedByTransport(contentEncoding)) {
+			log.warn("Rejected submission because of unsupported Content-Encoding {}", contentEncoding);
+			ResponseUtils.setStatus(msgCtx, 415);
+			ResponseUtils.setHeader(msgCtx, "Accept-Encoding", ContentEncoding.GZIP);
+			throw new AxisFault("Unsupported Content-Encoding", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+		final ContentDigest contentDigest;
+		try {
+			contentDigest = ContentDigest.fromHeaders(headers);
+		} catch (IllegalArgumentException invalidDigest) {
+			throw new MessageSubmitException(invalidDigest.getMessage());
+		}
+		if (contentDigest != null && !ContentEncoding.isIdentity(contentEncoding)) {
+			// The transport already decoded the entity body, so the digest of the transferred bytes cannot be verified
+			log.warn("Rejected submission because a digest of an encoded entity body is not supported");
+			ResponseUtils.setStatus(msgCtx, 415);
+			ResponseUtils.setHeader(msgCtx, "Accept-Encoding", ContentEncoding.IDENTITY);
+			throw new AxisFault("Digest of encoded entity body not supported", SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		}
+
+		if (acceptMultipart && MultipartUtils.isMultipart(headers.getHeader(HTTPHeaders.MIME_TYPE))) {
+			log.trace("Read payloads from multipart entity body");
+			for (Payload payload : readMultipart(msgCtx, headers, contentDigest, contents))
+				mmd.addPayload(payload);
+			return -1;
+		}
+		log.trace("Read payload meta-data from HTTP headers");
+		Payload payload = createPayloadData(headers);
+		final String payloadFileRef = headers.getHeader(HTTPHeaders.PAYLOAD_FILE);
+		final InputStream content;
+		long payloadSize = -1;
+		if (!Utils.isNullOrEmpty(payloadFileRef)) {
+			final Path payloadFile = resolvePayloadFile(payloadFileRef);
+			content = openPayloadFile(payloadFile);
+			payloadFiles.add(payloadFile);
+			payloadSize = payloadFile.toFile().length();
+		} else
+			content = getPayloadContent(msgCtx, headers, contentDigest);
+		contents.add(content);
+		payload.setContentStream(content);
+		mmd.addPayload(payload);
+		return payloadSize;
+	}
+
+	/**
+	 * Gets the HTTP status code of the response to the submission, which is either explicitly set or derived from the
+	 * outcome of the submission.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param outcome	The outcome of the submission
+	 * @return			The HTTP status code
+	 */
+	private static int getResponseStatus(final MessageContext msgCtx, final Metrics.Outcome outcome) {
+		final int status = ResponseUtils.getStatus(msgCtx);
+		if (status > 0)
+			return status;
+		switch (outcome) {
+		case SUCCESS:
+			return 202;
+		case REJECTED:
+			return 400;
+		default:
+			return 500;
+		}
+	}
+
+	/**
+	 * Gets the size of the entity body as indicated by the <i>Content-Length</i> header.
+	 *
+	 * @param headers	The HTTP headers from the request
+	 * @return			The size of the entity body, -1 if unknown
+	 */
+	private static long getContentLength(final HTTPHeaders headers) {
+		try {
+			return Long.parseLong(headers.getHeader(HTTPHeaders.CONTENT_LENGTH));
+		} catch (NumberFormatException nan) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Resolves the reference to the local file containing the payload data.
+	 *
+	 * @param fileRef	The file reference from the request
+	 * @return			Path of the payload file
+	 * @throws MessageSubmitException	When file references are not allowed or the reference is not valid
+	 */
+	private Path resolvePayloadFile(final String fileRef) throws MessageSubmitException {
+		if (payloadFileResolver == null)
+			throw new MessageSubmitException("Payload file references are not allowed");
+		log.trace("Using payload data from local file {}", fileRef);
+		return payloadFileResolver.resolve(fileRef);
+	}
+
+	/**
+	 * Opens the local file containing the payload data.
+	 *
+	 * @param payloadFile	Path of the payload file
+	 * @return				Stream to read the payload data
+	 * @throws MessageSubmitException	When the file cannot be opened
+	 */
+	private InputStream openPayloadFile(final Path payloadFile) throws MessageSubmitException {
+		try {
+			return Files.newInputStream(payloadFile);
+		} catch (IOException readError) {
+			log.error("Could not open payload file {} : {}", payloadFile, readError.getMessage());
+			throw new MessageSubmitException("Could not read payload file");
+		}
+	}
+
+	/**
+	 * Reads the payloads from a multipart entity body. The content of each part is staged in a temporary file and the
+	 * meta-data of the payload is read from the part headers.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param headers	The HTTP headers from the request
+	 * @param contentDigest	The expected digest of the entity body, <code>null</code> if not provided
+	 * @param contents	List to which the streams of the staged parts are added, so the caller can close them
+	 * @return			The payloads read from the entity body
+	 * @throws MessageSubmitException	When the entity body is not a correct multipart, does not match the provided
+	 * 									digest, a part contains invalid meta-data or a part could not be staged
+	 */
+	private List<Payload> readMultipart(final MessageContext msgCtx, final HTTPHeaders headers,
+										final ContentDigest contentDigest, final List<InputStream> contents)
+																					throws MessageSubmitException {
+		if (payloadStager == null)
+			throw new MessageSubmitException("Multipart submissions are not available");
+		final String boundary = MultipartUtils.getBoundary(headers.getHeader(HTTPHeaders.MIME_TYPE));
+		if (boundary == null)
+			throw new MessageSubmitException("Missing multipart boundary");
+
+		final List<HTTPHeaders> partHeaders = new ArrayList<>();
+		try {
+			final InputStream body = getRequestStream(msgCtx, headers, contentDigest);
+			MultipartUtils.readParts(body, boundary,
+									 (h, content) -> { contents.add(payloadStager.stage(content)); partHeaders.add(h); });
+			if (contentDigest != null)
+				// Read the epilogue so the digest is verified
+				PayloadUtils.copy(body, OutputStream.nullOutputStream());
+		} catch (ContentDigest.DigestMismatchException digestMismatch) {
+			log.error("Multipart entity body rejected : {}", digestMismatch.getMessage());
+			throw new MessageSubmitException(digestMismatch.getMessage());
+		} catch (IOException readError) {
+			log.error("Could not read the multipart entity body : {}", readError.getMessage());
+			throw new MessageSubmitException("Could not read multipart payload data", readError);
+		}
+		if (partHeaders.isEmpty())
+			throw new MessageSubmitException("No payloads in multipart entity body");
+
+		log.trace("Read {} payloads from multipart entity body", partHeaders.size());
+		final List<Payload> payloads = new ArrayList<>(partHeaders.size());
+		for (int i = 0; i < partHeaders.size(); i++) {
+			final Payload payload = createPayloadData(partHeaders.get(i));
+			payload.setContentStream(contents.get(i));
+			payloads.add(payload);
+		}
+		return payloads;
+	}
+
+	/**
+	 * Gets the stream containing the payload data of the submission. When payloads are staged the payload data is
+	 * first read completely from the request. When a digest is provided it is verified when the end of the payload
+	 * data is read, i.e. during staging or otherwise when the Core reads the payload.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param headers	The HTTP headers from the request
+	 * @param contentDigest	The expected digest of the entity body, <code>null</code> if not provided
+	 * @return			The stream containing the payload data
+	 * @throws MessageSubmitException	When the payload data could not be staged or does not match the digest
+	 */
+	private InputStream getPayloadContent(final MessageContext msgCtx, final HTTPHeaders headers,
+										  final ContentDigest contentDigest) throws MessageSubmitException {
+		final InputStream requestStream;
+		try {
+			requestStream = getRequestStream(msgCtx, headers, contentDigest);
+		} catch (IOException decodingFailure) {
+			log.error("Could not decode the payload data : {}", decodingFailure.getMessage());
+			throw new MessageSubmitException("Could not read payload data", decodingFailure);
+		}
+		if (!stagePayloads || payloadStager == null)
+			return requestStream;
+
+		long contentLength;
+		try {
+			contentLength = ContentEncoding.isIdentity(headers.getHeader(HTTPHeaders.CONTENT_ENCODING)) ?
+								Long.parseLong(headers.getHeader(HTTPHeaders.CONTENT_LENGTH)) : -1;
+		} catch (NumberFormatException nan) {
+			contentLength = -1;
+		}
+		// When the client provided the SHA-256 digest of the payload, which is only accepted for unencoded entity
+		// bodies, it can be used to find an already staged copy of the payload before it is read
+		final byte[] sha256 = contentDigest != null ? contentDigest.getValue(ContentDigest.SHA_256) : null;
+		try {
+			log.trace("Staging payload data (Content-Length={})", contentLength);
+			return payloadStager.stage(requestStream, contentLength, sha256);
+		} catch (ContentDigest.DigestMismatchException digestMismatch) {
+			log.error("Payload data rejected : {}", digestMismatch.getMessage());
+			throw new MessageSubmitException(digestMismatch.getMessage());
+		} catch (IOException stagingFailure) {
+			log.error("Could not stage the payload data : {}", stagingFailure.getMessage());
+			throw new MessageSubmitException("Could not read payload data", stagingFailure);
+		}
+	}
+
+	/**
+	 * Gets the stream containing the entity body of the request. A <i>gzip</i> encoded entity body has already been
+	 * decoded by the Axis2 HTTP transport, see {@link ContentEncoding}, so the stream is never decoded again. When a
+	 * digest is provided it is calculated while the entity body is read and verified when the end of the returned
+	 * stream is reached.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param headers	The HTTP headers from the request
+	 * @param contentDigest	The expected digest of the entity body, <code>null</code> if not provided
+	 * @return			The stream containing the decoded entity body
+	 * @throws IOException	When the entity body could not be read
+	 */
+	private static InputStream getRequestStream(final MessageContext msgCtx, final HTTPHeaders headers,
+												final ContentDigest contentDigest) throws IOException {
+		final InputStream requestStream = (InputStream) msgCtx.getProperty(NOPMessageBuilder.REQUEST_INPUTSTREAM);
+		if (contentDigest == null)
+			return requestStream;
+
+		final InputStream digested = contentDigest.digest(requestStream);
+		return contentDigest.verifyAtEnd(digested, digested);
+	}
+
+	/**
+	 * Initialises the operation using the parameters of the service. As Axis2 only provides access to the
+	 * parameters through the message context this is done when the first request is received.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void init(final MessageContext msgCtx) {
+		if (initialised)
+			return;
+		synchronized (this) {
+			if (initialised)
+				return;
+			int cacheSize;
+			long cacheTTL;
+			try {
+				cacheSize = Integer.parseInt(getParameter(msgCtx, P_IDEMPOTENCY_CACHE_SIZE));
+			} catch (NumberFormatException nan) {
+				cacheSize = DEFAULT_IDEMPOTENCY_CACHE_SIZE;
+			}
+			try {
+				cacheTTL = Long.parseLong(getParameter(msgCtx, P_IDEMPOTENCY_CACHE_TTL));
+			} catch (NumberFormatException nan) {
+				cacheTTL = DEFAULT_IDEMPOTENCY_CACHE_TTL;
+			}
+			submissionCache = cacheSize > 0 && cacheTTL > 0 ? new SubmissionCache(cacheSize, cacheTTL * 1000) : null;
+			try {
+				idempotencyWaitTime = Math.max(0, Long.parseLong(getParameter(msgCtx, P_IDEMPOTENCY_WAIT_TIME))) * 1000;
+			} catch (NumberFormatException nan) {
+				idempotencyWaitTime = DEFAULT_IDEMPOTENCY_WAIT_TIME * 1000;
+			}
+			checkStore = Utils.isTrue(getParameter(msgCtx, P_IDEMPOTENCY_CHECK_STORE));
+			initRateLimiter(msgCtx);
+			initBufferPool(msgCtx);
+			initPayloadStager(msgCtx);
+			initPayloadFileResolver(msgCtx);
+			acceptMultipart = Utils.isTrue(getParameter(msgCtx, P_ACCEPT_MULTIPART));
+			try {
+				Tracing.configure(getParameter(msgCtx, P_SPAN_EXPORTER));
+			} catch (IllegalArgumentException invalidExporter) {
+				log.error("Invalid span exporter configured, spans are not recorded : {}",
+						  invalidExporter.getMessage());
+			}
+			Metrics.registerMBean();
+			log.info("Initialised REST submit operation.\n\tIdempotency cache = {}\n\tCheck msg store   = {}"
+					+ "\n\tRate limiting     = {}\n\tPayload staging   = {}\n\tPayload files     = {}"
+					+ "\n\tMultipart         = {}",
+					 submissionCache != null ? cacheSize + " entries/" + cacheTTL + "s" : "disabled", checkStore,
+					 rateLimiter != null ? "enabled" : "disabled",
+					 stagePayloads && payloadStager != null ? payloadStager.getStagingDirectory() : "disabled",
+					 payloadFileResolver != null ? payloadFileResolver.getAllowedDirectories() : "disabled",
+					 acceptMultipart ? "enabled" : "disabled");
+			initialised = true;
+		}
+	}
+
+	/**
+	 * Initialises the rate limiter using the service parameters and registers it in JMX. When the limits are not
+	 * configured correctly no limits are applied.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void initRateLimiter(final MessageContext msgCtx) {
+		final String prefix = P_RATE_LIMIT + ".";
+		final Map<String, String> pmodeLimits = new HashMap<>();
+		if (msgCtx.getAxisService() != null)
+			for (Parameter p : msgCtx.getAxisService().getParameters())
+				if (p.getName().startsWith(prefix) && p.getValue() != null)
+					pmodeLimits.put(p.getName().substring(prefix.length()), p.getValue().toString());
+		try {
+			rateLimiter = new RateLimiter(getParameter(msgCtx, P_RATE_LIMIT), getParameter(msgCtx, P_PMODE_RATE_LIMIT),
+										  pmodeLimits);
+		} catch (IllegalArgumentException invalidLimit) {
+			log.error("Invalid rate limit configuration, submissions are not limited : {}", invalidLimit.getMessage());
+			rateLimiter = null;
+			return;
+		}
+		if (!rateLimiter.isActive()) {
+			rateLimiter = null;
+			return;
+		}
+		registerMBean(rateLimiter, RATE_LIMITER_MBEAN);
+	}
+
+	/**
+	 * Configures the shared buffer pool using the service parameters and registers it in JMX. When no parameters are
+	 * specified the current configuration, which may have been set by the delivery method, is kept.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void initBufferPool(final MessageContext msgCtx) {
+		try {
+			BufferPool.configure(getParameter(msgCtx, P_COPY_BUFFER_SIZE), getParameter(msgCtx, P_COPY_BUFFER_POOL_SIZE),
+								 getParameter(msgCtx, P_DIRECT_COPY_BUFFERS));
+		} catch (IllegalArgumentException invalidConfig) {
+			log.error("Invalid buffer pool configuration, using current : {}", invalidConfig.getMessage());
+		}
+		BufferPool.registerMBean();
+	}
+
+	/**
+	 * Registers the given bean in JMX, replacing an already registered bean with the same name.
+	 *
+	 * @param bean	The bean to register
+	 * @param name	The name to register the bean under
+	 */
+	private void registerMBean(final Object bean, final String name) {
+		try {
+			final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objName = new ObjectName(name);
+			if (mbs.isRegistered(objName))
+				mbs.unregisterMBean(objName);
+			mbs.registerMBean(bean, objName);
+		} catch (JMException jmxError) {
+			log.warn("Could not register {} in JMX : {}", name, jmxError.getMessage());
+		}
+	}
+
+	/**
+	 * Initialises the payload stager using the service parameters. The stager is always initialised as it is also used
+	 * for the parts of multipart submissions. When the staging directory cannot be used payloads are not staged.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void initPayloadStager(final MessageContext msgCtx) {
+		stagePayloads = Utils.isTrue(getParameter(msgCtx, P_STAGE_PAYLOADS));
+		int threshold;
+		try {
+			threshold = Integer.parseInt(getParameter(msgCtx, P_STAGING_THRESHOLD));
+		} catch (NumberFormatException nan) {
+			threshold = DEFAULT_STAGING_THRESHOLD;
+		}
+		final String stagingDir = getParameter(msgCtx, P_STAGING_DIRECTORY);
+		final Path stagingPath = !Utils.isNullOrEmpty(stagingDir) ? Paths.get(stagingDir)
+										: Paths.get(System.getProperty("java.io.tmpdir"), "hb2b-rest-staging");
+		try {
+			PayloadBlobStore blobStore = null;
+			if (Utils.isTrue(getParameter(msgCtx, P_DEDUPE_PAYLOADS))) {
+				long retention;
+				try {
+					retention = Long.parseLong(getParameter(msgCtx, P_DEDUPE_RETENTION));
+				} catch (NumberFormatException nan) {
+					retention = DEFAULT_DEDUPE_RETENTION;
+				}
+				blobStore = new PayloadBlobStore(stagingPath.resolve("blobs"), retention * 1000);
+			}
+			payloadStager = new PayloadStager(threshold, stagingPath, blobStore);
+		} catch (IOException | IllegalArgumentException invalidConfig) {
+			log.error("Could not initialise payload staging in {}, payloads are not staged and multipart submissions"
+						+ " are not available : {}", stagingPath, invalidConfig.getMessage());
+		}
+	}
+
+	/**
+	 * Initialises the resolver of payload file references using the service parameters. When the directories are not
+	 * configured correctly file references are not allowed.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void initPayloadFileResolver(final MessageContext msgCtx) {
+		final String dirs = getParameter(msgCtx, P_PAYLOAD_FILE_DIRS);
+		if (Utils.isNullOrEmpty(dirs))
+			return;
+		final List<Path> allowedDirs = new ArrayList<>();
+		for (String d : dirs.split(File.pathSeparator))
+			if (!d.isBlank())
+				allowedDirs.add(Paths.get(d.trim()));
+		try {
+			payloadFileResolver = new PayloadFileResolver(allowedDirs);
+			removePayloadFiles = Utils.isTrue(getParameter(msgCtx, P_REMOVE_PAYLOAD_FILES));
+		} catch (IOException | InvalidPathException invalidDir) {
+			log.error("Invalid payload file directory configured, file references are not allowed : {}",
+						invalidDir.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the value of the specified parameter of the service.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @param name		The name of the parameter
+	 * @return			The trimmed string value of the parameter, <code>null</code> if not specified
+	 */
+	static String getParameter(final MessageContext msgCtx, final String name) {
+		final Parameter p = msgCtx.getParameter(name);
+		return p != null && p.getValue() != null ? p.getValue().toString().trim() : null;
+	}
+
+	/**
+	 * Gets the key that identifies the submission for the detection of retried submissions. This is the value of the
+	 * <i>X-HolodeckB2B-IdempotencyKey</i> header or when not provided the <i>X-HolodeckB2B-MessageId</i> header.
+	 *
+	 * @param headers	The HTTP headers from the request
+	 * @return			The key identifying the submission, <code>null</code> if detection of retries is disabled or
+	 * 					no key is available
+	 */
+	private String getSubmissionKey(final HTTPHeaders headers) {
+		if (submissionCache == null)
+			return null;
+		final String idempotencyKey = headers.getHeader(HTTPHeaders.IDEMPOTENCY_KEY);
+		if (!Utils.isNullOrEmpty(idempotencyKey))
+			return idempotencyKey;
+		final String messageId = headers.getHeader(HTTPHeaders.MESSAGE_ID);
+		return Utils.isNullOrEmpty(messageId) ? null : messageId;
+	}
+
+	/**
+	 * Registers the submission identified by the given key in the cache of submissions, waiting for the earlier
+	 * submission with the same key to complete if it is still being processed.
+	 *
+	 * @param key		The key identifying the submission
+	 * @return			The registration of the submission
+	 * @throws MessageSubmitException	When interrupted while waiting for the earlier submission to complete
+	 * @throws TimeoutException	When the earlier submission is still being processed
+	 */
+	private SubmissionCache.Registration registerSubmission(final String key)
+																throws MessageSubmitException, TimeoutException {
+		try {
+			return submissionCache.register(key, idempotencyWaitTime);
+		} catch (InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw new MessageSubmitException("Interrupted while waiting for earlier submission to complete");
+		}
+	}
+
+	/**
+	 * Checks whether the registered submission was already processed. When the submission is new and configured to do
+	 * so, the message store is checked for a message with the messageId given in the submission.
+	 *
+	 * @param submission	The registration of the submission
+	 * @param headers		The HTTP headers from the request
+	 * @return			The messageId of the message created by the earlier submission, <code>null</code> if this is a
+	 * 					new submission
+	 */
+	private String checkEarlierSubmission(final SubmissionCache.Registration submission, final HTTPHeaders headers) {
+		if (!submission.isNew() || !checkStore)
+			return submission.getMessageId();
+
+		final String messageId = headers.getHeader(HTTPHeaders.MESSAGE_ID);
+		if (Utils.isNullOrEmpty(messageId))
+			return null;
+		try {
+			if (Utils.isNullOrEmpty(HolodeckB2BCoreInterface.getQueryManager()
+																.getMessageUnitsWithId(messageId, Direction.OUT)))
+				return null;
+		} catch (StorageException se) {
+			log.error("Could not check message store for earlier submission (msgId={}) : {}", messageId,
+						se.getMessage());
+			return null;
 		}
+		submissionCache.completed(submission, messageId);
+		return messageId;
 	}
 
 	/**
@@ -94,7 +951,7 @@ public class SubmitOperation extends AbstractMessageReceiver {
 	 * @throws MessageSubmitException	When a required meta-data element is not included in the submission or is
 	 * 									incorrectly formatted
 	 */
-	private UserMessage createBaseSubmission(final HTTPHeaders headers) throws MessageSubmitException {
+	static UserMessage createBaseSubmission(final HTTPHeaders headers) throws MessageSubmitException {
 		final UserMessage mmd = new UserMessage();
 
 		final String pmodeId = headers.getHeader(HTTPHeaders.PMODE_ID);
@@ -151,7 +1008,7 @@ public class SubmitOperation extends AbstractMessageReceiver {
 	 * @throws MessageSubmitException	When a required meta-data element is not included in the submission or is
 	 * 									incorrectly formatted
 	 */
-	private Payload createPayloadData(final HTTPHeaders headers) throws MessageSubmitException {
+	static Payload createPayloadData(final HTTPHeaders headers) throws MessageSubmitException {
 		final Payload payload = new Payload();
 
 		final String containmentHdrVal = headers.getHeader(HTTPHeaders.CONTAINMENT);
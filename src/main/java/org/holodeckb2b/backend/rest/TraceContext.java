@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Represents a <a href="https://www.w3.org/TR/trace-context/">W3C Trace Context</a>, i.e. the content of the
+ * <i>traceparent</i> and <i>tracestate</i> headers, which identifies the span of a distributed trace a request is
+ * part of. Only version <i>00</i> of the <i>traceparent</i> header is generated, but higher versions are accepted as
+ * long as they start with the fields defined by version <i>00</i>.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+final class TraceContext {
+	/**
+	 * The maximum length of the <i>tracestate</i> header that is propagated
+	 */
+	private static final int MAX_TRACESTATE_LENGTH = 512;
+	/**
+	 * The maximum number of list-members in the <i>tracestate</i> header
+	 */
+	private static final int MAX_TRACESTATE_MEMBERS = 32;
+	/**
+	 * The flag indicating that the trace is sampled, i.e. that spans should be recorded
+	 */
+	private static final int FLAG_SAMPLED = 0x01;
+
+	private final String	traceId;
+	private final String	spanId;
+	private final int		flags;
+	private final String	traceState;
+
+	private TraceContext(final String traceId, final String spanId, final int flags, final String traceState) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.flags = flags;
+		this.traceState = traceState;
+	}
+
+	/**
+	 * Parses the given <i>traceparent</i> and <i>tracestate</i> header values. The trace state is dropped when it
+	 * is too long to be propagated or is not a valid list of key/value pairs as defined by the specification, which
+	 * also ensures that it does not contain line breaks or other control characters.
+	 *
+	 * @param traceparent	The value of the <i>traceparent</i> header
+	 * @param tracestate	The value of the <i>tracestate</i> header, may be <code>null</code>
+	 * @return	The trace context, or <code>null</code> when the <i>traceparent</i> is not provided or invalid
+	 */
+	static TraceContext parse(final String traceparent, final String tracestate) {
+		if (traceparent == null)
+			return null;
+		final String tp = traceparent.trim();
+		if (tp.length() < 55 || (tp.length() > 55 && tp.charAt(55) != '-') || tp.charAt(2) != '-'
+			|| tp.charAt(35) != '-' || tp.charAt(52) != '-')
+			return null;
+		final String version = tp.substring(0, 2), traceId = tp.substring(3, 35), spanId = tp.substring(36, 52),
+					 flags = tp.substring(53, 55);
+		if (!isLowerHex(version) || "ff".equals(version) || ("00".equals(version) && tp.length() != 55)
+			|| !isLowerHex(traceId) || isZero(traceId) || !isLowerHex(spanId) || isZero(spanId) || !isLowerHex(flags))
+			return null;
+		final String ts = tracestate != null && tracestate.length() <= MAX_TRACESTATE_LENGTH
+						  && isValidTraceState(tracestate) ? stripOWS(tracestate) : null;
+		return new TraceContext(traceId, spanId, Integer.parseInt(flags, 16), ts);
+	}
+
+	/**
+	 * Creates the context of a new, sampled, trace.
+	 *
+	 * @return	A new trace context with random trace and span id
+	 */
+	static TraceContext newTrace() {
+		return new TraceContext(randomHex(16), randomHex(8), FLAG_SAMPLED, null);
+	}
+
+	/**
+	 * Creates the context of a new span within the same trace, i.e. a span that has the span identified by this
+	 * context as its parent.
+	 *
+	 * @return	The trace context of the child span
+	 */
+	TraceContext newChild() {
+		return new TraceContext(traceId, newSpanId(), flags, traceState);
+	}
+
+	/**
+	 * Creates a new span id.
+	 *
+	 * @return	A random span id as 16 hex characters
+	 */
+	static String newSpanId() {
+		return randomHex(8);
+	}
+
+	/**
+	 * @return The trace id as 32 hex characters
+	 */
+	String getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * @return The id of the span identified by this context as 16 hex characters
+	 */
+	String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return <code>true</code> if the trace is sampled and spans should be recorded, <code>false</code> otherwise
+	 */
+	boolean isSampled() {
+		return (flags & FLAG_SAMPLED) != 0;
+	}
+
+	/**
+	 * @return The value for the <i>traceparent</i> header
+	 */
+	String getTraceParent() {
+		return "00-" + traceId + "-" + spanId + "-" + (flags < 0x10 ? "0" : "") + Integer.toHexString(flags);
+	}
+
+	/**
+	 * @return The value for the <i>tracestate</i> header, <code>null</code> if there is no trace state
+	 */
+	String getTraceState() {
+		return traceState;
+	}
+
+	/**
+	 * Checks that the given value of the <i>tracestate</i> header is a list of at most 32 valid list-members
+	 * separated by commas and optional white space.
+	 *
+	 * @param tracestate	The value to check
+	 * @return	<code>true</code> if the value is a valid trace state, <code>false</code> otherwise
+	 */
+	private static boolean isValidTraceState(final String tracestate) {
+		int members = 0;
+		for (String member : tracestate.split(",", -1)) {
+			final String m = stripOWS(member);
+			if (m.isEmpty())
+				continue;
+			if (++members > MAX_TRACESTATE_MEMBERS || !isValidListMember(m))
+				return false;
+		}
+		return members > 0;
+	}
+
+	/**
+	 * Checks that the given list-member of the <i>tracestate</i> header consists of a valid key and value separated
+	 * by "=". The key is either a simple key starting with a lower case letter or a multi-tenant key of the form
+	 * <i>tenant</i>@<i>system</i>. The value consists of at most 256 printable ASCII characters, excluding "," and "="
+	 * and not ending with a space.
+	 *
+	 * @param member	The list-member to check
+	 * @return	<code>true</code> if the list-member is valid, <code>false</code> otherwise
+	 */
+	private static boolean isValidListMember(final String member) {
+		final int eq = member.indexOf('=');
+		if (eq <= 0)
+			return false;
+		final String key = member.substring(0, eq);
+		final int at = key.indexOf('@');
+		if (at < 0) {
+			if (key.length() > 256 || !isLowerAlpha(key.charAt(0)) || !isKeyChars(key, 1, key.length()))
+				return false;
+		} else if (at > 241 || key.length() - at - 1 < 1 || key.length() - at - 1 > 14
+					|| !(isLowerAlpha(key.charAt(0)) || isDigit(key.charAt(0))) || !isKeyChars(key, 1, at)
+					|| !isLowerAlpha(key.charAt(at + 1)) || !isKeyChars(key, at + 2, key.length()))
+			return false;
+
+		final String value = member.substring(eq + 1);
+		if (value.isEmpty() || value.length() > 256 || value.charAt(value.length() - 1) == ' ')
+			return false;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < 0x20 || c > 0x7e || c == ',' || c == '=')
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isKeyChars(final String s, final int from, final int to) {
+		for (int i = from; i < to; i++) {
+			final char c = s.charAt(i);
+			if (!isLowerAlpha(c) && !isDigit(c) && c != '_' && c != '-' && c != '*' && c != '/')
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isLowerAlpha(final char c) {
+		return c >= 'a' && c <= 'z';
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Removes the optional white space, i.e. spaces and horizontal tabs, from the start and end of the given string.
+	 *
+	 * @param s	The string
+	 * @return	The string without leading and trailing optional white space
+	 */
+	private static String stripOWS(final String s) {
+		int start = 0, end = s.length();
+		while (start < end && (s.charAt(start) == ' ' || s.charAt(start) == '\t'))
+			start++;
+		while (end > start && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == '\t'))
+			end--;
+		return s.substring(start, end);
+	}
+
+	private static boolean isLowerHex(final String s) {
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f'))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isZero(final String s) {
+		for (int i = 0; i < s.length(); i++)
+			if (s.charAt(i) != '0')
+				return false;
+		return true;
+	}
+
+	private static String randomHex(final int bytes) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final StringBuilder sb = new StringBuilder(bytes * 2);
+		String hex;
+		do {
+			sb.setLength(0);
+			for (int i = 0; i < bytes; i++) {
+				final int b = random.nextInt(256);
+				sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			hex = sb.toString();
+		} while (isZero(hex));
+		return hex;
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.interfaces.general.IProperty;
+
+/**
+ * Manages the propagation of the <a href="https://www.w3.org/TR/trace-context/">W3C Trace Context</a> and the export
+ * of the spans recorded by the REST operations, so a business transaction can be followed from its submission to its
+ * delivery and the notification of its Receipt or Error.
+ * <p>The trace context of a submission is stored with the User Message as the message properties <i>traceparent</i>
+ * and <i>tracestate</i> so it is available when the message is delivered and when its Signals are notified. The
+ * deliveries and notifications then include the trace context in their <i>traceparent</i> and <i>tracestate</i>
+ * headers.
+ * <p>Spans are only recorded when a {@link SpanExporter} is configured, using either the <b>spanExporter</b> parameter
+ * of the <code>restbackend</code> service or the <b>SPAN_EXPORTER</b> parameter of the delivery method, so spans of
+ * deliveries and notifications are also recorded when no message has been submitted. Its value is either the class
+ * name of the exporter or <code>file:</code> followed by the path of the file to which spans should be written by the
+ * {@link FileSpanExporter}. As there is one exporter for all operations, they should use the same configuration. When
+ * no exporter is configured the incoming trace context is propagated unchanged. Only spans of sampled traces are
+ * exported.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class Tracing {
+	private static final Logger log = LogManager.getLogger(Tracing.class);
+
+	/**
+	 * The name of the message property holding the <i>traceparent</i>
+	 */
+	public static final String TRACEPARENT_PROPERTY = "traceparent";
+	/**
+	 * The name of the message property holding the <i>tracestate</i>
+	 */
+	public static final String TRACESTATE_PROPERTY = "tracestate";
+	/**
+	 * The prefix of the exporter configuration indicating that spans should be written to a file
+	 */
+	static final String FILE_EXPORTER_PREFIX = "file:";
+
+	/**
+	 * The difference between the epoch time and the value of {@link System#nanoTime()}, used to convert the latter to
+	 * the start time of spans
+	 */
+	private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	/**
+	 * The configured exporter, <code>null</code> if spans are not recorded
+	 */
+	private static volatile SpanExporter exporter;
+	/**
+	 * The configuration from which the current exporter was created, <code>null</code> if it was set directly
+	 */
+	private static String configuredSpec;
+
+	private Tracing() {}
+
+	/**
+	 * Configures the exporter using the value of the <b>spanExporter</b> service or <b>SPAN_EXPORTER</b> delivery
+	 * method parameter. When no exporter is configured the current exporter, which may have been set using {@link
+	 * #setExporter(SpanExporter)}, is kept. The current exporter is also kept when it was created from the same
+	 * configuration, so the operations configuring it do not replace each other's exporter.
+	 *
+	 * @param config	The exporter configuration, <code>null</code> or empty if not configured
+	 * @throws IllegalArgumentException	When the exporter cannot be created
+	 */
+	static synchronized void configure(final String config) {
+		if (config == null || config.isBlank())
+			return;
+		final String spec = config.trim();
+		if (spec.equals(configuredSpec))
+			return;
+		try {
+			if (spec.startsWith(FILE_EXPORTER_PREFIX))
+				setExporter(new FileSpanExporter(Paths.get(spec.substring(FILE_EXPORTER_PREFIX.length()))));
+			else
+				setExporter((SpanExporter) Class.forName(spec).getConstructor().newInstance());
+			configuredSpec = spec;
+		} catch (IOException | ReflectiveOperationException | ClassCastException invalidExporter) {
+			throw new IllegalArgumentException("Cannot create span exporter " + spec + " : "
+												+ invalidExporter.getMessage(), invalidExporter);
+		}
+	}
+
+	/**
+	 * Gets the exporter of the spans.
+	 *
+	 * @return	The configured exporter, <code>null</code> if spans are not recorded
+	 */
+	public static SpanExporter getExporter() {
+		return exporter;
+	}
+
+	/**
+	 * Sets the exporter of the spans. When the currently configured exporter is {@link Closeable} it is closed.
+	 *
+	 * @param newExporter	The exporter to use, <code>null</code> if spans should not be recorded
+	 */
+	public static synchronized void setExporter(final SpanExporter newExporter) {
+		final SpanExporter current = exporter;
+		exporter = newExporter;
+		configuredSpec = null;
+		if (current instanceof Closeable && current != newExporter)
+			try {
+				((Closeable) current).close();
+			} catch (IOException closeFailure) {
+				log.warn("Could not close span exporter : {}", closeFailure.getMessage());
+			}
+	}
+
+	/**
+	 * @return <code>true</code> if spans are recorded, <code>false</code> otherwise
+	 */
+	static boolean isEnabled() {
+		return exporter != null;
+	}
+
+	/**
+	 * Gets the trace context stored in the given message properties.
+	 *
+	 * @param properties	The message properties of a User Message, may be <code>null</code>
+	 * @return	The trace context, <code>null</code> if no valid trace context is stored
+	 */
+	static TraceContext getTraceContext(final Collection<? extends IProperty> properties) {
+		if (properties == null || properties.isEmpty())
+			return null;
+		String traceparent = null, tracestate = null;
+		for (IProperty p : properties)
+			if (TRACEPARENT_PROPERTY.equals(p.getName()))
+				traceparent = p.getValue();
+			else if (TRACESTATE_PROPERTY.equals(p.getName()))
+				tracestate = p.getValue();
+		return TraceContext.parse(traceparent, tracestate);
+	}
+
+	/**
+	 * Stores the trace context in the given message properties, replacing a trace context that may already be
+	 * included.
+	 *
+	 * @param properties	The message properties of a User Message, may be <code>null</code>
+	 * @param trace			The trace context to store
+	 * @return	The message properties including the trace context
+	 */
+	static Collection<IProperty> setTraceContext(final Collection<? extends IProperty> properties, final TraceContext trace) {
+		final List<IProperty> result = new ArrayList<>();
+		if (properties != null)
+			for (IProperty p : properties)
+				if (!TRACEPARENT_PROPERTY.equals(p.getName()) && !TRACESTATE_PROPERTY.equals(p.getName()))
+					result.add(p);
+		result.add(new Property(TRACEPARENT_PROPERTY, trace.getTraceParent()));
+		if (trace.getTraceState() != null)
+			result.add(new Property(TRACESTATE_PROPERTY, trace.getTraceState()));
+		return result;
+	}
+
+	/**
+	 * Creates the context of the span of an operation that is part of the trace identified by the given context.
+	 * When spans are recorded this is a new child span, otherwise the given context is propagated unchanged.
+	 *
+	 * @param parent	The context of the parent span, <code>null</code> if there is none
+	 * @param newTrace	Indicates whether a new trace should be started when there is no parent and spans are
+	 * 					recorded
+	 * @return	The context of the operation's span, <code>null</code> if there is none
+	 */
+	static TraceContext startSpan(final TraceContext parent, final boolean newTrace) {
+		if (!isEnabled())
+			return parent;
+		else if (parent != null)
+			return parent.newChild();
+		else
+			return newTrace ? TraceContext.newTrace() : null;
+	}
+
+	/**
+	 * Creates a span to be exported.
+	 *
+	 * @param spanId		The id of the span
+	 * @param trace			The context of the trace the span is part of
+	 * @param parentSpanId	The id of the parent span, <code>null</code> if this is a root span
+	 * @param name			The name of the span
+	 * @param start			The start of the span as value of {@link System#nanoTime()}
+	 * @param duration		The duration of the span in nanoseconds
+	 * @return	The span
+	 */
+	static Span newSpan(final String spanId, final TraceContext trace, final String parentSpanId, final String name,
+						final long start, final long duration) {
+		return new Span(trace.getTraceId(), spanId, parentSpanId, name, EPOCH_OFFSET + start, duration);
+	}
+
+	/**
+	 * Exports the given span when spans are recorded.
+	 *
+	 * @param span	The span to export
+	 */
+	static void export(final Span span) {
+		final SpanExporter current = exporter;
+		if (current != null)
+			try {
+				current.export(span);
+			} catch (RuntimeException exportFailure) {
+				log.warn("Could not export span : {}", exportFailure.getMessage());
+			}
+	}
+
+	/**
+	 * Indicates whether the span of an operation should be exported, i.e. when spans are recorded, the operation
+	 * started a new span and the trace is sampled.
+	 *
+	 * @param parent	The context of the parent span as received, <code>null</code> if there was none
+	 * @param trace		The context of the operation's span as returned by {@link #startSpan(TraceContext, boolean)}
+	 * @return	<code>true</code> if the spans of the operation should be exported, <code>false</code> otherwise
+	 */
+	static boolean shouldExport(final TraceContext parent, final TraceContext trace) {
+		return trace != null && trace != parent && trace.isSampled() && isEnabled();
+	}
+
+}
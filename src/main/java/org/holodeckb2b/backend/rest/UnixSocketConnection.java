@@ -0,0 +1,531 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Is an {@link HttpURLConnection} that sends the HTTP/1.1 request over a Unix domain socket instead of TCP, for
+ * back-ends that run on the same host as Holodeck B2B. The URL of such a back-end is specified as <code>unix:<i>socket
+ * path</i>[:<i>base path</i>]</code>, for example <code>unix:/var/run/backend.sock:/rest/</code>. When no base path is
+ * given the requests are sent to the root path.
+ * <p>Only the features used by the delivery method are supported: the request is sent with either a fixed length or
+ * a chunked entity body, or with a chunked body when no streaming mode is set, and only the status and headers of the
+ * response are read. Each connection is used for one request. The read timeout applies to waiting for the response.
+ * <p>NOTE: Unix domain socket channels are only available from Java 16. As this extension is built for Java 11 they
+ * are accessed using reflection and {@link #isSupported()} indicates whether they are available in the runtime.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+class UnixSocketConnection extends HttpURLConnection {
+	/**
+	 * The scheme used for back-ends listening on a Unix domain socket
+	 */
+	static final String SCHEME = "unix:";
+
+	/**
+	 * The <code>UnixDomainSocketAddress.of(Path)</code> method, <code>null</code> if not available
+	 */
+	private static final Method ADDRESS_OF;
+	/**
+	 * The <code>SocketChannel.open(ProtocolFamily)</code> method, <code>null</code> if not available
+	 */
+	private static final Method OPEN_CHANNEL;
+	/**
+	 * The <code>UNIX</code> protocol family, <code>null</code> if not available
+	 */
+	private static final ProtocolFamily UNIX;
+	static {
+		Method addressOf = null, openChannel = null;
+		ProtocolFamily unix = null;
+		try {
+			addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+			openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+			unix = StandardProtocolFamily.valueOf("UNIX");
+		} catch (ReflectiveOperationException | IllegalArgumentException notAvailable) {
+			addressOf = null;
+		}
+		ADDRESS_OF = addressOf;
+		OPEN_CHANNEL = openChannel;
+		UNIX = unix;
+	}
+
+	/**
+	 * Timer used to enforce the read timeout by closing the channel
+	 */
+	private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread t = new Thread(r, "hb2b-rest-unix-timeout");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * The path of the socket
+	 */
+	private final Path		socketPath;
+	/**
+	 * The request path
+	 */
+	private final String	requestPath;
+	/**
+	 * The channel to the back-end
+	 */
+	private SocketChannel	channel;
+	/**
+	 * The stream to write the request to
+	 */
+	private OutputStream	requestStream;
+	/**
+	 * The stream to write the entity body to, <code>null</code> if not opened
+	 */
+	private OutputStream	bodyStream;
+	/**
+	 * The headers of the response, with case insensitive names
+	 */
+	private final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+	/**
+	 * Creates a new connection to the given target.
+	 *
+	 * @param target	The target formatted as <code>unix:<i>socket path</i>:<i>request path</i></code>
+	 * @throws MalformedURLException	When the target is not a valid Unix socket URL
+	 */
+	UnixSocketConnection(final String target) throws MalformedURLException {
+		super(new URL("http", "localhost", getRequestPath(target)));
+		this.socketPath = getSocketPath(target);
+		this.requestPath = getRequestPath(target);
+	}
+
+	/**
+	 * Indicates whether Unix domain sockets are supported by the runtime.
+	 *
+	 * @return	<code>true</code> if Unix domain sockets can be used, <code>false</code> otherwise
+	 */
+	static boolean isSupported() {
+		return ADDRESS_OF != null;
+	}
+
+	/**
+	 * Indicates whether the given URL refers to a back-end listening on a Unix domain socket.
+	 *
+	 * @param url	The URL to check
+	 * @return		<code>true</code> if the URL uses the <code>unix:</code> scheme, <code>false</code> otherwise
+	 */
+	static boolean isUnixURL(final String url) {
+		return url != null && url.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+	}
+
+	/**
+	 * Checks the given Unix socket URL and normalises it so the base path always ends with "/".
+	 *
+	 * @param url	The URL formatted as <code>unix:<i>socket path</i>[:<i>base path</i>]</code>
+	 * @return		The normalised URL
+	 * @throws MalformedURLException	When the URL is not valid or Unix domain sockets are not supported
+	 */
+	static String normalise(final String url) throws MalformedURLException {
+		if (!isSupported())
+			throw new MalformedURLException("Unix domain sockets are not supported by this Java runtime");
+		final int sep = url.indexOf(':', SCHEME.length());
+		String basePath = sep < 0 ? "/" : url.substring(sep + 1);
+		if (!basePath.startsWith("/"))
+			throw new MalformedURLException("Base path must be absolute: " + url);
+		if (!basePath.endsWith("/"))
+			basePath += "/";
+		final String normalised = SCHEME + getSocketPath(url) + ":" + basePath;
+		new URL("http", "localhost", basePath);
+		return normalised;
+	}
+
+	/**
+	 * Gets the path of the socket from the given Unix socket URL.
+	 *
+	 * @param url	The URL formatted as <code>unix:<i>socket path</i>[:<i>path</i>]</code>
+	 * @return		The socket path
+	 * @throws MalformedURLException	When no valid socket path is included
+	 */
+	private static Path getSocketPath(final String url) throws MalformedURLException {
+		final int sep = url.indexOf(':', SCHEME.length());
+		final String path = sep < 0 ? url.substring(SCHEME.length()) : url.substring(SCHEME.length(), sep);
+		try {
+			if (path.isEmpty())
+				throw new MalformedURLException("Missing socket path: " + url);
+			return Paths.get(path);
+		} catch (InvalidPathException invalidPath) {
+			throw new MalformedURLException("Invalid socket path: " + url);
+		}
+	}
+
+	/**
+	 * Gets the request path from the given Unix socket URL.
+	 *
+	 * @param url	The URL formatted as <code>unix:<i>socket path</i>[:<i>path</i>]</code>
+	 * @return		The request path
+	 */
+	private static String getRequestPath(final String url) {
+		final int sep = url.indexOf(':', SCHEME.length());
+		return sep < 0 ? "/" : url.substring(sep + 1);
+	}
+
+	/**
+	 * Gets the address of the given Unix domain socket.
+	 *
+	 * @param socketPath	The path of the socket
+	 * @return				The socket address
+	 * @throws IOException	When Unix domain sockets are not supported
+	 */
+	static SocketAddress getAddress(final Path socketPath) throws IOException {
+		if (!isSupported())
+			throw new IOException("Unix domain sockets are not supported by this Java runtime");
+		try {
+			return (SocketAddress) ADDRESS_OF.invoke(null, socketPath);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Could not create address of " + socketPath, e);
+		}
+	}
+
+	/**
+	 * Gets the <code>UNIX</code> protocol family.
+	 *
+	 * @return	The protocol family for Unix domain sockets, <code>null</code> if not supported
+	 */
+	static ProtocolFamily getProtocolFamily() {
+		return UNIX;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (connected)
+			return;
+		// The request properties are not available anymore once connected, so the request head is created first
+		final StringBuilder head = new StringBuilder();
+		head.append(method).append(' ').append(requestPath).append(" HTTP/1.1\r\n");
+		head.append("Host: localhost\r\n");
+		getRequestProperties().forEach((n, values) -> values.stream().filter(v -> v != null && !v.isEmpty())
+															.forEach(v -> head.append(n).append(": ").append(v)
+																			  .append("\r\n")));
+		if (isChunked())
+			head.append("Transfer-Encoding: chunked\r\n");
+		else
+			head.append("Content-Length: ").append(getFixedLength()).append("\r\n");
+		head.append("Connection: close\r\n\r\n");
+
+		final SocketAddress address = getAddress(socketPath);
+		try {
+			channel = (SocketChannel) OPEN_CHANNEL.invoke(null, UNIX);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IOException("Could not open Unix domain socket channel", e.getCause());
+		}
+		try {
+			channel.connect(address);
+			requestStream = new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+			requestStream.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+			connected = true;
+		} catch (IOException connectFailure) {
+			channel.close();
+			throw connectFailure;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>As the headers are written directly to the socket the header is checked to not contain line breaks or NUL
+	 * characters that would allow to inject additional headers, the same check as applied by the default HTTP
+	 * connection.
+	 */
+	@Override
+	public void setRequestProperty(final String key, final String value) {
+		checkHeader(key, value);
+		super.setRequestProperty(key, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The header is checked in the same way as in {@link #setRequestProperty(String, String)}.
+	 */
+	@Override
+	public void addRequestProperty(final String key, final String value) {
+		checkHeader(key, value);
+		super.addRequestProperty(key, value);
+	}
+
+	/**
+	 * Checks that the given header can be written to the request head.
+	 *
+	 * @param name		The header name
+	 * @param value		The header value
+	 * @throws IllegalArgumentException	When the name or value contains a character that is not allowed
+	 */
+	private static void checkHeader(final String name, final String value) {
+		if (!HTTPHeaders.isValidHeader(name, value))
+			throw new IllegalArgumentException("Illegal character(s) in request header: " + name);
+	}
+
+	/**
+	 * Gets the length of the entity body when it is sent with a fixed length.
+	 *
+	 * @return	The length of the entity body, 0 if no fixed length is set
+	 */
+	private long getFixedLength() {
+		return fixedContentLengthLong >= 0 ? fixedContentLengthLong : Math.max(0, fixedContentLength);
+	}
+
+	/**
+	 * Indicates whether the entity body is sent using chunked transfer encoding. This is the case when chunked
+	 * streaming is enabled or no streaming mode is set and the request has an entity body.
+	 *
+	 * @return	<code>true</code> if the chunked transfer encoding is used, <code>false</code> otherwise
+	 */
+	private boolean isChunked() {
+		return chunkLength != -1 || (doOutput && fixedContentLengthLong < 0 && fixedContentLength < 0);
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (!doOutput)
+			throw new ProtocolException("Output not enabled");
+		if (bodyStream != null)
+			return bodyStream;
+		connect();
+		bodyStream = isChunked() ? new ChunkedOutputStream(requestStream)
+								 : new FixedLengthOutputStream(requestStream, getFixedLength());
+		return bodyStream;
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		if (responseCode == -1)
+			readResponseHead();
+		return responseCode;
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		getResponseCode();
+		return responseMessage;
+	}
+
+	@Override
+	public String getHeaderField(final String name) {
+		try {
+			getResponseCode();
+		} catch (IOException noResponse) {
+			return null;
+		}
+		final List<String> values = responseHeaders.get(name);
+		return values != null ? values.get(values.size() - 1) : null;
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		return Collections.unmodifiableMap(responseHeaders);
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		throw new ProtocolException("Reading the response entity body is not supported");
+	}
+
+	@Override
+	public void disconnect() {
+		if (channel != null)
+			try {
+				channel.close();
+			} catch (IOException closeFailure) {
+				// Nothing to do
+			}
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return false;
+	}
+
+	/**
+	 * Completes the request and reads the status line and headers of the response. Interim 1xx responses are skipped.
+	 *
+	 * @throws IOException	When the request could not be completed or the response could not be read in time
+	 */
+	private void readResponseHead() throws IOException {
+		connect();
+		if (bodyStream != null)
+			bodyStream.close();
+		else if (isChunked())
+			getOutputStream().close();
+		requestStream.flush();
+
+		final ScheduledFuture<?> timer = getReadTimeout() > 0 ?
+								TIMEOUTS.schedule(this::disconnect, getReadTimeout(), TimeUnit.MILLISECONDS) : null;
+		try {
+			final InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 1024);
+			do {
+				final String statusLine = readLine(in);
+				final String[] parts = statusLine.split(" ", 3);
+				if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+					throw new ProtocolException("Invalid status line: " + statusLine);
+				try {
+					responseCode = Integer.parseInt(parts[1]);
+				} catch (NumberFormatException nan) {
+					throw new ProtocolException("Invalid status line: " + statusLine);
+				}
+				responseMessage = parts.length > 2 ? parts[2] : "";
+				responseHeaders.clear();
+				for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+					final int colon = line.indexOf(':');
+					if (colon > 0)
+						responseHeaders.computeIfAbsent(line.substring(0, colon).trim(), n -> new ArrayList<>())
+									   .add(line.substring(colon + 1).trim());
+				}
+			} while (responseCode / 100 == 1);
+		} catch (IOException readFailure) {
+			responseCode = -1;
+			if (timer != null && timer.isDone())
+				throw new SocketTimeoutException("Read timed out");
+			throw readFailure;
+		} finally {
+			if (timer != null)
+				timer.cancel(false);
+		}
+	}
+
+	/**
+	 * Reads a line of the response head.
+	 *
+	 * @param in	The stream to read from
+	 * @return		The line without the line terminator
+	 * @throws IOException	When the stream ends before the end of the line
+	 */
+	private static String readLine(final InputStream in) throws IOException {
+		final ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		for (int b = in.read(); b != '\n'; b = in.read()) {
+			if (b < 0)
+				throw new IOException("Connection closed before response was received");
+			if (b != '\r')
+				line.write(b);
+		}
+		return line.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Writes the data of an entity body with a fixed length and checks that exactly the declared number of bytes is
+	 * written, as otherwise the back-end would wait for more data or read the excess as a next request. The underlying
+	 * stream is not closed.
+	 */
+	private static final class FixedLengthOutputStream extends FilterOutputStream {
+		private final long	length;
+		private long		written = 0;
+		private boolean 	closed = false;
+
+		FixedLengthOutputStream(final OutputStream out, final long length) {
+			super(out);
+			this.length = length;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream is closed");
+			if (len > length - written)
+				throw new IOException("Too many bytes written, expected " + length);
+			out.write(b, off, len);
+			written += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				if (written < length)
+					throw new IOException("Insufficient data written, " + written + " of " + length + " bytes");
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes the data using the chunked transfer encoding, each write resulting in one chunk. The last chunk is written
+	 * when the stream is closed, the underlying stream is not closed.
+	 */
+	private static final class ChunkedOutputStream extends FilterOutputStream {
+		private boolean closed = false;
+
+		ChunkedOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed)
+				throw new IOException("Stream is closed");
+			if (len == 0)
+				return;
+			out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			out.write(b, off, len);
+			out.write('\r');
+			out.write('\n');
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				out.flush();
+			}
+		}
+	}
+}
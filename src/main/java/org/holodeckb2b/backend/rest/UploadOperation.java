@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisOperation;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.receivers.AbstractInOutMessageReceiver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.holodeckb2b.common.axis2.NOPMessageBuilder;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.commons.util.Utils;
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+
+/**
+ * Implements a REST service for the resumable upload of large payloads, in the style of the <a href="https://tus.io">
+ * tus protocol</a>. Instead of sending the payload data in one request, as in the <i>Submit</i> operation, an upload is
+ * first created and the payload data is then sent in one or more chunks. When the connection is interrupted the
+ * back-end can query the number of bytes received and resume the upload from there. The message is submitted to the
+ * Holodeck B2B Core when all payload data has been received.
+ * <p>The operation supports the following requests:<ol>
+ * <li><b>POST</b> without upload id : creates a new upload. The request must contain the same meta-data headers as a
+ * submission and the <i>Upload-Length</i> header with the total size of the payload. The response has HTTP status 201
+ * and includes the id of the upload in the <i>X-HolodeckB2B-UploadId</i> header and the URL to use for the upload in
+ * the <i>Location</i> header.</li>
+ * <li><b>PATCH</b> : appends the data in the entity body to the upload. The <i>Upload-Offset</i> header must be equal
+ * to the number of bytes already received, otherwise the request is rejected with HTTP status 409. The response has
+ * HTTP status 204 and includes the new offset in the <i>Upload-Offset</i> header. When the upload is complete the
+ * message is submitted and its messageId is included in the <i>X-HolodeckB2B-MessageId</i> header. If the submission
+ * fails it can be retried by sending an empty PATCH request. When the upload has already been submitted, for example
+ * because the request that completed it is retried, the message is not submitted again and the response includes the
+ * messageId of the submitted message. Data exceeding the length of the upload is rejected with HTTP status 413.</li>
+ * <li><b>HEAD</b> or <b>GET</b> : returns the current offset and total size of the upload in the <i>Upload-Offset</i>
+ * and <i>Upload-Length</i> headers and, when submitted, the messageId in the <i>X-HolodeckB2B-MessageId</i> header.
+ * </li>
+ * <li><b>DELETE</b> : cancels the upload.</li></ol>
+ * Requests that conflict with another request for the same upload still being processed are rejected with HTTP status
+ * 409.
+ * The upload id is provided in the <i>uploadId</i> query parameter or in the <i>X-HolodeckB2B-UploadId</i> header. As
+ * not all HTTP stacks support the PATCH and DELETE methods these can also be sent as POST request with the method in
+ * the <i>X-HTTP-Method-Override</i> header.
+ * <p>Completed uploads are submitted through the <i>Submit</i> operation of the service, see {@link
+ * SubmitOperation#submit(MessageContext, HTTPHeaders, SubmitOperation.PayloadSource)}, so the detection of retried
+ * submissions, the rate limits, metrics and tracing also apply to them.
+ * <p>The upload sessions are stored on disk, see {@link UploadSessionStore}, and survive a restart of Holodeck B2B.
+ * The operation is configured using the following service parameters:<ol>
+ * <li><b>uploadDirectory</b> : the directory where the upload sessions are stored. Default is the
+ * <i>hb2b-rest-uploads</i> directory in the system's temporary directory.</li>
+ * <li><b>uploadExpiry</b> : the time (in seconds) after the last received chunk an incomplete upload is removed.
+ * Default is 24 hours.</li>
+ * <li><b>maxUploadSize</b> : the maximum size (in bytes) of a payload. Optional, when not specified the size is not
+ * limited.</li></ol>
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class UploadOperation extends AbstractInOutMessageReceiver {
+
+	private Logger	log = LogManager.getLogger(UploadOperation.class);
+
+	/**
+	 * Name of the service parameter that holds the directory for storing upload sessions
+	 */
+	public static final String P_UPLOAD_DIRECTORY = "uploadDirectory";
+	/**
+	 * Name of the service parameter that holds the time (in seconds) after which incomplete uploads are removed
+	 */
+	public static final String P_UPLOAD_EXPIRY = "uploadExpiry";
+	/**
+	 * Name of the service parameter that holds the maximum size of an upload
+	 */
+	public static final String P_MAX_UPLOAD_SIZE = "maxUploadSize";
+	/**
+	 * Name of the query parameter that contains the upload id
+	 */
+	public static final String Q_UPLOAD_ID = "uploadId";
+	/**
+	 * Name of the HTTP header that can be used to override the request method
+	 */
+	public static final String METHOD_OVERRIDE = "X-HTTP-Method-Override";
+	/**
+	 * The prefix of the Holodeck B2B specific headers which are stored with an upload
+	 */
+	private static final String HEADER_PREFIX = "X-HolodeckB2B-";
+	/**
+	 * The name of the operation used to submit the completed uploads
+	 */
+	private static final String SUBMIT_OPERATION = "submit";
+
+	/**
+	 * The default expiry time of uploads is 24 hours
+	 */
+	private static final long DEFAULT_UPLOAD_EXPIRY = 24 * 3600;
+
+	/**
+	 * Indicator whether the operation has been initialised using the service parameters
+	 */
+	private volatile boolean initialised = false;
+	/**
+	 * The store of upload sessions, <code>null</code> if the store could not be initialised
+	 */
+	private UploadSessionStore sessionStore;
+	/**
+	 * The maximum size of an upload, -1 if not limited
+	 */
+	private long maxUploadSize;
+	/**
+	 * The operation used to submit the completed uploads
+	 */
+	private SubmitOperation submitOperation;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void invokeBusinessLogic(final MessageContext inMsgCtx, final MessageContext outMsgCtx) throws AxisFault {
+		init(inMsgCtx);
+		if (sessionStore == null)
+			throw fault(inMsgCtx, 503, "Resumable uploads not available");
+
+		final HTTPHeaders headers = new HTTPHeaders((Map<String, String>)
+																inMsgCtx.getProperty(MessageContext.TRANSPORT_HEADERS));
+		String method = headers.getHeader(METHOD_OVERRIDE);
+		if (Utils.isNullOrEmpty(method))
+			method = (String) inMsgCtx.getProperty(Constants.Configuration.HTTP_METHOD);
+		method = method != null ? method.trim().toUpperCase() : "POST";
+		String uploadId = PayloadRetrievalOperation.getQueryParameter(inMsgCtx, Q_UPLOAD_ID);
+		if (Utils.isNullOrEmpty(uploadId))
+			uploadId = headers.getHeader(HTTPHeaders.UPLOAD_ID);
+
+		try {
+			if (Utils.isNullOrEmpty(uploadId)) {
+				if (!"POST".equals(method))
+					throw fault(inMsgCtx, 400, "Missing upload id");
+				createUpload(headers, outMsgCtx);
+				return;
+			}
+			final UploadSessionStore.Session session = sessionStore.get(uploadId);
+			if (session == null) {
+				log.warn("Received {} request for unknown upload [id={}]", method, uploadId);
+				throw fault(inMsgCtx, 404, "Unknown upload");
+			}
+			switch (method) {
+			case "PATCH" :
+				appendData(session, headers, inMsgCtx, outMsgCtx);
+				break;
+			case "HEAD" :
+			case "GET" :
+				ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET, Long.toString(session.getOffset()));
+				ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.UPLOAD_LENGTH, Long.toString(session.getLength()));
+				if (session.getMessageId() != null)
+					ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID, session.getMessageId());
+				ResponseUtils.setHeader(outMsgCtx, "Cache-Control", "no-store");
+				setEmptyResponse(outMsgCtx, 200);
+				break;
+			case "DELETE" :
+				sessionStore.remove(session.getId());
+				log.info("Cancelled upload [id={}]", session.getId());
+				setEmptyResponse(outMsgCtx, 204);
+				break;
+			default :
+				throw fault(inMsgCtx, 405, "Method not allowed");
+			}
+		} catch (AxisFault requestError) {
+			throw requestError;
+		} catch (IllegalStateException conflict) {
+			log.warn("Rejected {} request for upload [id={}] : {}", method, uploadId, conflict.getMessage());
+			throw fault(inMsgCtx, 409, conflict.getMessage());
+		} catch (MessageSubmitException submissionError) {
+			log.error("Error in Submission: {}", submissionError.getMessage());
+			throw new AxisFault(submissionError.getMessage(), SOAP12Constants.QNAME_SENDER_FAULTCODE);
+		} catch (IOException storageError) {
+			log.error("Error in processing upload [id={}] : {}", uploadId, storageError.getMessage());
+			throw fault(inMsgCtx, 500, "Could not process upload");
+		}
+	}
+
+	/**
+	 * Creates a new upload session. The meta-data of the submission is checked before the session is created so
+	 * errors are reported before the payload data is uploaded.
+	 *
+	 * @param headers	The HTTP headers from the request
+	 * @param outMsgCtx	The message context of the response
+	 * @throws MessageSubmitException	When the meta-data is invalid
+	 * @throws IOException	When the session cannot be stored
+	 */
+	private void createUpload(final HTTPHeaders headers, final MessageContext outMsgCtx)
+																			throws MessageSubmitException, IOException {
+		final long length;
+		try {
+			length = Long.parseLong(headers.getHeader(HTTPHeaders.UPLOAD_LENGTH));
+		} catch (NumberFormatException nan) {
+			throw new MessageSubmitException("Missing or invalid Upload-Length");
+		}
+		if (length < 0)
+			throw new MessageSubmitException("Missing or invalid Upload-Length");
+		if (maxUploadSize >= 0 && length > maxUploadSize)
+			throw new MessageSubmitException("Upload exceeds maximum size of " + maxUploadSize + " bytes");
+
+		log.trace("Checking meta-data of upload");
+		SubmitOperation.createBaseSubmission(headers);
+		SubmitOperation.createPayloadData(headers);
+
+		final Map<String, String> metadata = new HashMap<>();
+		headers.getAllHeaders().forEach((n, v) -> {
+			if (n.regionMatches(true, 0, HEADER_PREFIX, 0, HEADER_PREFIX.length()) || HTTPHeaders.MIME_TYPE.equalsIgnoreCase(n)
+				|| HTTPHeaders.CONTENT_ID.equalsIgnoreCase(n) || HTTPHeaders.TRACEPARENT.equalsIgnoreCase(n)
+				|| HTTPHeaders.TRACESTATE.equalsIgnoreCase(n))
+				metadata.put(n, v);
+		});
+		final UploadSessionStore.Session session = sessionStore.create(metadata, length);
+		log.info("Created upload [id={}] for {} bytes", session.getId(), length);
+		ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.UPLOAD_ID, session.getId());
+		ResponseUtils.setHeader(outMsgCtx, "Location", "upload?" + Q_UPLOAD_ID + "=" + session.getId());
+		ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET, "0");
+		setEmptyResponse(outMsgCtx, 201);
+	}
+
+	/**
+	 * Appends the data from the entity body to the upload and submits the message when the upload is complete.
+	 *
+	 * @param session	The upload session
+	 * @param headers	The HTTP headers from the request
+	 * @param inMsgCtx	The message context of the request
+	 * @param outMsgCtx	The message context of the response
+	 * @throws AxisFault	When the offset is missing or does not match the current offset, the data exceeds the length
+	 * 						of the upload or the completed upload could not be submitted
+	 * @throws IOException	When the data could not be stored
+	 */
+	private void appendData(final UploadSessionStore.Session session, final HTTPHeaders headers,
+							final MessageContext inMsgCtx, final MessageContext outMsgCtx)
+																				throws AxisFault, IOException {
+		final long offset;
+		try {
+			offset = Long.parseLong(headers.getHeader(HTTPHeaders.UPLOAD_OFFSET));
+		} catch (NumberFormatException nan) {
+			throw fault(inMsgCtx, 400, "Missing or invalid Upload-Offset");
+		}
+		final InputStream data = (InputStream) inMsgCtx.getProperty(NOPMessageBuilder.REQUEST_INPUTSTREAM);
+		final long newOffset;
+		final String messageId;
+		try {
+			newOffset = sessionStore.append(session, offset, data != null ? data : InputStream.nullInputStream());
+			log.debug("Received {} bytes for upload [id={}], offset now {}", newOffset - offset, session.getId(),
+						newOffset);
+			messageId = newOffset == session.getLength() ? submit(session, inMsgCtx) : null;
+		} catch (IllegalStateException conflict) {
+			log.warn("Rejected chunk for upload [id={}] : {}", session.getId(), conflict.getMessage());
+			ResponseUtils.setHeader(inMsgCtx, HTTPHeaders.UPLOAD_OFFSET, Long.toString(session.getOffset()));
+			throw fault(inMsgCtx, 409, conflict.getMessage());
+		} catch (UploadSessionStore.LengthExceededException tooLarge) {
+			log.warn("Rejected chunk for upload [id={}] : {}", session.getId(), tooLarge.getMessage());
+			ResponseUtils.setHeader(inMsgCtx, HTTPHeaders.UPLOAD_OFFSET, Long.toString(session.getOffset()));
+			throw fault(inMsgCtx, 413, tooLarge.getMessage());
+		}
+		ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET, Long.toString(newOffset));
+		if (messageId != null)
+			ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID, messageId);
+		setEmptyResponse(outMsgCtx, 204);
+	}
+
+	/**
+	 * Submits the message of the completed upload. The session is moved to the <i>SUBMITTING</i> state first so the
+	 * message is submitted only once, also when the request completing the upload is retried or received concurrently.
+	 * When the upload was already submitted the messageId of the submitted message is returned.
+	 *
+	 * @param session	The completed upload session
+	 * @param inMsgCtx	The message context of the request
+	 * @return			The messageId of the submitted message
+	 * @throws IllegalStateException	When the upload is being submitted by another request
+	 * @throws AxisFault	When the message could not be submitted
+	 * @throws IOException	When the payload data cannot be read or the session cannot be updated
+	 */
+	private String submit(final UploadSessionStore.Session session, final MessageContext inMsgCtx)
+																							throws AxisFault, IOException {
+		if (!sessionStore.startSubmission(session)) {
+			log.info("Upload [id={}] already submitted, messageId={}", session.getId(), session.getMessageId());
+			return session.getMessageId();
+		}
+		boolean submitted = false;
+		try {
+			final HTTPHeaders headers = new HTTPHeaders(session.getHeaders());
+			final String messageId;
+			try (InputStream content = session.openData()) {
+				log.debug("Submitting the message of upload [id={}] to the Holodeck B2B Core", session.getId());
+				messageId = getSubmitOperation(inMsgCtx).submit(inMsgCtx, headers, mmd -> {
+					final Payload payload = SubmitOperation.createPayloadData(headers);
+					payload.setContentStream(content);
+					mmd.addPayload(payload);
+					return session.getLength();
+				});
+			}
+			log.info("Successfully submitted message of upload [id={}] to Holodeck B2B Core, messageId={}",
+						session.getId(), messageId);
+			sessionStore.completeSubmission(session, messageId);
+			submitted = true;
+			return messageId;
+		} finally {
+			if (!submitted)
+				sessionStore.abortSubmission(session);
+		}
+	}
+
+	/**
+	 * Gets the <i>Submit</i> operation of the service which is used to submit the completed uploads. When the service
+	 * has no such operation a separate instance is used.
+	 *
+	 * @param msgCtx	The message context of the request
+	 * @return			The operation to use for submitting the completed uploads
+	 */
+	private synchronized SubmitOperation getSubmitOperation(final MessageContext msgCtx) {
+		if (submitOperation == null) {
+			final AxisService service = msgCtx.getAxisService();
+			final AxisOperation operation = service != null ? service.getOperation(new QName(SUBMIT_OPERATION)) : null;
+			if (operation != null && operation.getMessageReceiver() instanceof SubmitOperation)
+				submitOperation = (SubmitOperation) operation.getMessageReceiver();
+			else {
+				log.warn("Service has no Submit operation, using separate instance for submitting uploads");
+				submitOperation = new SubmitOperation();
+			}
+		}
+		return submitOperation;
+	}
+
+	/**
+	 * Sets the HTTP status code of the response and indicates that the response has no entity body.
+	 *
+	 * @param outMsgCtx	The message context of the response
+	 * @param status	The HTTP status code
+	 * @throws AxisFault	When the response cannot be prepared
+	 */
+	private static void setEmptyResponse(final MessageContext outMsgCtx, final int status) throws AxisFault {
+		ResponseUtils.setStatus(outMsgCtx, status);
+		ResponseUtils.setHeader(outMsgCtx, HTTPHeaders.CONTENT_LENGTH, "0");
+		new StreamingResponseFormatter("text/plain", out -> {}).setOnResponse(outMsgCtx);
+	}
+
+	/**
+	 * Sets the HTTP status code of the response to a failed request and creates the fault to throw.
+	 *
+	 * @param inMsgCtx	The message context of the request
+	 * @param status	The HTTP status code
+	 * @param reason	Description of the error
+	 * @return			The fault to throw
+	 */
+	private static AxisFault fault(final MessageContext inMsgCtx, final int status, final String reason) {
+		ResponseUtils.setStatus(inMsgCtx, status);
+		return new AxisFault(reason, status < 500 ? SOAP12Constants.QNAME_SENDER_FAULTCODE
+												  : SOAP12Constants.QNAME_RECEIVER_FAULTCODE);
+	}
+
+	/**
+	 * Initialises the operation using the parameters of the service. As Axis2 only provides access to the
+	 * parameters through the message context this is done when the first request is received.
+	 *
+	 * @param msgCtx	The message context of the request
+	 */
+	private void init(final MessageContext msgCtx) {
+		if (initialised)
+			return;
+		synchronized (this) {
+			if (initialised)
+				return;
+			long expiry;
+			try {
+				expiry = Long.parseLong(SubmitOperation.getParameter(msgCtx, P_UPLOAD_EXPIRY));
+			} catch (NumberFormatException nan) {
+				expiry = DEFAULT_UPLOAD_EXPIRY;
+			}
+			try {
+				maxUploadSize = Long.parseLong(SubmitOperation.getParameter(msgCtx, P_MAX_UPLOAD_SIZE));
+			} catch (NumberFormatException nan) {
+				maxUploadSize = -1;
+			}
+			final String uploadDir = SubmitOperation.getParameter(msgCtx, P_UPLOAD_DIRECTORY);
+			try {
+				final Path uploadPath = !Utils.isNullOrEmpty(uploadDir) ? Paths.get(uploadDir)
+											: Paths.get(System.getProperty("java.io.tmpdir"), "hb2b-rest-uploads");
+				sessionStore = new UploadSessionStore(uploadPath, expiry * 1000);
+				log.info("Initialised REST upload operation.\n\tUpload directory = {}\n\tExpiry           = {}s"
+						+ "\n\tMax upload size  = {}", uploadPath, expiry,
+						maxUploadSize >= 0 ? maxUploadSize : "unlimited");
+			} catch (IOException | IllegalArgumentException invalidConfig) {
+				log.error("Could not initialise upload directory {}, resumable uploads not available : {}",
+							uploadDir, invalidConfig.getMessage());
+			}
+			initialised = true;
+		}
+	}
+}
@@ -0,0 +1,499 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Manages the sessions of resumable uploads. Each session is stored in the upload directory as two files, a
+ * <i>«id».upload</i> file containing the meta-data of the submission and the total size of the payload, and a
+ * <i>«id».data</i> file containing the payload data received so far. As the session state is kept only on disk
+ * sessions survive a restart of Holodeck B2B. The current offset of an upload is the size of the data file, so data
+ * that was received before the connection was interrupted is kept and the upload can be resumed from there.
+ * <p>When all data has been received the upload is submitted. To ensure that an upload is submitted only once, even
+ * when the client retries the request that completed it, the submission is guarded by the state of the session which
+ * goes from {@link State#UPLOADING} to {@link State#SUBMITTING} and then to {@link State#SUBMITTED}. When submitted the
+ * <i>MessageId</i> of the message is added to the session file and the data file is removed, so a repeated request can
+ * be answered with the <i>MessageId</i> of the submitted message until the session expires.
+ * <p>Sessions that have not been modified within the configured time are removed.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class UploadSessionStore {
+	private static final Logger log = LogManager.getLogger(UploadSessionStore.class);
+
+	/**
+	 * Suffix of the files containing the session meta-data
+	 */
+	private static final String SESSION_FILE_SUFFIX = ".upload";
+	/**
+	 * Suffix of the files containing the uploaded payload data
+	 */
+	private static final String DATA_FILE_SUFFIX = ".data";
+	/**
+	 * Prefix of the keys used to store the HTTP headers in the session file
+	 */
+	private static final String HEADER_PREFIX = "header.";
+	/**
+	 * Key used to store the total size of the upload in the session file
+	 */
+	private static final String LENGTH = "length";
+	/**
+	 * Key used to store the <i>MessageId</i> of the submitted message in the session file
+	 */
+	private static final String MESSAGE_ID = "messageId";
+
+	/**
+	 * The directory where the sessions are stored
+	 */
+	private final Path	uploadDir;
+	/**
+	 * The time (in milliseconds) after which an incomplete session is removed
+	 */
+	private final long	expiry;
+	/**
+	 * The sessions to which data is currently being appended, registered as {@link State#UPLOADING}, or that are being
+	 * submitted, registered as {@link State#SUBMITTING}
+	 */
+	private final ConcurrentHashMap<String, State> activeSessions = new ConcurrentHashMap<>();
+
+	/**
+	 * The states of an upload session
+	 */
+	public enum State {
+		/**
+		 * The payload data is being uploaded
+		 */
+		UPLOADING,
+		/**
+		 * All data has been received and the message is being submitted
+		 */
+		SUBMITTING,
+		/**
+		 * The message has been submitted
+		 */
+		SUBMITTED
+	}
+
+	/**
+	 * Indicates that the data to append would exceed the length of the upload.
+	 */
+	public static final class LengthExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		LengthExceededException() {
+			super("Data exceeds upload length");
+		}
+	}
+
+	/**
+	 * Represents an upload session.
+	 */
+	public final class Session {
+		private final String 			  id;
+		private final Map<String, String> headers;
+		private final long				  length;
+		private volatile String			  messageId;
+
+		private Session(final String id, final Map<String, String> headers, final long length,
+						final String messageId) {
+			this.id = id;
+			this.headers = headers;
+			this.length = length;
+			this.messageId = messageId;
+		}
+
+		/**
+		 * @return the identifier of the session
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the HTTP headers provided when the session was created
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * @return the total size of the payload data
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Gets the current offset of the upload, i.e. the number of bytes received so far.
+		 *
+		 * @return	The current offset
+		 * @throws IOException	When the size of the uploaded data cannot be determined
+		 */
+		public long getOffset() throws IOException {
+			return messageId != null ? length : Files.size(dataFile(id));
+		}
+
+		/**
+		 * @return the current state of the session
+		 */
+		public State getState() {
+			return messageId != null ? State.SUBMITTED : activeSessions.get(id) == State.SUBMITTING ? State.SUBMITTING
+																									 : State.UPLOADING;
+		}
+
+		/**
+		 * @return the <i>MessageId</i> of the submitted message, <code>null</code> if the upload is not submitted yet
+		 */
+		public String getMessageId() {
+			return messageId;
+		}
+
+		/**
+		 * Opens a stream to read the uploaded payload data.
+		 *
+		 * @return	Stream to read the data
+		 * @throws IOException	When the data file cannot be opened
+		 */
+		public InputStream openData() throws IOException {
+			return Files.newInputStream(dataFile(id));
+		}
+	}
+
+	/**
+	 * Creates a new store that keeps sessions in the given directory. Expired sessions left from an earlier run are
+	 * removed.
+	 *
+	 * @param uploadDir	The directory where the sessions should be stored
+	 * @param expiry	The time in milliseconds after which an incomplete session is removed
+	 * @throws IOException	When the upload directory cannot be created or cleaned
+	 */
+	public UploadSessionStore(final Path uploadDir, final long expiry) throws IOException {
+		if (expiry <= 0)
+			throw new IllegalArgumentException("Expiry must be positive");
+		this.uploadDir = Files.createDirectories(uploadDir);
+		this.expiry = expiry;
+		removeExpired();
+	}
+
+	/**
+	 * Gets the directory where the sessions are stored.
+	 *
+	 * @return	Path to the upload directory
+	 */
+	public Path getUploadDirectory() {
+		return uploadDir;
+	}
+
+	/**
+	 * Creates a new upload session.
+	 *
+	 * @param headers	The HTTP headers containing the meta-data of the submission
+	 * @param length	The total size of the payload data
+	 * @return	The new session
+	 * @throws IOException	When the session cannot be stored
+	 */
+	public Session create(final Map<String, String> headers, final long length) throws IOException {
+		removeExpired();
+		final String id = UUID.randomUUID().toString();
+		final Properties props = new Properties();
+		headers.forEach((n, v) -> props.setProperty(HEADER_PREFIX + n, v));
+		props.setProperty(LENGTH, Long.toString(length));
+
+		Files.createFile(dataFile(id));
+		writeSessionFile(id, props);
+		log.debug("Created upload session {} for {} bytes", id, length);
+		return new Session(id, new HashMap<>(headers), length, null);
+	}
+
+	/**
+	 * Gets the upload session with the given identifier.
+	 *
+	 * @param id	The session identifier
+	 * @return		The session, <code>null</code> if there is no such session
+	 * @throws IOException	When the session data cannot be read
+	 */
+	public Session get(final String id) throws IOException {
+		if (!isValidId(id) || !Files.exists(sessionFile(id)))
+			return null;
+		final Properties props = readSessionFile(id);
+		final String messageId = props.getProperty(MESSAGE_ID);
+		if (messageId == null && !Files.exists(dataFile(id)))
+			return null;
+		final Map<String, String> headers = new HashMap<>();
+		props.stringPropertyNames().stream().filter(k -> k.startsWith(HEADER_PREFIX))
+							.forEach(k -> headers.put(k.substring(HEADER_PREFIX.length()), props.getProperty(k)));
+		try {
+			return new Session(id, headers, Long.parseLong(props.getProperty(LENGTH)), messageId);
+		} catch (NumberFormatException corrupt) {
+			throw new IOException("Invalid session file for upload " + id);
+		}
+	}
+
+	/**
+	 * Appends the data read from the given stream to the upload. The data is written directly to the data file so
+	 * when reading the stream fails the data received until then is kept. Only one append per session can be executed
+	 * at a time.
+	 * <p>When the upload has already been submitted, which can happen when the client retries the request that
+	 * completed it, no data can be appended and the length of the upload is returned if the offset is equal to it.
+	 *
+	 * @param session	The upload session
+	 * @param offset	The offset at which the data should be appended, MUST be equal to the current offset
+	 * @param data		The stream containing the data to append
+	 * @return	The new offset of the upload
+	 * @throws IllegalStateException	When the offset does not match the current offset or another append to, or the
+	 * 									submission of, the same session is in progress
+	 * @throws LengthExceededException	When the data would exceed the length of the upload
+	 * @throws IOException	When the data cannot be read or written
+	 */
+	public long append(final Session session, final long offset, final InputStream data) throws IOException {
+		lock(session, State.UPLOADING);
+		try {
+			if (refreshState(session) == State.SUBMITTED) {
+				if (offset != session.getLength())
+					throw new IllegalStateException("Offset does not match, current offset is " + session.getLength());
+				else if (data.read() >= 0)
+					throw new LengthExceededException();
+				return offset;
+			}
+			return write(session, offset, data);
+		} finally {
+			activeSessions.remove(session.getId());
+		}
+	}
+
+	/**
+	 * Writes the data to the data file of the session.
+	 */
+	private long write(final Session session, final long offset, final InputStream data) throws IOException {
+		try (FileChannel fc = FileChannel.open(dataFile(session.getId()), StandardOpenOption.WRITE)) {
+			long pos = fc.size();
+			if (pos != offset)
+				throw new IllegalStateException("Offset does not match, current offset is " + pos);
+			final ReadableByteChannel src = Channels.newChannel(data);
+			final BufferPool pool = BufferPool.getInstance();
+			final ByteBuffer buffer = pool.acquireBuffer();
+			try {
+				while (src.read(buffer) >= 0) {
+					buffer.flip();
+					if (pos + buffer.remaining() > session.getLength())
+						throw new LengthExceededException();
+					while (buffer.hasRemaining())
+						pos += fc.write(buffer, pos);
+					buffer.clear();
+				}
+			} finally {
+				pool.release(buffer);
+				fc.force(false);
+			}
+			return pos;
+		}
+	}
+
+	/**
+	 * Starts the submission of a completed upload by changing its state from {@link State#UPLOADING} to {@link
+	 * State#SUBMITTING}. When this method returns <code>true</code> the caller must submit the message and then call
+	 * either {@link #completeSubmission(Session, String)} or {@link #abortSubmission(Session)}. When the upload was
+	 * already submitted <code>false</code> is returned and the <i>MessageId</i> of the submitted message is available
+	 * from the session.
+	 *
+	 * @param session	The upload session
+	 * @return	<code>true</code> if the upload must be submitted by the caller, <code>false</code> if it already is
+	 * @throws IllegalStateException	When the upload is not complete or data is being appended to, or another
+	 * 									submission of, the same session is in progress
+	 * @throws IOException	When the state of the session cannot be read
+	 */
+	public boolean startSubmission(final Session session) throws IOException {
+		lock(session, State.SUBMITTING);
+		boolean submitting = false;
+		try {
+			if (refreshState(session) == State.SUBMITTED)
+				return false;
+			final long received = Files.size(dataFile(session.getId()));
+			if (received != session.getLength())
+				throw new IllegalStateException("Upload is not complete, current offset is " + received);
+			submitting = true;
+			return true;
+		} finally {
+			if (!submitting)
+				activeSessions.remove(session.getId());
+		}
+	}
+
+	/**
+	 * Completes the submission of an upload by recording the <i>MessageId</i> of the submitted message and changing
+	 * the state of the session to {@link State#SUBMITTED}. As the payload data is not needed anymore the data file is
+	 * removed.
+	 *
+	 * @param session	The upload session
+	 * @param messageId	The <i>MessageId</i> of the submitted message
+	 * @throws IOException	When the state of the session cannot be saved
+	 */
+	public void completeSubmission(final Session session, final String messageId) throws IOException {
+		try {
+			final Properties props = readSessionFile(session.getId());
+			props.setProperty(MESSAGE_ID, messageId);
+			writeSessionFile(session.getId(), props);
+			session.messageId = messageId;
+			Files.deleteIfExists(dataFile(session.getId()));
+			log.debug("Upload {} submitted as message {}", session.getId(), messageId);
+		} finally {
+			activeSessions.remove(session.getId(), State.SUBMITTING);
+		}
+	}
+
+	/**
+	 * Aborts the submission of an upload, changing the state of the session back to {@link State#UPLOADING} so the
+	 * submission can be retried.
+	 *
+	 * @param session	The upload session
+	 */
+	public void abortSubmission(final Session session) {
+		activeSessions.remove(session.getId(), State.SUBMITTING);
+	}
+
+	/**
+	 * Removes the given upload session.
+	 *
+	 * @param id	The session identifier
+	 * @throws IllegalStateException	When data is being appended to or the message is being submitted
+	 * @throws IOException	When the session files cannot be removed
+	 */
+	public void remove(final String id) throws IOException {
+		if (!isValidId(id))
+			return;
+		if (activeSessions.containsKey(id))
+			throw new IllegalStateException("Upload is in use");
+		Files.deleteIfExists(sessionFile(id));
+		Files.deleteIfExists(dataFile(id));
+	}
+
+	/**
+	 * Removes the sessions that were last modified longer ago than the expiry time. The last modification of a session
+	 * that is still uploading is the time data was last appended, of a submitted session the time of submission.
+	 *
+	 * @throws IOException	When the upload directory cannot be read
+	 */
+	void removeExpired() throws IOException {
+		final long threshold = System.currentTimeMillis() - expiry;
+		try (DirectoryStream<Path> sessions = Files.newDirectoryStream(uploadDir, "*" + SESSION_FILE_SUFFIX)) {
+			for (Path s : sessions) {
+				final String fileName = s.getFileName().toString();
+				final String id = fileName.substring(0, fileName.length() - SESSION_FILE_SUFFIX.length());
+				final Path d = dataFile(id);
+				try {
+					final long modified = Files.getLastModifiedTime(Files.exists(d) ? d : s).toMillis();
+					if (!activeSessions.containsKey(id) && modified < threshold) {
+						log.debug("Removing expired upload session {}", id);
+						remove(id);
+					}
+				} catch (IllegalStateException | NoSuchFileException inUse) {
+					// The session is used or removed concurrently, so not expired
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers the session as active in the given state.
+	 *
+	 * @throws IllegalStateException	When the session is already active
+	 */
+	private void lock(final Session session, final State state) {
+		final State current = activeSessions.putIfAbsent(session.getId(), state);
+		if (current == State.SUBMITTING)
+			throw new IllegalStateException("Upload is being submitted");
+		else if (current != null)
+			throw new IllegalStateException("Upload already in progress");
+	}
+
+	/**
+	 * Updates the session with the <i>MessageId</i> stored in the session file, as the session may have been submitted
+	 * after it was retrieved.
+	 *
+	 * @return	The current state of the session
+	 */
+	private State refreshState(final Session session) throws IOException {
+		if (session.messageId == null)
+			try {
+				session.messageId = readSessionFile(session.getId()).getProperty(MESSAGE_ID);
+			} catch (NoSuchFileException removed) {
+				throw new IllegalStateException("Upload was removed");
+			}
+		return session.getState();
+	}
+
+	private Properties readSessionFile(final String id) throws IOException {
+		final Properties props = new Properties();
+		try (Reader r = Files.newBufferedReader(sessionFile(id), StandardCharsets.ISO_8859_1)) {
+			props.load(r);
+		}
+		return props;
+	}
+
+	private void writeSessionFile(final String id, final Properties props) throws IOException {
+		final Path tmpFile = Files.createTempFile(uploadDir, id, ".tmp");
+		try (OutputStream os = Files.newOutputStream(tmpFile)) {
+			props.store(os, null);
+		}
+		Files.move(tmpFile, sessionFile(id), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Checks that the given session identifier is a UUID so it can safely be used as file name.
+	 *
+	 * @param id	The session identifier
+	 * @return		<code>true</code> if the identifier is valid, <code>false</code> otherwise
+	 */
+	private static boolean isValidId(final String id) {
+		try {
+			return id != null && UUID.fromString(id).toString().equals(id);
+		} catch (IllegalArgumentException notUUID) {
+			return false;
+		}
+	}
+
+	private Path sessionFile(final String id) {
+		return uploadDir.resolve(id + SESSION_FILE_SUFFIX);
+	}
+
+	private Path dataFile(final String id) {
+		return uploadDir.resolve(id + DATA_FILE_SUFFIX);
+	}
+}
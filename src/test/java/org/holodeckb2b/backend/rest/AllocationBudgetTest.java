@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.context.MessageContext;
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.UserMessageFactory;
+import org.holodeckb2b.common.axis2.NOPMessageBuilder;
+import org.holodeckb2b.common.messagemodel.EbmsError;
+import org.holodeckb2b.common.messagemodel.ErrorMessage;
+import org.holodeckb2b.common.messagemodel.PartyId;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.common.messagemodel.Receipt;
+import org.holodeckb2b.common.messagemodel.Service;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.common.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.general.IProperty;
+import org.holodeckb2b.interfaces.messagemodel.IEbmsError.Severity;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.holodeckb2b.interfaces.submit.IMessageSubmitter;
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the number of bytes allocated for processing one message does not exceed the budget that is checked in
+ * as <code>allocation-budgets.properties</code>. The allocation is measured using the per thread allocation counter
+ * of the JVM and therefore only includes the allocations made by the thread executing the operation, which is where
+ * the header and meta-data handling takes place. The operations are executed a number of times before measuring so
+ * one-time initialisation is not counted and the median of the measured executions is compared with the budget.
+ * <p>As the allocations made by the JDK differ between Java versions the budgets are specified per version, using the
+ * <code>java.specification.version</code> as suffix of the budget name. For the same reason the test is not run in
+ * the normal build but only when the <i>allocation-budget</i> profile is activated. That profile sets the
+ * <code>allocation.budget.required</code> system property, which makes the test fail when there is no budget for the
+ * Java version it runs on or the JVM cannot measure the allocations. Without it, for example when run from an IDE, the
+ * test is skipped in these cases. When a change legitimately needs more memory the budget should
+ * be updated in the same change.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@Tag("allocation")
+class AllocationBudgetTest {
+
+	/**
+	 * Name of the system property that indicates whether the budgets must be checked, i.e. that the test should fail
+	 * instead of being skipped when a budget cannot be checked
+	 */
+	private static final String REQUIRED_PROPERTY = "allocation.budget.required";
+
+	private static final int WARMUP = 200;
+	private static final int MEASURED = 51;
+
+	private static com.sun.management.ThreadMXBean threadMXBean;
+	private static Properties	budgets;
+	private static BackendMock	backend;
+	private static byte[]		payloadData;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		final java.lang.management.ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+		requireOrAssume(mxBean instanceof com.sun.management.ThreadMXBean, "JVM does not provide allocation counters");
+		threadMXBean = (com.sun.management.ThreadMXBean) mxBean;
+		requireOrAssume(threadMXBean.isThreadAllocatedMemorySupported(), "JVM does not measure thread allocations");
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		budgets = new Properties();
+		try (InputStream is = AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+			budgets.load(is);
+		}
+
+		HolodeckB2BCoreInterface.setImplementation(new HolodeckB2BTestCore() {
+			@Override
+			public IMessageSubmitter getMessageSubmitter() {
+				return AllocationBudgetTest::drainPayloads;
+			}
+		});
+
+		backend = new BackendMock(1000);
+		backend.start();
+
+		payloadData = new byte[4096];
+		new Random(4096).nextBytes(payloadData);
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		if (backend != null)
+			backend.stop();
+	}
+
+	@Test
+	void testSubmit() throws Exception {
+		final SubmitOperation operation = new SubmitOperation();
+		final HTTPHeaders headers = new HTTPHeaders();
+		headers.setHeader(HTTPHeaders.PMODE_ID, "pm-test-allocation");
+		headers.setPartyId(HTTPHeaders.SENDER_PARTY_ID, new PartyId("senderId", "urn:org:holodeckb2b:test:partyids"));
+		headers.setPartyId(HTTPHeaders.RECEIVER_PARTY_ID, new PartyId("receiverId", null));
+		headers.setServiceHeader(new Service("Test", "urn:org:holodeckb2b:test"));
+		headers.setHeader(HTTPHeaders.ACTION, "SendMessage");
+		headers.setProperties(HTTPHeaders.MESSAGE_PROPS, Arrays.asList(new IProperty[] { new Property("mp1", "val1"),
+																				new Property("mp2", "val2", "t1") }));
+		headers.setHeader(HTTPHeaders.MIME_TYPE, "application/octet-stream");
+		final Map<String, String> requestHeaders = headers.getAllHeaders();
+
+		checkBudget("submit", () -> {
+			final MessageContext msgCtx = new MessageContext();
+			msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, requestHeaders);
+			msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+											new ByteArrayInputStream(payloadData), "application/octet-stream", msgCtx));
+			operation.invokeBusinessLogic(msgCtx);
+		});
+	}
+
+	@Test
+	void testDeliverUserMessage() throws Exception {
+		final NotifyAndDeliverOperation dm = createDeliveryMethod();
+		checkBudget("deliverUserMessage", () -> {
+			final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-allocation", payloadData);
+			dm.deliver(userMsg);
+		});
+	}
+
+	@Test
+	void testNotifySignalMessage() throws Exception {
+		final NotifyAndDeliverOperation dm = createDeliveryMethod();
+		checkBudget("notifyReceipt", () -> {
+			final Receipt receipt = new Receipt();
+			receipt.setPModeId("pm-test-allocation");
+			receipt.setMessageId("alloc-test@rest-backend");
+			receipt.setTimestamp(new Date());
+			receipt.setRefToMessageId("ref-alloc-test@rest-backend");
+			dm.deliver(receipt);
+		});
+		checkBudget("notifyError", () -> {
+			final ErrorMessage errMsg = new ErrorMessage();
+			errMsg.setPModeId("pm-test-allocation");
+			errMsg.setMessageId("alloc-test@rest-backend");
+			errMsg.setTimestamp(new Date());
+			errMsg.setRefToMessageId("ref-alloc-test@rest-backend");
+			final EbmsError error = new EbmsError();
+			error.setErrorCode("EBMS:0004");
+			error.setSeverity(Severity.failure);
+			error.setErrorDetail("Not so good");
+			errMsg.addError(error);
+			dm.deliver(errMsg);
+		});
+	}
+
+	@FunctionalInterface
+	interface Operation {
+		void execute() throws Exception;
+	}
+
+	/**
+	 * Executes the operation and checks that the median number of bytes it allocates does not exceed the budget.
+	 *
+	 * @param name		The name of the budget
+	 * @param operation	The operation to execute
+	 */
+	private static void checkBudget(final String name, final Operation operation) throws Exception {
+		final String javaVersion = System.getProperty("java.specification.version");
+		final String budgetValue = budgets.getProperty(name + "." + javaVersion);
+		requireOrAssume(budgetValue != null, "No allocation budget for " + name + " on Java " + javaVersion);
+		final long budget = Long.parseLong(budgetValue.trim());
+		final long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++)
+			operation.execute();
+		final long[] allocated = new long[MEASURED];
+		for (int i = 0; i < MEASURED; i++) {
+			final long start = threadMXBean.getThreadAllocatedBytes(threadId);
+			operation.execute();
+			allocated[i] = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+		}
+		Arrays.sort(allocated);
+		final long median = allocated[MEASURED / 2];
+		assertTrue(median <= budget, name + " allocated " + median + " bytes, which exceeds budget of " + budget);
+	}
+
+	/**
+	 * Checks a precondition of the test. When the budgets must be checked, as indicated by the {@link
+	 * #REQUIRED_PROPERTY} system property, the test fails if it is not met and is skipped otherwise.
+	 *
+	 * @param condition	The precondition
+	 * @param message	The message describing why the budget cannot be checked
+	 */
+	private static void requireOrAssume(final boolean condition, final String message) {
+		if (Boolean.getBoolean(REQUIRED_PROPERTY))
+			assertTrue(condition, message);
+		else
+			assumeTrue(condition, message);
+	}
+
+	private static NotifyAndDeliverOperation createDeliveryMethod() throws Exception {
+		final NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		final Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		dm.init(settings);
+		return dm;
+	}
+
+	/**
+	 * Stand-in for the Core's message submitter that only reads the payload data.
+	 */
+	private static String drainPayloads(final IMessageUnit messageUnit) throws MessageSubmitException {
+		if (messageUnit instanceof IUserMessage)
+			for (IPayload p : ((IUserMessage) messageUnit).getPayloads())
+				try (InputStream content = p.getContent()) {
+					if (content != null)
+						PayloadUtils.copy(content, OutputStream.nullOutputStream());
+				} catch (IOException readFailure) {
+					throw new MessageSubmitException("Could not read payload", readFailure);
+				}
+		return messageUnit.getMessageId();
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+	@AfterEach
+	void restoreDefault() {
+		BufferPool.configure(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.DEFAULT_MAX_POOLED, true);
+	}
+
+	@Test
+	void testReuse() {
+		final BufferPool pool = new BufferPool(1024, 4, false);
+		final byte[] a = pool.acquireArray();
+		assertEquals(1024, a.length);
+		assertEquals(1, pool.getMisses());
+		pool.release(a);
+		assertEquals(1, pool.getPooledBuffers());
+		assertSame(a, pool.acquireArray());
+		assertEquals(1, pool.getHits());
+	}
+
+	@Test
+	void testSharedPool() throws InterruptedException {
+		final BufferPool pool = new BufferPool(1024, 2, false);
+		final byte[] a = pool.acquireArray();
+		final byte[] b = pool.acquireArray();
+		final byte[] c = pool.acquireArray();
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		// The pool is bounded at two, so the last one is dropped
+		assertEquals(2, pool.getPooledBuffers());
+
+		final byte[][] other = new byte[1][];
+		final Thread t = new Thread(() -> other[0] = pool.acquireArray());
+		t.start();
+		t.join();
+		assertSame(a, other[0]);
+		assertEquals(3, pool.getMisses());
+		assertEquals(1, pool.getHits());
+	}
+
+	@Test
+	void testByteBuffers() {
+		final BufferPool pool = new BufferPool(2048, 4, true);
+		final ByteBuffer buffer = pool.acquireBuffer();
+		assertTrue(buffer.isDirect());
+		assertEquals(2048, buffer.capacity());
+		buffer.put(new byte[100]);
+		pool.release(buffer);
+		final ByteBuffer reused = pool.acquireBuffer();
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(2048, reused.limit());
+	}
+
+	@Test
+	void testForeignBuffersIgnored() {
+		final BufferPool pool = new BufferPool(1024, 4, false);
+		pool.release(new byte[512]);
+		pool.release(ByteBuffer.allocateDirect(1024));
+		assertEquals(1024, pool.acquireArray().length);
+		assertFalse(pool.acquireBuffer().isDirect());
+		assertEquals(2, pool.getMisses());
+	}
+
+	@Test
+	void testInvalidSize() {
+		assertThrows(IllegalArgumentException.class, () -> new BufferPool(0, 4, false));
+	}
+
+	@Test
+	void testConfigureFromSettings() {
+		final BufferPool configured = BufferPool.configure("1024", "8", "false");
+		assertSame(configured, BufferPool.getInstance());
+		assertEquals(1024, configured.getBufferSize());
+		assertFalse(configured.isDirect());
+
+		// Without settings the current configuration is kept
+		assertSame(configured, BufferPool.configure(null, null, null));
+		// Settings that are not specified get their default value
+		assertEquals(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.configure(null, "8", null).getBufferSize());
+		assertTrue(BufferPool.getInstance().isDirect());
+
+		assertThrows(IllegalArgumentException.class, () -> BufferPool.configure("64k", null, null));
+		assertThrows(IllegalArgumentException.class, () -> BufferPool.configure("0", null, null));
+	}
+
+	@Test
+	void testRegistrationFollowsConfiguration() throws Exception {
+		final ObjectName name = new ObjectName(BufferPool.MBEAN_NAME);
+		BufferPool.registerMBean();
+		BufferPool.configure(2048, 4, false);
+		assertEquals(2048, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BufferSize"));
+	}
+
+	@Test
+	void testConfiguredByDelivery() throws Exception {
+		final Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:8080/");
+		settings.put(NotifyAndDeliverOperation.P_COPY_BUFFER_SIZE, "4096");
+		new NotifyAndDeliverOperation().init(settings);
+
+		assertEquals(4096, BufferPool.getInstance().getBufferSize());
+		assertEquals(4096, ManagementFactory.getPlatformMBeanServer()
+											.getAttribute(new ObjectName(BufferPool.MBEAN_NAME), "BufferSize"));
+
+		settings.put(NotifyAndDeliverOperation.P_COPY_BUFFER_SIZE, "none");
+		assertThrows(MessageDeliveryException.class, () -> new NotifyAndDeliverOperation().init(settings));
+	}
+}
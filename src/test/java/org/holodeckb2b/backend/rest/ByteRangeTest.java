@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ByteRangeTest {
+
+	@Test
+	void testRange() {
+		ByteRange r = ByteRange.parse("bytes=100-199", 1000);
+		assertNotNull(r);
+		assertEquals(100, r.getStart());
+		assertEquals(199, r.getEnd());
+		assertEquals(100, r.getLength());
+		assertEquals("bytes 100-199/1000", r.toContentRange(1000));
+	}
+
+	@Test
+	void testOpenEnded() {
+		ByteRange r = ByteRange.parse("bytes=900-", 1000);
+		assertNotNull(r);
+		assertEquals(900, r.getStart());
+		assertEquals(999, r.getEnd());
+	}
+
+	@Test
+	void testEndBeyondSize() {
+		ByteRange r = ByteRange.parse("bytes=500-5000", 1000);
+		assertNotNull(r);
+		assertEquals(500, r.getStart());
+		assertEquals(999, r.getEnd());
+	}
+
+	@Test
+	void testSuffix() {
+		ByteRange r = ByteRange.parse("bytes=-100", 1000);
+		assertNotNull(r);
+		assertEquals(900, r.getStart());
+		assertEquals(999, r.getEnd());
+
+		r = ByteRange.parse("bytes=-2000", 1000);
+		assertNotNull(r);
+		assertEquals(0, r.getStart());
+		assertEquals(999, r.getEnd());
+	}
+
+	@Test
+	void testUnsatisfiable() {
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=1000-", 1000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 1000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=0-", 0));
+		assertEquals("bytes */1000", ByteRange.UNSATISFIABLE.toContentRange(1000));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "", "items=0-10", "bytes=0-10,20-30", "bytes=10-5", "bytes=a-b", "bytes=10" })
+	void testFullContent(String rangeHdr) {
+		assertNull(ByteRange.parse(rangeHdr, 1000));
+	}
+
+	@Test
+	void testNoHeader() {
+		assertNull(ByteRange.parse(null, 1000));
+	}
+}
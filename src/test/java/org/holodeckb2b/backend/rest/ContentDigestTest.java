@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+class ContentDigestTest {
+
+	private static final byte[] DATA = "<test>Some payload data to digest</test>".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void testParseHeaders() throws Exception {
+		final HTTPHeaders headers = new HTTPHeaders();
+		assertNull(ContentDigest.fromHeaders(headers));
+
+		headers.setHeader(HTTPHeaders.DIGEST, "MD5=abc, SHA-256=" + b64("SHA-256", DATA));
+		assertNotNull(ContentDigest.fromHeaders(headers));
+
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + b64("SHA-256", DATA) + ":, sha-512=:"
+													  + b64("SHA-512", DATA) + ":");
+		assertNotNull(ContentDigest.fromHeaders(headers));
+
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=" + b64("SHA-256", DATA));
+		assertThrows(IllegalArgumentException.class, () -> ContentDigest.fromHeaders(headers));
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:not base64!:");
+		assertThrows(IllegalArgumentException.class, () -> ContentDigest.fromHeaders(headers));
+
+		// Digests calculated with unsupported algorithms are ignored
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "md5=:abc:, unixsum=:MTIz:");
+		assertNull(ContentDigest.fromHeaders(headers));
+		final HTTPHeaders legacyHeaders = new HTTPHeaders();
+		legacyHeaders.setHeader(HTTPHeaders.DIGEST, "SHA=abc, UNIXsum=123");
+		assertNull(ContentDigest.fromHeaders(legacyHeaders));
+	}
+
+	@Test
+	void testVerify() throws Exception {
+		final HTTPHeaders headers = new HTTPHeaders();
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-512=:" + b64("SHA-512", DATA) + ":");
+		assertArrayEquals(DATA, readVerified(ContentDigest.fromHeaders(headers), DATA, null));
+
+		// The strongest algorithm is used, so the invalid sha-256 digest is ignored
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + b64("SHA-256", new byte[1]) + ":, sha-512=:"
+													  + b64("SHA-512", DATA) + ":");
+		assertArrayEquals(DATA, readVerified(ContentDigest.fromHeaders(headers), DATA, null));
+
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + b64("SHA-256", new byte[1]) + ":");
+		assertThrows(ContentDigest.DigestMismatchException.class,
+					 () -> readVerified(ContentDigest.fromHeaders(headers), DATA, null));
+	}
+
+	@Test
+	void testVerifyEncoded() throws Exception {
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bos)) {
+			gzip.write(DATA);
+		}
+		final byte[] encoded = bos.toByteArray();
+
+		final HTTPHeaders headers = new HTTPHeaders();
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + b64("SHA-256", encoded) + ":");
+		assertArrayEquals(DATA, readVerified(ContentDigest.fromHeaders(headers), encoded, ContentEncoding.GZIP));
+
+		// The digest is calculated over the encoded entity body
+		headers.setHeader(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + b64("SHA-256", DATA) + ":");
+		assertThrows(ContentDigest.DigestMismatchException.class,
+					 () -> readVerified(ContentDigest.fromHeaders(headers), encoded, ContentEncoding.GZIP));
+	}
+
+	private static byte[] readVerified(final ContentDigest digest, final byte[] body, final String encoding)
+																									throws IOException {
+		final InputStream digested = digest.digest(new ByteArrayInputStream(body));
+		try (InputStream in = digest.verifyAtEnd(encoding != null ? new GZIPInputStream(digested) : digested,
+												 digested)) {
+			return in.readAllBytes();
+		}
+	}
+
+	private static String b64(final String algorithm, final byte[] data) throws Exception {
+		return Base64.getEncoder().encodeToString(MessageDigest.getInstance(algorithm).digest(data));
+	}
+}
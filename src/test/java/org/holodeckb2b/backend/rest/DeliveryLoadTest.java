@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock.Behaviour;
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock.LatencyDistribution;
+import org.holodeckb2b.backend.rest.testhelpers.UserMessageFactory;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Load test of the delivery of User Messages by the {@link NotifyAndDeliverOperation}. The deliveries are sent to a
+ * simulated back-end at an increasing number of concurrent threads and the throughput and latency percentiles are
+ * reported for each level of concurrency. Three back-ends are simulated: a <i>fast</i> one with a log-normal latency
+ * around 5 ms, a <i>slow</i> one with a latency around 50 ms and a bandwidth of 10 MB/s, and a <i>flaky</i> one that
+ * rejects a small part of the deliveries with HTTP status 500, 429 or 503.
+ * <p>As it takes a while to run, the test is tagged "load" and only run when the <code>load-test</code> profile is
+ * activated. The test can be tuned using the following system properties:<ul>
+ * <li><b>loadtest.maxConcurrency</b> : the maximum number of concurrent deliveries, default 32</li>
+ * <li><b>loadtest.duration</b> : the time in seconds each level of concurrency is run, default 3</li>
+ * <li><b>loadtest.payloadSize</b> : the size in bytes of the delivered payload, default 64 KiB</li></ul>
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+@Tag("load")
+class DeliveryLoadTest {
+
+	private static final int	MAX_CONCURRENCY = Integer.getInteger("loadtest.maxConcurrency", 32);
+	private static final long	DURATION = TimeUnit.SECONDS.toNanos(Integer.getInteger("loadtest.duration", 3));
+	private static final int	PAYLOAD_SIZE = Integer.getInteger("loadtest.payloadSize", 64 * 1024);
+
+	private static BackendMock 	backend;
+	private static byte[]		payloadData;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		backend = new BackendMock(1000, 2 * MAX_CONCURRENCY);
+		backend.simulate("/fast", new Behaviour().latency(LatencyDistribution.logNormal(5, 0.5)));
+		backend.simulate("/slow", new Behaviour().latency(LatencyDistribution.exponential(50))
+												 .bandwidth(10 * 1024 * 1024));
+		backend.simulate("/flaky", new Behaviour().latency(LatencyDistribution.uniform(1, 10))
+												  .errorRate(0.02).throttleRate(0.02).unavailableRate(0.01));
+		backend.start();
+
+		payloadData = new byte[PAYLOAD_SIZE];
+		new Random(PAYLOAD_SIZE).nextBytes(payloadData);
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		backend.stop();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "fast", "slow", "flaky" })
+	void testDeliveryUnderLoad(final String path) throws Exception {
+		final NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		final Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/" + path);
+		dm.init(settings);
+
+		System.out.printf("Delivery to %s back-end, payload size %d bytes%n", path, PAYLOAD_SIZE);
+		System.out.printf("%8s %10s %10s %9s %9s %9s %9s %9s%n",
+						  "threads", "msgs/s", "failed", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (int threads = 1; threads <= MAX_CONCURRENCY; threads *= 2) {
+			backend.resetResponseCounts();
+			final Result r = run(dm, threads);
+			System.out.printf("%8d %10.1f %10d %9.1f %9.1f %9.1f %9.1f %9.1f%n", threads, r.throughput(), r.failed,
+							  r.percentile(50), r.percentile(90), r.percentile(99), r.percentile(99.9),
+							  r.percentile(100));
+
+			assertTrue(r.latencies.length > 0);
+			assertEquals(backend.getResponseCount(202), r.latencies.length - r.failed);
+			if (!"flaky".equals(path))
+				assertEquals(0, r.failed);
+			else
+				assertEquals(backend.getResponseCount(500) + backend.getResponseCount(429)
+							 + backend.getResponseCount(503), r.failed);
+		}
+	}
+
+	/**
+	 * Delivers messages using the given number of threads for the configured duration.
+	 */
+	private Result run(final NotifyAndDeliverOperation dm, final int threads) throws Exception {
+		final ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			final long start = System.nanoTime();
+			final long end = start + DURATION;
+			final List<Future<long[]>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++)
+				results.add(workers.submit(() -> {
+					long[] latencies = new long[1024];
+					int n = 0;
+					while (System.nanoTime() < end) {
+						final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-load", payloadData);
+						final long t0 = System.nanoTime();
+						boolean delivered;
+						try {
+							dm.deliver(userMsg);
+							delivered = true;
+						} catch (MessageDeliveryException rejected) {
+							delivered = false;
+						}
+						if (n == latencies.length)
+							latencies = Arrays.copyOf(latencies, 2 * n);
+						// Failed deliveries are recorded with a negative latency
+						final long latency = System.nanoTime() - t0;
+						latencies[n++] = delivered ? latency : -latency;
+					}
+					return Arrays.copyOf(latencies, n);
+				}));
+
+			final Result r = new Result();
+			long[] all = new long[0];
+			for (Future<long[]> f : results) {
+				final long[] l = f.get();
+				final int offset = all.length;
+				all = Arrays.copyOf(all, offset + l.length);
+				for (int i = 0; i < l.length; i++) {
+					if (l[i] < 0)
+						r.failed++;
+					all[offset + i] = Math.abs(l[i]);
+				}
+			}
+			r.elapsed = System.nanoTime() - start;
+			Arrays.sort(all);
+			r.latencies = all;
+			return r;
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * The results of one level of concurrency
+	 */
+	private static class Result {
+		long[]	latencies;
+		long	elapsed;
+		int		failed;
+
+		double throughput() {
+			return latencies.length / (elapsed / 1e9);
+		}
+
+		double percentile(final double p) {
+			final int i = (int) Math.ceil(p / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(i, latencies.length - 1))] / 1e6;
+		}
+	}
+}
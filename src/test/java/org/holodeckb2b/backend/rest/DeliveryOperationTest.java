@@ -16,27 +16,45 @@
  */
 package org.holodeckb2b.backend.rest;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import org.holodeckb2b.backend.rest.testhelpers.BackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.UnixBackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.UserMessageFactory;
 import org.holodeckb2b.common.messagemodel.CollaborationInfo;
 import org.holodeckb2b.common.messagemodel.PartyId;
 import org.holodeckb2b.common.messagemodel.Payload;
@@ -51,6 +69,7 @@ import org.holodeckb2b.commons.util.FileUtils;
 import org.holodeckb2b.commons.util.Utils;
 import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
 import org.holodeckb2b.interfaces.general.IProperty;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -253,6 +272,553 @@ class DeliveryOperationTest {
 		assertNull(headers.getHeader(HTTPHeaders.SCHEMA_NS));
 	}
 
+	@Test
+	void testDeliveryByReference() throws Exception {
+		final UserMessage userMsg = new UserMessage();
+
+		userMsg.setPModeId("pm-test-delivery");
+		userMsg.setMessageId(UUID.randomUUID().toString() + "@test.holodeck-b2b.org");
+		userMsg.setTimestamp(new Date());
+
+		final TradingPartner sender = new TradingPartner();
+		sender.addPartyId(new PartyId("senderId", "urn:org:holodeckb2b:test:partyids"));
+		sender.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/initiator");
+		userMsg.setSender(sender);
+
+		final TradingPartner receiver = new TradingPartner();
+		receiver.addPartyId(new PartyId("urn:org:holodeckb2b:test:partyids:receiverId", null));
+		receiver.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/responder");
+		userMsg.setReceiver(receiver);
+
+		CollaborationInfo cInfo = new CollaborationInfo();
+		cInfo.setService(new Service("Test", "urn:org:holodeckb2b:test"));
+		cInfo.setAction("SendMessage");
+		userMsg.setCollaborationInfo(cInfo);
+
+		Payload payload = new Payload();
+		payload.setContentStream(new FileInputStream(TestUtils.getTestResource("payloads/test.xml").toFile()));
+		payload.setMimeType("text/xml");
+		userMsg.addPayload(payload);
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		settings.put(NotifyAndDeliverOperation.P_PAYLOAD_URL, "http://localhost:8080/holodeckb2b/restbackend/payload");
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals(userMsg.getMessageId(), headers.getHeader(HTTPHeaders.MESSAGE_ID));
+		assertEquals(payload.getMimeType(), headers.getHeader(HTTPHeaders.MIME_TYPE));
+		assertEquals("http://localhost:8080/holodeckb2b/restbackend/payload?messageId="
+					 + URLEncoder.encode(userMsg.getMessageId(), StandardCharsets.UTF_8),
+					 headers.getHeader(HTTPHeaders.PAYLOAD_URL));
+		assertNull(backend.getRcvdData());
+	}
+
+	@Test
+	void testMultiplePayloads() throws Exception {
+		final UserMessage userMsg = new UserMessage();
+
+		userMsg.setPModeId("pm-test-delivery");
+		userMsg.setMessageId(UUID.randomUUID().toString());
+		userMsg.setTimestamp(new Date());
+
+		final TradingPartner sender = new TradingPartner();
+		sender.addPartyId(new PartyId("senderId", "urn:org:holodeckb2b:test:partyids"));
+		sender.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/initiator");
+		userMsg.setSender(sender);
+
+		final TradingPartner receiver = new TradingPartner();
+		receiver.addPartyId(new PartyId("urn:org:holodeckb2b:test:partyids:receiverId", null));
+		receiver.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/responder");
+		userMsg.setReceiver(receiver);
+
+		CollaborationInfo cInfo = new CollaborationInfo();
+		cInfo.setService(new Service("Test", "urn:org:holodeckb2b:test"));
+		cInfo.setAction("SendMessage");
+		userMsg.setCollaborationInfo(cInfo);
+
+		final String[] plFiles = { "test.xml", "logo.png", "random.bin" };
+		final String[] mimeTypes = { "text/xml", "image/png", "application/octet-stream" };
+		for (int i = 0; i < plFiles.length; i++) {
+			Payload payload = new Payload();
+			payload.setContentStream(new FileInputStream(TestUtils.getTestResource("payloads/" + plFiles[i]).toFile()));
+			payload.setMimeType(mimeTypes[i]);
+			payload.setPayloadURI("cid:" + plFiles[i]);
+			payload.setProperties(Collections.singletonList(new Property("part", String.valueOf(i))));
+			userMsg.addPayload(payload);
+		}
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals(userMsg.getMessageId(), headers.getHeader(HTTPHeaders.MESSAGE_ID));
+		final String contentType = headers.getHeader(HTTPHeaders.MIME_TYPE);
+		assertTrue(MultipartUtils.isMultipart(contentType));
+		final String boundary = MultipartUtils.getBoundary(contentType);
+		assertNotNull(boundary);
+		assertNotNull(backend.getRcvdData());
+
+		final List<HTTPHeaders> partHeaders = new ArrayList<>();
+		final List<byte[]> partContents = new ArrayList<>();
+		final int parts = MultipartUtils.readParts(new ByteArrayInputStream(backend.getRcvdData()), boundary,
+													(h, c) -> { final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+																c.writeTo(bos);
+																partHeaders.add(h);
+																partContents.add(bos.toByteArray()); });
+		assertEquals(plFiles.length, parts);
+		for (int i = 0; i < plFiles.length; i++) {
+			assertEquals(mimeTypes[i], partHeaders.get(i).getHeader(HTTPHeaders.MIME_TYPE));
+			assertEquals("cid:" + plFiles[i], partHeaders.get(i).getHeader(HTTPHeaders.PAYLOAD_URI));
+			final Collection<IProperty> plProperties = partHeaders.get(i).getProperties(HTTPHeaders.PART_PROPS);
+			assertEquals(1, plProperties.size());
+			assertEquals(String.valueOf(i), plProperties.iterator().next().getValue());
+			assertArrayEquals(Files.readAllBytes(TestUtils.getTestResource("payloads/" + plFiles[i])),
+							  partContents.get(i));
+		}
+	}
+
+	@Test
+	void testCompressedDelivery() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/test.xml");
+		final UserMessage userMsg = createUserMessage(plData, "text/xml");
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		settings.put(NotifyAndDeliverOperation.P_COMPRESSION, "gzip");
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals("gzip", headers.getHeader(HTTPHeaders.CONTENT_ENCODING));
+		assertEquals("text/xml", headers.getHeader(HTTPHeaders.MIME_TYPE));
+		try (InputStream decoded = new GZIPInputStream(new ByteArrayInputStream(backend.getRcvdData()))) {
+			assertArrayEquals(Files.readAllBytes(plData), decoded.readAllBytes());
+		}
+	}
+
+	@Test
+	void testCompressionRejected() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/test.xml");
+		final UserMessage userMsg = createUserMessage(plData, "text/xml");
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/identity");
+		settings.put(NotifyAndDeliverOperation.P_COMPRESSION, "gzip");
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertNull(headers.getHeader(HTTPHeaders.CONTENT_ENCODING));
+		assertArrayEquals(Files.readAllBytes(plData), backend.getRcvdData());
+	}
+
+	@Test
+	void testFixedLengthDelivery() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/random.bin");
+		final UserMessage userMsg = createUserMessage(plData, "application/octet-stream");
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals(String.valueOf(Files.size(plData)), headers.getHeader("Content-Length"));
+		assertNull(headers.getHeader("Transfer-Encoding"));
+		assertArrayEquals(Files.readAllBytes(plData), backend.getRcvdData());
+	}
+
+	@Test
+	void testStreamedDelivery() throws Exception {
+		final byte[] data = new byte[1024 * 1024];
+		new Random().nextBytes(data);
+
+		final UserMessage userMsg = createUserMessage(TestUtils.getTestResource("payloads/random.bin"),
+													  "application/octet-stream");
+		userMsg.setPayloads(Collections.<IPayload>singletonList(createStreamedPayload(data, backend)));
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		backend.resetBodyStarted();
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals("chunked", headers.getHeader("Transfer-Encoding"));
+		assertArrayEquals(data, backend.getRcvdData());
+	}
+
+	@Test
+	void testUnsupportedCompression() {
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		settings.put(NotifyAndDeliverOperation.P_COMPRESSION, "zstd");
+		assertThrows(MessageDeliveryException.class, () -> new NotifyAndDeliverOperation().init(settings));
+	}
+
+	@Test
+	void testFanOutDelivery() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/random.bin");
+		final UserMessage userMsg = createUserMessage(plData, "application/octet-stream");
+
+		final BackendMock subscriber = new BackendMock(1000);
+		subscriber.start();
+		try {
+			NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+			Map<String, String> settings = new HashMap<>();
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+			settings.put(NotifyAndDeliverOperation.P_SUBSCRIBER_URLS,
+						 "http://localhost:" + subscriber.getPort() + "/accept");
+			try {
+				dm.init(settings);
+				dm.deliver(userMsg);
+			} catch (MessageDeliveryException e) {
+				e.printStackTrace();
+				fail();
+			}
+
+			assertEquals(userMsg.getMessageId(), backend.getRcvdHeaders().getHeader(HTTPHeaders.MESSAGE_ID));
+			assertEquals(userMsg.getMessageId(), subscriber.getRcvdHeaders().getHeader(HTTPHeaders.MESSAGE_ID));
+			assertArrayEquals(Files.readAllBytes(plData), backend.getRcvdData());
+			assertArrayEquals(Files.readAllBytes(plData), subscriber.getRcvdData());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	void testStreamedFanOutDelivery() throws Exception {
+		final byte[] data = new byte[1024 * 1024];
+		new Random().nextBytes(data);
+		final UserMessage userMsg = createUserMessage(TestUtils.getTestResource("payloads/random.bin"),
+													  "application/octet-stream");
+
+		final BackendMock subscriber = new BackendMock(1000);
+		subscriber.start();
+		try {
+			userMsg.setPayloads(Collections.<IPayload>singletonList(createStreamedPayload(data, backend, subscriber)));
+			NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+			Map<String, String> settings = new HashMap<>();
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+			settings.put(NotifyAndDeliverOperation.P_SUBSCRIBER_URLS,
+						 "http://localhost:" + subscriber.getPort() + "/accept");
+			backend.resetBodyStarted();
+			try {
+				dm.init(settings);
+				dm.deliver(userMsg);
+			} catch (MessageDeliveryException e) {
+				e.printStackTrace();
+				fail();
+			}
+
+			assertEquals("chunked", backend.getRcvdHeaders().getHeader("Transfer-Encoding"));
+			assertEquals("chunked", subscriber.getRcvdHeaders().getHeader("Transfer-Encoding"));
+			assertArrayEquals(data, backend.getRcvdData());
+			assertArrayEquals(data, subscriber.getRcvdData());
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	void testFanOutCompressionRejected() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/test.xml");
+
+		final BackendMock subscriber = new BackendMock(1000);
+		subscriber.start();
+		try {
+			NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+			Map<String, String> settings = new HashMap<>();
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+			settings.put(NotifyAndDeliverOperation.P_SUBSCRIBER_URLS,
+						 "http://localhost:" + subscriber.getPort() + "/identity");
+			settings.put(NotifyAndDeliverOperation.P_COMPRESSION, "gzip");
+			dm.init(settings);
+			// The rejection by the subscriber should only disable compression for the subscriber
+			for (int i = 0; i < 2; i++) {
+				try {
+					dm.deliver(createUserMessage(plData, "text/xml"));
+				} catch (MessageDeliveryException e) {
+					e.printStackTrace();
+					fail();
+				}
+
+				assertEquals("gzip", backend.getRcvdHeaders().getHeader(HTTPHeaders.CONTENT_ENCODING));
+				try (InputStream decoded = new GZIPInputStream(new ByteArrayInputStream(backend.getRcvdData()))) {
+					assertArrayEquals(Files.readAllBytes(plData), decoded.readAllBytes());
+				}
+				assertNull(subscriber.getRcvdHeaders().getHeader(HTTPHeaders.CONTENT_ENCODING));
+				assertArrayEquals(Files.readAllBytes(plData), subscriber.getRcvdData());
+			}
+		} finally {
+			subscriber.stop();
+		}
+	}
+
+	@Test
+	void testFanOutMixedCompression() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/random.bin");
+		final byte[] expected = Files.readAllBytes(plData);
+
+		final BackendMock gzipSubscriber = new BackendMock(1000);
+		final BackendMock identitySubscriber = new BackendMock(1000);
+		gzipSubscriber.start();
+		identitySubscriber.start();
+		try {
+			NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+			Map<String, String> settings = new HashMap<>();
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+			settings.put(NotifyAndDeliverOperation.P_SUBSCRIBER_URLS,
+						 "http://localhost:" + gzipSubscriber.getPort() + "/accept http://localhost:"
+						 + identitySubscriber.getPort() + "/identity");
+			settings.put(NotifyAndDeliverOperation.P_COMPRESSION, "gzip");
+			dm.init(settings);
+			// The first delivery disables compression for the subscriber that rejects it
+			dm.deliver(createUserMessage(plData, "application/octet-stream"));
+
+			// Now the payload should be read once for both the compressed and uncompressed deliveries
+			final AtomicInteger reads = new AtomicInteger();
+			final UserMessage userMsg = createUserMessage(plData, "application/octet-stream");
+			final Payload payload = new Payload() {
+				@Override
+				public InputStream getContent() throws IOException {
+					reads.incrementAndGet();
+					return new FileInputStream(plData.toFile());
+				}
+			};
+			payload.setMimeType("application/octet-stream");
+			userMsg.setPayloads(Collections.<IPayload>singletonList(payload));
+			dm.deliver(userMsg);
+
+			assertEquals(1, reads.get());
+			for (BackendMock compressed : new BackendMock[] { backend, gzipSubscriber }) {
+				assertEquals("gzip", compressed.getRcvdHeaders().getHeader(HTTPHeaders.CONTENT_ENCODING));
+				try (InputStream decoded = new GZIPInputStream(new ByteArrayInputStream(compressed.getRcvdData()))) {
+					assertArrayEquals(expected, decoded.readAllBytes());
+				}
+			}
+			assertNull(identitySubscriber.getRcvdHeaders().getHeader(HTTPHeaders.CONTENT_ENCODING));
+			assertArrayEquals(expected, identitySubscriber.getRcvdData());
+		} finally {
+			gzipSubscriber.stop();
+			identitySubscriber.stop();
+		}
+	}
+
+	@Test
+	void testFanOutSuccessPolicy() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/test.xml");
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		settings.put(NotifyAndDeliverOperation.P_SUBSCRIBER_URLS, "http://localhost:" + backend.getPort() + "/reject");
+		dm.init(settings);
+		assertThrows(MessageDeliveryException.class, () -> dm.deliver(createUserMessage(plData, "text/xml")));
+
+		settings.put(NotifyAndDeliverOperation.P_FANOUT_SUCCESS, "any");
+		dm.init(settings);
+		try {
+			dm.deliver(createUserMessage(plData, "text/xml"));
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		settings.put(NotifyAndDeliverOperation.P_FANOUT_SUCCESS, "some");
+		assertThrows(MessageDeliveryException.class, () -> dm.init(settings));
+	}
+
+	@Test
+	void testUnixSocketDelivery() throws Exception {
+		assumeTrue(UnixBackendMock.isSupported());
+		final Path plData = TestUtils.getTestResource("payloads/logo.png");
+		final UserMessage userMsg = createUserMessage(plData, "image/png");
+
+		final Path socket = Files.createTempDirectory("hb2b-rest").resolve("backend.sock");
+		final UnixBackendMock unixBackend = new UnixBackendMock(socket);
+		unixBackend.start();
+		try {
+			NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+			Map<String, String> settings = new HashMap<>();
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "unix:" + socket + ":/rest");
+			try {
+				dm.init(settings);
+				dm.deliver(userMsg);
+			} catch (MessageDeliveryException e) {
+				e.printStackTrace();
+				fail();
+			}
+
+			assertEquals("/rest/deliver", unixBackend.getRequestPath());
+			HTTPHeaders headers = unixBackend.getRcvdHeaders();
+			assertEquals(userMsg.getMessageId(), headers.getHeader(HTTPHeaders.MESSAGE_ID));
+			assertEquals("image/png", headers.getHeader(HTTPHeaders.MIME_TYPE));
+			assertArrayEquals(Files.readAllBytes(plData), unixBackend.getRcvdData());
+
+			settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "unix:" + socket + ":/reject");
+			dm.init(settings);
+			assertThrows(MessageDeliveryException.class, () -> dm.deliver(createUserMessage(plData, "image/png")));
+		} finally {
+			unixBackend.stop();
+		}
+	}
+
+	@Test
+	void testUnixSocketRequestChecks() throws Exception {
+		assumeTrue(UnixBackendMock.isSupported());
+		final Path socket = Files.createTempDirectory("hb2b-rest").resolve("backend.sock");
+		final String url = "unix:" + socket + ":/rest/deliver";
+
+		final UnixSocketConnection con = new UnixSocketConnection(url);
+		assertThrows(IllegalArgumentException.class, () -> con.setRequestProperty("X-Test", "a\r\nInjected: b"));
+		assertThrows(IllegalArgumentException.class, () -> con.addRequestProperty("X-Test", "a\nb"));
+		assertThrows(IllegalArgumentException.class, () -> con.setRequestProperty("X-Test\0", "a"));
+		assertThrows(IllegalArgumentException.class, () -> con.setRequestProperty("X:Test", "a"));
+
+		final UnixBackendMock unixBackend = new UnixBackendMock(socket);
+		unixBackend.start();
+		try {
+			final UnixSocketConnection tooMuch = new UnixSocketConnection(url);
+			tooMuch.setRequestMethod("POST");
+			tooMuch.setDoOutput(true);
+			tooMuch.setFixedLengthStreamingMode(4L);
+			try (OutputStream os = tooMuch.getOutputStream()) {
+				assertThrows(IOException.class, () -> os.write(new byte[5]));
+				os.write(new byte[4]);
+			} finally {
+				tooMuch.disconnect();
+			}
+
+			final UnixSocketConnection tooLittle = new UnixSocketConnection(url);
+			tooLittle.setRequestMethod("POST");
+			tooLittle.setDoOutput(true);
+			tooLittle.setFixedLengthStreamingMode(4L);
+			try {
+				final OutputStream os = tooLittle.getOutputStream();
+				os.write(new byte[3]);
+				assertThrows(IOException.class, () -> os.close());
+			} finally {
+				tooLittle.disconnect();
+			}
+		} finally {
+			unixBackend.stop();
+		}
+	}
+
+	@Test
+	void testInvalidUnixSocketURL() {
+		assumeTrue(UnixBackendMock.isSupported());
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "unix:");
+		assertThrows(MessageDeliveryException.class, () -> new NotifyAndDeliverOperation().init(settings));
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "unix:/tmp/backend.sock:rest");
+		assertThrows(MessageDeliveryException.class, () -> new NotifyAndDeliverOperation().init(settings));
+	}
+
+	@Test
+	void testResumedDelivery() throws Exception {
+		final Path plData = TestUtils.getTestResource("payloads/random.bin");
+		final byte[] data = Files.readAllBytes(plData);
+
+		final UserMessage userMsg = new UserMessage();
+
+		userMsg.setPModeId("pm-test-delivery");
+		userMsg.setMessageId(UUID.randomUUID().toString());
+		userMsg.setTimestamp(new Date());
+
+		final TradingPartner sender = new TradingPartner();
+		sender.addPartyId(new PartyId("senderId", "urn:org:holodeckb2b:test:partyids"));
+		userMsg.setSender(sender);
+		final TradingPartner receiver = new TradingPartner();
+		receiver.addPartyId(new PartyId("urn:org:holodeckb2b:test:partyids:receiverId", null));
+		userMsg.setReceiver(receiver);
+
+		// The payload data is read twice, so a new stream must be provided every time like the payload storage does
+		Payload payload = new Payload() {
+			@Override
+			public InputStream getContent() throws IOException {
+				return new FileInputStream(plData.toFile());
+			}
+		};
+		payload.setMimeType("application/octet-stream");
+		userMsg.addPayload(payload);
+
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/resume");
+		settings.put(NotifyAndDeliverOperation.P_RESUME_THRESHOLD, "1024");
+		backend.setPersistedOffset(100000);
+		try {
+			dm.init(settings);
+			dm.deliver(userMsg);
+		} catch (MessageDeliveryException e) {
+			e.printStackTrace();
+			fail();
+		}
+
+		HTTPHeaders headers = backend.getRcvdHeaders();
+		assertNotNull(headers);
+		assertEquals(userMsg.getMessageId(), headers.getHeader(HTTPHeaders.MESSAGE_ID));
+		assertEquals("bytes 100000-" + (data.length - 1) + "/" + data.length, headers.getHeader("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(data, 100000, data.length), backend.getRcvdData());
+	}
+
+	@Test
+	void testInvalidPayloadURL() {
+		NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		settings.put(NotifyAndDeliverOperation.P_PAYLOAD_URL, "not-a-url");
+		assertThrows(MessageDeliveryException.class, () -> dm.init(settings));
+	}
+
 	@Test
 	void testRejection() throws FileNotFoundException {
 		final UserMessage userMsg = new UserMessage();
@@ -332,4 +898,58 @@ class DeliveryOperationTest {
 		}
 	}
 
+
+
+	/**
+	 * Creates a payload of which the second half of the data only becomes available when the given back-ends received
+	 * the first bytes, so a delivery of it can only succeed when the entity body is streamed.
+	 */
+	private static Payload createStreamedPayload(final byte[] data, final BackendMock... targets) {
+		final int half = data.length / 2;
+		Payload payload = new Payload() {
+			@Override
+			public InputStream getContent() throws IOException {
+				return new SequenceInputStream(new ByteArrayInputStream(data, 0, half), new InputStream() {
+					private InputStream rest;
+
+					@Override
+					public int read() throws IOException {
+						final byte[] b = new byte[1];
+						return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						if (rest == null) {
+							try {
+								for (BackendMock t : targets)
+									if (!t.awaitBodyStarted(10, TimeUnit.SECONDS))
+										throw new IOException("Back-end did not receive data yet");
+							} catch (InterruptedException interrupted) {
+								throw new IOException(interrupted);
+							}
+							rest = new ByteArrayInputStream(data, half, data.length - half);
+						}
+						return rest.read(b, off, len);
+					}
+				});
+			}
+		};
+		payload.setMimeType("application/octet-stream");
+		return payload;
+	}
+	/**
+	 * Creates a User Message with a single payload which content can be read multiple times, like when it is read
+	 * from the payload storage.
+	 */
+	private static UserMessage createUserMessage(final Path plData, final String mimeType) {
+		Payload payload = new Payload() {
+			@Override
+			public InputStream getContent() throws IOException {
+				return new FileInputStream(plData.toFile());
+			}
+		};
+		payload.setMimeType(mimeType);
+		return UserMessageFactory.createUserMessage("pm-test-delivery", payload);
+	}
 }
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FanOutStreamTest {
+
+	/**
+	 * Is an output stream that fails after the given number of bytes is written
+	 */
+	private static class FailingStream extends OutputStream {
+		private long remaining;
+
+		FailingStream(final long limit) {
+			remaining = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (remaining-- <= 0)
+				throw new IOException("Destination failed");
+		}
+	}
+
+	@Test
+	void testCopyToAll() throws IOException {
+		final byte[] data = new byte[1024 * 1024];
+		new Random().nextBytes(data);
+		final ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		final ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+
+		final FanOutStream fanOut = new FanOutStream(Arrays.asList(out1, out2), 2, 1000);
+		for (int i = 0; i < data.length; i += 1000)
+			fanOut.write(data, i, Math.min(1000, data.length - i));
+		fanOut.close();
+
+		assertNull(fanOut.getFailure(0));
+		assertNull(fanOut.getFailure(1));
+		assertArrayEquals(data, out1.toByteArray());
+		assertArrayEquals(data, out2.toByteArray());
+	}
+
+	@Test
+	void testFailingDestination() throws IOException {
+		final byte[] data = new byte[64 * 1024];
+		new Random().nextBytes(data);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		final FanOutStream fanOut = new FanOutStream(Arrays.asList(new FailingStream(1000), out), 2, 1000);
+		for (int i = 0; i < data.length; i += 512)
+			fanOut.write(data, i, 512);
+		fanOut.close();
+
+		assertNotNull(fanOut.getFailure(0));
+		assertNull(fanOut.getFailure(1));
+		assertArrayEquals(data, out.toByteArray());
+	}
+
+	@Test
+	void testAllDestinationsFailed() {
+		final FanOutStream fanOut = new FanOutStream(Collections.singletonList(new FailingStream(0)), 1, 1000);
+		assertThrows(IOException.class, () -> {
+			for (int i = 0; i < 100; i++)
+				fanOut.write(new byte[512]);
+			fanOut.close();
+		});
+	}
+}
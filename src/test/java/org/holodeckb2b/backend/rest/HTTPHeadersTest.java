@@ -20,13 +20,18 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.holodeckb2b.common.messagemodel.EbmsError;
 import org.holodeckb2b.common.messagemodel.PartyId;
@@ -235,6 +240,102 @@ class HTTPHeadersTest {
 		}			
 	}
 	
+	/**
+	 * The regular expression that was used to parse the property headers before, which is used as reference for the
+	 * current parser
+	 */
+	private static final Pattern LEGACY_PROPERTY_PATTERN =
+			Pattern.compile("\\s*([\\S&&[^=\\s]]*)\\s*=\\s*(\\[([\\S&&[^,]]*)])?([^\\[ ,][\\S&&[^,]]*)\\s*(\\,(.*))?");
+
+	/**
+	 * Parses the properties using the legacy regular expression and formats the result as text, or returns
+	 * "<i>error</i>" when the properties are not formatted correctly.
+	 */
+	private static String parseLegacy(final String hdrVal) {
+		final StringBuilder result = new StringBuilder();
+		String remainder = hdrVal;
+		while (remainder != null) {
+			final Matcher m = LEGACY_PROPERTY_PATTERN.matcher(remainder);
+			if (!m.matches() || Utils.isNullOrEmpty(m.group(1)) || Utils.isNullOrEmpty(m.group(4)))
+				return "<error>";
+			result.append(format(new Property(m.group(1), m.group(4),
+											  Utils.isNullOrEmpty(m.group(3)) ? null : m.group(3))));
+			remainder = m.group(6);
+		}
+		return result.toString();
+	}
+
+	private static String parse(final String hdrVal) {
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.MESSAGE_PROPS, hdrVal);
+		try {
+			final StringBuilder result = new StringBuilder();
+			new HTTPHeaders(headers).getProperties(HTTPHeaders.MESSAGE_PROPS).forEach(p -> result.append(format(p)));
+			return result.toString();
+		} catch (MessageSubmitException e) {
+			return "<error>";
+		}
+	}
+
+	private static String format(final IProperty p) {
+		return "{" + p.getName() + "|" + p.getType() + "|" + p.getValue() + "}";
+	}
+
+	@Test
+	void testPropertiesParserMatchesLegacy() {
+		// All combinations of the characters relevant to the syntax up to a length of 6
+		final char[] alphabet = { 'a', '=', '[', ']', ',', ' ', '\t', '\n' };
+		final char[] chars = new char[6];
+		for (int len = 0; len <= chars.length; len++) {
+			final int[] idx = new int[len];
+			while (true) {
+				for (int i = 0; i < len; i++)
+					chars[i] = alphabet[idx[i]];
+				final String hdrVal = new String(chars, 0, len);
+				assertEquals(parseLegacy(hdrVal), parse(hdrVal), () -> "Different result for \"" + hdrVal + "\"");
+				int i = len - 1;
+				while (i >= 0 && ++idx[i] == alphabet.length)
+					idx[i--] = 0;
+				if (i < 0)
+					break;
+			}
+		}
+
+		// Random longer headers, based on a valid header so also well formed ones are generated
+		final char[] extended = { 'a', 'b', '=', '[', ']', ',', ' ', '\t', '\n', '\r', '\u0085', '\u0001' };
+		final Random random = new Random(42);
+		for (int n = 0; n < 20000; n++) {
+			final StringBuilder hdrVal = new StringBuilder("p1=[t1]v1, p2 = v2 ,p3=[]v3");
+			for (int m = random.nextInt(4); m >= 0; m--) {
+				final int pos = random.nextInt(hdrVal.length() + 1);
+				if (random.nextBoolean() && pos < hdrVal.length())
+					hdrVal.deleteCharAt(pos);
+				else
+					hdrVal.insert(pos, extended[random.nextInt(extended.length)]);
+			}
+			final String hv = hdrVal.toString();
+			assertEquals(parseLegacy(hv), parse(hv), () -> "Different result for \"" + hv + "\"");
+		}
+	}
+
+	@Test
+	void testPropertiesParsingIsLinear() {
+		final StringBuilder many = new StringBuilder();
+		for (int i = 0; i < 50000; i++)
+			many.append(i > 0 ? ", " : "").append("prop").append(i).append("=[type]value").append(i);
+		final StringBuilder brackets = new StringBuilder("p=[");
+		for (int i = 0; i < 200000; i++)
+			brackets.append(']');
+		brackets.append(" x");
+
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.MESSAGE_PROPS, many.toString());
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			assertEquals(50000, new HTTPHeaders(headers).getProperties(HTTPHeaders.MESSAGE_PROPS).size());
+			assertEquals("<error>", parse(brackets.toString()));
+		});
+	}
+
 	@Test
 	void testSetPartyId() {
 		HTTPHeaders headers = new HTTPHeaders();
@@ -303,4 +404,22 @@ class HTTPHeadersTest {
 		assertEquals("[" + e1.getSeverity().name() + "]" + e1.getErrorCode() + "-" + e1.getErrorDetail() + ","
 					+ "[" + e2.getSeverity().name() + "]" + e2.getErrorCode(), hdrVal);		
 	}	
+
+	@Test
+	void testCaseInsensitiveNames() throws MessageSubmitException {
+		HashMap<String, String> received = new HashMap<>();
+		received.put("x-holodeckb2b-service", "[svcType]svc");
+		received.put("CONTENT-TYPE", "text/plain");
+		HTTPHeaders headers = new HTTPHeaders(received);
+
+		assertEquals("text/plain", headers.getHeader("Content-Type"));
+		assertEquals("svc", headers.getService().getName());
+		assertEquals("svcType", headers.getService().getType());
+
+		headers.setHeader(HTTPHeaders.SERVICE, "other");
+		assertEquals("other", headers.getHeader("X-HOLODECKB2B-SERVICE"));
+		assertEquals(2, headers.getAllHeaders().size());
+		assertTrue(headers.getAllHeaders().containsKey("x-holodeckb2b-service"));
+		assertNull(headers.getHeader(HTTPHeaders.MESSAGE_ID));
+	}
 }
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HeaderMapTest {
+
+	@Test
+	void testLookupIgnoresCase() {
+		HeaderMap map = new HeaderMap();
+		assertNull(map.put("X-HolodeckB2B-MessageId", "msg-1"));
+
+		assertEquals("msg-1", map.get("x-holodeckb2b-messageid"));
+		assertEquals("msg-1", map.get("X-HOLODECKB2B-MESSAGEID"));
+		assertTrue(map.containsKey("x-HolodeckB2B-messageId"));
+		assertFalse(map.containsKey("X-HolodeckB2B-MessageIds"));
+		assertNull(map.get(null));
+	}
+
+	@Test
+	void testReplaceKeepsFirstName() {
+		HeaderMap map = new HeaderMap();
+		map.put("Content-Type", "text/plain");
+		assertEquals("text/plain", map.put("content-type", "text/xml"));
+
+		assertEquals(1, map.size());
+		Map.Entry<String, String> e = map.entrySet().iterator().next();
+		assertEquals("Content-Type", e.getKey());
+		assertEquals("text/xml", e.getValue());
+	}
+
+	@Test
+	void testGrowKeepsOrder() {
+		HeaderMap map = new HeaderMap();
+		for (int i = 0; i < 100; i++)
+			map.put("Header-" + i, "v" + i);
+
+		assertEquals(100, map.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals("v" + i, map.get("HEADER-" + i));
+
+		List<String> names = new ArrayList<>();
+		map.forEach((n, v) -> names.add(n));
+		for (int i = 0; i < 100; i++)
+			assertEquals("Header-" + i, names.get(i));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get("Header-1"));
+		map.put("header-1", "again");
+		assertEquals("again", map.get("HEADER-1"));
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	@Test
+	void testBucketBounds() {
+		for (int i = 1; i < 100000; i++) {
+			final int idx = LatencyHistogram.indexOf(i);
+			assertTrue(i <= LatencyHistogram.upperBoundOf(idx));
+			assertTrue(i > LatencyHistogram.upperBoundOf(idx - 1));
+		}
+		// The relative error of the bounds should not exceed 1/SUB_BUCKETS
+		for (long v = 1000; v < 1L << 32; v *= 3)
+			assertTrue(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(v)) - v
+						<= v / LatencyHistogram.SUB_BUCKETS + 1);
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getValueAtPercentile(99));
+
+		for (int i = 1; i <= 1000; i++)
+			h.record(TimeUnit.MICROSECONDS.toNanos(i));
+
+		assertEquals(1000, h.getCount());
+		assertEquals(500500, h.getSum());
+		assertEquals(1000, h.getMax());
+		final long p50 = h.getValueAtPercentile(50);
+		assertTrue(p50 >= 500 && p50 <= 500 + 500 / LatencyHistogram.SUB_BUCKETS + 1);
+		final long p99 = h.getValueAtPercentile(99);
+		assertTrue(p99 >= 990 && p99 <= 1000);
+		assertEquals(1000, h.getValueAtPercentile(100));
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.holodeckb2b.backend.rest.Metrics.Operation;
+import org.holodeckb2b.backend.rest.Metrics.Outcome;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+
+	@Test
+	void testRecording() {
+		Metrics metrics = new Metrics();
+		long start = metrics.start(Operation.SUBMIT);
+		assertEquals(1L, metrics.getInFlight().get("submit"));
+		metrics.end(Operation.SUBMIT, "pm-1", Outcome.SUCCESS, start, 1024);
+		metrics.end(Operation.SUBMIT, "pm-1", Outcome.REJECTED, metrics.start(Operation.SUBMIT), -1);
+		metrics.end(Operation.DELIVER, null, Outcome.FAILED, metrics.start(Operation.DELIVER), 10);
+
+		assertEquals(0L, metrics.getInFlight().get("submit"));
+		Map<String, Long> counts = metrics.getRequestCounts();
+		assertEquals(3, counts.size());
+		assertEquals(1L, counts.get("submit/pm-1/success"));
+		assertEquals(1L, counts.get("submit/pm-1/rejected"));
+		assertEquals(1L, counts.get("deliver/" + Metrics.UNKNOWN_PMODE + "/failed"));
+		assertEquals(1024L, metrics.getPayloadBytes().get("submit/pm-1"));
+		assertEquals(10L, metrics.getPayloadBytes().get("deliver/" + Metrics.UNKNOWN_PMODE));
+	}
+
+	@Test
+	void testPModesAreCapped() {
+		Metrics metrics = new Metrics();
+		for (int i = 0; i < Metrics.MAX_PMODES + 10; i++)
+			metrics.end(Operation.NOTIFY, "pm-" + i, Outcome.SUCCESS, metrics.start(Operation.NOTIFY), 0);
+
+		Map<String, Long> counts = metrics.getRequestCounts();
+		assertEquals(Metrics.MAX_PMODES + 1, counts.size());
+		assertEquals(10L, counts.get("notify/" + Metrics.OTHER_PMODES + "/success"));
+	}
+
+	@Test
+	void testTextFormat() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.end(Operation.SUBMIT, "pm\"1", Outcome.SUCCESS, metrics.start(Operation.SUBMIT), 100);
+
+		StringWriter text = new StringWriter();
+		metrics.writeText(text);
+		String output = text.toString();
+
+		assertTrue(output.contains("# TYPE hb2b_rest_request_duration_seconds summary\n"));
+		assertTrue(output.contains(
+				"hb2b_rest_request_duration_seconds_count{operation=\"submit\",pmode=\"pm\\\"1\",outcome=\"success\"} 1\n"));
+		assertTrue(output.contains("quantile=\"0.99\"}"));
+		assertTrue(output.contains("hb2b_rest_payload_bytes_total{operation=\"submit\",pmode=\"pm\\\"1\"} 100\n"));
+		assertTrue(output.contains("hb2b_rest_requests_in_flight{operation=\"deliver\"} 0\n"));
+		assertFalse(output.contains("outcome=\"failed\""));
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MultipartUtilsTest {
+
+	@Test
+	void testContentType() {
+		assertTrue(MultipartUtils.isMultipart("multipart/related; boundary=abc"));
+		assertTrue(MultipartUtils.isMultipart(" Multipart/Related;boundary=\"abc\""));
+		assertFalse(MultipartUtils.isMultipart("application/xml"));
+		assertFalse(MultipartUtils.isMultipart(null));
+
+		assertEquals("abc", MultipartUtils.getBoundary("multipart/related; boundary=abc"));
+		assertEquals("a b;c", MultipartUtils.getBoundary("multipart/related; type=\"text/xml\"; Boundary=\"a b;c\""));
+		assertNull(MultipartUtils.getBoundary("multipart/related"));
+	}
+
+	@Test
+	void testRoundTrip() throws IOException {
+		final byte[][] contents = { "<test>first part</test>".getBytes(StandardCharsets.UTF_8),
+									new byte[0],
+									new byte[20000] };
+		for (int i = 0; i < contents[2].length; i++)
+			contents[2][i] = (byte) (i % 7 == 0 ? '\r' : i % 7 == 1 ? '\n' : i % 7 < 4 ? '-' : i);
+
+		final String boundary = MultipartUtils.newBoundary();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int i = 0; i < contents.length; i++) {
+			final HTTPHeaders headers = new HTTPHeaders();
+			headers.setHeader(HTTPHeaders.MIME_TYPE, i == 0 ? "text/xml" : "application/octet-stream");
+			headers.setHeader(HTTPHeaders.PAYLOAD_URI, "part-" + i);
+			final byte[] content = contents[i];
+			MultipartUtils.writePart(body, boundary, headers, out -> out.write(content));
+		}
+		MultipartUtils.writeEnd(body, boundary);
+
+		final List<HTTPHeaders> rcvdHeaders = new ArrayList<>();
+		final List<byte[]> rcvdContents = new ArrayList<>();
+		final int parts = MultipartUtils.readParts(new ByteArrayInputStream(body.toByteArray()), boundary,
+													(h, c) -> { final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+																c.writeTo(bos);
+																rcvdHeaders.add(h);
+																rcvdContents.add(bos.toByteArray()); });
+
+		assertEquals(contents.length, parts);
+		for (int i = 0; i < contents.length; i++) {
+			assertEquals(i == 0 ? "text/xml" : "application/octet-stream",
+						 rcvdHeaders.get(i).getHeader(HTTPHeaders.MIME_TYPE));
+			assertEquals("part-" + i, rcvdHeaders.get(i).getHeader(HTTPHeaders.PAYLOAD_URI));
+			assertArrayEquals(contents[i], rcvdContents.get(i));
+		}
+	}
+
+	@Test
+	void testInvalidPartHeader() {
+		for (String value : new String[] { "inv\r\nX-Injected: true", "inv\nalid", "inv\0alid" }) {
+			final HTTPHeaders headers = new HTTPHeaders();
+			headers.setHeader(HTTPHeaders.PAYLOAD_URI, value);
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			assertThrows(IOException.class, () -> MultipartUtils.writePart(body, MultipartUtils.newBoundary(), headers,
+																			out -> out.write(1)));
+			assertEquals(0, body.size());
+		}
+	}
+
+	@Test
+	void testMissingEnd() {
+		final String boundary = MultipartUtils.newBoundary();
+		final byte[] body = ("--" + boundary + "\r\nContent-Type: text/plain\r\n\r\ntruncated")
+																						.getBytes(StandardCharsets.UTF_8);
+		assertThrows(IOException.class, () -> MultipartUtils.readParts(new ByteArrayInputStream(body), boundary,
+																		(h, c) -> c.writeTo(new ByteArrayOutputStream())));
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PayloadBlobStoreTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testDeduplication() throws Exception {
+		final PayloadBlobStore store = new PayloadBlobStore(tempDir.resolve("blobs"), 0);
+		final byte[] data = randomData(5000);
+		final byte[] digest = sha256(data);
+
+		assertNull(store.open(digest));
+		try (InputStream first = store.add(writeTemp(data), digest);
+			 InputStream second = store.add(writeTemp(data), digest);
+			 InputStream third = store.open(digest)) {
+			assertNotNull(third);
+			assertEquals(1, store.getBlobCount());
+			assertEquals(1, countFiles(tempDir.resolve("blobs")));
+			// The temporary files are moved into or removed by the store
+			assertEquals(1, countFiles(tempDir));
+			assertArrayEquals(data, first.readAllBytes());
+			assertArrayEquals(data, second.readAllBytes());
+			assertArrayEquals(data, third.readAllBytes());
+		}
+		// With no retention the blob is removed when it is not read anymore
+		assertEquals(0, store.getBlobCount());
+		assertEquals(0, countFiles(tempDir.resolve("blobs")));
+		assertNull(store.open(digest));
+	}
+
+	@Test
+	void testRetention() throws Exception {
+		final PayloadBlobStore store = new PayloadBlobStore(tempDir.resolve("blobs"), 200);
+		final byte[] data = randomData(1000);
+		final byte[] digest = sha256(data);
+
+		store.add(writeTemp(data), digest).close();
+		assertEquals(1, store.getBlobCount());
+		try (InputStream reused = store.open(digest)) {
+			assertNotNull(reused);
+			assertArrayEquals(data, reused.readAllBytes());
+		}
+
+		Thread.sleep(300);
+		store.removeExpired();
+		assertEquals(0, store.getBlobCount());
+		assertEquals(0, countFiles(tempDir.resolve("blobs")));
+	}
+
+	@Test
+	void testBlobInUseNotExpired() throws Exception {
+		final PayloadBlobStore store = new PayloadBlobStore(tempDir.resolve("blobs"), 0);
+		final byte[] data = randomData(1000);
+		final byte[] digest = sha256(data);
+
+		try (InputStream inUse = store.add(writeTemp(data), digest)) {
+			store.removeExpired();
+			assertEquals(1, store.getBlobCount());
+			assertArrayEquals(data, inUse.readAllBytes());
+		}
+	}
+
+	@Test
+	void testRemoveLeftOvers() throws IOException {
+		final Path blobDir = Files.createDirectories(tempDir.resolve("blobs"));
+		Files.createFile(blobDir.resolve("0123.blob"));
+		Files.createFile(blobDir.resolve("other.file"));
+
+		new PayloadBlobStore(blobDir, 0);
+
+		assertFalse(Files.exists(blobDir.resolve("0123.blob")));
+		assertFalse(Files.notExists(blobDir.resolve("other.file")));
+	}
+
+	private Path writeTemp(final byte[] data) throws IOException {
+		final Path f = Files.createTempFile(tempDir, "payload-", ".staged");
+		Files.write(f, data);
+		return f;
+	}
+
+	private static byte[] randomData(final int size) {
+		final byte[] data = new byte[size];
+		new Random().nextBytes(data);
+		return data;
+	}
+
+	private static byte[] sha256(final byte[] data) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(data);
+	}
+
+	private static long countFiles(final Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+}
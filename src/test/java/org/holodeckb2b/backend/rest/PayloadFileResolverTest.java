@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.holodeckb2b.interfaces.submit.MessageSubmitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PayloadFileResolverTest {
+
+	@TempDir
+	Path baseDir;
+
+	Path allowedDir;
+	Path otherDir;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		allowedDir = Files.createDirectories(baseDir.resolve("allowed"));
+		otherDir = Files.createDirectories(baseDir.resolve("other"));
+	}
+
+	@Test
+	void testAllowedFile() throws Exception {
+		final Path payload = Files.createFile(Files.createDirectories(allowedDir.resolve("sub")).resolve("pl.bin"));
+
+		PayloadFileResolver resolver = new PayloadFileResolver(Collections.singletonList(allowedDir));
+		assertEquals(payload.toRealPath(), resolver.resolve(payload.toString()));
+	}
+
+	@Test
+	void testNotAllowedFile() throws Exception {
+		final Path payload = Files.createFile(otherDir.resolve("pl.bin"));
+
+		PayloadFileResolver resolver = new PayloadFileResolver(Collections.singletonList(allowedDir));
+		assertThrows(MessageSubmitException.class, () -> resolver.resolve(payload.toString()));
+		assertThrows(MessageSubmitException.class,
+						() -> resolver.resolve(allowedDir.toString() + "/../other/pl.bin"));
+		assertThrows(MessageSubmitException.class, () -> resolver.resolve("other/pl.bin"));
+	}
+
+	@Test
+	void testSymbolicLink() throws Exception {
+		final Path payload = Files.createFile(otherDir.resolve("pl.bin"));
+		final Path link;
+		try {
+			link = Files.createSymbolicLink(allowedDir.resolve("link.bin"), payload);
+		} catch (UnsupportedOperationException | IOException noLinks) {
+			return;
+		}
+		PayloadFileResolver resolver = new PayloadFileResolver(Collections.singletonList(allowedDir));
+		assertThrows(MessageSubmitException.class, () -> resolver.resolve(link.toString()));
+	}
+
+	@Test
+	void testNoRegularFile() throws Exception {
+		PayloadFileResolver resolver = new PayloadFileResolver(Collections.singletonList(baseDir));
+		assertThrows(MessageSubmitException.class, () -> resolver.resolve(allowedDir.toString()));
+		assertThrows(MessageSubmitException.class, () -> resolver.resolve(allowedDir.resolve("none").toString()));
+	}
+
+	@Test
+	void testInvalidDirectory() {
+		assertThrows(IOException.class,
+					() -> new PayloadFileResolver(Collections.singletonList(baseDir.resolve("none"))));
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.kernel.MessageFormatter;
+import org.apache.axis2.kernel.http.HTTPConstants;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.commons.testing.TestUtils;
+import org.holodeckb2b.interfaces.messagemodel.IPayload;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class PayloadRetrievalOperationTest {
+
+	private static final String MESSAGE_ID = "payload-retrieval-test@holodeck-b2b.org";
+
+	private static Path	  plFile;
+	private static byte[] plData;
+
+	/**
+	 * Retrieval operation that uses a fixed payload instead of querying the message store
+	 */
+	static class TestRetrievalOperation extends PayloadRetrievalOperation {
+		@Override
+		IPayload findPayload(final String messageId) throws AxisFault {
+			if (!MESSAGE_ID.equals(messageId))
+				return null;
+			final Payload payload = new Payload() {
+				@Override
+				public InputStream getContent() throws IOException {
+					return new FileInputStream(plFile.toFile());
+				}
+			};
+			payload.setMimeType("image/png");
+			return payload;
+		}
+	}
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		plFile = TestUtils.getTestResource("payloads/logo.png");
+		plData = Files.readAllBytes(plFile);
+	}
+
+	@Test
+	void testCompletePayload() throws Exception {
+		final MessageContext inMsgCtx = createRequest(MESSAGE_ID, null, true);
+		final MessageContext outMsgCtx = new MessageContext();
+		new TestRetrievalOperation().invokeBusinessLogic(inMsgCtx, outMsgCtx);
+
+		assertEquals(-1, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals(Integer.toString(plData.length), getResponseHeader(outMsgCtx, HTTPHeaders.CONTENT_LENGTH));
+		assertArrayEquals(plData, getResponseBody(outMsgCtx));
+	}
+
+	@Test
+	void testRange() throws Exception {
+		final MessageContext inMsgCtx = createRequest(MESSAGE_ID, "bytes=100-1099", true);
+		final MessageContext outMsgCtx = new MessageContext();
+		new TestRetrievalOperation().invokeBusinessLogic(inMsgCtx, outMsgCtx);
+
+		assertEquals(206, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals("1000", getResponseHeader(outMsgCtx, HTTPHeaders.CONTENT_LENGTH));
+		assertEquals("bytes 100-1099/" + plData.length, getResponseHeader(outMsgCtx, "Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(plData, 100, 1100), getResponseBody(outMsgCtx));
+	}
+
+	@Test
+	void testUnknownMessage() throws Exception {
+		final MessageContext inMsgCtx = createRequest("unknown-msg-id", null, true);
+		assertThrows(AxisFault.class, () -> new TestRetrievalOperation().invokeBusinessLogic(inMsgCtx,
+																							 new MessageContext()));
+		assertEquals(404, ResponseUtils.getStatus(inMsgCtx));
+	}
+
+	@Test
+	void testUnsatisfiableRange() throws Exception {
+		final MessageContext inMsgCtx = createRequest(MESSAGE_ID, "bytes=" + plData.length + "-", true);
+		assertThrows(AxisFault.class, () -> new TestRetrievalOperation().invokeBusinessLogic(inMsgCtx,
+																							 new MessageContext()));
+		assertEquals(416, ResponseUtils.getStatus(inMsgCtx));
+		assertEquals("bytes */" + plData.length, getResponseHeader(inMsgCtx, "Content-Range"));
+	}
+
+	@Test
+	void testNotEnabled() throws Exception {
+		final MessageContext inMsgCtx = createRequest(MESSAGE_ID, null, false);
+		assertThrows(AxisFault.class, () -> new TestRetrievalOperation().invokeBusinessLogic(inMsgCtx,
+																							 new MessageContext()));
+		assertEquals(403, ResponseUtils.getStatus(inMsgCtx));
+	}
+
+	private static MessageContext createRequest(final String messageId, final String range, final boolean enabled)
+																										throws AxisFault {
+		final Map<String, String> headers = new HashMap<>();
+		if (range != null)
+			headers.put("Range", range);
+		final MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setProperty(Constants.Configuration.TRANSPORT_IN_URL,
+						   "/holodeckb2b/restbackend/payload?" + PayloadRetrievalOperation.Q_MESSAGE_ID + "=" + messageId);
+		final AxisService service = new AxisService("restbackend");
+		service.addParameter(PayloadRetrievalOperation.P_ENABLE_PAYLOAD_RETRIEVAL, Boolean.toString(enabled));
+		msgCtx.setAxisService(service);
+		return msgCtx;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getResponseHeader(final MessageContext msgCtx, final String name) {
+		final Map<String, String> headers = (Map<String, String>) msgCtx.getProperty(HTTPConstants.RESPONSE_HEADERS);
+		return headers != null ? headers.get(name) : null;
+	}
+
+	private static byte[] getResponseBody(final MessageContext outMsgCtx) throws AxisFault {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		((MessageFormatter) outMsgCtx.getProperty(Constants.Configuration.MESSAGE_FORMATTER))
+																		.writeTo(outMsgCtx, null, body, false);
+		return body.toByteArray();
+	}
+}
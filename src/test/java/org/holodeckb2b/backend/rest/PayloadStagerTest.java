@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class PayloadStagerTest {
+
+	@TempDir
+	Path stagingDir;
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 100, 1024, 1025, 300000 })
+	void testStaging(int size) throws IOException {
+		final byte[] data = new byte[size];
+		new Random().nextBytes(data);
+
+		PayloadStager stager = new PayloadStager(1024, stagingDir);
+		for (long contentLength : new long[] { size, -1 }) {
+			try (InputStream staged = stager.stage(new ByteArrayInputStream(data), contentLength)) {
+				assertArrayEquals(data, staged.readAllBytes());
+			}
+			assertEquals(0, countStagedFiles());
+		}
+	}
+
+	@Test
+	void testStagingInPooledBuffers() throws IOException {
+		final byte[] data = new byte[2500];
+		new Random().nextBytes(data);
+		final BufferPool pool = BufferPool.configure(1000, 4, false);
+		try {
+			PayloadStager stager = new PayloadStager(4096, stagingDir);
+			try (InputStream staged = stager.stage(new ByteArrayInputStream(data), data.length)) {
+				final byte[] read = new byte[data.length];
+				int n = 0;
+				while (n < read.length)
+					n += staged.read(read, n, Math.min(700, read.length - n));
+				assertEquals(-1, staged.read());
+				assertArrayEquals(data, read);
+			}
+			assertEquals(0, countStagedFiles());
+			assertEquals(3, pool.getPooledBuffers());
+
+			final long hits = pool.getHits();
+			stager.stage(new ByteArrayInputStream(data), data.length).close();
+			assertEquals(hits + 3, pool.getHits());
+			assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(data), 3000));
+			assertEquals(3, pool.getPooledBuffers());
+		} finally {
+			BufferPool.configure(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.DEFAULT_MAX_POOLED, true);
+		}
+	}
+
+	@Test
+	void testSizeMismatch() throws IOException {
+		PayloadStager stager = new PayloadStager(1024, stagingDir);
+
+		assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(new byte[100]), 200));
+		assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(new byte[100]), 50));
+		assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(new byte[3000]), 2000));
+		assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(new byte[3000]), 4000));
+		assertEquals(0, countStagedFiles());
+	}
+
+	@Test
+	void testRemoveLeftOvers() throws IOException {
+		Files.createFile(stagingDir.resolve("payload-1.staged"));
+		Files.createFile(stagingDir.resolve("other.file"));
+
+		new PayloadStager(1024, stagingDir);
+
+		assertEquals(0, countStagedFiles());
+		assertFalse(Files.notExists(stagingDir.resolve("other.file")));
+	}
+
+	@Test
+	void testDeduplication() throws Exception {
+		final byte[] data = new byte[300000];
+		new Random().nextBytes(data);
+		final PayloadBlobStore blobStore = new PayloadBlobStore(stagingDir.resolve("blobs"), 60000);
+		PayloadStager stager = new PayloadStager(1024, stagingDir, blobStore);
+
+		try (InputStream first = stager.stage(new ByteArrayInputStream(data), data.length);
+			 InputStream second = stager.stage(new ByteArrayInputStream(data), -1)) {
+			assertArrayEquals(data, first.readAllBytes());
+			assertArrayEquals(data, second.readAllBytes());
+		}
+		assertEquals(0, countStagedFiles());
+		assertEquals(1, blobStore.getBlobCount());
+
+		// When the digest is known the retained copy is used without staging the data again
+		final byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(data);
+		try (InputStream reused = stager.stage(new ByteArrayInputStream(data), data.length, sha256)) {
+			assertArrayEquals(data, reused.readAllBytes());
+		}
+		assertEquals(1, blobStore.getBlobCount());
+		assertThrows(IOException.class, () -> stager.stage(new ByteArrayInputStream(data), 100, sha256));
+	}
+
+	private long countStagedFiles() throws IOException {
+		try (Stream<Path> files = Files.list(stagingDir)) {
+			return files.filter(f -> f.toString().endsWith(".staged")).count();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class PipelinedCopierTest {
+
+	@Test
+	void testCopy() throws IOException {
+		final BufferPool pool = new BufferPool(1024, 8, false);
+		for (int size : new int[] { 0, 100, 1024, 1025, 10 * 1024 + 7 }) {
+			final byte[] data = new byte[size];
+			new Random().nextBytes(data);
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			assertEquals(size, PipelinedCopier.copy(new ByteArrayInputStream(data), out, pool, 3));
+			assertArrayEquals(data, out.toByteArray());
+		}
+		// All buffers should have been returned to the pool, so at most the ring had to be allocated
+		assertEquals(3, pool.getMisses());
+	}
+
+	@Test
+	void testReadAhead() throws IOException {
+		// The first write only completes when the reader has read the next chunks while it was blocked
+		final CountDownLatch chunksRead = new CountDownLatch(3);
+		final InputStream in = new ByteArrayInputStream(new byte[16 * 1024]) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				final int n = super.read(b, off, len);
+				if (n > 0)
+					chunksRead.countDown();
+				return n;
+			}
+		};
+		final OutputStream out = new OutputStream() {
+			boolean first = true;
+
+			@Override
+			public void write(int b) {}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (first) {
+					first = false;
+					try {
+						assertTrue(chunksRead.await(5, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+				}
+			}
+		};
+
+		assertEquals(16 * 1024, PipelinedCopier.copy(in, out, new BufferPool(1024, 8, false), 4));
+	}
+
+	@Test
+	void testReadFailure() {
+		final InputStream in = new InputStream() {
+			int count = 0;
+
+			@Override
+			public int read() throws IOException {
+				if (++count > 5000)
+					throw new IOException("Read failed");
+				return 0;
+			}
+		};
+		assertThrows(IOException.class, () -> PipelinedCopier.copy(in, OutputStream.nullOutputStream(), new BufferPool(1024, 8, false), 2));
+	}
+
+	@Test
+	void testWriteFailure() {
+		final OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Write failed");
+			}
+		};
+		assertThrows(IOException.class,
+					 () -> PipelinedCopier.copy(new ByteArrayInputStream(new byte[8192]), out, new BufferPool(1024, 8, false), 2));
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class RateLimiterTest {
+
+	@Test
+	void testNoLimits() {
+		RateLimiter limiter = new RateLimiter(null, "", null);
+		assertFalse(limiter.isActive());
+		for (int i = 0; i < 100; i++)
+			assertEquals(0, limiter.tryAcquire("pm-1"));
+	}
+
+	@Test
+	void testBurst() {
+		RateLimiter limiter = new RateLimiter(null, "1/5", null);
+		assertTrue(limiter.isActive());
+		for (int i = 0; i < 5; i++)
+			assertEquals(0, limiter.tryAcquire("pm-1"));
+		final long retryAfter = limiter.tryAcquire("pm-1");
+		assertTrue(retryAfter > 0 && retryAfter <= 1000);
+
+		// Other P-Modes have their own bucket
+		assertEquals(0, limiter.tryAcquire("pm-2"));
+
+		assertEquals(5, limiter.getAdmittedSubmissions().get("pm-1"));
+		assertEquals(1, limiter.getRejectedSubmissions().get("pm-1"));
+		assertEquals(1, limiter.getAdmittedSubmissions().get("pm-2"));
+	}
+
+	@Test
+	void testRefill() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter("20/1", null, null);
+		assertEquals(0, limiter.tryAcquire("pm-1"));
+		assertTrue(limiter.tryAcquire("pm-1") > 0);
+		Thread.sleep(60);
+		assertEquals(0, limiter.tryAcquire("pm-1"));
+	}
+
+	@Test
+	void testGlobalAndSpecificLimits() {
+		RateLimiter limiter = new RateLimiter("1/3", null, Collections.singletonMap("pm-1", "1/1"));
+		assertEquals(0, limiter.tryAcquire("pm-1"));
+		assertTrue(limiter.tryAcquire("pm-1") > 0);
+		assertEquals(0, limiter.tryAcquire("pm-2"));
+		assertEquals(0, limiter.tryAcquire("pm-3"));
+		assertTrue(limiter.tryAcquire("pm-4") > 0);
+
+		Map<String, Long> rejected = limiter.getRejectedSubmissions();
+		assertEquals(1, rejected.get("pm-1"));
+		assertEquals(1, rejected.get("pm-4"));
+	}
+
+	@Test
+	void testOverflow() {
+		RateLimiter limiter = new RateLimiter(null, "1/2", Collections.singletonMap("pm-limited", "1/1"));
+		for (int i = 0; i < RateLimiter.MAX_PMODES; i++)
+			assertEquals(0, limiter.tryAcquire("pm-" + i));
+
+		// The specific limit still applies when the maximum number of P-Modes is reached
+		assertEquals(0, limiter.tryAcquire("pm-limited"));
+		assertTrue(limiter.tryAcquire("pm-limited") > 0);
+
+		// Other P-Modes share the overflow bucket
+		assertEquals(0, limiter.tryAcquire("pm-new-1"));
+		assertEquals(0, limiter.tryAcquire("pm-new-2"));
+		assertTrue(limiter.tryAcquire("pm-new-3") > 0);
+		assertTrue(limiter.tryAcquire(null) > 0);
+
+		assertEquals(2, limiter.getAdmittedSubmissions().get(RateLimiter.OTHER_PMODES));
+		assertEquals(2, limiter.getRejectedSubmissions().get(RateLimiter.OTHER_PMODES));
+		assertEquals(1, limiter.getRejectedSubmissions().get("pm-limited"));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "abc", "10/x", "-1", "10/0", "0" })
+	void testInvalidLimit(String limit) {
+		assertThrows(IllegalArgumentException.class, () -> new RateLimiter(limit, null, null));
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.UserMessageFactory;
+import org.holodeckb2b.common.messagemodel.Receipt;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class RestOperationEventTest {
+
+	private static BackendMock backend;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		backend = new BackendMock(1000);
+		backend.start();
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		backend.stop();
+	}
+
+	@Test
+	void testDeliverAndNotifyEvents() throws Exception {
+		final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-jfr", new byte[1000]);
+		final Receipt receipt = new Receipt();
+		receipt.setPModeId("pm-test-jfr");
+		receipt.setMessageId(UUID.randomUUID().toString());
+		receipt.setTimestamp(new Date());
+		receipt.setRefToMessageId(userMsg.getMessageId());
+
+		final List<RecordedEvent> events = record(() -> {
+			createDeliveryMethod("/accept").deliver(userMsg);
+			createDeliveryMethod("/accept").deliver(receipt);
+		});
+
+		final RecordedEvent delivery = getEvent(events, "org.holodeckb2b.backend.rest.Deliver");
+		assertEquals(userMsg.getMessageId(), delivery.getString("messageId"));
+		assertEquals("pm-test-jfr", delivery.getString("pmodeId"));
+		assertEquals(1000, delivery.getLong("payloadSize"));
+		assertEquals(202, delivery.getInt("httpStatus"));
+		assertTrue(delivery.getDuration("connectTime").toNanos() > 0);
+		assertTrue(delivery.getDuration("transferTime").toNanos() > 0);
+
+		final RecordedEvent notification = getEvent(events, "org.holodeckb2b.backend.rest.Notify");
+		assertEquals(receipt.getMessageId(), notification.getString("messageId"));
+		assertEquals(202, notification.getInt("httpStatus"));
+		assertEquals(0, notification.getLong("payloadSize"));
+	}
+
+	@Test
+	void testRejectedDeliveryEvent() throws Exception {
+		final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-jfr", new byte[1000]);
+
+		final List<RecordedEvent> events = record(() -> assertThrows(MessageDeliveryException.class,
+														() -> createDeliveryMethod("/reject").deliver(userMsg)));
+
+		final RecordedEvent delivery = getEvent(events, "org.holodeckb2b.backend.rest.Deliver");
+		assertEquals(userMsg.getMessageId(), delivery.getString("messageId"));
+		assertEquals(500, delivery.getInt("httpStatus"));
+	}
+
+	@Test
+	void testDisabledByDefault() throws Exception {
+		final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-jfr", new byte[1000]);
+
+		final Path dump = Files.createTempFile("rest-backend", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.start();
+			createDeliveryMethod("/accept").deliver(userMsg);
+			recording.stop();
+			recording.dump(dump);
+			assertTrue(RecordingFile.readAllEvents(dump).stream()
+									.noneMatch(e -> e.getEventType().getName().startsWith("org.holodeckb2b.backend.rest")));
+		} finally {
+			Files.deleteIfExists(dump);
+		}
+	}
+
+	@FunctionalInterface
+	interface Action {
+		void execute() throws Exception;
+	}
+
+	private static List<RecordedEvent> record(final Action action) throws Exception {
+		final Path dump = Files.createTempFile("rest-backend", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(RestOperationEvent.Deliver.class).withoutThreshold();
+			recording.enable(RestOperationEvent.Notify.class).withoutThreshold();
+			recording.start();
+			action.execute();
+			recording.stop();
+			recording.dump(dump);
+			return RecordingFile.readAllEvents(dump);
+		} finally {
+			Files.deleteIfExists(dump);
+		}
+	}
+
+	private static RecordedEvent getEvent(final List<RecordedEvent> events, final String name) {
+		final List<RecordedEvent> found = events.stream().filter(e -> e.getEventType().getName().equals(name))
+												.collect(Collectors.toList());
+		assertEquals(1, found.size());
+		return found.get(0);
+	}
+
+	private static NotifyAndDeliverOperation createDeliveryMethod(final String path) throws Exception {
+		final NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		final Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + path);
+		dm.init(settings);
+		return dm;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.holodeckb2b.backend.rest.RequestTiming.Phase;
+import org.junit.jupiter.api.Test;
+
+class SlowRequestLogTest {
+
+	@Test
+	void testKeepsSlowest() {
+		SlowRequestLog slowLog = new SlowRequestLog(3, 60);
+		for (int i = 1; i <= 10; i++)
+			slowLog.record(createTiming("msg-" + i, i));
+		slowLog.record(createTiming("msg-fast", 1));
+
+		List<String> slowest = slowLog.getSlowestRequests();
+		assertEquals(3, slowest.size());
+		assertTrue(slowest.get(0).contains("messageId=msg-10 "));
+		assertTrue(slowest.get(1).contains("messageId=msg-9 "));
+		assertTrue(slowest.get(2).contains("messageId=msg-8 "));
+		assertTrue(slowest.get(0).contains(" total=10000us connect=10000us "));
+
+		slowLog.reset();
+		assertTrue(slowLog.getSlowestRequests().isEmpty());
+	}
+
+	@Test
+	void testWindowExpires() throws Exception {
+		SlowRequestLog slowLog = new SlowRequestLog(2, 1);
+		slowLog.record(createTiming("msg-slow-1", 100));
+		slowLog.record(createTiming("msg-slow-2", 100));
+		slowLog.record(createTiming("msg-fast-1", 1));
+		assertEquals(2, slowLog.getSlowestRequests().size());
+		assertTrue(slowLog.getSlowestRequests().stream().noneMatch(r -> r.contains("msg-fast")));
+
+		Thread.sleep(1100);
+		assertTrue(slowLog.getSlowestRequests().isEmpty());
+		slowLog.record(createTiming("msg-fast-2", 1));
+		List<String> slowest = slowLog.getSlowestRequests();
+		assertEquals(1, slowest.size());
+		assertTrue(slowest.get(0).contains("messageId=msg-fast-2 "));
+	}
+
+	@Test
+	void testCapacityChange() {
+		SlowRequestLog slowLog = new SlowRequestLog(SlowRequestLog.DEFAULT_CAPACITY, SlowRequestLog.DEFAULT_WINDOW);
+		slowLog.record(createTiming("msg-1", 1));
+		slowLog.setCapacity(5);
+		assertEquals(5, slowLog.getCapacity());
+		assertTrue(slowLog.getSlowestRequests().isEmpty());
+		for (int i = 1; i <= 10; i++)
+			slowLog.record(createTiming("msg-" + i, i));
+		assertEquals(5, slowLog.getSlowestRequests().size());
+	}
+
+	@Test
+	void testPayloadReadTime() throws Exception {
+		RequestTiming timing = new RequestTiming();
+		try (InputStream is = timing.timeReads(new ByteArrayInputStream(new byte[100000]))) {
+			assertEquals(100000, PayloadUtils.copy(is, OutputStream.nullOutputStream()));
+		}
+		assertTrue(timing.get(Phase.PAYLOAD_READ) > 0);
+		assertEquals(0, timing.get(Phase.WRITE));
+	}
+
+	private static RequestTiming createTiming(final String messageId, final long millis) {
+		final RequestTiming timing = new RequestTiming();
+		final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		timing.add(Phase.CONNECT, 1, 1 + nanos);
+		timing.complete(Metrics.Operation.DELIVER, messageId, "pm-test", "http://localhost/deliver", 202, nanos);
+		return timing;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.holodeckb2b.backend.rest.SubmissionCache.Registration;
+import org.junit.jupiter.api.Test;
+
+class SubmissionCacheTest {
+
+	@Test
+	void testRetriedSubmission() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		Registration original = cache.register("key-1", 1000);
+		assertTrue(original.isNew());
+		assertNull(original.getMessageId());
+		cache.completed(original, "msg-1");
+		Registration retry = cache.register("key-1", 1000);
+		assertFalse(retry.isNew());
+		assertEquals("msg-1", retry.getMessageId());
+		assertTrue(cache.register("key-2", 1000).isNew());
+	}
+
+	@Test
+	void testFailedSubmission() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		cache.failed(cache.register("key-1", 1000));
+		assertTrue(cache.register("key-1", 1000).isNew());
+	}
+
+	@Test
+	void testPendingSubmission() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		Registration original = cache.register("key-1", 1000);
+		CompletableFuture<String> retry = CompletableFuture.supplyAsync(() -> {
+			try {
+				return cache.register("key-1", 1000).getMessageId();
+			} catch (InterruptedException | TimeoutException e) {
+				return null;
+			}
+		});
+		Thread.sleep(100);
+		assertTrue(!retry.isDone());
+		cache.completed(original, "msg-1");
+		assertEquals("msg-1", retry.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testFailedRetryKeepsOriginal() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		Registration original = cache.register("key-1", 0);
+		cache.completed(original, "msg-1");
+		Registration retry = cache.register("key-1", 0);
+		cache.failed(retry);
+		assertEquals("msg-1", cache.register("key-1", 0).getMessageId());
+	}
+
+	@Test
+	void testInterruptedRetryKeepsPending() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		Registration original = cache.register("key-1", 0);
+		AtomicReference<Throwable> result = new AtomicReference<>();
+		Thread retry = new Thread(() -> {
+			try {
+				cache.register("key-1", 60000);
+			} catch (Throwable t) {
+				result.set(t);
+			}
+		});
+		retry.start();
+		Thread.sleep(100);
+		retry.interrupt();
+		retry.join(1000);
+		assertTrue(result.get() instanceof InterruptedException);
+
+		// The original submission must still be pending
+		assertThrows(TimeoutException.class, () -> cache.register("key-1", 0));
+		cache.completed(original, "msg-1");
+		assertEquals("msg-1", cache.register("key-1", 0).getMessageId());
+	}
+
+	@Test
+	void testEviction() throws Exception {
+		SubmissionCache cache = new SubmissionCache(3, 60000);
+
+		for (int i = 0; i < 5; i++)
+			cache.completed(cache.register("key-" + i, 1000), "msg-" + i);
+		assertTrue(cache.size() <= 3);
+		assertTrue(cache.register("key-0", 1000).isNew());
+		assertEquals("msg-4", cache.register("key-4", 1000).getMessageId());
+
+		SubmissionCache shortLived = new SubmissionCache(10, 50);
+		shortLived.completed(shortLived.register("key-1", 1000), "msg-1");
+		Thread.sleep(100);
+		assertTrue(shortLived.register("key-1", 1000).isNew());
+	}
+
+	@Test
+	void testPendingSubmissionTimeout() throws Exception {
+		SubmissionCache cache = new SubmissionCache(10, 60000);
+
+		Registration original = cache.register("key-1", 0);
+		assertThrows(TimeoutException.class, () -> cache.register("key-1", 50));
+		cache.completed(original, "msg-1");
+		assertEquals("msg-1", cache.register("key-1", 0).getMessageId());
+	}
+
+	@Test
+	void testEvictionBehindPending() throws Exception {
+		SubmissionCache cache = new SubmissionCache(3, 60000);
+
+		assertTrue(cache.register("pending", 0).isNew());
+		for (int i = 0; i < 10; i++)
+			cache.completed(cache.register("key-" + i, 0), "msg-" + i);
+		assertTrue(cache.size() <= 4);
+		assertThrows(TimeoutException.class, () -> cache.register("pending", 0));
+		assertEquals("msg-9", cache.register("key-9", 0).getMessageId());
+	}
+}
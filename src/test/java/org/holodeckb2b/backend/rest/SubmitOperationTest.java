@@ -1,5 +1,6 @@
 package org.holodeckb2b.backend.rest;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -8,21 +9,34 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.axiom.soap.SOAP12Constants;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
 import org.holodeckb2b.common.axis2.NOPMessageBuilder;
 import org.holodeckb2b.common.messagemodel.PartyId;
 import org.holodeckb2b.common.messagemodel.Property;
@@ -268,4 +282,361 @@ class SubmitOperationTest {
 		assertEquals(plSchemaVersion, si.getVersion());
 		assertEquals(plSchemaNS, si.getNamespace());
 	}
+
+	@Test
+	void testRetriedSubmission() {
+		final String submittedPayload = TestUtils.getTestResource("payloads/test.xml").toString();
+		final String mimeType = "application/xml";
+
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MESSAGE_ID, UUID.randomUUID().toString());
+		headers.put(HTTPHeaders.MIME_TYPE, mimeType);
+
+		final SubmitOperation submitOperation = new SubmitOperation();
+		for (int i = 0; i < 2; i++) {
+			MessageContext msgCtx = new MessageContext();
+			msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+			try (FileInputStream fis = new FileInputStream(submittedPayload)) {
+				msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(fis, mimeType, msgCtx));
+				submitOperation.invokeBusinessLogic(msgCtx);
+			} catch (IOException e) {
+				e.printStackTrace();
+				fail();
+			}
+		}
+
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+	}
+
+	@Test
+	void testInterruptedRetry() throws Exception {
+		final String mimeType = "application/xml";
+		final byte[] payload = Files.readAllBytes(TestUtils.getTestResource("payloads/test.xml"));
+
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MESSAGE_ID, UUID.randomUUID().toString());
+		headers.put(HTTPHeaders.MIME_TYPE, mimeType);
+
+		final SubmitOperation submitOperation = new SubmitOperation();
+		// The original submission stays pending until its payload is written
+		final PipedOutputStream bodyWriter = new PipedOutputStream();
+		final PipedInputStream body = new PipedInputStream(bodyWriter);
+		final CompletableFuture<Void> original = CompletableFuture.runAsync(() -> {
+			try {
+				submit(submitOperation, headers, body, mimeType);
+			} catch (AxisFault e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(100);
+
+		final CompletableFuture<AxisFault> retry = new CompletableFuture<>();
+		final Thread retryThread = new Thread(() -> {
+			Thread.currentThread().interrupt();
+			try {
+				submit(submitOperation, headers, new ByteArrayInputStream(payload), mimeType);
+				retry.complete(null);
+			} catch (AxisFault interrupted) {
+				retry.complete(interrupted);
+			}
+		});
+		retryThread.start();
+		assertNotNull(retry.get(1, TimeUnit.SECONDS));
+
+		bodyWriter.write(payload);
+		bodyWriter.close();
+		original.get(1, TimeUnit.SECONDS);
+		// The interrupted retry must not have failed the original submission
+		submit(submitOperation, headers, new ByteArrayInputStream(payload), mimeType);
+
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+	}
+
+	private static void submit(final SubmitOperation submitOperation, final Map<String, String> headers,
+							   final InputStream body, final String mimeType) throws AxisFault {
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, new HashMap<>(headers));
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(body, mimeType, msgCtx));
+		submitOperation.invokeBusinessLogic(msgCtx);
+	}
+
+	@Test
+	void testMultipartSubmission() throws IOException {
+		final String[] plFiles = { "test.xml", "logo.png", "random.bin" };
+		final String[] mimeTypes = { "text/xml", "image/png", "application/octet-stream" };
+
+		final String boundary = MultipartUtils.newBoundary();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (int i = 0; i < plFiles.length; i++) {
+			final HTTPHeaders partHeaders = new HTTPHeaders();
+			partHeaders.setHeader(HTTPHeaders.MIME_TYPE, mimeTypes[i]);
+			partHeaders.setHeader(HTTPHeaders.PAYLOAD_URI, "cid:" + plFiles[i]);
+			final Path plFile = TestUtils.getTestResource("payloads/" + plFiles[i]);
+			MultipartUtils.writePart(body, boundary, partHeaders, out -> Files.copy(plFile, out));
+		}
+		MultipartUtils.writeEnd(body, boundary);
+
+		final String contentType = MultipartUtils.MULTIPART_RELATED + "; boundary=\"" + boundary + "\"";
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, contentType);
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setAxisService(createMultipartService(true));
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+												new ByteArrayInputStream(body.toByteArray()), contentType, msgCtx));
+		new SubmitOperation().invokeBusinessLogic(msgCtx);
+
+		final Collection<IMessageUnit> submissions = ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted();
+		assertEquals(1, submissions.size());
+		final IUserMessage usrMsg = (IUserMessage) submissions.iterator().next();
+		assertEquals(plFiles.length, usrMsg.getPayloads().size());
+		int i = 0;
+		for (IPayload payload : usrMsg.getPayloads()) {
+			assertEquals(mimeTypes[i], payload.getMimeType());
+			assertEquals("cid:" + plFiles[i], payload.getPayloadURI());
+			try (InputStream content = payload.getContent()) {
+				assertArrayEquals(Files.readAllBytes(TestUtils.getTestResource("payloads/" + plFiles[i])),
+								  content.readAllBytes());
+			}
+			i++;
+		}
+	}
+
+	@Test
+	void testMultipartWithoutBoundary() throws AxisFault {
+		final String contentType = MultipartUtils.MULTIPART_RELATED;
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, contentType);
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setAxisService(createMultipartService(true));
+		AxisFault af = assertThrows(AxisFault.class, () -> {
+			msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+													new ByteArrayInputStream(new byte[0]), contentType, msgCtx));
+			new SubmitOperation().invokeBusinessLogic(msgCtx);
+		});
+		assertEquals(SOAP12Constants.QNAME_SENDER_FAULTCODE, af.getFaultCode());
+		assertTrue(((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().isEmpty());
+	}
+
+	@Test
+	void testMultipartNotAccepted() throws IOException {
+		final String boundary = MultipartUtils.newBoundary();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final HTTPHeaders partHeaders = new HTTPHeaders();
+		partHeaders.setHeader(HTTPHeaders.MIME_TYPE, "text/plain");
+		MultipartUtils.writePart(body, boundary, partHeaders, out -> out.write("part".getBytes()));
+		MultipartUtils.writePart(body, boundary, partHeaders, out -> out.write("part".getBytes()));
+		MultipartUtils.writeEnd(body, boundary);
+
+		final String contentType = MultipartUtils.MULTIPART_RELATED + "; boundary=\"" + boundary + "\"";
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, contentType);
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setAxisService(createMultipartService(false));
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+												new ByteArrayInputStream(body.toByteArray()), contentType, msgCtx));
+		new SubmitOperation().invokeBusinessLogic(msgCtx);
+
+		final Collection<IMessageUnit> submissions = ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted();
+		assertEquals(1, submissions.size());
+		final IUserMessage usrMsg = (IUserMessage) submissions.iterator().next();
+		assertEquals(1, usrMsg.getPayloads().size());
+		final IPayload payload = usrMsg.getPayloads().iterator().next();
+		assertEquals(contentType, payload.getMimeType());
+		try (InputStream content = payload.getContent()) {
+			assertArrayEquals(body.toByteArray(), content.readAllBytes());
+		}
+	}
+
+	private static AxisService createMultipartService(final boolean acceptMultipart) throws AxisFault {
+		final AxisService service = new AxisService("restbackend");
+		service.addParameter(SubmitOperation.P_ACCEPT_MULTIPART, Boolean.toString(acceptMultipart));
+		return service;
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "test.xml", "test.xml.gz" })
+	void testGzipSubmission(String payloadFile) throws IOException {
+		// The gzip file checks that a payload that is gzip data itself is not decoded again
+		final Path plFile = TestUtils.getTestResource("payloads/").resolve(payloadFile);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+			Files.copy(plFile, gzip);
+		}
+
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, "application/octet-stream");
+		headers.put(HTTPHeaders.CONTENT_ENCODING, "gzip");
+		headers.put(HTTPHeaders.CONTENT_LENGTH, Integer.toString(body.size()));
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+						decodeAsTransport(headers, body.toByteArray()), "application/octet-stream", msgCtx));
+		new SubmitOperation().invokeBusinessLogic(msgCtx);
+
+		final Collection<IMessageUnit> submissions = ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted();
+		assertEquals(1, submissions.size());
+		final IPayload payload = ((IUserMessage) submissions.iterator().next()).getPayloads().iterator().next();
+		try (InputStream content = payload.getContent()) {
+			assertArrayEquals(Files.readAllBytes(plFile), content.readAllBytes());
+		}
+	}
+
+	/**
+	 * Gets the request stream as provided by the Axis2 HTTP transport, which decodes the entity body when the
+	 * <i>Content-Encoding</i> header is exactly "gzip" (see <code>HTTPTransportUtils.handleGZip</code>).
+	 */
+	private static InputStream decodeAsTransport(final Map<String, String> headers, final byte[] body)
+																								throws IOException {
+		final InputStream in = new ByteArrayInputStream(body);
+		return "gzip".equals(headers.get(HTTPHeaders.CONTENT_ENCODING)) ? new GZIPInputStream(in) : in;
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "zstd", "x-gzip", "GZIP" })
+	void testUnsupportedEncoding(String encoding) {
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, "text/xml");
+		headers.put(HTTPHeaders.CONTENT_ENCODING, encoding);
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		AxisFault af = assertThrows(AxisFault.class, () -> {
+			msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+													new ByteArrayInputStream(new byte[10]), "text/xml", msgCtx));
+			new SubmitOperation().invokeBusinessLogic(msgCtx);
+		});
+		assertEquals(SOAP12Constants.QNAME_SENDER_FAULTCODE, af.getFaultCode());
+		assertTrue(((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().isEmpty());
+	}
+
+	@Test
+	void testValidDigest() throws Exception {
+		submitWithDigest(true);
+	}
+
+	@Test
+	void testInvalidDigest() throws Exception {
+		submitWithDigest(false);
+	}
+
+	private void submitWithDigest(boolean valid) throws Exception {
+		final Path plFile = TestUtils.getTestResource("payloads/test.xml");
+		final byte[] digest = MessageDigest.getInstance("SHA-256").digest(valid ? Files.readAllBytes(plFile)
+																				 : new byte[0]);
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, "text/xml");
+		headers.put(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":");
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		try (FileInputStream fis = new FileInputStream(plFile.toFile())) {
+			msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(fis, "text/xml", msgCtx));
+			if (valid)
+				new SubmitOperation().invokeBusinessLogic(msgCtx);
+			else {
+				AxisFault af = assertThrows(AxisFault.class, () -> new SubmitOperation().invokeBusinessLogic(msgCtx));
+				assertEquals(SOAP12Constants.QNAME_SENDER_FAULTCODE, af.getFaultCode());
+			}
+		}
+
+		assertEquals(valid ? 1 : 0, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+	}
+
+	@Test
+	void testDigestOfEncodedBody() throws Exception {
+		final Path plFile = TestUtils.getTestResource("payloads/test.xml");
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+			Files.copy(plFile, gzip);
+		}
+		// A correct RFC 9530 digest, i.e. calculated over the encoded entity body
+		final byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.toByteArray());
+
+		final HashMap<String, String> headers = new HashMap<>();
+		headers.put(HTTPHeaders.PMODE_ID, "pm-test-rest");
+		headers.put(HTTPHeaders.MIME_TYPE, "text/xml");
+		headers.put(HTTPHeaders.CONTENT_ENCODING, "gzip");
+		headers.put(HTTPHeaders.CONTENT_DIGEST, "sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":");
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+									decodeAsTransport(headers, body.toByteArray()), "text/xml", msgCtx));
+		AxisFault af = assertThrows(AxisFault.class, () -> new SubmitOperation().invokeBusinessLogic(msgCtx));
+		assertEquals(SOAP12Constants.QNAME_SENDER_FAULTCODE, af.getFaultCode());
+		assertEquals(415, ResponseUtils.getStatus(msgCtx));
+		assertTrue(((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().isEmpty());
+	}
+
+	@Test
+	void testTraceContextStored() throws Exception {
+		final String traceparent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+		final HTTPHeaders headers = new HTTPHeaders();
+		headers.setHeader(HTTPHeaders.PMODE_ID, "pm-test-trace");
+		headers.setHeader(HTTPHeaders.MIME_TYPE, "text/plain");
+		headers.setProperties(HTTPHeaders.MESSAGE_PROPS, Arrays.asList(new IProperty[] { new Property("mp1", "val1") }));
+		headers.setHeader(HTTPHeaders.TRACEPARENT, traceparent);
+		headers.setHeader(HTTPHeaders.TRACESTATE, "congo=t61rcWkgMzE");
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers.getAllHeaders());
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+								new ByteArrayInputStream("trace".getBytes()), "text/plain", msgCtx));
+		new SubmitOperation().invokeBusinessLogic(msgCtx);
+
+		final Collection<IMessageUnit> submissions = ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted();
+		assertEquals(1, submissions.size());
+		final Collection<IProperty> props = ((IUserMessage) submissions.iterator().next()).getMessageProperties();
+		assertEquals(3, props.size());
+		assertTrue(props.stream().anyMatch(p -> "mp1".equals(p.getName())));
+		assertTrue(props.stream().anyMatch(p -> Tracing.TRACEPARENT_PROPERTY.equals(p.getName())
+												&& traceparent.equals(p.getValue())));
+		assertTrue(props.stream().anyMatch(p -> Tracing.TRACESTATE_PROPERTY.equals(p.getName())
+												&& "congo=t61rcWkgMzE".equals(p.getValue())));
+	}
+
+	@Test
+	void testNoTraceContextStored() throws Exception {
+		final HTTPHeaders headers = new HTTPHeaders();
+		headers.setHeader(HTTPHeaders.PMODE_ID, "pm-test-trace");
+		headers.setHeader(HTTPHeaders.MIME_TYPE, "text/plain");
+		headers.setProperties(HTTPHeaders.MESSAGE_PROPS, Arrays.asList(new IProperty[] { new Property("mp1", "val1") }));
+
+		MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers.getAllHeaders());
+		msgCtx.setEnvelope((SOAPEnvelope) new NOPMessageBuilder().processDocument(
+								new ByteArrayInputStream("trace".getBytes()), "text/plain", msgCtx));
+		final Path spanFile = Files.createTempFile("spans", ".json");
+		try {
+			// The span of the submission is exported, but its new trace is not stored with the message
+			Tracing.configure(Tracing.FILE_EXPORTER_PREFIX + spanFile);
+			new SubmitOperation().invokeBusinessLogic(msgCtx);
+			Tracing.setExporter(null);
+			assertTrue(Files.readAllLines(spanFile).stream().anyMatch(s -> s.contains("\"name\":\"submit\"")));
+		} finally {
+			Tracing.setExporter(null);
+			Files.deleteIfExists(spanFile);
+		}
+
+		final Collection<IMessageUnit> submissions = ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted();
+		assertEquals(1, submissions.size());
+		final Collection<IProperty> props = ((IUserMessage) submissions.iterator().next()).getMessageProperties();
+		assertEquals(1, props.size());
+		assertEquals("mp1", props.iterator().next().getName());
+	}
 }
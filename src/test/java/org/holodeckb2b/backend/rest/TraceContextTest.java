@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TraceContextTest {
+
+	private static final String TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+	@Test
+	void testParse() {
+		TraceContext trace = TraceContext.parse(TRACEPARENT, "rojo=00f067aa0ba902b7,congo=t61rcWkgMzE");
+		assertNotNull(trace);
+		assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", trace.getTraceId());
+		assertEquals("00f067aa0ba902b7", trace.getSpanId());
+		assertTrue(trace.isSampled());
+		assertEquals(TRACEPARENT, trace.getTraceParent());
+		assertEquals("rojo=00f067aa0ba902b7,congo=t61rcWkgMzE", trace.getTraceState());
+
+		trace = TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00", null);
+		assertFalse(trace.isSampled());
+		assertNull(trace.getTraceState());
+
+		// Higher versions may add fields
+		trace = TraceContext.parse("cc-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-what-the-future", null);
+		assertEquals(TRACEPARENT, trace.getTraceParent());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7",
+							 "00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01",
+							 "00-00000000000000000000000000000000-00f067aa0ba902b7-01",
+							 "00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01",
+							 "ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01",
+							 "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-extra",
+							 "00_4bf92f3577b34da6a3ce929d0e0e4736_00f067aa0ba902b7_01" })
+	void testInvalid(String traceparent) {
+		assertNull(TraceContext.parse(traceparent, null));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "rojo=00f067aa0ba902b7, congo=t61rcWkgMzE", " congo=t61rcWkgMzE\t", ",congo=t61rcWkgMzE,,",
+							 "fw529a3039@dt=WORLD", "1tenant@vendor*=a b/c" })
+	void testValidTraceState(String tracestate) {
+		final TraceContext trace = TraceContext.parse(TRACEPARENT, tracestate);
+		assertNotNull(trace.getTraceState());
+		assertEquals(tracestate.replaceAll("^[ \t]+|[ \t]+$", ""), trace.getTraceState());
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { " ", ",", "congo=t61rcWkgMzE\r\nX-Injected: true", "congo=t61rc\0", "Congo=t61rcWkgMzE",
+							 "congo", "=t61rcWkgMzE", "congo=", "congo=t6=1", "1congo=t61rcWkgMzE",
+							 "tenant@Vendor=1", "tenant@=1", "tenant@vendor@system=1", "congo=t61rcW\u00e9" })
+	void testInvalidTraceState(String tracestate) {
+		final TraceContext trace = TraceContext.parse(TRACEPARENT, tracestate);
+		assertNotNull(trace);
+		assertNull(trace.getTraceState());
+	}
+
+	@Test
+	void testTraceStateMembers() {
+		final StringBuilder tracestate = new StringBuilder("k0=v");
+		for (int i = 1; i < 32; i++)
+			tracestate.append(",k").append(Character.forDigit(i % 10, 10)).append(i / 10).append("=v");
+		assertNotNull(TraceContext.parse(TRACEPARENT, tracestate.toString()).getTraceState());
+		tracestate.append(",ka=v");
+		assertNull(TraceContext.parse(TRACEPARENT, tracestate.toString()).getTraceState());
+	}
+
+	@Test
+	void testChild() {
+		TraceContext parent = TraceContext.parse(TRACEPARENT, "congo=t61rcWkgMzE");
+		TraceContext child = parent.newChild();
+		assertEquals(parent.getTraceId(), child.getTraceId());
+		assertNotEquals(parent.getSpanId(), child.getSpanId());
+		assertEquals(16, child.getSpanId().length());
+		assertEquals(parent.getTraceState(), child.getTraceState());
+		assertTrue(child.isSampled());
+
+		TraceContext root = TraceContext.newTrace();
+		assertEquals(32, root.getTraceId().length());
+		assertTrue(root.isSampled());
+		assertNotNull(TraceContext.parse(root.getTraceParent(), null));
+	}
+}
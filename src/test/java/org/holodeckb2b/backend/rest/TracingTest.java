@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.holodeckb2b.backend.rest.testhelpers.BackendMock;
+import org.holodeckb2b.backend.rest.testhelpers.UserMessageFactory;
+import org.holodeckb2b.common.messagemodel.Property;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+import org.holodeckb2b.interfaces.delivery.MessageDeliveryException;
+import org.holodeckb2b.interfaces.general.IProperty;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class TracingTest {
+
+	private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+	private static final String PARENT_ID = "00f067aa0ba902b7";
+
+	private static BackendMock backend;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		backend = new BackendMock(1000);
+		backend.start();
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		backend.stop();
+	}
+
+	@AfterEach
+	void removeExporter() {
+		Tracing.setExporter(null);
+	}
+
+	@Test
+	void testPropagateWithoutExporter() throws Exception {
+		createDeliveryMethod().deliver(createUserMessage("00-" + TRACE_ID + "-" + PARENT_ID + "-01"));
+
+		assertEquals("00-" + TRACE_ID + "-" + PARENT_ID + "-01", backend.getRcvdHeaders().getHeader("traceparent"));
+		assertEquals("congo=t61rcWkgMzE", backend.getRcvdHeaders().getHeader("tracestate"));
+	}
+
+	@Test
+	void testExportDeliverySpans() throws Exception {
+		final Path spanFile = Files.createTempFile("spans", ".json");
+		try {
+			Tracing.configure(Tracing.FILE_EXPORTER_PREFIX + spanFile);
+			createDeliveryMethod().deliver(createUserMessage("00-" + TRACE_ID + "-" + PARENT_ID + "-01"));
+			Tracing.setExporter(null);
+
+			final TraceContext propagated = TraceContext.parse(backend.getRcvdHeaders().getHeader("traceparent"),
+															   backend.getRcvdHeaders().getHeader("tracestate"));
+			assertNotNull(propagated);
+			assertEquals(TRACE_ID, propagated.getTraceId());
+			assertNotEquals(PARENT_ID, propagated.getSpanId());
+			assertEquals("congo=t61rcWkgMzE", propagated.getTraceState());
+
+			final List<String> spans = Files.readAllLines(spanFile);
+			assertTrue(spans.stream().allMatch(s -> s.startsWith("{\"traceId\":\"" + TRACE_ID + "\"")));
+			final String deliverSpan = spans.stream().filter(s -> s.contains("\"name\":\"deliver\"")).findFirst()
+											.orElse(null);
+			assertNotNull(deliverSpan);
+			assertTrue(deliverSpan.contains("\"spanId\":\"" + propagated.getSpanId() + "\",\"parentSpanId\":\""
+											+ PARENT_ID + "\""));
+			final Map<String, String> phaseSpans = spans.stream().filter(s -> s != deliverSpan)
+									.collect(Collectors.toMap(s -> s.replaceAll(".*\"name\":\"([^\"]+)\".*", "$1"),
+															  s -> s));
+			for (String phase : new String[] { "connect", "payload-read", "write", "response" }) {
+				assertTrue(phaseSpans.containsKey(phase), phase);
+				assertTrue(phaseSpans.get(phase).contains("\"parentSpanId\":\"" + propagated.getSpanId() + "\""));
+			}
+			assertTrue(phaseSpans.get("response").contains("\"http.status\":\"202\""));
+		} finally {
+			Files.deleteIfExists(spanFile);
+		}
+	}
+
+	@Test
+	void testNotSampled() throws Exception {
+		final Path spanFile = Files.createTempFile("spans", ".json");
+		try {
+			Tracing.configure(Tracing.FILE_EXPORTER_PREFIX + spanFile);
+			createDeliveryMethod().deliver(createUserMessage("00-" + TRACE_ID + "-" + PARENT_ID + "-00"));
+			Tracing.setExporter(null);
+
+			final TraceContext propagated = TraceContext.parse(backend.getRcvdHeaders().getHeader("traceparent"), null);
+			assertEquals(TRACE_ID, propagated.getTraceId());
+			assertFalse(propagated.isSampled());
+			assertTrue(Files.readAllLines(spanFile).isEmpty());
+		} finally {
+			Files.deleteIfExists(spanFile);
+		}
+	}
+
+	@Test
+	void testExporterConfiguredByDelivery() throws Exception {
+		final Path spanFile = Files.createTempFile("spans", ".json");
+		try {
+			final String spec = Tracing.FILE_EXPORTER_PREFIX + spanFile;
+			final NotifyAndDeliverOperation dm = createDeliveryMethod(spec);
+			final SpanExporter exporter = Tracing.getExporter();
+			assertNotNull(exporter);
+			// Another delivery method with the same setting must not replace the exporter
+			createDeliveryMethod(spec);
+			assertSame(exporter, Tracing.getExporter());
+
+			dm.deliver(createUserMessage("00-" + TRACE_ID + "-" + PARENT_ID + "-01"));
+			Tracing.setExporter(null);
+
+			assertTrue(Files.readAllLines(spanFile).stream().anyMatch(s -> s.contains("\"name\":\"deliver\"")));
+		} finally {
+			Files.deleteIfExists(spanFile);
+		}
+	}
+
+	@Test
+	void testInvalidExporterConfiguredByDelivery() {
+		assertThrows(MessageDeliveryException.class, () -> createDeliveryMethod("org.example.NoSuchExporter"));
+		assertNull(Tracing.getExporter());
+	}
+
+	@Test
+	void testSetTraceContext() {
+		final TraceContext trace = TraceContext.newTrace();
+		final List<IProperty> props = Arrays.asList(new Property("mp1", "val1"),
+													new Property(Tracing.TRACEPARENT_PROPERTY, "old"));
+
+		final List<IProperty> result = (List<IProperty>) Tracing.setTraceContext(props, trace);
+		assertEquals(2, result.size());
+		assertEquals("mp1", result.get(0).getName());
+		assertEquals(trace.getTraceParent(), result.get(1).getValue());
+		assertEquals(trace.getTraceParent(), Tracing.getTraceContext(result).getTraceParent());
+	}
+
+	private static NotifyAndDeliverOperation createDeliveryMethod() throws Exception {
+		return createDeliveryMethod(null);
+	}
+
+	private static NotifyAndDeliverOperation createDeliveryMethod(final String spanExporter) throws Exception {
+		final NotifyAndDeliverOperation dm = new NotifyAndDeliverOperation();
+		final Map<String, String> settings = new HashMap<>();
+		settings.put(NotifyAndDeliverOperation.P_BACKEND_URL, "http://localhost:" + backend.getPort() + "/accept");
+		if (spanExporter != null)
+			settings.put(NotifyAndDeliverOperation.P_SPAN_EXPORTER, spanExporter);
+		dm.init(settings);
+		return dm;
+	}
+
+	private static UserMessage createUserMessage(final String traceparent) {
+		final UserMessage userMsg = UserMessageFactory.createUserMessage("pm-test-trace", new byte[1000]);
+		userMsg.addMessageProperty(new Property(Tracing.TRACEPARENT_PROPERTY, traceparent));
+		userMsg.addMessageProperty(new Property(Tracing.TRACESTATE_PROPERTY, "congo=t61rcWkgMzE"));
+		return userMsg;
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.InOnlyAxisOperation;
+import org.apache.axis2.kernel.http.HTTPConstants;
+import org.holodeckb2b.common.axis2.NOPMessageBuilder;
+import org.holodeckb2b.common.testhelpers.HolodeckB2BTestCore;
+import org.holodeckb2b.common.testhelpers.TestMessageSubmitter;
+import org.holodeckb2b.interfaces.core.HolodeckB2BCoreInterface;
+import org.holodeckb2b.interfaces.messagemodel.IMessageUnit;
+import org.holodeckb2b.interfaces.messagemodel.IUserMessage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UploadOperationTest {
+
+	static HolodeckB2BTestCore	testCore;
+
+	@TempDir
+	Path uploadDir;
+
+	private AxisService			service;
+	private UploadOperation		operation;
+
+	/**
+	 * Submit operation that waits before submitting the message so concurrent requests can be tested
+	 */
+	static class BlockingSubmitOperation extends SubmitOperation {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger	 submissions = new AtomicInteger();
+
+		@Override
+		String submit(final MessageContext msgCtx, final HTTPHeaders headers, final PayloadSource payloads)
+																									throws AxisFault {
+			submissions.incrementAndGet();
+			entered.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException interrupted) {
+				throw new AxisFault("Interrupted");
+			}
+			return super.submit(msgCtx, headers, payloads);
+		}
+	}
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		testCore = new HolodeckB2BTestCore();
+		HolodeckB2BCoreInterface.setImplementation(testCore);
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		((TestMessageSubmitter) testCore.getMessageSubmitter()).clear();
+		service = new AxisService("restbackend");
+		service.addParameter(UploadOperation.P_UPLOAD_DIRECTORY, uploadDir.toString());
+		operation = new UploadOperation();
+	}
+
+	@Test
+	void testCompleteUpload() throws Exception {
+		final byte[] data = new byte[100000];
+		new Random().nextBytes(data);
+		final String uploadId = createUpload(data.length);
+
+		MessageContext outMsgCtx = send("PATCH", uploadId, 0, Arrays.copyOfRange(data, 0, 40000));
+		assertEquals(204, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals("40000", getResponseHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET));
+		assertEquals(null, getResponseHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID));
+
+		outMsgCtx = send("PATCH", uploadId, 40000, Arrays.copyOfRange(data, 40000, data.length));
+		assertEquals(204, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals(Integer.toString(data.length), getResponseHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET));
+		final String messageId = getResponseHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID);
+		assertNotNull(messageId);
+
+		final IMessageUnit submitted = getSubmitted();
+		assertEquals("pm-upload", submitted.getPModeId());
+		try (InputStream content = ((IUserMessage) submitted).getPayloads().iterator().next().getContent()) {
+			assertArrayEquals(data, content.readAllBytes());
+		}
+
+		outMsgCtx = send("HEAD", uploadId, -1, null);
+		assertEquals(200, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals(Integer.toString(data.length), getResponseHeader(outMsgCtx, HTTPHeaders.UPLOAD_OFFSET));
+		assertEquals(messageId, getResponseHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID));
+	}
+
+	@Test
+	void testRetryCompletedUpload() throws Exception {
+		final String uploadId = createUpload(1000);
+		final String messageId = getResponseHeader(send("PATCH", uploadId, 0, new byte[1000]), HTTPHeaders.MESSAGE_ID);
+		assertNotNull(messageId);
+
+		final MessageContext outMsgCtx = send("PATCH", uploadId, 1000, null);
+		assertEquals(204, ResponseUtils.getStatus(outMsgCtx));
+		assertEquals(messageId, getResponseHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID));
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+
+		final MessageContext inMsgCtx = createRequest("PATCH", uploadId, 1000, new byte[10]);
+		assertThrows(AxisFault.class, () -> operation.invokeBusinessLogic(inMsgCtx, new MessageContext()));
+		assertEquals(413, ResponseUtils.getStatus(inMsgCtx));
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+	}
+
+	@Test
+	void testExceedLength() throws Exception {
+		final String uploadId = createUpload(1000);
+		final MessageContext inMsgCtx = createRequest("PATCH", uploadId, 0, new byte[1001]);
+		assertThrows(AxisFault.class, () -> operation.invokeBusinessLogic(inMsgCtx, new MessageContext()));
+		assertEquals(413, ResponseUtils.getStatus(inMsgCtx));
+		assertEquals("0", getResponseHeader(inMsgCtx, HTTPHeaders.UPLOAD_OFFSET));
+		assertTrue(((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().isEmpty());
+	}
+
+	@Test
+	void testConcurrentCompletion() throws Exception {
+		final BlockingSubmitOperation submitOperation = new BlockingSubmitOperation();
+		final InOnlyAxisOperation submit = new InOnlyAxisOperation(new QName("submit"));
+		submit.setMessageReceiver(submitOperation);
+		service.addOperation(submit);
+
+		final String uploadId = createUpload(1000);
+		final CompletableFuture<MessageContext> completing = CompletableFuture.supplyAsync(() -> {
+			try {
+				return send("PATCH", uploadId, 0, new byte[1000]);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		assertTrue(submitOperation.entered.await(10, TimeUnit.SECONDS));
+
+		final MessageContext inMsgCtx = createRequest("PATCH", uploadId, 1000, null);
+		assertThrows(AxisFault.class, () -> operation.invokeBusinessLogic(inMsgCtx, new MessageContext()));
+		assertEquals(409, ResponseUtils.getStatus(inMsgCtx));
+
+		submitOperation.release.countDown();
+		final String messageId = getResponseHeader(completing.get(10, TimeUnit.SECONDS), HTTPHeaders.MESSAGE_ID);
+		assertNotNull(messageId);
+
+		final MessageContext outMsgCtx = send("PATCH", uploadId, 1000, null);
+		assertEquals(messageId, getResponseHeader(outMsgCtx, HTTPHeaders.MESSAGE_ID));
+		assertEquals(1, submitOperation.submissions.get());
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+	}
+
+	private String createUpload(final long length) throws AxisFault {
+		final MessageContext inMsgCtx = createRequest("POST", null, -1, null);
+		@SuppressWarnings("unchecked")
+		final Map<String, String> headers = (Map<String, String>) inMsgCtx.getProperty(MessageContext.TRANSPORT_HEADERS);
+		headers.put(HTTPHeaders.PMODE_ID, "pm-upload");
+		headers.put(HTTPHeaders.MIME_TYPE, "application/octet-stream");
+		headers.put(HTTPHeaders.UPLOAD_LENGTH, Long.toString(length));
+		final MessageContext outMsgCtx = new MessageContext();
+		operation.invokeBusinessLogic(inMsgCtx, outMsgCtx);
+		assertEquals(201, ResponseUtils.getStatus(outMsgCtx));
+		return getResponseHeader(outMsgCtx, HTTPHeaders.UPLOAD_ID);
+	}
+
+	private MessageContext send(final String method, final String uploadId, final long offset, final byte[] data)
+																										throws AxisFault {
+		final MessageContext outMsgCtx = new MessageContext();
+		operation.invokeBusinessLogic(createRequest(method, uploadId, offset, data), outMsgCtx);
+		return outMsgCtx;
+	}
+
+	private MessageContext createRequest(final String method, final String uploadId, final long offset,
+										 final byte[] data) throws AxisFault {
+		final Map<String, String> headers = new HashMap<>();
+		if (uploadId != null)
+			headers.put(HTTPHeaders.UPLOAD_ID, uploadId);
+		if (offset >= 0)
+			headers.put(HTTPHeaders.UPLOAD_OFFSET, Long.toString(offset));
+		final MessageContext msgCtx = new MessageContext();
+		msgCtx.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+		msgCtx.setProperty(Constants.Configuration.HTTP_METHOD, method);
+		if (data != null)
+			msgCtx.setProperty(NOPMessageBuilder.REQUEST_INPUTSTREAM, new ByteArrayInputStream(data));
+		msgCtx.setAxisService(service);
+		return msgCtx;
+	}
+
+	private static IMessageUnit getSubmitted() {
+		assertEquals(1, ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().size());
+		return ((TestMessageSubmitter) testCore.getMessageSubmitter()).getAllSubmitted().iterator().next();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String getResponseHeader(final MessageContext msgCtx, final String name) {
+		final Map<String, String> headers = (Map<String, String>) msgCtx.getProperty(HTTPConstants.RESPONSE_HEADERS);
+		return headers != null ? headers.get(name) : null;
+	}
+}
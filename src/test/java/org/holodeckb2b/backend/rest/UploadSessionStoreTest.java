@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UploadSessionStoreTest {
+
+	@TempDir
+	Path uploadDir;
+
+	@Test
+	void testChunkedUpload() throws IOException {
+		final byte[] data = new byte[200000];
+		new Random().nextBytes(data);
+
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		Map<String, String> headers = new HashMap<>();
+		headers.put("x-holodeckb2b-pmodeid", "pm-upload");
+		headers.put("content-type", "application/octet-stream");
+		UploadSessionStore.Session session = store.create(headers, data.length);
+		assertNotNull(session.getId());
+		assertEquals(0, session.getOffset());
+
+		assertEquals(75000, store.append(session, 0, new ByteArrayInputStream(data, 0, 75000)));
+		assertEquals(75000, session.getOffset());
+		assertEquals(data.length, store.append(session, 75000,
+											   new ByteArrayInputStream(data, 75000, data.length - 75000)));
+
+		try (InputStream is = session.openData()) {
+			assertArrayEquals(data, is.readAllBytes());
+		}
+		store.remove(session.getId());
+		assertNull(store.get(session.getId()));
+	}
+
+	@Test
+	void testResumeAfterRestart() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		Map<String, String> headers = new HashMap<>();
+		headers.put("x-holodeckb2b-pmodeid", "pm-upload");
+		headers.put("x-holodeckb2b-messageproperties", "p1=v1,p2=[t]v2");
+		final String id = store.create(headers, 100).getId();
+		store.append(store.get(id), 0, new ByteArrayInputStream(new byte[40]));
+
+		UploadSessionStore restarted = new UploadSessionStore(uploadDir, 60000);
+		UploadSessionStore.Session session = restarted.get(id);
+		assertNotNull(session);
+		assertEquals(headers, session.getHeaders());
+		assertEquals(100, session.getLength());
+		assertEquals(40, session.getOffset());
+	}
+
+	@Test
+	void testOffsetMismatch() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		UploadSessionStore.Session session = store.create(new HashMap<>(), 100);
+		store.append(session, 0, new ByteArrayInputStream(new byte[10]));
+		assertThrows(IllegalStateException.class, () -> store.append(session, 0, new ByteArrayInputStream(new byte[10])));
+		assertEquals(10, session.getOffset());
+	}
+
+	@Test
+	void testExceedLength() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		UploadSessionStore.Session session = store.create(new HashMap<>(), 100);
+		assertThrows(IOException.class, () -> store.append(session, 0, new ByteArrayInputStream(new byte[101])));
+		assertEquals(0, session.getOffset());
+	}
+
+	@Test
+	void testSubmission() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		UploadSessionStore.Session session = store.create(new HashMap<>(), 100);
+		store.append(session, 0, new ByteArrayInputStream(new byte[50]));
+		assertThrows(IllegalStateException.class, () -> store.startSubmission(session));
+		store.append(session, 50, new ByteArrayInputStream(new byte[50]));
+
+		assertTrue(store.startSubmission(session));
+		assertEquals(UploadSessionStore.State.SUBMITTING, session.getState());
+		assertThrows(IllegalStateException.class, () -> store.startSubmission(session));
+		assertThrows(IllegalStateException.class, () -> store.append(session, 100, new ByteArrayInputStream(new byte[0])));
+		store.abortSubmission(session);
+		assertEquals(UploadSessionStore.State.UPLOADING, session.getState());
+
+		assertTrue(store.startSubmission(session));
+		store.completeSubmission(session, "msg-id-1");
+		assertEquals(UploadSessionStore.State.SUBMITTED, session.getState());
+		assertFalse(Files.exists(uploadDir.resolve(session.getId() + ".data")));
+
+		UploadSessionStore.Session submitted = new UploadSessionStore(uploadDir, 60000).get(session.getId());
+		assertEquals("msg-id-1", submitted.getMessageId());
+		assertEquals(100, submitted.getOffset());
+		assertFalse(store.startSubmission(store.get(session.getId())));
+		assertEquals(100, store.append(store.get(session.getId()), 100, new ByteArrayInputStream(new byte[0])));
+		assertThrows(UploadSessionStore.LengthExceededException.class,
+					 () -> store.append(store.get(session.getId()), 100, new ByteArrayInputStream(new byte[1])));
+	}
+
+	@Test
+	void testExpiry() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		final String id = store.create(new HashMap<>(), 100).getId();
+		Files.setLastModifiedTime(uploadDir.resolve(id + ".data"),
+								  FileTime.fromMillis(System.currentTimeMillis() - 120000));
+		store.removeExpired();
+		assertNull(store.get(id));
+		assertEquals(0, uploadDir.toFile().list().length);
+	}
+
+	@Test
+	void testInvalidId() throws IOException {
+		UploadSessionStore store = new UploadSessionStore(uploadDir, 60000);
+		for (String id : Arrays.asList(null, "", "../secret", "not-a-uuid"))
+			assertNull(store.get(id));
+	}
+}
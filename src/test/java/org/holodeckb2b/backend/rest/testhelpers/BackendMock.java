@@ -18,13 +18,22 @@ package org.holodeckb2b.backend.rest.testhelpers;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.apache.commons.fileupload.util.Streams;
 import org.holodeckb2b.backend.rest.HTTPHeaders;
 
 import com.sun.net.httpserver.HttpExchange;
@@ -33,24 +42,49 @@ import com.sun.net.httpserver.HttpServer;
 
 /**
  * Simulates a back-end system that accepts REST delivery and notifications. Has three paths to simulate acceptance,
- * rejection and timeouts.
+ * rejection and timeouts, a fourth path that simulates a back-end which already persisted part of the payload and a
+ * fifth path that simulates a back-end which does not accept compressed entity bodies.
+ * <p>Additional paths with a configurable {@link Behaviour} can be added using {@link #simulate(String, Behaviour)}
+ * to simulate a back-end under load, with a latency distribution, limited bandwidth and a rate of errors and
+ * <i>429 Too Many Requests</i> or <i>503 Service Unavailable</i> responses. Requests are handled by a pool of threads
+ * so multiple deliveries can be processed concurrently. Note that for simulated paths the request is not recorded and
+ * that for the other paths only the last request is available.
  * 
  * @author Sander Fieten (sander at holodeck-b2b.org)
  */
 public class BackendMock {
 	
+	private static final int DEFAULT_THREADS = 8;
+
 	private HttpServer server;
+	private ExecutorService executor;
 	
-	private URI			requestURL;
-	private HTTPHeaders headers;	
-	private byte[]		entityBody;
+	private volatile URI			requestURL;
+	private volatile HTTPHeaders 	headers;	
+	private volatile byte[]			entityBody;
+	private volatile long			persistedOffset;
+	private volatile CountDownLatch	bodyStarted = new CountDownLatch(1);
+
+	private final Map<Integer, LongAdder> responseCounts = new ConcurrentHashMap<>();
 	
     public BackendMock(final int timeout) throws Exception {
-        server = HttpServer.create(new InetSocketAddress(0), 0);
+    	this(timeout, DEFAULT_THREADS);
+    }
+
+    public BackendMock(final int timeout, final int threads) throws Exception {
+        server = HttpServer.create(new InetSocketAddress(0), Math.max(50, 4 * threads));
         server.createContext("/accept", new AcceptHandler());
         server.createContext("/reject", new RejectHandler());
         server.createContext("/timeout", new TimeoutHandler(timeout));
-        server.setExecutor(null);         
+        server.createContext("/resume", new ResumeHandler());
+        server.createContext("/identity", new IdentityOnlyHandler());
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+        	final Thread t = new Thread(r, "backend-mock-" + threadCount.incrementAndGet());
+        	t.setDaemon(true);
+        	return t;
+        });
+        server.setExecutor(executor);
     }
     
     public void start() {
@@ -63,6 +97,35 @@ public class BackendMock {
     
     public void stop() {
         server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Adds a path that simulates a back-end with the given behaviour.
+     * 
+     * @param path		The path to simulate, e.g. "/slow"
+     * @param behaviour	The behaviour of the back-end on this path
+     */
+    public void simulate(final String path, final Behaviour behaviour) {
+    	server.createContext(path, new SimulationHandler(behaviour));
+    }
+
+    /**
+     * Gets the number of responses with the given HTTP status that were sent on the simulated paths. 
+     * 
+     * @param status	The HTTP status code
+     * @return			The number of responses with this status
+     */
+    public long getResponseCount(final int status) {
+    	final LongAdder count = responseCounts.get(status);
+    	return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * Resets the response counters of the simulated paths.
+     */
+    public void resetResponseCounts() {
+    	responseCounts.clear();
     }
     
     public URI getRequestURL() {
@@ -77,6 +140,27 @@ public class BackendMock {
     	return entityBody;
     }
 
+    public void setPersistedOffset(final long offset) {
+    	persistedOffset = offset;
+    }
+
+    /**
+     * Waits until the first bytes of an entity body are received on one of the non simulated paths since the last
+     * call to {@link #resetBodyStarted()}. Used to check that the entity body is streamed to the back-end.
+     *
+     * @param timeout	The maximum time to wait
+     * @param unit		The unit of the timeout
+     * @return			<code>true</code> if data was received, <code>false</code> if the timeout expired
+     * @throws InterruptedException When interrupted while waiting
+     */
+    public boolean awaitBodyStarted(final long timeout, final TimeUnit unit) throws InterruptedException {
+    	return bodyStarted.await(timeout, unit);
+    }
+
+    public void resetBodyStarted() {
+    	bodyStarted = new CountDownLatch(1);
+    }
+
     class BaseHandler implements HttpHandler {
 
 		@Override
@@ -96,7 +180,14 @@ public class BackendMock {
 			headers = new HTTPHeaders(hdrs);	
 			
 			try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-				Streams.copy(t.getRequestBody(), bos, false);
+				final InputStream is = t.getRequestBody();
+				final byte[] buffer = new byte[8192];
+				int r;
+				while ((r = is.read(buffer)) >= 0) {
+					if (r > 0)
+						bodyStarted.countDown();
+					bos.write(buffer, 0, r);
+				}
 				entityBody = bos.toByteArray();
 			}
 			
@@ -146,4 +237,178 @@ public class BackendMock {
     	}
     }
     
+    class ResumeHandler extends BaseHandler {
+    	@Override
+    	public void handle(HttpExchange t) throws IOException {
+    		if ("HEAD".equals(t.getRequestMethod())) {
+    			t.getResponseHeaders().add(HTTPHeaders.UPLOAD_OFFSET, Long.toString(persistedOffset));
+    			t.sendResponseHeaders(200, -1);
+    		} else {
+    			super.handle(t);
+    			t.sendResponseHeaders(202, 0);
+    		}
+    		t.close();
+    	}
+    }
+
+    class IdentityOnlyHandler extends BaseHandler {
+    	@Override
+    	public void handle(HttpExchange t) throws IOException {
+    		super.handle(t);
+    		if (headers.getHeader(HTTPHeaders.CONTENT_ENCODING) != null) {
+    			t.getResponseHeaders().add("Accept-Encoding", "identity");
+    			t.sendResponseHeaders(415, -1);
+    		} else
+    			t.sendResponseHeaders(202, 0);
+    		t.close();
+    	}
+    }
+
+    /**
+     * Gives the time a simulated back-end needs to process a request.
+     */
+    @FunctionalInterface
+    public interface LatencyDistribution {
+
+    	/**
+    	 * Gets the processing time of the next request.
+    	 * 
+    	 * @param random	The random generator to use
+    	 * @return			The processing time in milliseconds
+    	 */
+    	long next(Random random);
+
+    	static LatencyDistribution fixed(final long millis) {
+    		return r -> millis;
+    	}
+
+    	static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+    		return r -> minMillis + (long) (r.nextDouble() * (maxMillis - minMillis));
+    	}
+
+    	static LatencyDistribution exponential(final double meanMillis) {
+    		return r -> Math.round(-meanMillis * Math.log(1 - r.nextDouble()));
+    	}
+
+    	/**
+    	 * Log-normal distribution, which has the long tail typically seen in the response times of real systems.
+    	 * 
+    	 * @param medianMillis	The median processing time
+    	 * @param sigma			The standard deviation of the logarithm of the processing time, e.g. 0.5
+    	 */
+    	static LatencyDistribution logNormal(final double medianMillis, final double sigma) {
+    		return r -> Math.round(medianMillis * Math.exp(sigma * r.nextGaussian()));
+    	}
+    }
+
+    /**
+     * Describes the behaviour of a simulated back-end. By default requests are accepted immediately.
+     */
+    public static class Behaviour {
+    	private LatencyDistribution latency = LatencyDistribution.fixed(0);
+    	private long	bytesPerSecond = -1;
+    	private double	errorRate;
+    	private double	throttleRate;
+    	private double	unavailableRate;
+    	private int		retryAfter = 1;
+
+    	/**
+    	 * Sets the distribution of the time needed to process a request, after the entity body has been read.
+    	 */
+    	public Behaviour latency(final LatencyDistribution distribution) {
+    		latency = distribution;
+    		return this;
+    	}
+
+    	/**
+    	 * Limits the rate at which the entity body of each request is read.
+    	 */
+    	public Behaviour bandwidth(final long bytesPerSecond) {
+    		this.bytesPerSecond = bytesPerSecond;
+    		return this;
+    	}
+
+    	/**
+    	 * Sets the fraction of requests that is rejected with HTTP status 500.
+    	 */
+    	public Behaviour errorRate(final double rate) {
+    		errorRate = rate;
+    		return this;
+    	}
+
+    	/**
+    	 * Sets the fraction of requests that is rejected with HTTP status 429.
+    	 */
+    	public Behaviour throttleRate(final double rate) {
+    		throttleRate = rate;
+    		return this;
+    	}
+
+    	/**
+    	 * Sets the fraction of requests that is rejected with HTTP status 503.
+    	 */
+    	public Behaviour unavailableRate(final double rate) {
+    		unavailableRate = rate;
+    		return this;
+    	}
+
+    	/**
+    	 * Sets the value of the <i>Retry-After</i> header included in 429 and 503 responses.
+    	 */
+    	public Behaviour retryAfter(final int seconds) {
+    		retryAfter = seconds;
+    		return this;
+    	}
+    }
+
+    class SimulationHandler implements HttpHandler {
+    	private final Behaviour behaviour;
+
+    	SimulationHandler(final Behaviour behaviour) {
+    		this.behaviour = behaviour;
+    	}
+
+    	@Override
+    	public void handle(HttpExchange t) throws IOException {
+    		final ThreadLocalRandom random = ThreadLocalRandom.current();
+    		try {
+    			readThrottled(t.getRequestBody());
+    			Thread.sleep(Math.max(0, behaviour.latency.next(random)));
+    		} catch (InterruptedException stopped) {
+    			t.close();
+    			return;
+    		}
+
+    		final double outcome = random.nextDouble();
+    		final int status;
+    		if (outcome < behaviour.unavailableRate)
+    			status = 503;
+    		else if (outcome < behaviour.unavailableRate + behaviour.throttleRate)
+    			status = 429;
+    		else if (outcome < behaviour.unavailableRate + behaviour.throttleRate + behaviour.errorRate)
+    			status = 500;
+    		else
+    			status = 202;
+    		if (status == 503 || status == 429)
+    			t.getResponseHeaders().add("Retry-After", Integer.toString(behaviour.retryAfter));
+    		responseCounts.computeIfAbsent(status, s -> new LongAdder()).increment();
+    		t.sendResponseHeaders(status, -1);
+    		t.close();
+    	}
+
+    	private void readThrottled(final InputStream body) throws IOException, InterruptedException {
+    		final byte[] buffer = new byte[8192];
+    		final long start = System.nanoTime();
+    		long total = 0;
+    		for (int r; (r = body.read(buffer)) >= 0; ) {
+    			total += r;
+    			if (behaviour.bytesPerSecond > 0) {
+    				final long due = start + TimeUnit.SECONDS.toNanos(total) / behaviour.bytesPerSecond;
+    				final long wait = due - System.nanoTime();
+    				if (wait > 0)
+    					TimeUnit.NANOSECONDS.sleep(wait);
+    			}
+    		}
+    	}
+    }
 }
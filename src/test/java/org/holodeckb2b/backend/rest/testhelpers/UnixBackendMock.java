@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest.testhelpers;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.holodeckb2b.backend.rest.HTTPHeaders;
+
+/**
+ * Simulates a back-end system that accepts REST delivery and notifications on a Unix domain socket. Requests to a path
+ * starting with "/reject/" are rejected with HTTP status 500, all other requests are accepted. As Unix domain sockets
+ * are only available from Java 16 the channel is opened using reflection, use {@link #isSupported()} to check whether
+ * the mock can be used.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public class UnixBackendMock {
+
+	private final Path					socketPath;
+	private final ServerSocketChannel	server;
+	private Thread						acceptor;
+
+	private String		requestPath;
+	private HTTPHeaders headers;
+	private byte[]		entityBody;
+
+	public static boolean isSupported() {
+		try {
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		} catch (ClassNotFoundException notAvailable) {
+			return false;
+		}
+	}
+
+	public UnixBackendMock(final Path socketPath) throws Exception {
+		this.socketPath = socketPath;
+		Files.deleteIfExists(socketPath);
+		final SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+														   .getMethod("of", Path.class).invoke(null, socketPath);
+		server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+										.invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+		server.bind(address);
+	}
+
+	public void start() {
+		acceptor = new Thread(() -> {
+			while (server.isOpen()) {
+				try (SocketChannel ch = server.accept()) {
+					handle(Channels.newInputStream(ch), Channels.newOutputStream(ch));
+				} catch (IOException e) {
+					// Server closed or request failed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public void stop() throws IOException, InterruptedException {
+		server.close();
+		acceptor.join(1000);
+		Files.deleteIfExists(socketPath);
+	}
+
+	public String getRequestPath() {
+		return requestPath;
+	}
+
+	public HTTPHeaders getRcvdHeaders() {
+		return headers;
+	}
+
+	public byte[] getRcvdData() {
+		return entityBody;
+	}
+
+	private void handle(final InputStream is, final OutputStream os) throws IOException {
+		final InputStream in = new BufferedInputStream(is);
+		final String requestLine = readLine(in);
+		requestPath = requestLine.split(" ")[1];
+		final Map<String, String> hdrs = new HashMap<>();
+		for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+			final int colon = line.indexOf(':');
+			hdrs.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+		}
+		headers = new HTTPHeaders(hdrs);
+
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if ("chunked".equalsIgnoreCase(headers.getHeader("Transfer-Encoding"))) {
+			for (int size = Integer.parseInt(readLine(in), 16); size > 0; size = Integer.parseInt(readLine(in), 16)) {
+				body.write(in.readNBytes(size));
+				readLine(in);
+			}
+			readLine(in);
+		} else if (headers.getHeader("Content-Length") != null)
+			body.write(in.readNBytes(Integer.parseInt(headers.getHeader("Content-Length"))));
+		entityBody = body.size() > 0 ? body.toByteArray() : null;
+
+		final String status = requestPath.startsWith("/reject/") ? "500 Internal Server Error" : "202 Accepted";
+		os.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1));
+		os.flush();
+	}
+
+	private static String readLine(final InputStream in) throws IOException {
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		for (int b = in.read(); b != '\n'; b = in.read()) {
+			if (b < 0)
+				throw new IOException("Unexpected end of request");
+			if (b != '\r')
+				line.write(b);
+		}
+		return line.toString(StandardCharsets.ISO_8859_1);
+	}
+}
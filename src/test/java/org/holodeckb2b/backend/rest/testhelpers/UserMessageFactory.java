@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2019 The Holodeck B2B Team, Sander Fieten
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.holodeckb2b.backend.rest.testhelpers;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.UUID;
+
+import org.holodeckb2b.common.messagemodel.CollaborationInfo;
+import org.holodeckb2b.common.messagemodel.PartyId;
+import org.holodeckb2b.common.messagemodel.Payload;
+import org.holodeckb2b.common.messagemodel.Service;
+import org.holodeckb2b.common.messagemodel.TradingPartner;
+import org.holodeckb2b.common.messagemodel.UserMessage;
+
+/**
+ * Creates the <i>User Messages</i> used in tests of the delivery that do not depend on the specific meta-data of the
+ * message. Each message gets a new MessageId and contains a single payload.
+ *
+ * @author Sander Fieten (sander at holodeck-b2b.org)
+ */
+public final class UserMessageFactory {
+
+	private UserMessageFactory() {}
+
+	/**
+	 * Creates a User Message with the given payload data as <i>application/octet-stream</i> payload.
+	 *
+	 * @param pmodeId	the P-Mode id of the message
+	 * @param plData	the payload data
+	 * @return	the new User Message
+	 */
+	public static UserMessage createUserMessage(final String pmodeId, final byte[] plData) {
+		final Payload payload = new Payload();
+		payload.setContentStream(new ByteArrayInputStream(plData));
+		payload.setMimeType("application/octet-stream");
+		return createUserMessage(pmodeId, payload);
+	}
+
+	/**
+	 * Creates a User Message with the given payload.
+	 *
+	 * @param pmodeId	the P-Mode id of the message
+	 * @param payload	the payload of the message
+	 * @return	the new User Message
+	 */
+	public static UserMessage createUserMessage(final String pmodeId, final Payload payload) {
+		final UserMessage userMsg = new UserMessage();
+		userMsg.setPModeId(pmodeId);
+		userMsg.setMessageId(UUID.randomUUID().toString());
+		userMsg.setTimestamp(new Date());
+		final TradingPartner sender = new TradingPartner();
+		sender.addPartyId(new PartyId("senderId", "urn:org:holodeckb2b:test:partyids"));
+		sender.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/initiator");
+		userMsg.setSender(sender);
+		final TradingPartner receiver = new TradingPartner();
+		receiver.addPartyId(new PartyId("receiverId", "urn:org:holodeckb2b:test:partyids"));
+		receiver.setRole("http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/responder");
+		userMsg.setReceiver(receiver);
+		final CollaborationInfo cInfo = new CollaborationInfo();
+		cInfo.setService(new Service("Test", "urn:org:holodeckb2b:test"));
+		cInfo.setAction("SendMessage");
+		userMsg.setCollaborationInfo(cInfo);
+		userMsg.addPayload(payload);
+		return userMsg;
+	}
+}